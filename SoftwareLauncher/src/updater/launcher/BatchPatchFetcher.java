@@ -0,0 +1,42 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import updater.script.Patch;
+
+/**
+ * The fetch stage of the pipelined {@link BatchPatcher}, prepare the patch 
+ * file while the previous patch is being applied.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public interface BatchPatchFetcher {
+
+  /**
+   * Fetch the patch and save it to {@code saveToFile}. This will block until 
+   * the file is ready and verified.
+   * @param patch the patch to fetch
+   * @param saveToFile the file to save the patch to
+   * @throws IOException failed to fetch the patch or the thread is interrupted
+   */
+  void fetchPatch(Patch patch, File saveToFile) throws IOException;
+}
@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import updater.crypto.AESKey;
 import updater.patch.PatchRecord;
 import updater.patch.Patcher;
@@ -36,6 +38,11 @@ import updater.util.Pausable;
 
 /**
  * Patcher that do apply patches sequentially.
+ * <p>
+ * When a {@link BatchPatchFetcher} is given, the patches are fetched in 
+ * another thread and each patch is applied as soon as it is fetched, while 
+ * the next patch is still being fetched.
+ * </p>
  * @author Chan Wai Shing <cws1989@gmail.com>
  */
 public class BatchPatcher implements Pausable {
@@ -45,6 +52,10 @@ public class BatchPatcher implements Pausable {
    * when apply current patch finished and proceed to apply next patch.
    */
   protected Patcher patcher;
+  /**
+   * The fetcher of the fetch stage when patching in pipelined mode.
+   */
+  protected BatchPatchFetcher fetcher;
 
   /**
    * Constructor.
@@ -61,6 +72,9 @@ public class BatchPatcher implements Pausable {
     if (patcher != null) {
       patcher.pause(pause);
     }
+    if (fetcher instanceof Pausable) {
+      ((Pausable) fetcher).pause(pause);
+    }
   }
 
   /**
@@ -75,6 +89,26 @@ public class BatchPatcher implements Pausable {
    * @throws IOException 
    */
   public List<PatchRecord> doPatch(final BatchPatchListener listener, File applyToFolder, File tempDir, String fromVersion, List<Patch> patches) throws IOException {
+    return doPatch(listener, applyToFolder, tempDir, fromVersion, patches, null, 0);
+  }
+
+  /**
+   * Apply patches to {@code applyToFolder}, the patches are fetched by 
+   * {@code fetcher} in another thread while applying.
+   * @param listener the listener
+   * @param applyToFolder the root directory of the software
+   * @param tempDir temporary folder to store temporary generated files while 
+   * patching
+   * @param fromVersion the current version of the software
+   * @param patches the patches to apply, must be in sequence
+   * @param fetcher the fetcher to fetch the patches, null means the patches 
+   * are already in {@code tempDir}
+   * @param fetchAhead the maximum number of fetched patches that wait to be 
+   * applied
+   * @return 
+   * @throws IOException 
+   */
+  public List<PatchRecord> doPatch(final BatchPatchListener listener, File applyToFolder, File tempDir, String fromVersion, List<Patch> patches, BatchPatchFetcher fetcher, int fetchAhead) throws IOException {
     if (listener == null) {
       throw new NullPointerException("argument 'listener' cannot be null");
     }
@@ -104,6 +138,43 @@ public class BatchPatcher implements Pausable {
       return replacementList;
     }
 
+    // start the fetch stage
+    BlockingQueue<FetchResult> fetchedQueue = null;
+    Thread fetchThread = null;
+    if (fetcher != null) {
+      this.fetcher = fetcher;
+      fetchedQueue = new ArrayBlockingQueue<FetchResult>(Math.max(1, fetchAhead));
+      fetchThread = new Thread(new FetchStage(fetcher, tempDir, _patches, fetchedQueue), "BatchPatcher fetch stage");
+      fetchThread.setDaemon(true);
+      fetchThread.start();
+    }
+
+    try {
+      doPatch(listener, applyToFolder, tempDir, fromVersion, _patches, fetchedQueue, replacementList);
+    } finally {
+      if (fetchThread != null) {
+        stopFetchStage(fetchThread);
+        this.fetcher = null;
+      }
+    }
+
+    return replacementList;
+  }
+
+  /**
+   * The apply stage, apply the patches one by one.
+   * @param listener the listener
+   * @param applyToFolder the root directory of the software
+   * @param tempDir temporary folder to store temporary generated files while 
+   * patching
+   * @param fromVersion the current version of the software
+   * @param _patches the patches to apply, must be in sequence
+   * @param fetchedQueue the queue that the fetch stage put the fetched 
+   * patches into, null if there is no fetch stage
+   * @param replacementList the list to add the failed replacements to
+   * @throws IOException error occurred when patching
+   */
+  protected void doPatch(final BatchPatchListener listener, File applyToFolder, File tempDir, String fromVersion, List<Patch> _patches, BlockingQueue<FetchResult> fetchedQueue, List<PatchRecord> replacementList) throws IOException {
     listener.patchProgress(0, "Starting ...");
     // iterate patches and do patch
     final float stepSize = 100F / (float) _patches.size();
@@ -116,6 +187,15 @@ public class BatchPatcher implements Pausable {
     for (Patch _patch : _patches) {
       count++;
 
+      if (fetchedQueue != null) {
+        // wait for the fetch stage, patches are fetched in the same sequence
+        listener.patchProgress((int) (stepSize * (float) count), "Waiting for patch " + _patch.getId() + " ...");
+        FetchResult fetched = takeFetched(fetchedQueue);
+        if (fetched.failure != null) {
+          throw new IOException("Failed to fetch patch: " + _patch.getId(), fetched.failure);
+        }
+      }
+
       // check if the version of the patch matches the current software version
       if ((_patch.getVersionFrom() != null && !currentVersion.equals(_patch.getVersionFrom()))
               || (_patch.getVersionFromSubsequent() != null && Util.compareVersion(_patch.getVersionFromSubsequent(), currentVersion) > 0)) {
@@ -136,8 +216,6 @@ public class BatchPatcher implements Pausable {
       }
 
       File patchFile = new File(tempDir.getAbsolutePath() + File.separator + _patch.getId() + ".patch");
-      File decryptedPatchFile = new File(tempDir.getAbsolutePath() + File.separator + _patch.getId() + ".patch.decrypted");
-      decryptedPatchFile.deleteOnExit();
       if (!patchFile.exists()) {
         listener.patchInvalid(_patch);
         throw new IOException("Patch file not found: " + patchFile.getAbsolutePath());
@@ -146,6 +224,7 @@ public class BatchPatcher implements Pausable {
       // initialize patcher
       final int _count = count;
       patcher = new Patcher(new File(tempDirForPatch + File.separator + "action.log"));
+      patcher.setValidationThreadCount(Runtime.getRuntime().availableProcessors());
       List<ReplacementRecord> _replacementList = patcher.doPatch(new PatcherListener() {
 
         @Override
@@ -177,6 +256,8 @@ public class BatchPatcher implements Pausable {
             destinationReplacement.put(key, _replacement.getNewFilePath());
             break;
           case NEW:
+          case COPY:
+          case MOVE:
             // for 15
             if (!_replacement.getNewFilePath().isEmpty() && !_replacement.getDestinationFilePath().isEmpty()) {
               destinationReplacement.put(key, _replacement.getNewFilePath());
@@ -198,12 +279,45 @@ public class BatchPatcher implements Pausable {
 
       patcher = null;
 
-      if (count == patches.size() - 1) {
+      if (count == _patches.size() - 1) {
         replacementList.addAll(_replacementList);
       }
     }
+  }
 
-    return replacementList;
+  /**
+   * Take the next result of the fetch stage.
+   * @param fetchedQueue the queue of the fetch stage
+   * @return the result
+   */
+  protected static FetchResult takeFetched(BlockingQueue<FetchResult> fetchedQueue) {
+    try {
+      return fetchedQueue.take();
+    } catch (InterruptedException ex) {
+      // same as the interruption of Patcher
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Interrupt the fetch stage and wait for it to stop.
+   * @param fetchThread the thread of the fetch stage
+   */
+  protected static void stopFetchStage(Thread fetchThread) {
+    fetchThread.interrupt();
+
+    boolean interrupted = false;
+    while (fetchThread.isAlive()) {
+      try {
+        fetchThread.join();
+      } catch (InterruptedException ex) {
+        // keep waiting, restore the interrupted status after the fetch stage stopped
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
@@ -220,4 +334,64 @@ public class BatchPatcher implements Pausable {
     }
     return null;
   }
+
+  /**
+   * The result of fetching a patch.
+   */
+  protected static class FetchResult {
+
+    /**
+     * The patch.
+     */
+    protected final Patch patch;
+    /**
+     * The failure occurred when fetching, null if succeed.
+     */
+    protected final IOException failure;
+
+    protected FetchResult(Patch patch, IOException failure) {
+      this.patch = patch;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * The fetch stage, fetch the patches one by one and put them into the 
+   * queue, stop after the first failure.
+   */
+  protected static class FetchStage implements Runnable {
+
+    protected final BatchPatchFetcher fetcher;
+    protected final File tempDir;
+    protected final List<Patch> patches;
+    protected final BlockingQueue<FetchResult> fetchedQueue;
+
+    protected FetchStage(BatchPatchFetcher fetcher, File tempDir, List<Patch> patches, BlockingQueue<FetchResult> fetchedQueue) {
+      this.fetcher = fetcher;
+      this.tempDir = tempDir;
+      this.patches = patches;
+      this.fetchedQueue = fetchedQueue;
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (Patch patch : patches) {
+          File patchFile = new File(tempDir.getAbsolutePath() + File.separator + patch.getId() + ".patch");
+          try {
+            fetcher.fetchPatch(patch, patchFile);
+          } catch (IOException ex) {
+            fetchedQueue.put(new FetchResult(patch, ex));
+            return;
+          }
+          if (Thread.currentThread().isInterrupted()) {
+            return;
+          }
+          fetchedQueue.put(new FetchResult(patch, null));
+        }
+      } catch (InterruptedException ex) {
+        // the apply stage stopped
+      }
+    }
+  }
 }
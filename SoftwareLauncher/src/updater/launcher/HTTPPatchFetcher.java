@@ -0,0 +1,125 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import updater.script.Patch;
+import updater.util.DownloadProgressListener;
+import updater.util.DownloadResult;
+import updater.util.HTTPDownloader;
+import updater.util.Pausable;
+
+/**
+ * Fetch the patches from the Internet for the pipelined {@link BatchPatcher}.
+ * Patches without download URL are expected to be downloaded already.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class HTTPPatchFetcher implements BatchPatchFetcher, Pausable {
+
+  /**
+   * The progress listener of the download.
+   */
+  protected final DownloadProgressListener listener;
+  /**
+   * Total number of times to retry.
+   */
+  protected final int retryTimes;
+  /**
+   * The time to delay before each retry.
+   */
+  protected final int retryDelay;
+  /**
+   * The downloader of the downloading patch.
+   */
+  protected HTTPDownloader downloader;
+  /**
+   * Indicate whether the download is paused.
+   */
+  protected boolean pause;
+
+  /**
+   * Constructor.
+   * @param listener the progress listener of the download, can be null
+   * @param retryTimes total number of times to retry
+   * @param retryDelay the time to delay before each retry
+   */
+  public HTTPPatchFetcher(DownloadProgressListener listener, int retryTimes, int retryDelay) {
+    this.listener = listener;
+    this.retryTimes = retryTimes;
+    this.retryDelay = retryDelay;
+    pause = false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void pause(boolean pause) {
+    this.pause = pause;
+    if (downloader != null) {
+      downloader.pause(pause);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void fetchPatch(Patch patch, File saveToFile) throws IOException {
+    if (patch == null) {
+      throw new NullPointerException("argument 'patch' cannot be null");
+    }
+    if (saveToFile == null) {
+      throw new NullPointerException("argument 'saveToFile' cannot be null");
+    }
+
+    if (patch.getDownloadUrl() == null) {
+      if (!saveToFile.isFile()) {
+        throw new IOException("Patch file not found: " + saveToFile.getAbsolutePath());
+      }
+      return;
+    }
+
+    HTTPDownloader _downloader = new HTTPDownloader();
+    _downloader.setResumeFile(saveToFile);
+    synchronized (this) {
+      downloader = _downloader;
+      downloader.pause(pause);
+    }
+
+    DownloadResult result;
+    try {
+      result = _downloader.download(listener, new URL(patch.getDownloadUrl()), patch.getDownloadChecksum(), patch.getDownloadLength(), retryTimes, retryDelay);
+    } finally {
+      synchronized (this) {
+        downloader = null;
+      }
+    }
+    if (result == DownloadResult.INTERRUPTED) {
+      Thread.currentThread().interrupt();
+    }
+    if (result != DownloadResult.SUCCEED) {
+      throw new IOException("Failed to download patch " + patch.getId() + ": " + result);
+    }
+  }
+}
@@ -3,9 +3,14 @@ package updater.launcher;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -50,6 +55,16 @@ public class BatchPatcherTest {
   }
 
   protected void testDoPatch(List<Patch> patches) throws Exception {
+    testDoPatch(patches, null);
+  }
+
+  /**
+   * Apply the patches from 1.4.4 to 3.0.9.
+   * @param patches the patches
+   * @param fetcher the fetcher to fetch the patches in pipelined mode, null 
+   * means copy the patches to the temporary folder first
+   */
+  protected void testDoPatch(List<Patch> patches, BatchPatchFetcher fetcher) throws Exception {
     File doPatchTestFolder = new File("testDoPatch");
     doPatchTestFolder.mkdirs();
     assertTrue(doPatchTestFolder.isDirectory());
@@ -58,17 +73,19 @@ public class BatchPatcherTest {
     File doPatchTestTempFolder = new File(doPatchTestFolder.getAbsolutePath() + File.separator + "temp");
     assertTrue(doPatchTestTempFolder.mkdir());
 
-    CommonUtil.copyFile(new File(packagePath + "BatchPatcherTest_doPatch_1.4.4_2.0.patch"), new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "1.patch"));
-    CommonUtil.copyFile(new File(packagePath + "BatchPatcherTest_doPatch_2.0_3.0.9.patch"), new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "2.patch"));
-    assertTrue(new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "1.patch").exists());
-    assertTrue(new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "2.patch").exists());
+    if (fetcher == null) {
+      CommonUtil.copyFile(new File(packagePath + "BatchPatcherTest_doPatch_1.4.4_2.0.patch"), new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "1.patch"));
+      CommonUtil.copyFile(new File(packagePath + "BatchPatcherTest_doPatch_2.0_3.0.9.patch"), new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "2.patch"));
+      assertTrue(new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "1.patch").exists());
+      assertTrue(new File(doPatchTestTempFolder.getAbsolutePath() + File.separator + "2.patch").exists());
+    }
 
     TestCommon.unzip(new File(packagePath + "BatchPatcherTest_doPatch_phpBB.zip"), doPatchTestFolder);
     File softwareFolder = new File(doPatchTestFolder.getAbsolutePath() + File.separator + "1.4.4");
     File newVersionFolder = new File(doPatchTestFolder.getAbsolutePath() + File.separator + "3.0.9");
 
     final AtomicBoolean invalidPatch = new AtomicBoolean(false);
-    final AtomicInteger numberOfPatchFinished = new AtomicInteger(0);
+    final List<Integer> finishedPatchIds = new ArrayList<Integer>();
     final AtomicBoolean progressIncrementCorrect = new AtomicBoolean(true);
     final AtomicInteger progressRecord = new AtomicInteger(0);
     BatchPatcher batchPatcher = new BatchPatcher();
@@ -81,7 +98,7 @@ public class BatchPatcherTest {
 
       @Override
       public void patchFinished(Patch patch) throws IOException {
-        numberOfPatchFinished.incrementAndGet();
+        finishedPatchIds.add(patch.getId());
       }
 
       @Override
@@ -95,9 +112,9 @@ public class BatchPatcherTest {
       @Override
       public void patchEnableCancel(boolean enable) {
       }
-    }, softwareFolder, doPatchTestTempFolder, "1.4.4", patches);
+    }, softwareFolder, doPatchTestTempFolder, "1.4.4", patches, fetcher, 1);
     assertFalse(invalidPatch.get());
-    assertEquals(2, numberOfPatchFinished.get());
+    assertEquals(Arrays.asList(1, 2), finishedPatchIds);
     assertTrue(progressIncrementCorrect.get());
     assertEquals(100, progressRecord.get());
 
@@ -167,4 +184,181 @@ public class BatchPatcherTest {
             null, null));
     testDoPatch(patches);
   }
+
+  protected List<Patch> getPatches() {
+    List<Patch> patches = new ArrayList<Patch>();
+    patches.add(new Patch(1,
+            "patch", "1.4.4", null, "2.0",
+            null, null, -1,
+            null, null, null,
+            null, null));
+    patches.add(new Patch(2,
+            "patch", "2.0", null, "3.0.9",
+            null, null, -1,
+            null, null, null,
+            null, null));
+    return patches;
+  }
+
+  @Test
+  public void testDoPatchPipelined() throws Exception {
+    System.out.println("+++++ testDoPatchPipelined +++++");
+
+    StubPatchFetcher fetcher = new StubPatchFetcher(-1);
+    testDoPatch(getPatches(), fetcher);
+    // fetched in sequence, the patches are applied in the same sequence, see testDoPatch
+    assertEquals(Arrays.asList(1, 2), fetcher.fetchedPatchIds);
+  }
+
+  @Test
+  public void testDoPatchPipelinedFetchFailed() throws Exception {
+    System.out.println("+++++ testDoPatchPipelinedFetchFailed +++++");
+
+    File doPatchTestFolder = new File("testDoPatch");
+    doPatchTestFolder.mkdirs();
+    assertTrue(CommonUtil.truncateFolder(doPatchTestFolder));
+    File doPatchTestTempFolder = new File(doPatchTestFolder.getAbsolutePath() + File.separator + "temp");
+    assertTrue(doPatchTestTempFolder.mkdir());
+    TestCommon.unzip(new File(packagePath + "BatchPatcherTest_doPatch_phpBB.zip"), doPatchTestFolder);
+    File softwareFolder = new File(doPatchTestFolder.getAbsolutePath() + File.separator + "1.4.4");
+
+    final List<Integer> finishedPatchIds = new ArrayList<Integer>();
+    StubPatchFetcher fetcher = new StubPatchFetcher(2);
+    try {
+      new BatchPatcher().doPatch(new BatchPatchListener() {
+
+        @Override
+        public void patchInvalid(Patch patch) throws IOException {
+        }
+
+        @Override
+        public void patchFinished(Patch patch) throws IOException {
+          finishedPatchIds.add(patch.getId());
+        }
+
+        @Override
+        public void patchProgress(int percentage, String message) {
+        }
+
+        @Override
+        public void patchEnableCancel(boolean enable) {
+        }
+      }, softwareFolder, doPatchTestTempFolder, "1.4.4", getPatches(), fetcher, 1);
+      fail("! The failure of the fetch stage is not reported.");
+    } catch (IOException ex) {
+      assertEquals("Failed to fetch patch: 2", ex.getMessage());
+      assertSame(fetcher.failure, ex.getCause());
+    }
+    // the patch fetched before the failure is applied
+    assertEquals(Arrays.asList(1), finishedPatchIds);
+    assertEquals(Arrays.asList(1, 2), fetcher.fetchedPatchIds);
+
+    assertTrue(CommonUtil.truncateFolder(doPatchTestFolder));
+    assertTrue(doPatchTestFolder.delete());
+  }
+
+  @Test
+  public void testDoPatchPipelinedInterrupt() throws Exception {
+    System.out.println("+++++ testDoPatchPipelinedInterrupt +++++");
+
+    final File doPatchTestFolder = new File("testDoPatch");
+    doPatchTestFolder.mkdirs();
+    assertTrue(CommonUtil.truncateFolder(doPatchTestFolder));
+    final File doPatchTestTempFolder = new File(doPatchTestFolder.getAbsolutePath() + File.separator + "temp");
+    assertTrue(doPatchTestTempFolder.mkdir());
+
+    // the fetch stage blocks until it is interrupted
+    final CountDownLatch fetchStarted = new CountDownLatch(1);
+    final AtomicReference<Thread> fetchThread = new AtomicReference<Thread>();
+    final AtomicBoolean fetchInterrupted = new AtomicBoolean(false);
+    final BatchPatchFetcher fetcher = new BatchPatchFetcher() {
+
+      @Override
+      public void fetchPatch(Patch patch, File saveToFile) throws IOException {
+        fetchThread.set(Thread.currentThread());
+        fetchStarted.countDown();
+        try {
+          Thread.sleep(60000);
+        } catch (InterruptedException ex) {
+          fetchInterrupted.set(true);
+          throw new IOException("Interrupted.");
+        }
+      }
+    };
+
+    final AtomicReference<Throwable> patchFailure = new AtomicReference<Throwable>();
+    Thread patchThread = new Thread() {
+
+      @Override
+      public void run() {
+        try {
+          new BatchPatcher().doPatch(new BatchPatchListener() {
+
+            @Override
+            public void patchInvalid(Patch patch) throws IOException {
+            }
+
+            @Override
+            public void patchFinished(Patch patch) throws IOException {
+            }
+
+            @Override
+            public void patchProgress(int percentage, String message) {
+            }
+
+            @Override
+            public void patchEnableCancel(boolean enable) {
+            }
+          }, doPatchTestFolder, doPatchTestTempFolder, "1.4.4", getPatches(), fetcher, 1);
+        } catch (Throwable ex) {
+          patchFailure.set(ex);
+        }
+      }
+    };
+    patchThread.start();
+    assertTrue(fetchStarted.await(10, TimeUnit.SECONDS));
+
+    // cancel the patching while it is waiting for the fetch stage
+    patchThread.interrupt();
+    patchThread.join(10000);
+    assertFalse(patchThread.isAlive());
+
+    assertTrue(patchFailure.get() instanceof RuntimeException);
+    assertTrue(patchFailure.get().getCause() instanceof InterruptedException);
+    // the fetch stage is stopped before doPatch returns
+    assertTrue(fetchInterrupted.get());
+    assertFalse(fetchThread.get().isAlive());
+
+    assertTrue(CommonUtil.truncateFolder(doPatchTestFolder));
+    assertTrue(doPatchTestFolder.delete());
+  }
+
+  /**
+   * The fetcher that copy the patches from the test package.
+   */
+  protected class StubPatchFetcher implements BatchPatchFetcher {
+
+    protected final int failPatchId;
+    protected final List<Integer> fetchedPatchIds = Collections.synchronizedList(new ArrayList<Integer>());
+    protected volatile IOException failure;
+
+    /**
+     * Constructor.
+     * @param failPatchId the id of the patch to fail to fetch, -1 means none
+     */
+    protected StubPatchFetcher(int failPatchId) {
+      this.failPatchId = failPatchId;
+    }
+
+    @Override
+    public void fetchPatch(Patch patch, File saveToFile) throws IOException {
+      fetchedPatchIds.add(patch.getId());
+      if (patch.getId() == failPatchId) {
+        failure = new IOException("Failed to download.");
+        throw failure;
+      }
+      String fileName = patch.getId() == 1 ? "BatchPatcherTest_doPatch_1.4.4_2.0.patch" : "BatchPatcherTest_doPatch_2.0_3.0.9.patch";
+      CommonUtil.copyFile(new File(packagePath + fileName), saveToFile);
+    }
+  }
 }
@@ -66,6 +66,13 @@ public class ByteBufferSeekableSource implements SeekableSource {
         cur.position((int) pos);
     }
     
+    /**
+     * Returns the length of the source.
+     */
+    public long length() {
+        return bb.limit();
+    }
+    
     public int read(ByteBuffer dest) throws IOException {
         if (!cur.hasRemaining())
             return -1;
@@ -27,7 +27,6 @@ package com.nothome.delta;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 
 /**
  * Checksum computation class.
@@ -36,7 +35,7 @@ public class Checksum {
     
     static final boolean debug = false;
     
-    private HashMap<Object, Object> checksums = new HashMap<Object, Object>();
+    private final ChecksumIndex checksums;
     
     private static final char single_hash[] = {
         /* Random numbers generated using SLIB's pseudo-random number generator. */
@@ -79,6 +78,19 @@ public class Checksum {
      * <code>chunkSize</code> * i is inserted into a hash map.
      */
     public Checksum(SeekableSource source, int chunkSize) throws IOException {
+        this(source, chunkSize, false);
+    }
+    
+    /**
+     * Initialize checksums for source. The checksum for the <code>chunkSize</code> bytes at offset
+     * <code>chunkSize</code> * i is inserted into a primitive hash table, which is sized
+     * up front from the length of the source when it is known.
+     * 
+     * @param offHeap true to keep the table in direct buffers outside of the Java heap
+     */
+    public Checksum(SeekableSource source, int chunkSize, boolean offHeap) throws IOException {
+        long sourceLength = sourceLength(source);
+        checksums = new ChecksumIndex(sourceLength > 0 ? sourceLength / chunkSize : 0, offHeap);
         ByteBuffer bb = ByteBuffer.allocate(chunkSize * 2);
         int count = 0;
         while (true) {
@@ -94,6 +106,17 @@ public class Checksum {
         }
     }
     
+    /**
+     * Returns the length of the source, or -1 if it cannot be known in advance.
+     */
+    private static long sourceLength(SeekableSource source) throws IOException {
+        if (source instanceof RandomAccessFileSeekableSource)
+            return ((RandomAccessFileSeekableSource) source).length();
+        if (source instanceof ByteBufferSeekableSource)
+            return ((ByteBufferSeekableSource) source).length();
+        return -1;
+    }
+    
     /**
      * Finds the checksum computed from the buffer.
      * Marks, gets, then resets the buffer.
@@ -141,9 +164,7 @@ public class Checksum {
      * Finds the index of a checksum.
      */
     public int findChecksumIndex(long hashf) {
-        if (!checksums.containsKey(hashf))
-            return -1;
-        return (Integer) checksums.get(hashf);
+        return checksums.get(hashf);
     }
 
     /**
@@ -153,7 +174,8 @@ public class Checksum {
     public String toString()
     {
         return super.toString() +
-            " checksums=" + new HashMap<Object, Object>(this.checksums) +
+            " checksums=" + checksums.size() + "/" + checksums.capacity() +
+            (checksums.isDirect() ? " direct" : "") +
             "";
     }
     
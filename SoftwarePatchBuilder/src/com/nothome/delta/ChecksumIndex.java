@@ -0,0 +1,215 @@
+/*
+ * ChecksumIndex.java
+ *
+ * Copyright (c) 2012 Chan Wai Shing
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Open-addressing (linear probing) hash table from checksum to block index.
+ * Keys and values are kept in primitive arrays, or in direct buffers outside 
+ * of the Java heap, so no object is allocated per entry or per lookup.
+ * <p/>
+ * When the same checksum is put more than once, the last index wins, the same 
+ * as {@link java.util.HashMap#put(java.lang.Object, java.lang.Object)}.
+ */
+class ChecksumIndex {
+    
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_HEAP_CAPACITY = 1 << 30;
+    /**
+     * Limited by the 2GB size of a direct buffer for the keys.
+     */
+    private static final int MAX_DIRECT_CAPACITY = 1 << 27;
+    
+    private final boolean direct;
+    private long[] keys;
+    private int[] values;
+    private LongBuffer directKeys;
+    private IntBuffer directValues;
+    private int capacity;
+    private int shift;
+    private int size;
+    private int threshold;
+    
+    /**
+     * Constructs a new index.
+     * @param expectedSize the expected number of entries, the table is sized 
+     * up front to hold it without rehashing
+     * @param direct true to keep the table in direct buffers (off-heap)
+     */
+    ChecksumIndex(long expectedSize, boolean direct) {
+        this.direct = direct;
+        allocate(tableSizeFor(expectedSize));
+    }
+    
+    private int maxCapacity() {
+        return direct ? MAX_DIRECT_CAPACITY : MAX_HEAP_CAPACITY;
+    }
+    
+    private int tableSizeFor(long expectedSize) {
+        long wanted = (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR);
+        int result = MIN_CAPACITY;
+        while (result < wanted && result < maxCapacity()) {
+            result <<= 1;
+        }
+        return result;
+    }
+    
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        shift = 64 - Integer.numberOfTrailingZeros(newCapacity);
+        threshold = newCapacity == maxCapacity() ? newCapacity - 1 : (int) (newCapacity * LOAD_FACTOR);
+        size = 0;
+        if (direct) {
+            directKeys = ByteBuffer.allocateDirect(newCapacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+            directValues = ByteBuffer.allocateDirect(newCapacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        } else {
+            keys = new long[newCapacity];
+            values = new int[newCapacity];
+        }
+    }
+    
+    /**
+     * Fibonacci hashing, the rolling checksum is not well distributed in its 
+     * low bits.
+     */
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+    
+    // values are stored as (index + 1) so a zeroed slot means empty
+    
+    private long keyAt(int slot) {
+        return direct ? directKeys.get(slot) : keys[slot];
+    }
+    
+    private int storedValueAt(int slot) {
+        return direct ? directValues.get(slot) : values[slot];
+    }
+    
+    private void set(int slot, long key, int storedValue) {
+        if (direct) {
+            directKeys.put(slot, key);
+            directValues.put(slot, storedValue);
+        } else {
+            keys[slot] = key;
+            values[slot] = storedValue;
+        }
+    }
+    
+    /**
+     * Maps the checksum to the index, replacing the previous index if any.
+     * @param key the checksum
+     * @param index the block index, should be >= 0
+     */
+    void put(long key, int index) {
+        if (index < 0 || index == Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid index " + index);
+        if (size >= threshold)
+            grow();
+        int mask = capacity - 1;
+        int slot = slot(key);
+        while (true) {
+            int stored = storedValueAt(slot);
+            if (stored == 0) {
+                set(slot, key, index + 1);
+                size++;
+                return;
+            }
+            if (keyAt(slot) == key) {
+                set(slot, key, index + 1);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    /**
+     * Finds the index of the checksum.
+     * @return the index, or -1 if not found
+     */
+    int get(long key) {
+        int mask = capacity - 1;
+        int slot = slot(key);
+        while (true) {
+            int stored = storedValueAt(slot);
+            if (stored == 0)
+                return -1;
+            if (keyAt(slot) == key)
+                return stored - 1;
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    private void grow() {
+        if (capacity >= maxCapacity())
+            throw new IllegalStateException("Checksum index is full, use a larger chunk size");
+        int oldCapacity = capacity;
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        LongBuffer oldDirectKeys = directKeys;
+        IntBuffer oldDirectValues = directValues;
+        allocate(oldCapacity << 1);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            int stored = direct ? oldDirectValues.get(i) : oldValues[i];
+            if (stored == 0)
+                continue;
+            long key = direct ? oldDirectKeys.get(i) : oldKeys[i];
+            int slot = slot(key);
+            while (storedValueAt(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            set(slot, key, stored);
+            size++;
+        }
+    }
+    
+    /**
+     * Returns the number of entries.
+     */
+    int size() {
+        return size;
+    }
+    
+    /**
+     * Returns the number of slots.
+     */
+    int capacity() {
+        return capacity;
+    }
+    
+    /**
+     * Returns true if the table is kept outside of the Java heap.
+     */
+    boolean isDirect() {
+        return direct;
+    }
+}
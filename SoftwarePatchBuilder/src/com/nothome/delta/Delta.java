@@ -82,6 +82,11 @@ public class Delta {
      */
     private int S;
     
+    /**
+     * Keep the source checksums outside of the Java heap.
+     */
+    private boolean offHeapChecksum;
+    
     private SourceState source;
     private TargetState target;
     private DiffWriter output;
@@ -107,6 +112,16 @@ public class Delta {
         S = size;
     }
     
+    /**
+     * Sets whether the checksums of the source are kept in direct buffers
+     * outside of the Java heap, useful for very large sources.
+     * 
+     * @param offHeap
+     */
+    public void setOffHeapChecksum(boolean offHeap) {
+        offHeapChecksum = offHeap;
+    }
+    
     /**
      * Compares the source bytes with target bytes, writing to output.
      */
@@ -212,7 +227,7 @@ public class Delta {
         private SeekableSource source;
         
         public SourceState(SeekableSource source) throws IOException {
-            checksum = new Checksum(source, S);
+            checksum = new Checksum(source, S, offHeapChecksum);
             this.source = source;
             source.seek(0);
         }
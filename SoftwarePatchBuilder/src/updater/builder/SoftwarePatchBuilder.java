@@ -32,7 +32,9 @@ import java.io.FileOutputStream;
 import java.math.BigInteger;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import org.apache.commons.cli.CommandLine;
@@ -43,6 +45,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.tukaani.xz.FinishableOutputStream;
 import org.tukaani.xz.LZMA2Options;
 import org.tukaani.xz.XZInputStream;
 import org.tukaani.xz.XZOutputStream;
@@ -51,6 +54,8 @@ import org.w3c.dom.Element;
 import updater.crypto.AESKey;
 import updater.crypto.KeyGenerator;
 import updater.crypto.RSAKey;
+import updater.patch.Compression;
+import updater.patch.PatchCreationOptions;
 import updater.patch.PatchCreator;
 import updater.patch.PatchExtractor;
 import updater.patch.PatchPacker;
@@ -59,6 +64,8 @@ import updater.patch.PatcherListener;
 import updater.script.Client;
 import updater.script.Patch;
 import updater.util.CommonUtil;
+import updater.util.FileHashCache;
+import updater.util.ParallelXZOutputStream;
 import updater.util.XMLUtil;
 
 /**
@@ -120,8 +127,11 @@ public class SoftwarePatchBuilder {
 
     // catalog
     options.addOption(OptionBuilder.hasArgs(2).withArgName("mode file").withValueSeparator(' ').
-            withDescription("e|d for 'mode', e for encrypt, d for decrypt; 'file' is the catalog file").
+            withDescription("s|e|d for 'mode', s for sign, e for encrypt, d for decrypt/verify; 'file' is the catalog file").
             create("catalog"));
+    options.addOption(OptionBuilder.hasArgs(2).withArgName("old new").withValueSeparator(' ').
+            withDescription("create a delta catalog that contains the patches appended in catalog 'new' since catalog 'old'; the revision of 'new' should be the revision of 'old' plus 1").
+            create("catalogdelta"));
 
     // script validation
     options.addOption(OptionBuilder.hasArg().withArgName("file").
@@ -144,6 +154,18 @@ public class SoftwarePatchBuilder {
     options.addOption(OptionBuilder.hasArg().withArgName("version").
             withDescription("specify the version-to").
             withLongOpt("to").create("t"));
+    options.addOption(OptionBuilder.hasArg().withArgName("number").
+            withDescription("specify the number of threads used to compute the diffs and to compress when creating, packing patch or compressing, and to validate the files when applying patch, default 1").
+            withLongOpt("threads").create("th"));
+    options.addOption(OptionBuilder.hasArg().withArgName("MiB").
+            withDescription("specify the size of each block compressed independently when compressing with more than 1 thread, default 24").
+            withLongOpt("block-size").create("bs"));
+    options.addOption(OptionBuilder.hasArg().withArgName("file").
+            withDescription("specify the file to cache the checksum of files across builds when creating patch").
+            withLongOpt("hash-cache").create("hc"));
+    options.addOption(new Option("ix", "indexed", false, "compress the content of every operation in its own block when creating or packing patch, allows random access to the patch"));
+    options.addOption(new Option("mc", "move-copy", false, "use move and copy operations for the new files that have the same content as the removed or the existing files when creating patch, requires the launcher that supports them"));
+    options.addOption(new Option("oh", "off-heap", false, "keep the checksums of 'old' outside of the Java heap when generating a binary diff, for very large files"));
 
     options.addOption(new Option("h", "help", false, "print this message"));
     options.addOption(new Option("v", "version", false, "show the version of this software"));
@@ -179,6 +201,8 @@ public class SoftwarePatchBuilder {
         pack(line, options);
       } else if (line.hasOption("catalog")) {
         catalog(line, options);
+      } else if (line.hasOption("catalogdelta")) {
+        catalogDelta(line, options);
       } else if (line.hasOption("validate")) {
         validate(line, options);
       } else if (line.hasOption("version")) {
@@ -296,6 +320,7 @@ public class SoftwarePatchBuilder {
       fout = new FileOutputStream(new File(outputArg));
       DiffWriter diffOut = new GDiffWriter(fout);
       Delta delta = new Delta();
+      delta.setOffHeapChecksum(line.hasOption("off-heap"));
       delta.compute(new File(diffArgs[0]), new File(diffArgs[1]), diffOut);
     } finally {
       Util.closeQuietly(fout);
@@ -348,7 +373,10 @@ public class SoftwarePatchBuilder {
 
       fin = new FileInputStream(inFile);
       fout = new FileOutputStream(new File(outputArg));
-      XZOutputStream xzOut = new XZOutputStream(fout, new LZMA2Options());
+      int threadCount = getThreadCount(line);
+      FinishableOutputStream xzOut = threadCount > 1
+              ? new ParallelXZOutputStream(fout, new LZMA2Options(), getBlockSize(line), threadCount)
+              : new XZOutputStream(fout, new LZMA2Options());
 
       int byteRead, cumulateByteRead = 0;
       byte[] b = new byte[32768];
@@ -451,6 +479,7 @@ public class SoftwarePatchBuilder {
     }
 
     Patcher patcher = new Patcher(new File(tempDir.getAbsolutePath() + "/action.log"));
+    patcher.setValidationThreadCount(getThreadCount(line));
     patcher.doPatch(new PatcherListener() {
 
       @Override
@@ -516,7 +545,11 @@ public class SoftwarePatchBuilder {
     encryptedPatchFile.delete();
     encryptedPatchFile.deleteOnExit();
 
-    PatchCreator.createFullPatch(new File(fullArg), new File(outputArg), -1, fromArg, fromSubsequentArg, toArg, aesKey, encryptedPatchFile);
+    FileHashCache hashCache = getHashCache(line);
+    PatchCreationOptions creationOptions = getCreationOptions(line);
+    creationOptions.setHashCache(hashCache);
+    PatchCreator.createFullPatch(new File(fullArg), new File(outputArg), -1, fromArg, fromSubsequentArg, toArg, aesKey, encryptedPatchFile, creationOptions);
+    hashCache.save();
 
     Util.truncateFolder(tempDir);
     tempDir.delete();
@@ -544,6 +577,8 @@ public class SoftwarePatchBuilder {
       throw new ParseException("Wrong arguments for 'patch', expecting 2 arguments");
     }
 
+    int threadCount = getThreadCount(line);
+
     System.out.println("Old software version: " + fromArg);
     System.out.println("Old software directory: " + patchArgs[0]);
     System.out.println("New software version: " + toArg);
@@ -552,6 +587,7 @@ public class SoftwarePatchBuilder {
     if (line.hasOption("key")) {
       System.out.println("AES key file: " + line.getOptionValue("key"));
     }
+    System.out.println("Number of threads: " + threadCount);
     System.out.println();
 
     File tempDir = new File("tmp/" + System.currentTimeMillis());
@@ -569,7 +605,13 @@ public class SoftwarePatchBuilder {
     encryptedPatchFile.delete();
     encryptedPatchFile.deleteOnExit();
 
-    PatchCreator.createPatch(new File(patchArgs[0]), new File(patchArgs[1]), tempDir, patchFile, -1, fromArg, toArg, aesKey, encryptedPatchFile);
+    FileHashCache hashCache = getHashCache(line);
+    PatchCreationOptions creationOptions = getCreationOptions(line);
+    creationOptions.setDiffThreadCount(threadCount);
+    creationOptions.setHashCache(hashCache);
+    creationOptions.setDetectMoveAndCopy(line.hasOption("move-copy"));
+    PatchCreator.createPatch(new File(patchArgs[0]), new File(patchArgs[1]), tempDir, patchFile, -1, fromArg, toArg, aesKey, encryptedPatchFile, creationOptions);
+    hashCache.save();
 
     Util.truncateFolder(tempDir);
     tempDir.delete();
@@ -637,7 +679,7 @@ public class SoftwarePatchBuilder {
     encryptedPatchFile.delete();
     encryptedPatchFile.deleteOnExit();
 
-    PatchPacker.pack(sourceFolder, new File(outputArg), aesKey, encryptedPatchFile);
+    PatchPacker.pack(sourceFolder, new File(outputArg), aesKey, encryptedPatchFile, getCreationOptions(line));
 
     System.out.println("Packing completed.");
   }
@@ -657,13 +699,13 @@ public class SoftwarePatchBuilder {
     if (catalogArgs.length != 2) {
       throw new ParseException("Wrong arguments for 'catalog', expecting 2 arguments");
     }
-    if (!catalogArgs[0].equals("e") && !catalogArgs[0].equals("d")) {
-      throw new ParseException("Catalog mode should be either 'e' or 'd' but not " + catalogArgs[0]);
+    if (!catalogArgs[0].equals("s") && !catalogArgs[0].equals("e") && !catalogArgs[0].equals("d")) {
+      throw new ParseException("Catalog mode should be either 's', 'e' or 'd' but not " + catalogArgs[0]);
     }
 
     RSAKey rsaKey = RSAKey.read(Util.readFile(new File(keyArg)));
 
-    System.out.println("Mode: " + (catalogArgs[0].equals("e") ? "encrypt" : "decrypt"));
+    System.out.println("Mode: " + (catalogArgs[0].equals("s") ? "sign" : (catalogArgs[0].equals("e") ? "encrypt" : "decrypt")));
     System.out.println("Catalog file: " + catalogArgs[1]);
     System.out.println("Key file: " + keyArg);
     System.out.println("Output file: " + outputArg);
@@ -673,7 +715,7 @@ public class SoftwarePatchBuilder {
     File out = new File(outputArg);
     BigInteger mod = new BigInteger(rsaKey.getModulus());
 
-    if (catalogArgs[0].equals("e")) {
+    if (catalogArgs[0].equals("s") || catalogArgs[0].equals("e")) {
       BigInteger privateExp = new BigInteger(rsaKey.getPrivateExponent());
 
       RSAPrivateKey privateKey = CommonUtil.getPrivateKey(mod, privateExp);
@@ -685,19 +727,31 @@ public class SoftwarePatchBuilder {
       gout.finish();
       byte[] compressedData = bout.toByteArray();
 
-      // encrypt
-      int blockSize = mod.bitLength() / 8;
-      byte[] encrypted = Util.rsaEncrypt(privateKey, blockSize, blockSize - 11, compressedData);
+      byte[] outputData;
+      if (catalogArgs[0].equals("s")) {
+        // sign
+        outputData = Util.signCatalog(privateKey, compressedData);
+      } else {
+        // encrypt
+        int blockSize = mod.bitLength() / 8;
+        outputData = Util.rsaEncrypt(privateKey, blockSize, blockSize - 11, compressedData);
+      }
 
       // write to file
-      Util.writeFile(out, encrypted);
+      Util.writeFile(out, outputData);
     } else {
       BigInteger publicExp = new BigInteger(rsaKey.getPublicExponent());
       RSAPublicKey publicKey = CommonUtil.getPublicKey(mod, publicExp);
 
-      // decrypt
-      int blockSize = mod.bitLength() / 8;
-      byte[] decrypted = Util.rsaDecrypt(publicKey, blockSize, Util.readFile(in));
+      // verify or decrypt
+      byte[] inData = Util.readFile(in);
+      byte[] decrypted;
+      if (Util.isSignedCatalog(inData)) {
+        decrypted = Util.verifySignedCatalog(publicKey, inData);
+      } else {
+        int blockSize = mod.bitLength() / 8;
+        decrypted = Util.rsaDecrypt(publicKey, blockSize, inData);
+      }
 
       // decompress
       ByteArrayOutputStream bout = new ByteArrayOutputStream();
@@ -718,6 +772,51 @@ public class SoftwarePatchBuilder {
     System.out.println("Manipulation succeed.");
   }
 
+  public static void catalogDelta(CommandLine line, Options options) throws ParseException, Exception {
+    if (!line.hasOption("output")) {
+      throw new Exception("Please specify the path to output the XML file using --output");
+    }
+
+    String[] catalogDeltaArgs = line.getOptionValues("catalogdelta");
+    String outputArg = line.getOptionValue("output");
+
+    if (catalogDeltaArgs.length != 2) {
+      throw new ParseException("Wrong arguments for 'catalogdelta', expecting 2 arguments");
+    }
+
+    System.out.println("Old catalog: " + catalogDeltaArgs[0]);
+    System.out.println("New catalog: " + catalogDeltaArgs[1]);
+    System.out.println("Output file: " + outputArg);
+    System.out.println();
+
+    updater.script.Catalog oldCatalog = updater.script.Catalog.read(Util.readFile(new File(catalogDeltaArgs[0])));
+    updater.script.Catalog newCatalog = updater.script.Catalog.read(Util.readFile(new File(catalogDeltaArgs[1])));
+    if (newCatalog.getRevision() == -1 || newCatalog.getRevision() != oldCatalog.getRevision() + 1) {
+      throw new Exception("The revision of the new catalog should be the revision of the old catalog plus 1");
+    }
+
+    HashMap<Integer, Patch> newPatches = new HashMap<Integer, Patch>();
+    for (Patch patch : newCatalog.getPatchs()) {
+      newPatches.put(patch.getId(), patch);
+    }
+    for (Patch patch : oldCatalog.getPatchs()) {
+      if (newPatches.remove(patch.getId()) == null) {
+        throw new Exception("Patch with id " + patch.getId() + " is removed in the new catalog, delta catalog only support appending patches");
+      }
+    }
+
+    List<Patch> deltaPatches = new ArrayList<Patch>();
+    for (Patch patch : newCatalog.getPatchs()) {
+      if (newPatches.containsKey(patch.getId())) {
+        deltaPatches.add(patch);
+      }
+    }
+    Util.writeFile(new File(outputArg), new updater.script.Catalog(newCatalog.getRevision(), deltaPatches).output());
+
+    System.out.println("Patches appended: " + deltaPatches.size());
+    System.out.println("Manipulation succeed.");
+  }
+
   public static void validate(CommandLine line, Options options) throws ParseException, Exception {
     String validateArg = line.getOptionValue("validate");
     String outputArg = line.getOptionValue("output");
@@ -751,6 +850,58 @@ public class SoftwarePatchBuilder {
     System.out.println("Validation finished.");
   }
 
+  protected static PatchCreationOptions getCreationOptions(CommandLine line) throws ParseException {
+    PatchCreationOptions creationOptions = new PatchCreationOptions();
+    creationOptions.setCompression(line.hasOption("indexed") ? Compression.LZMA2_INDEXED : Compression.LZMA2);
+    creationOptions.setCompressionThreadCount(getThreadCount(line));
+    creationOptions.setBlockSize(getBlockSize(line));
+    return creationOptions;
+  }
+
+  protected static FileHashCache getHashCache(CommandLine line) throws Exception {
+    String hashCacheArg = line.getOptionValue("hash-cache");
+    if (hashCacheArg == null) {
+      return new FileHashCache();
+    }
+    return new FileHashCache(new File(hashCacheArg));
+  }
+
+  protected static int getThreadCount(CommandLine line) throws ParseException {
+    String threadsArg = line.getOptionValue("threads");
+    if (threadsArg == null) {
+      return 1;
+    }
+
+    int threadCount;
+    try {
+      threadCount = Integer.parseInt(threadsArg);
+    } catch (NumberFormatException ex) {
+      throw new ParseException("Number of threads should be a valid integer, your input: " + threadsArg);
+    }
+    if (threadCount <= 0) {
+      throw new ParseException("Number of threads should be at least 1.");
+    }
+    return threadCount;
+  }
+
+  protected static int getBlockSize(CommandLine line) throws ParseException {
+    String blockSizeArg = line.getOptionValue("block-size");
+    if (blockSizeArg == null) {
+      return ParallelXZOutputStream.DEFAULT_BLOCK_SIZE;
+    }
+
+    int blockSize;
+    try {
+      blockSize = Integer.parseInt(blockSizeArg);
+    } catch (NumberFormatException ex) {
+      throw new ParseException("Block size should be a valid integer, your input: " + blockSizeArg);
+    }
+    if (blockSize <= 0 || blockSize > 1024) {
+      throw new ParseException("Block size should be between 1 and 1024 (MiB).");
+    }
+    return blockSize * 1024 * 1024;
+  }
+
   public static void version() {
     System.out.println("Software Updater - Patch Builder\r\nversion: 0.9.4 beta");
   }
@@ -0,0 +1,178 @@
+package com.nothome.delta;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class ChecksumIndexTest {
+
+    public ChecksumIndexTest() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testGrow() {
+        System.out.println("+++++ testGrow +++++");
+
+        for (boolean direct : new boolean[]{false, true}) {
+            System.out.println("+ direct: " + direct);
+
+            ChecksumIndex index = new ChecksumIndex(0, direct);
+            assertEquals(direct, index.isDirect());
+            int initialCapacity = index.capacity();
+
+            Random random = new Random(direct ? 2 : 1);
+            long[] keys = new long[10000];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextLong();
+                index.put(keys[i], i);
+            }
+
+            assertEquals(keys.length, index.size());
+            assertTrue(index.capacity() > initialCapacity);
+            assertTrue(index.size() <= index.capacity() * 0.75f);
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(i, index.get(keys[i]));
+            }
+            assertEquals(-1, index.get(random.nextLong()));
+        }
+    }
+
+    @Test
+    public void testPresized() {
+        System.out.println("+++++ testPresized +++++");
+
+        for (boolean direct : new boolean[]{false, true}) {
+            System.out.println("+ direct: " + direct);
+
+            ChecksumIndex index = new ChecksumIndex(1000, direct);
+            int capacity = index.capacity();
+            assertTrue(capacity * 0.75f >= 1000);
+            for (int i = 0; i < 1000; i++) {
+                index.put(i * 31L, i);
+            }
+            assertEquals("! index rehashed although it is sized up front", capacity, index.capacity());
+        }
+    }
+
+    @Test
+    public void testCollision() {
+        System.out.println("+++++ testCollision +++++");
+
+        for (boolean direct : new boolean[]{false, true}) {
+            System.out.println("+ direct: " + direct);
+
+            ChecksumIndex index = new ChecksumIndex(0, direct);
+            int shift = 64 - Integer.numberOfTrailingZeros(index.capacity());
+
+            // find keys that fall into the same slot of the initial table
+            long[] keys = new long[8];
+            int count = 0;
+            int targetSlot = slot(0L, shift);
+            for (long key = 0; count < keys.length; key++) {
+                if (slot(key, shift) == targetSlot) {
+                    keys[count++] = key;
+                }
+            }
+
+            for (int i = 0; i < keys.length; i++) {
+                index.put(keys[i], i * 10);
+            }
+            assertEquals(keys.length, index.size());
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(i * 10, index.get(keys[i]));
+            }
+
+            // colliding keys must still be found after the table is rehashed
+            for (int i = 0; i < 100; i++) {
+                index.put(-1000L - i, i);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(i * 10, index.get(keys[i]));
+            }
+            assertEquals(-1, index.get(keys[keys.length - 1] + 1));
+        }
+    }
+
+    @Test
+    public void testLastWriteWins() {
+        System.out.println("+++++ testLastWriteWins +++++");
+
+        for (boolean direct : new boolean[]{false, true}) {
+            System.out.println("+ direct: " + direct);
+
+            ChecksumIndex index = new ChecksumIndex(16, direct);
+            index.put(12345L, 1);
+            index.put(0L, 0);
+            index.put(Long.MIN_VALUE, 2);
+            index.put(12345L, 7);
+            index.put(0L, 3);
+
+            assertEquals(3, index.size());
+            assertEquals(7, index.get(12345L));
+            assertEquals(3, index.get(0L));
+            assertEquals(2, index.get(Long.MIN_VALUE));
+
+            try {
+                index.put(1L, -1);
+                fail("! negative index accepted");
+            } catch (IllegalArgumentException ex) {
+            }
+        }
+    }
+
+    @Test
+    public void testDeltaOffHeap() throws Exception {
+        System.out.println("+++++ testDeltaOffHeap +++++");
+
+        Random random = new Random(3);
+        byte[] source = new byte[256 * 1024];
+        random.nextBytes(source);
+        byte[] target = Arrays.copyOf(source, source.length + 1024);
+        for (int i = 0; i < 200; i++) {
+            target[random.nextInt(target.length)] = (byte) random.nextInt();
+        }
+
+        Delta delta = new Delta();
+        byte[] heapDiff = delta.compute(source, target);
+        delta.setOffHeapChecksum(true);
+        byte[] offHeapDiff = delta.compute(source, target);
+
+        assertArrayEquals("! diff computed with off-heap checksums is different", heapDiff, offHeapDiff);
+        assertArrayEquals(target, new GDiffPatcher().patch(source, offHeapDiff));
+    }
+
+    protected static int slot(long key, int shift) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
@@ -0,0 +1,132 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.downloader;
+
+import updater.util.BandwidthLimiter;
+
+/**
+ * The options used by {@link PatchDownloader} when downloading patches. A 
+ * new instance contains the defaults: single connection per patch, one patch 
+ * after another and no bandwidth limit.
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class DownloadOptions {
+
+  /**
+   * The number of connections used to download each patch concurrently.
+   */
+  protected int segmentCount;
+  /**
+   * The maximum number of patches to download at the same time.
+   */
+  protected int concurrentDownloads;
+  /**
+   * The bandwidth limit of every download in bytes per second.
+   */
+  protected long bandwidthLimit;
+  /**
+   * Adapt every download to the observed delay or not.
+   */
+  protected boolean background;
+
+  /**
+   * Constructor.
+   */
+  public DownloadOptions() {
+    segmentCount = 1;
+    concurrentDownloads = 1;
+    bandwidthLimit = 0;
+    background = false;
+  }
+
+  /**
+   * Get the number of connections used to download each patch concurrently.
+   * @return the number of connections
+   */
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  /**
+   * Set the number of connections used to download each patch concurrently.
+   * @param segmentCount the number of connections, 1 means single connection
+   */
+  public void setSegmentCount(int segmentCount) {
+    if (segmentCount < 1) {
+      throw new IllegalArgumentException("argument 'segmentCount' should >= 1");
+    }
+    this.segmentCount = segmentCount;
+  }
+
+  /**
+   * Get the maximum number of patches to download at the same time.
+   * @return the number of patches
+   */
+  public int getConcurrentDownloads() {
+    return concurrentDownloads;
+  }
+
+  /**
+   * Set the maximum number of patches to download at the same time.
+   * @param concurrentDownloads the number of patches, 1 or less means one 
+   * after another
+   */
+  public void setConcurrentDownloads(int concurrentDownloads) {
+    this.concurrentDownloads = concurrentDownloads;
+  }
+
+  /**
+   * Get the bandwidth limit of every download.
+   * @return the limit in bytes per second, 0 means unlimited
+   */
+  public long getBandwidthLimit() {
+    return bandwidthLimit;
+  }
+
+  /**
+   * Set the bandwidth limit of every download.
+   * @param bandwidthLimit the limit in bytes per second, 0 means unlimited
+   */
+  public void setBandwidthLimit(long bandwidthLimit) {
+    if (bandwidthLimit < 0) {
+      throw new IllegalArgumentException("argument 'bandwidthLimit' should >= 0");
+    }
+    this.bandwidthLimit = bandwidthLimit;
+  }
+
+  /**
+   * Check if every download adapt to the observed delay.
+   * @return true if background priority, false if not
+   */
+  public boolean isBackground() {
+    return background;
+  }
+
+  /**
+   * Set whether every download adapt to the observed delay, see 
+   * {@link BandwidthLimiter}.
+   * @param background true to use background priority, false not
+   */
+  public void setBackground(boolean background) {
+    this.background = background;
+  }
+}
@@ -20,7 +20,10 @@
 // WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 package updater.downloader;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -28,10 +31,21 @@ import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.SignatureException;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -43,6 +57,7 @@ import updater.script.InvalidFormatException;
 import updater.script.Patch;
 import updater.script.Patch.Operation;
 import updater.script.Patch.ValidationFile;
+import updater.util.BandwidthLimiter;
 import updater.util.DownloadProgressListener;
 import updater.util.DownloadProgressUtil;
 import updater.util.DownloadResult;
@@ -54,6 +69,10 @@ import updater.util.HTTPDownloader;
  */
 public class PatchDownloader {
   private static final Logger LOG = Logger.getLogger(PatchDownloader.class.getName());
+  /**
+   * The file name of the catalog cache in the storage path.
+   */
+  protected static final String CATALOG_CACHE_FILE_NAME = "catalog.cache";
 
   protected PatchDownloader() {
   }
@@ -90,11 +109,17 @@ public class PatchDownloader {
    * @throws MalformedURLException any one URL of patches is invalid
    */
   public static DownloadPatchesResult downloadPatches(final DownloadPatchesListener listener, File clientScriptFile, Client clientScript, List<Patch> patches, int retryTimes, int retryDelay) throws MalformedURLException {
-    return downloadPatches(listener, patches, clientScript.getStoragePath(), retryTimes, retryDelay);
+    setGlobalBandwidthLimit(clientScript);
+
+    DownloadOptions options = new DownloadOptions();
+    options.setBandwidthLimit(clientScript.getDownloadRateLimit());
+    options.setBackground(isBackgroundPriority(clientScript));
+    return downloadPatches(listener, patches, clientScript.getStoragePath(), retryTimes, retryDelay, options);
   }
 
   /**
-   * Download specified patches and update the client script.
+   * Download specified patches and update the client script with the 
+   * default {@link DownloadOptions}.
    * @param listener the download patch listener listen to progress and result
    * @param storagePath the path for storage temporary files
    * @param patches the patches to download
@@ -104,6 +129,29 @@ public class PatchDownloader {
    * @throws MalformedURLException any one URL of patches is invalid
    */
   public static DownloadPatchesResult downloadPatches(final DownloadPatchesListener listener, List<Patch> patches, String storagePath, int retryTimes, int retryDelay) throws MalformedURLException {
+    return downloadPatches(listener, patches, storagePath, retryTimes, retryDelay, new DownloadOptions());
+  }
+
+  /**
+   * Download specified patches and update the client script.
+   * <p>
+   * When the concurrent downloads of {@code options} is larger than 1, up to 
+   * that number of patches are downloaded at the same time. The progress and 
+   * speed reported are the aggregate of all running downloads, and 
+   * {@link DownloadPatchesListener#downloadPatchesPatchDownloaded(updater.script.Patch)} 
+   * is still invoked in the order of {@code patches}, from the calling thread.
+   * </p>
+   * @param listener the download patch listener listen to progress and result
+   * @param storagePath the path for storage temporary files
+   * @param patches the patches to download
+   * @param retryTimes total number of times to retry
+   * @param retryDelay the time to delay before each retry
+   * @param options the number of connections per patch, the number of 
+   * concurrent downloads and the bandwidth limit of every download
+   * @return the download result
+   * @throws MalformedURLException any one URL of patches is invalid
+   */
+  public static DownloadPatchesResult downloadPatches(final DownloadPatchesListener listener, List<Patch> patches, final String storagePath, int retryTimes, final int retryDelay, final DownloadOptions options) throws MalformedURLException {
     if (listener == null) {
       throw new NullPointerException("argument 'listener' cannot be null");
     }
@@ -113,11 +161,19 @@ public class PatchDownloader {
     if (patches == null) {
       throw new NullPointerException("argument 'patches' cannot be null");
     }
+    if (options == null) {
+      throw new NullPointerException("argument 'options' cannot be null");
+    }
 
     if (patches.isEmpty()) {
       return DownloadPatchesResult.COMPLETED;
     }
 
+    // validate the URLs here, the downloads may run in other threads
+    for (Patch patch : patches) {
+      new URL(patch.getDownloadUrl());
+    }
+
     listener.downloadPatchesProgress(0);
     listener.downloadPatchesMessage("Getting patches catalog ...");
 
@@ -125,50 +181,55 @@ public class PatchDownloader {
 
     // use to restrict/lower the 'download size' refresh time interval
     final AtomicLong lastRefreshTime = new AtomicLong(0L);
-    final AtomicInteger downloadedSizeSinceLastRefresh = new AtomicInteger(0);
+    final AtomicLong downloadedSizeSinceLastRefresh = new AtomicLong(0L);
 
-    // global download(ed) size record
+    // global download(ed) size record, the sum of the downloaded size of all patches
     final long totalDownloadSize = calculateTotalLength(patches);
-    final AtomicInteger downloadedSize = new AtomicInteger(0);
+    final AtomicLong downloadedSize = new AtomicLong(0L);
 
     final DownloadProgressUtil downloadProgress = new DownloadProgressUtil();
     downloadProgress.setTotalSize(totalDownloadSize);
 
-    // download
-    for (Patch patch : patches) {
-      // downloaded size of this patch
-      final AtomicInteger patchDownloadedSize = new AtomicInteger(0);
-      DownloadProgressListener getPatchListener = new DownloadProgressListener() {
+    final String totalDownloadSizeString = Util.humanReadableByteCount(totalDownloadSize, false);
+    final float totalDownloadSizeFloat = (float) totalDownloadSize;
 
-        private String totalDownloadSizeString = Util.humanReadableByteCount(totalDownloadSize, false);
-        private float totalDownloadSizeFloat = (float) totalDownloadSize;
+    // prepare the download tasks
+    List<Callable<DownloadResult>> tasks = new ArrayList<Callable<DownloadResult>>();
+    for (final Patch patch : patches) {
+      // downloaded size of this patch
+      final AtomicLong patchDownloadedSize = new AtomicLong(0L);
+      final DownloadProgressListener getPatchListener = new DownloadProgressListener() {
 
         @Override
         public void byteStart(long pos) {
-          patchDownloadedSize.set((int) pos);
-          downloadProgress.setDownloadedSize(downloadedSize.get() + patchDownloadedSize.get());
-          listener.downloadPatchesProgress((int) ((float) (downloadedSize.get() + patchDownloadedSize.get()) * 100F / (float) totalDownloadSize));
+          long downloaded = downloadedSize.addAndGet(pos - patchDownloadedSize.getAndSet(pos));
+          synchronized (listener) {
+            downloadProgress.setDownloadedSize(downloaded);
+            listener.downloadPatchesProgress((int) ((float) downloaded * 100F / totalDownloadSizeFloat));
+          }
         }
 
         @Override
         public void byteDownloaded(int numberOfBytes) {
-          downloadedSizeSinceLastRefresh.set(downloadedSizeSinceLastRefresh.get() + numberOfBytes);
+          patchDownloadedSize.addAndGet(numberOfBytes);
+          downloadedSize.addAndGet(numberOfBytes);
+          downloadedSizeSinceLastRefresh.addAndGet(numberOfBytes);
 
           long currentTime = System.currentTimeMillis();
-          if (currentTime - lastRefreshTime.get() > 200) {
-            lastRefreshTime.set(currentTime);
-
-            patchDownloadedSize.set(patchDownloadedSize.get() + downloadedSizeSinceLastRefresh.get());
-
-            downloadProgress.feed(downloadedSizeSinceLastRefresh.get());
-            downloadedSizeSinceLastRefresh.set(0);
-
-            listener.downloadPatchesProgress((int) ((float) (downloadedSize.get() + patchDownloadedSize.get()) * 100F / totalDownloadSizeFloat));
-            // Downloading: 1.6 MiB / 240 MiB, 2.6 MiB/s, 1m 32s remaining
-            listener.downloadPatchesMessage("Downloading: "
-                    + Util.humanReadableByteCount((downloadedSize.get() + patchDownloadedSize.get()), false) + " / " + totalDownloadSizeString + ", "
-                    + Util.humanReadableByteCount(downloadProgress.getSpeed(), false) + "/s" + ", "
-                    + Util.humanReadableTimeCount(downloadProgress.getTimeRemaining(), 3) + " remaining");
+          long lastRefresh = lastRefreshTime.get();
+          // only one of the concurrent downloads do the refresh
+          if (currentTime - lastRefresh > 200 && lastRefreshTime.compareAndSet(lastRefresh, currentTime)) {
+            downloadProgress.feed(downloadedSizeSinceLastRefresh.getAndSet(0L));
+
+            long downloaded = downloadedSize.get();
+            synchronized (listener) {
+              listener.downloadPatchesProgress((int) ((float) downloaded * 100F / totalDownloadSizeFloat));
+              // Downloading: 1.6 MiB / 240 MiB, 2.6 MiB/s, 1m 32s remaining
+              listener.downloadPatchesMessage("Downloading: "
+                      + Util.humanReadableByteCount(downloaded, false) + " / " + totalDownloadSizeString + ", "
+                      + Util.humanReadableByteCount(downloadProgress.getSpeed(), false) + "/s" + ", "
+                      + Util.humanReadableTimeCount(downloadProgress.getTimeRemaining(), 3) + " remaining");
+            }
           }
         }
 
@@ -181,34 +242,72 @@ public class PatchDownloader {
           retryTimesRemaining.decrementAndGet();
 
           lastRefreshTime.set(System.currentTimeMillis());
-          downloadProgress.feed(downloadedSizeSinceLastRefresh.get());
-          downloadedSizeSinceLastRefresh.set(0);
+          downloadProgress.feed(downloadedSizeSinceLastRefresh.getAndSet(0L));
 
           byteStart(0);
         }
       };
 
-      File saveToFile = new File(storagePath + File.separator + patch.getId() + ".patch");
+      tasks.add(new Callable<DownloadResult>() {
 
-      DownloadResult updateResult = getPatch(getPatchListener, patch.getDownloadUrl(), saveToFile, patch.getDownloadChecksum(), patch.getDownloadLength(), retryTimesRemaining.get(), retryDelay);
-      if (updateResult == DownloadResult.INTERRUPTED) {
-        return DownloadPatchesResult.DOWNLOAD_INTERRUPTED;
-      }
-      if (updateResult != DownloadResult.SUCCEED) {
-        return DownloadPatchesResult.ERROR;
+        @Override
+        public DownloadResult call() throws Exception {
+          File saveToFile = new File(storagePath + File.separator + patch.getId() + ".patch");
+          return getPatch(getPatchListener, patch.getDownloadUrl(), saveToFile, patch.getDownloadChecksum(), patch.getDownloadLength(), retryTimesRemaining.get(), retryDelay, options);
+        }
+      });
+    }
+
+    ExecutorService executor = null;
+    List<Future<DownloadResult>> futures = new ArrayList<Future<DownloadResult>>();
+    int concurrentDownloads = options.getConcurrentDownloads();
+    if (concurrentDownloads > 1 && patches.size() > 1) {
+      executor = Executors.newFixedThreadPool(Math.min(concurrentDownloads, patches.size()));
+      for (Callable<DownloadResult> task : tasks) {
+        futures.add(executor.submit(task));
       }
+      executor.shutdown();
+    }
 
-      downloadedSize.set(downloadedSize.get() + patch.getDownloadLength());
-      try {
-        // update client script
-        listener.downloadPatchesPatchDownloaded(new Patch(patch.getId(),
-                patch.getType(), patch.getVersionFrom(), patch.getVersionFromSubsequent(), patch.getVersionTo(),
-                null, null, -1,
-                patch.getDownloadEncryptionType(), patch.getDownloadEncryptionKey(), patch.getDownloadEncryptionIV(),
-                new ArrayList<Operation>(), new ArrayList<ValidationFile>()));
-      } catch (IOException ex) {
-        LOG.log(Level.WARNING, null, ex);
-        return DownloadPatchesResult.SAVE_TO_CLIENT_SCRIPT_FAIL;
+    try {
+      // download, the patches are reported in chain order no matter which one finish first
+      for (int i = 0, iEnd = patches.size(); i < iEnd; i++) {
+        Patch patch = patches.get(i);
+
+        DownloadResult updateResult;
+        try {
+          updateResult = executor == null ? tasks.get(i).call() : futures.get(i).get();
+        } catch (InterruptedException ex) {
+          return DownloadPatchesResult.DOWNLOAD_INTERRUPTED;
+        } catch (ExecutionException ex) {
+          LOG.log(Level.SEVERE, null, ex.getCause());
+          return DownloadPatchesResult.ERROR;
+        } catch (Exception ex) {
+          LOG.log(Level.SEVERE, null, ex);
+          return DownloadPatchesResult.ERROR;
+        }
+        if (updateResult == DownloadResult.INTERRUPTED) {
+          return DownloadPatchesResult.DOWNLOAD_INTERRUPTED;
+        }
+        if (updateResult != DownloadResult.SUCCEED) {
+          return DownloadPatchesResult.ERROR;
+        }
+
+        try {
+          // update client script
+          listener.downloadPatchesPatchDownloaded(new Patch(patch.getId(),
+                  patch.getType(), patch.getVersionFrom(), patch.getVersionFromSubsequent(), patch.getVersionTo(),
+                  null, null, -1,
+                  patch.getDownloadEncryptionType(), patch.getDownloadEncryptionKey(), patch.getDownloadEncryptionIV(),
+                  new ArrayList<Operation>(), new ArrayList<ValidationFile>()));
+        } catch (IOException ex) {
+          LOG.log(Level.WARNING, null, ex);
+          return DownloadPatchesResult.SAVE_TO_CLIENT_SCRIPT_FAIL;
+        }
+      }
+    } finally {
+      if (executor != null) {
+        stopDownloads(executor);
       }
     }
 
@@ -218,6 +317,50 @@ public class PatchDownloader {
     return DownloadPatchesResult.COMPLETED;
   }
 
+  /**
+   * Interrupt the downloads still running in the {@code executor} and wait 
+   * for them to finish, so that the partially downloaded files are closed 
+   * and ready to be resumed.
+   * @param executor the executor that run the downloads
+   */
+  protected static void stopDownloads(ExecutorService executor) {
+    executor.shutdownNow();
+
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+          break;
+        }
+      } catch (InterruptedException ex) {
+        // keep waiting, restore the interrupted status after all downloads stopped
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Get the patch from the Internet with the default 
+   * {@link DownloadOptions}.
+   * This will check the exist file in the path of {@code saveToFile} and 
+   * determine resume download.
+   * @param listener the progress listener
+   * @param url the URL to download the patch from
+   * @param saveToFile the place to save the downloaded patch
+   * @param fileSHA256 the SHA-256 digest of the patch
+   * @param expectedLength the expected file length of the patch
+   * @param retryTimes total number of times to retry
+   * @param retryDelay the time to delay before each retry
+   * @return the get patch result
+   * @throws MalformedURLException {@code url} is not a valid HTTP URL
+   */
+  public static DownloadResult getPatch(final DownloadProgressListener listener, String url, File saveToFile, String fileSHA256, long expectedLength, int retryTimes, int retryDelay) throws MalformedURLException {
+    return getPatch(listener, url, saveToFile, fileSHA256, expectedLength, retryTimes, retryDelay, new DownloadOptions());
+  }
+
   /**
    * Get the patch from the Internet.
    * This will check the exist file in the path of {@code saveToFile} and 
@@ -229,10 +372,12 @@ public class PatchDownloader {
    * @param expectedLength the expected file length of the patch
    * @param retryTimes total number of times to retry
    * @param retryDelay the time to delay before each retry
+   * @param options the number of connections and the bandwidth limit of the 
+   * download, the number of concurrent downloads is not used
    * @return the get patch result
    * @throws MalformedURLException {@code url} is not a valid HTTP URL
    */
-  public static DownloadResult getPatch(final DownloadProgressListener listener, String url, File saveToFile, String fileSHA256, int expectedLength, int retryTimes, int retryDelay) throws MalformedURLException {
+  public static DownloadResult getPatch(final DownloadProgressListener listener, String url, File saveToFile, String fileSHA256, long expectedLength, int retryTimes, int retryDelay, DownloadOptions options) throws MalformedURLException {
     if (listener == null) {
       throw new NullPointerException("argument 'listener' cannot be null");
     }
@@ -248,17 +393,58 @@ public class PatchDownloader {
     if (expectedLength <= 0) {
       throw new IllegalArgumentException("argument 'expectedLength' should greater than 0");
     }
+    if (options == null) {
+      throw new NullPointerException("argument 'options' cannot be null");
+    }
 
     FileOutputStream fout = null;
     try {
       HTTPDownloader downloader = new HTTPDownloader();
+      downloader.setBandwidthLimiter(createBandwidthLimiter(options.getBandwidthLimit(), options.isBackground()));
       downloader.setResumeFile(saveToFile);
+      downloader.setSegmentCount(options.getSegmentCount());
       return downloader.download(listener, new URL(url), fileSHA256, expectedLength, retryTimes, retryDelay);
     } finally {
       Util.closeQuietly(fout);
     }
   }
 
+  /**
+   * Set the global bandwidth limit of the process according to the 
+   * &lt;download&gt; settings in the client script. The limit of every 
+   * download is passed to the downloads of the call instead.
+   * @param client the client script
+   */
+  protected static void setGlobalBandwidthLimit(Client client) {
+    BandwidthLimiter globalLimiter = BandwidthLimiter.getGlobalLimiter();
+    globalLimiter.setBytesPerSecond(client.getDownloadGlobalRateLimit());
+    globalLimiter.setBackground(isBackgroundPriority(client));
+  }
+
+  /**
+   * Check if the &lt;download&gt; settings in the client script ask for 
+   * background priority.
+   * @param client the client script
+   * @return true if in background priority
+   */
+  protected static boolean isBackgroundPriority(Client client) {
+    return client.getDownloadPriority() != null && client.getDownloadPriority().equals("background");
+  }
+
+  /**
+   * Create the bandwidth limiter for a download.
+   * @param bandwidthLimit the limit in bytes per second, 0 means unlimited
+   * @param background true to adapt to the observed delay, see 
+   * {@link BandwidthLimiter}
+   * @return the limiter, null if not limited
+   */
+  protected static BandwidthLimiter createBandwidthLimiter(long bandwidthLimit, boolean background) {
+    if (bandwidthLimit == 0 && !background) {
+      return null;
+    }
+    return new BandwidthLimiter(bandwidthLimit, background);
+  }
+
   /**
    * Determine the suitable patches to download to upgrade the current version 
    * of software to highest possible version with least download size.
@@ -289,42 +475,132 @@ public class PatchDownloader {
     if (fromVersion == null) {
       throw new NullPointerException("argument 'fromVersion' cannot be null");
     }
-    List<Patch> returnResult = new ArrayList<Patch>();
 
-    String maxVersion = fromVersion;
+    // build the version graph, versions are parsed once only
+    Map<String, int[]> parsedVersions = new HashMap<String, int[]>();
+    Map<String, List<Patch>> patchesByVersionFrom = new HashMap<String, List<Patch>>();
+    List<Patch> subsequentPatches = new ArrayList<Patch>();
     for (Patch patch : allPatches) {
       if (acceptOnlyFullPack && (patch.getType() == null || !patch.getType().equals("full"))) {
         continue;
       }
+      parseVersion(parsedVersions, patch.getVersionTo());
+      if (patch.getVersionFrom() != null) {
+        List<Patch> patchList = patchesByVersionFrom.get(patch.getVersionFrom());
+        if (patchList == null) {
+          patchList = new ArrayList<Patch>();
+          patchesByVersionFrom.put(patch.getVersionFrom(), patchList);
+        }
+        patchList.add(patch);
+      }
+      if (patch.getVersionFromSubsequent() != null) {
+        parseVersion(parsedVersions, patch.getVersionFromSubsequent());
+        subsequentPatches.add(patch);
+      }
+    }
+    int[] parsedFromVersion = parseVersion(parsedVersions, fromVersion);
+
+    // Dijkstra, minimize the total download size then the number of patches
+    Map<String, VersionNode> nodes = new HashMap<String, VersionNode>();
+    PriorityQueue<VersionNode> queue = new PriorityQueue<VersionNode>();
+    VersionNode startNode = new VersionNode(fromVersion, 0, 0, null, null);
+    nodes.put(fromVersion, startNode);
+    queue.add(startNode);
+
+    VersionNode bestNode = null;
+    while (!queue.isEmpty()) {
+      VersionNode node = queue.poll();
+      if (node.settled || nodes.get(node.version) != node) {
+        // settled or replaced by a shorter path
+        continue;
+      }
+      node.settled = true;
 
-      if ((patch.getVersionFrom() != null && patch.getVersionFrom().equals(fromVersion))
-              || (patch.getVersionFromSubsequent() != null && Util.compareVersion(fromVersion, patch.getVersionFromSubsequent()) >= 0 && Util.compareVersion(patch.getVersionTo(), fromVersion) > 0)) {
-        List<Patch> tempResult = new ArrayList<Patch>();
-
-        tempResult.add(patch);
+      int[] parsedVersion = parsedVersions.get(node.version);
+      // pick the highest version, then the least download size and number of patches
+      if (compareVersion(parsedVersion, parsedFromVersion) > 0) {
+        if (bestNode == null || compareVersion(parsedVersion, parsedVersions.get(bestNode.version)) > 0) {
+          bestNode = node;
+        }
+      }
 
-        List<Patch> _allUpdates = getSuitablePatches(allPatches, patch.getVersionTo(), acceptOnlyFullPack);
-        if (!_allUpdates.isEmpty()) {
-          tempResult.addAll(_allUpdates);
+      List<Patch> edges = new ArrayList<Patch>();
+      List<Patch> patchList = patchesByVersionFrom.get(node.version);
+      if (patchList != null) {
+        edges.addAll(patchList);
+      }
+      for (Patch patch : subsequentPatches) {
+        if (compareVersion(parsedVersion, parsedVersions.get(patch.getVersionFromSubsequent())) >= 0
+                && compareVersion(parsedVersions.get(patch.getVersionTo()), parsedVersion) > 0) {
+          edges.add(patch);
         }
+      }
 
-        Patch _maxUpdateThisRound = tempResult.get(tempResult.size() - 1);
-        long compareResult = Util.compareVersion(_maxUpdateThisRound.getVersionTo(), maxVersion);
-        if (compareResult > 0) {
-          maxVersion = _maxUpdateThisRound.getVersionTo();
-          returnResult = tempResult;
-        } else if (compareResult == 0) {
-          long tempResultCost = calculateTotalLength(tempResult);
-          long returnResultCost = calculateTotalLength(returnResult);
-          if (tempResultCost < returnResultCost
-                  || (tempResultCost == returnResultCost && tempResult.size() < returnResult.size())) {
-            returnResult = tempResult;
-          }
+      for (Patch patch : edges) {
+        long size = node.size + Math.max(0, patch.getDownloadLength());
+        int hops = node.hops + 1;
+        VersionNode nextNode = nodes.get(patch.getVersionTo());
+        if (nextNode == null) {
+          nextNode = new VersionNode(patch.getVersionTo(), size, hops, node, patch);
+          nodes.put(patch.getVersionTo(), nextNode);
+          queue.add(nextNode);
+        } else if (!nextNode.settled && (size < nextNode.size || (size == nextNode.size && hops < nextNode.hops))) {
+          // the queue does not support decrease-key, add a new entry and skip the replaced one when polled
+          nextNode = new VersionNode(patch.getVersionTo(), size, hops, node, patch);
+          nodes.put(patch.getVersionTo(), nextNode);
+          queue.add(nextNode);
         }
       }
     }
 
-    return returnResult;
+    LinkedList<Patch> returnResult = new LinkedList<Patch>();
+    for (VersionNode node = bestNode; node != null && node.patch != null; node = node.previous) {
+      returnResult.addFirst(node.patch);
+    }
+
+    return new ArrayList<Patch>(returnResult);
+  }
+
+  /**
+   * Parse the version string, the parsed result is cached in 
+   * {@code parsedVersions}.
+   * @param parsedVersions the cache of parsed versions
+   * @param version the version string
+   * @return the parsed version
+   * @throws IllegalArgumentException version string is not a valid format
+   */
+  protected static int[] parseVersion(Map<String, int[]> parsedVersions, String version) {
+    int[] parsedVersion = parsedVersions.get(version);
+    if (parsedVersion == null) {
+      if (!version.matches("[0-9]+(\\.[0-9]+)*")) {
+        throw new IllegalArgumentException("Valid version number should be [0-9]+(\\.[0-9]+)*, found: " + version);
+      }
+      String[] versionParted = version.split("\\.");
+      parsedVersion = new int[versionParted.length];
+      for (int i = 0; i < versionParted.length; i++) {
+        parsedVersion[i] = Integer.parseInt(versionParted[i]);
+      }
+      parsedVersions.put(version, parsedVersion);
+    }
+    return parsedVersion;
+  }
+
+  /**
+   * Compare the parsed versions, same as {@link Util#compareVersion(java.lang.String, java.lang.String)}, 
+   * only the common parts of the two versions are compared.
+   * @param version1 parsed version
+   * @param version2 parsed version to compare to
+   * @return 0 if two version are equal, > 0 if {@code version1} is larger 
+   * than {@code version2}, < 0 if {@code version1} is smaller than 
+   * {@code version2}
+   */
+  protected static int compareVersion(int[] version1, int[] version2) {
+    for (int i = 0, iEnd = Math.min(version1.length, version2.length); i < iEnd; i++) {
+      if (version1[i] != version2[i]) {
+        return version1[i] > version2[i] ? 1 : -1;
+      }
+    }
+    return 0;
   }
 
   /**
@@ -360,6 +636,11 @@ public class PatchDownloader {
 
   /**
    * Get the updated catalog.
+   * <p>
+   * If the catalog cached in the storage path has a revision, the delta 
+   * catalogs of the subsequent revisions are downloaded and merged into the 
+   * cache. The full catalog is downloaded only if there is no delta catalog 
+   * available.</p>
    * @param client the path of the file of the client script
    * @return the catalog, null means no newer version of catalog is available
    * @throws IOException RSA key invalid or error occurred when getting the 
@@ -373,6 +654,9 @@ public class PatchDownloader {
     }
 
     String catalogURL = client.getCatalogUrl();
+    setGlobalBandwidthLimit(client);
+    // the catalogs are downloaded one after another, they can share the limiter
+    BandwidthLimiter bandwidthLimiter = createBandwidthLimiter(client.getDownloadRateLimit(), isBackgroundPriority(client));
 
     RSAPublicKey publicKey = null;
     int keyLength = 0;
@@ -385,8 +669,14 @@ public class PatchDownloader {
       }
     }
 
+    File catalogCacheFile = new File(client.getStoragePath() + File.separator + CATALOG_CACHE_FILE_NAME);
+    Catalog catalog = getDeltaUpdatedCatalog(catalogCacheFile, catalogURL, publicKey, keyLength, client.getCatalogFormat(), bandwidthLimiter);
+    if (catalog != null) {
+      return catalog;
+    }
+
     ByteArrayOutputStream bout = new ByteArrayOutputStream();
-    DownloadResult getCatalogResult = getCatalog(bout, catalogURL, client.getCatalogLastUpdated(), publicKey, keyLength);
+    DownloadResult getCatalogResult = downloadCatalog(bout, catalogURL, client.getCatalogLastUpdated(), 10, 1000, bandwidthLimiter);
     if (getCatalogResult == DownloadResult.FILE_NOT_MODIFIED) {
       return null;
     }
@@ -394,7 +684,152 @@ public class PatchDownloader {
       throw new IOException("Error occurred when getting the catalog.");
     }
 
-    return Catalog.read(bout.toByteArray());
+    byte[] receivedCatalog = bout.toByteArray();
+    catalog = Catalog.read(decodeCatalog(receivedCatalog, publicKey, keyLength, client.getCatalogFormat()));
+    List<byte[]> receivedCatalogs = new ArrayList<byte[]>();
+    receivedCatalogs.add(receivedCatalog);
+    saveCatalogCache(catalogCacheFile, catalog, receivedCatalogs);
+
+    return catalog;
+  }
+
+  /**
+   * Update the catalog cache by downloading the delta catalogs. The delta 
+   * catalog of revision <i>n</i> is located at {@code catalogURL} + "." + 
+   * <i>n</i>, and contains only the patches appended in that revision.
+   * <p>
+   * The cache keeps the full catalog and the delta catalogs as received, they 
+   * are verified/decrypted again when the cache is loaded.</p>
+   * @param catalogCacheFile the catalog cache file
+   * @param catalogURL the URL of the full catalog
+   * @param key see {@link #getCatalog(java.io.OutputStream, java.lang.String, long, java.security.interfaces.RSAPublicKey, int, java.lang.String)}
+   * @param keyLength see {@link #getCatalog(java.io.OutputStream, java.lang.String, long, java.security.interfaces.RSAPublicKey, int, java.lang.String)}
+   * @param format see {@link #getCatalog(java.io.OutputStream, java.lang.String, long, java.security.interfaces.RSAPublicKey, int, java.lang.String)}
+   * @param bandwidthLimiter the bandwidth limiter of the downloads, null 
+   * means not limited
+   * @return the updated catalog, null if there is no usable cache or no 
+   * delta catalog available
+   * @throws IOException error occurred when getting the delta catalog
+   */
+  protected static Catalog getDeltaUpdatedCatalog(File catalogCacheFile, String catalogURL, RSAPublicKey key, int keyLength, String format, BandwidthLimiter bandwidthLimiter) throws IOException {
+    if (!catalogCacheFile.isFile()) {
+      return null;
+    }
+
+    List<byte[]> receivedCatalogs;
+    Catalog catalog = null;
+    try {
+      receivedCatalogs = readCatalogCache(catalogCacheFile);
+      for (byte[] receivedCatalog : receivedCatalogs) {
+        Catalog _catalog = Catalog.read(decodeCatalog(receivedCatalog, key, keyLength, format));
+        if (catalog == null) {
+          catalog = _catalog;
+        } else if (_catalog.getRevision() == catalog.getRevision() + 1) {
+          catalog.merge(_catalog);
+        } else {
+          throw new InvalidFormatException("Revision of the cached delta catalog not match, expected: " + (catalog.getRevision() + 1) + ", actual: " + _catalog.getRevision());
+        }
+      }
+    } catch (IOException ex) {
+      LOG.log(Level.WARNING, null, ex);
+      return null;
+    } catch (InvalidFormatException ex) {
+      LOG.log(Level.WARNING, null, ex);
+      return null;
+    }
+    if (catalog == null || catalog.getRevision() == -1) {
+      return null;
+    }
+
+    int deltaCount = 0;
+    while (true) {
+      int revision = catalog.getRevision() + 1;
+
+      // most probes end with 404, don't retry
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DownloadResult result = downloadCatalog(bout, catalogURL + "." + revision, -1, 0, 0, bandwidthLimiter);
+      if (result == DownloadResult.FILE_NOT_FOUND) {
+        break;
+      }
+      if (result != DownloadResult.SUCCEED) {
+        // fall back to get the full catalog
+        return null;
+      }
+
+      byte[] receivedCatalog = bout.toByteArray();
+      Catalog delta;
+      try {
+        delta = Catalog.read(decodeCatalog(receivedCatalog, key, keyLength, format));
+      } catch (InvalidFormatException ex) {
+        LOG.log(Level.WARNING, null, ex);
+        return null;
+      }
+      if (delta.getRevision() != revision) {
+        LOG.log(Level.WARNING, "Revision of the delta catalog not match, expected: {0}, actual: {1}", new Object[]{revision, delta.getRevision()});
+        return null;
+      }
+
+      catalog.merge(delta);
+      receivedCatalogs.add(receivedCatalog);
+      deltaCount++;
+    }
+    if (deltaCount == 0) {
+      return null;
+    }
+
+    saveCatalogCache(catalogCacheFile, catalog, receivedCatalogs);
+
+    return catalog;
+  }
+
+  /**
+   * Read the catalogs, as received, from the catalog cache.
+   * @param catalogCacheFile the catalog cache file
+   * @return the full catalog followed by the delta catalogs
+   * @throws IOException error occurred when reading or the cache is corrupted
+   */
+  protected static List<byte[]> readCatalogCache(File catalogCacheFile) throws IOException {
+    List<byte[]> receivedCatalogs = new ArrayList<byte[]>();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(Util.readFile(catalogCacheFile)));
+    while (in.available() > 0) {
+      int length = in.readInt();
+      if (length < 0 || length > in.available()) {
+        throw new IOException("Catalog cache corrupted.");
+      }
+      byte[] receivedCatalog = new byte[length];
+      in.readFully(receivedCatalog);
+      receivedCatalogs.add(receivedCatalog);
+    }
+
+    return receivedCatalogs;
+  }
+
+  /**
+   * Save the catalogs, as received, as the catalog cache. The cache is 
+   * removed if the catalog has no revision.
+   * @param catalogCacheFile the catalog cache file
+   * @param catalog the catalog merged from {@code receivedCatalogs}
+   * @param receivedCatalogs the full catalog followed by the delta catalogs
+   */
+  protected static void saveCatalogCache(File catalogCacheFile, Catalog catalog, List<byte[]> receivedCatalogs) {
+    if (catalog.getRevision() == -1) {
+      catalogCacheFile.delete();
+      return;
+    }
+    try {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bout);
+      for (byte[] receivedCatalog : receivedCatalogs) {
+        out.writeInt(receivedCatalog.length);
+        out.write(receivedCatalog);
+      }
+      out.flush();
+      Util.writeFile(catalogCacheFile, bout.toByteArray());
+    } catch (IOException ex) {
+      LOG.log(Level.WARNING, null, ex);
+      catalogCacheFile.delete();
+    }
   }
 
   /**
@@ -412,6 +847,52 @@ public class PatchDownloader {
    * @throws IOException catalog content invalid
    */
   public static DownloadResult getCatalog(OutputStream out, String url, long lastUpdateDate, RSAPublicKey key, int keyLength) throws MalformedURLException, IOException {
+    return getCatalog(out, url, lastUpdateDate, key, keyLength, null);
+  }
+
+  /**
+   * Get the catalog from Internet.
+   * @param out the stream to output the catalog data to
+   * @param url the URL to download the catalog from
+   * @param lastUpdateDate the last update date, if the catalog not be updated 
+   * since this date, the content of the catalog will not be downloaded 
+   * (save time and traffic); -1 means not specified
+   * @param key the RSA key to verify/decrypt the catalog, null means no 
+   * encryption
+   * @param keyLength if {@code key} specified, provide the key length of the 
+   * RSA key in byte
+   * @param format if {@code key} specified, the format of the catalog 
+   * accepted, "signed" for the catalog with detached signature, "encrypted" 
+   * for the RSA encrypted catalog, null means accept both
+   * @return the get catalog result
+   * @throws MalformedURLException {@code url} is not a valid HTTP URL
+   * @throws IOException catalog content invalid
+   */
+  public static DownloadResult getCatalog(OutputStream out, String url, long lastUpdateDate, RSAPublicKey key, int keyLength, String format) throws MalformedURLException, IOException {
+    return getCatalog(out, url, lastUpdateDate, key, keyLength, format, null);
+  }
+
+  /**
+   * Get the catalog from Internet.
+   * @param out the stream to output the catalog data to
+   * @param url the URL to download the catalog from
+   * @param lastUpdateDate the last update date, if the catalog not be updated 
+   * since this date, the content of the catalog will not be downloaded 
+   * (save time and traffic); -1 means not specified
+   * @param key the RSA key to verify/decrypt the catalog, null means no 
+   * encryption
+   * @param keyLength if {@code key} specified, provide the key length of the 
+   * RSA key in byte
+   * @param format if {@code key} specified, the format of the catalog 
+   * accepted, "signed" for the catalog with detached signature, "encrypted" 
+   * for the RSA encrypted catalog, null means accept both
+   * @param bandwidthLimiter the bandwidth limiter of this download, null 
+   * means not limited
+   * @return the get catalog result
+   * @throws MalformedURLException {@code url} is not a valid HTTP URL
+   * @throws IOException catalog content invalid
+   */
+  public static DownloadResult getCatalog(OutputStream out, String url, long lastUpdateDate, RSAPublicKey key, int keyLength, String format, BandwidthLimiter bandwidthLimiter) throws MalformedURLException, IOException {
     if (out == null) {
       throw new NullPointerException("argument 'out' cannot be null");
     }
@@ -425,31 +906,116 @@ public class PatchDownloader {
       throw new IllegalArgumentException("argument 'keyLength' invalid, should >= 1");
     }
 
-    FileOutputStream fout = null;
-    try {
-      ByteArrayOutputStream bout = new ByteArrayOutputStream();
-      HTTPDownloader downloader = new HTTPDownloader();
-      downloader.setOutputTo(bout);
-      if (lastUpdateDate != -1) {
-        downloader.setIfModifiedSince(lastUpdateDate);
-      }
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DownloadResult result = downloadCatalog(bout, url, lastUpdateDate, 10, 1000, bandwidthLimiter);
+    if (result == DownloadResult.SUCCEED) {
+      out.write(decodeCatalog(bout.toByteArray(), key, keyLength, format));
+    }
 
-      DownloadResult result = downloader.download(null, new URL(url), null, -1, 10, 1000);
-      if (result == DownloadResult.SUCCEED) {
-        byte[] content = bout.toByteArray();
-        // decrypt & decompress
-        if (key != null) {
-          content = Util.rsaDecrypt(key, keyLength, content);
-          content = Util.GZipDecompress(content);
-        }
-        out.write(content);
-      }
+    return result;
+  }
 
-      return result;
+  /**
+   * Download the catalog as it is, without verifying/decrypting it.
+   * @param out the stream to output the received catalog data to
+   * @param url the URL to download the catalog from
+   * @param lastUpdateDate see {@link #getCatalog(java.io.OutputStream, java.lang.String, long, java.security.interfaces.RSAPublicKey, int, java.lang.String)}
+   * @param retryTimes total number of times to retry
+   * @param retryDelay the time to delay before each retry
+   * @param bandwidthLimiter the bandwidth limiter of this download, null 
+   * means not limited
+   * @return the download result
+   * @throws MalformedURLException {@code url} is not a valid HTTP URL
+   * @throws IOException error occurred when writing to {@code out}
+   */
+  protected static DownloadResult downloadCatalog(OutputStream out, String url, long lastUpdateDate, int retryTimes, int retryDelay, BandwidthLimiter bandwidthLimiter) throws MalformedURLException, IOException {
+    if (url == null) {
+      throw new NullPointerException("argument 'url' cannot be null");
+    }
+    if (lastUpdateDate < -1) {
+      throw new IllegalArgumentException("argument 'lastUpdateDate' smaller than -1");
+    }
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    HTTPDownloader downloader = new HTTPDownloader();
+    downloader.setBandwidthLimiter(bandwidthLimiter);
+    downloader.setOutputTo(bout);
+    if (lastUpdateDate != -1) {
+      downloader.setIfModifiedSince(lastUpdateDate);
+    }
+
+    DownloadResult result = downloader.download(null, new URL(url), null, -1, retryTimes, retryDelay);
+    if (result == DownloadResult.SUCCEED) {
+      out.write(bout.toByteArray());
+    }
+
+    return result;
+  }
+
+  /**
+   * Verify/decrypt and decompress the received catalog.
+   * @param content the received catalog data
+   * @param key see {@link #getCatalog(java.io.OutputStream, java.lang.String, long, java.security.interfaces.RSAPublicKey, int, java.lang.String)}
+   * @param keyLength see {@link #getCatalog(java.io.OutputStream, java.lang.String, long, java.security.interfaces.RSAPublicKey, int, java.lang.String)}
+   * @param format see {@link #getCatalog(java.io.OutputStream, java.lang.String, long, java.security.interfaces.RSAPublicKey, int, java.lang.String)}
+   * @return the catalog data
+   * @throws IOException the catalog is not in the accepted format, or failed 
+   * to verify/decrypt or decompress the catalog
+   */
+  protected static byte[] decodeCatalog(byte[] content, RSAPublicKey key, int keyLength, String format) throws IOException {
+    if (key == null) {
+      return content;
+    }
+    try {
+      boolean signed = Util.isSignedCatalog(content);
+      if (format != null && !format.equals(signed ? "signed" : "encrypted")) {
+        throw new IOException("The catalog is not in the accepted format: " + format);
+      }
+      content = signed ? Util.verifySignedCatalog(key, content) : Util.rsaDecrypt(key, keyLength, content);
+      return Util.GZipDecompress(content);
     } catch (BadPaddingException ex) {
       throw new IOException(ex);
-    } finally {
-      Util.closeQuietly(fout);
+    } catch (SignatureException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * The version node used when determining the suitable patches.
+   */
+  protected static class VersionNode implements Comparable<VersionNode> {
+
+    protected final String version;
+    /**
+     * The total download size from the starting version.
+     */
+    protected final long size;
+    /**
+     * The number of patches from the starting version.
+     */
+    protected final int hops;
+    protected final VersionNode previous;
+    /**
+     * The patch that upgrade {@link #previous} to this version.
+     */
+    protected final Patch patch;
+    protected boolean settled;
+
+    protected VersionNode(String version, long size, int hops, VersionNode previous, Patch patch) {
+      this.version = version;
+      this.size = size;
+      this.hops = hops;
+      this.previous = previous;
+      this.patch = patch;
+      settled = false;
+    }
+
+    @Override
+    public int compareTo(VersionNode node) {
+      if (size != node.size) {
+        return size < node.size ? -1 : 1;
+      }
+      return hops - node.hops;
     }
   }
 }
@@ -1,17 +1,29 @@
 package updater.downloader;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 import javax.xml.transform.TransformerException;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -292,4 +304,87 @@ public class PatchDownloaderTest {
 
     clientScriptTemp.delete();
   }
+
+  /**
+   * Test of getDeltaUpdatedCatalog method, of class PatchDownloader.
+   */
+  @Test
+  public void testGetDeltaUpdatedCatalog() throws Exception {
+    System.out.println("+++++ testGetDeltaUpdatedCatalog +++++");
+
+    RSAPublicKey key = Util.getPublicKey(new BigInteger(TestCommon.modulusString, 16), new BigInteger(TestCommon.publicExponentString, 16));
+    RSAPrivateKey privateKey = Util.getPrivateKey(new BigInteger(TestCommon.modulusString, 16), new BigInteger(TestCommon.privateExponentString, 16));
+    int keyLength = new BigInteger(TestCommon.modulusString, 16).bitLength() / 8;
+
+    final Map<String, byte[]> hostedFiles = new HashMap<String, byte[]>();
+    hostedFiles.put("/catalog.xml.3", signCatalog(privateKey, new Catalog(3, null)));
+    final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.add(path);
+        byte[] content = hostedFiles.get(path);
+        if (content == null) {
+          exchange.sendResponseHeaders(path.equals("/catalog.xml.4") ? 404 : 500, -1);
+        } else {
+          exchange.sendResponseHeaders(200, content.length);
+          OutputStream out = exchange.getResponseBody();
+          out.write(content);
+          out.close();
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+
+    File catalogCacheFile = new File(TestCommon.pathToTestPackage + "catalog.cache");
+    try {
+      String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/catalog.xml";
+      List<byte[]> receivedCatalogs = new ArrayList<byte[]>();
+      receivedCatalogs.add(signCatalog(privateKey, new Catalog(2, null)));
+      PatchDownloader.saveCatalogCache(catalogCacheFile, new Catalog(2, null), receivedCatalogs);
+
+      System.out.println("+ merge the delta catalog");
+      Catalog catalog = PatchDownloader.getDeltaUpdatedCatalog(catalogCacheFile, url, key, keyLength, "signed", null);
+      assertNotNull(catalog);
+      assertEquals(3, catalog.getRevision());
+      assertEquals(Arrays.asList("/catalog.xml.3", "/catalog.xml.4"), requests);
+
+      // the cache keeps the catalogs as received
+      List<byte[]> cachedCatalogs = PatchDownloader.readCatalogCache(catalogCacheFile);
+      assertEquals(2, cachedCatalogs.size());
+      assertArrayEquals(receivedCatalogs.get(0), cachedCatalogs.get(0));
+      assertArrayEquals(hostedFiles.get("/catalog.xml.3"), cachedCatalogs.get(1));
+
+      System.out.println("+ probe failed, no retry");
+      hostedFiles.remove("/catalog.xml.3");
+      requests.clear();
+      PatchDownloader.saveCatalogCache(catalogCacheFile, new Catalog(2, null), receivedCatalogs);
+      assertNull(PatchDownloader.getDeltaUpdatedCatalog(catalogCacheFile, url, key, keyLength, "signed", null));
+      assertEquals(Arrays.asList("/catalog.xml.3"), requests);
+
+      System.out.println("+ manipulated cache");
+      hostedFiles.put("/catalog.xml.3", signCatalog(privateKey, new Catalog(3, null)));
+      requests.clear();
+      byte[] manipulatedCatalog = receivedCatalogs.get(0).clone();
+      manipulatedCatalog[manipulatedCatalog.length - 1] ^= 1;
+      PatchDownloader.saveCatalogCache(catalogCacheFile, new Catalog(2, null), Arrays.asList(manipulatedCatalog));
+      assertNull(PatchDownloader.getDeltaUpdatedCatalog(catalogCacheFile, url, key, keyLength, "signed", null));
+      assertTrue(requests.isEmpty());
+    } finally {
+      server.stop(0);
+      catalogCacheFile.delete();
+    }
+  }
+
+  protected static byte[] signCatalog(RSAPrivateKey key, Catalog catalog) throws IOException, TransformerException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    GZIPOutputStream gout = new GZIPOutputStream(bout);
+    gout.write(catalog.output());
+    gout.close();
+    return Util.signCatalog(key, bout.toByteArray());
+  }
 }
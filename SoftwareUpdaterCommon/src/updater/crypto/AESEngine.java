@@ -0,0 +1,244 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.crypto;
+
+/**
+ * Table-driven AES block cipher that produce the same result as 
+ * {@link watne.seis720.project.WatneAES_Implementer}.
+ * <p>{@link watne.seis720.project.WatneAES_Implementer} always expand the key 
+ * from its first 16 bytes (as AES-128 does) and continue the expansion until 
+ * there are enough round keys for the number of rounds of the key size. So it 
+ * is the same as standard AES for 128-bit keys, but not for 192-bit or 256-bit 
+ * keys. This class keep that key schedule so that the patches encrypted 
+ * before can still be decrypted, while processing the blocks with lookup 
+ * tables on {@code int} words instead of byte arrays.</p>
+ * <p>Operations are not thread-safe.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class AESEngine {
+
+  /**
+   * The block size in bytes.
+   */
+  public static final int BLOCK_SIZE = 16;
+  /**
+   * The S-box and the inverse S-box.
+   */
+  private static final int[] S = new int[256], SI = new int[256];
+  /**
+   * The round tables for encryption and decryption.
+   */
+  private static final int[] T0 = new int[256], T1 = new int[256], T2 = new int[256], T3 = new int[256];
+  private static final int[] TD0 = new int[256], TD1 = new int[256], TD2 = new int[256], TD3 = new int[256];
+
+  static {
+    // generate the tables from the field GF(2^8) instead of hard-coding them
+    int[] exp = new int[256], log = new int[256];
+    for (int i = 0, x = 1; i < 255; i++) {
+      exp[i] = x;
+      log[x] = i;
+      x ^= xtime(x);
+    }
+    for (int i = 0; i < 256; i++) {
+      int inverse = i == 0 ? 0 : exp[(255 - log[i]) % 255];
+      int s = inverse ^ rotl8(inverse, 1) ^ rotl8(inverse, 2) ^ rotl8(inverse, 3) ^ rotl8(inverse, 4) ^ 0x63;
+      S[i] = s;
+      SI[s] = i;
+    }
+    for (int i = 0; i < 256; i++) {
+      int s = S[i];
+      int t = (mul(s, 2) << 24) | (s << 16) | (s << 8) | mul(s, 3);
+      T0[i] = t;
+      T1[i] = Integer.rotateRight(t, 8);
+      T2[i] = Integer.rotateRight(t, 16);
+      T3[i] = Integer.rotateRight(t, 24);
+
+      int si = SI[i];
+      int td = (mul(si, 14) << 24) | (mul(si, 9) << 16) | (mul(si, 13) << 8) | mul(si, 11);
+      TD0[i] = td;
+      TD1[i] = Integer.rotateRight(td, 8);
+      TD2[i] = Integer.rotateRight(td, 16);
+      TD3[i] = Integer.rotateRight(td, 24);
+    }
+  }
+  /**
+   * The number of rounds.
+   */
+  protected final int rounds;
+  /**
+   * The round keys for encryption.
+   */
+  protected final int[] encryptKey;
+  /**
+   * The round keys for decryption, in reverse order and with inverse mix 
+   * columns applied for the equivalent inverse cipher.
+   */
+  protected final int[] decryptKey;
+
+  /**
+   * Constructor.
+   * @param key the cipher key, only the first 16 bytes are used in the key 
+   * expansion
+   * @param rounds the number of rounds, 10 for 128-bit keys, 12 for 192-bit 
+   * keys and 14 for 256-bit keys
+   */
+  public AESEngine(byte[] key, int rounds) {
+    if (key == null) {
+      throw new NullPointerException("argument 'key' cannot be null");
+    }
+    if (key.length < 16) {
+      throw new IllegalArgumentException("argument 'key' should be at least 16 bytes");
+    }
+    if (rounds != 10 && rounds != 12 && rounds != 14) {
+      throw new IllegalArgumentException("argument 'rounds' should be 10, 12 or 14");
+    }
+
+    this.rounds = rounds;
+
+    int words = 4 * (rounds + 1);
+    encryptKey = new int[words];
+    for (int i = 0; i < 4; i++) {
+      encryptKey[i] = getInt(key, 4 * i);
+    }
+    int roundConstant = 1;
+    for (int i = 4; i < words; i++) {
+      int temp = encryptKey[i - 1];
+      if (i % 4 == 0) {
+        temp = subWord(Integer.rotateLeft(temp, 8)) ^ (roundConstant << 24);
+        roundConstant = xtime(roundConstant);
+      }
+      encryptKey[i] = encryptKey[i - 4] ^ temp;
+    }
+
+    decryptKey = new int[words];
+    for (int round = 0; round <= rounds; round++) {
+      for (int i = 0; i < 4; i++) {
+        int w = encryptKey[(rounds - round) * 4 + i];
+        if (round != 0 && round != rounds) {
+          w = TD0[S[w >>> 24]] ^ TD1[S[(w >>> 16) & 0xff]] ^ TD2[S[(w >>> 8) & 0xff]] ^ TD3[S[w & 0xff]];
+        }
+        decryptKey[round * 4 + i] = w;
+      }
+    }
+  }
+
+  /**
+   * Encrypt one block.
+   * @param in the input buffer
+   * @param inOff the start offset in {@code in}
+   * @param out the output buffer, can be the same as {@code in}
+   * @param outOff the start offset in {@code out}
+   */
+  public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+    int[] rk = encryptKey;
+    int t0 = getInt(in, inOff) ^ rk[0];
+    int t1 = getInt(in, inOff + 4) ^ rk[1];
+    int t2 = getInt(in, inOff + 8) ^ rk[2];
+    int t3 = getInt(in, inOff + 12) ^ rk[3];
+
+    int k = 4;
+    for (int round = 1; round < rounds; round++) {
+      int s0 = T0[t0 >>> 24] ^ T1[(t1 >>> 16) & 0xff] ^ T2[(t2 >>> 8) & 0xff] ^ T3[t3 & 0xff] ^ rk[k];
+      int s1 = T0[t1 >>> 24] ^ T1[(t2 >>> 16) & 0xff] ^ T2[(t3 >>> 8) & 0xff] ^ T3[t0 & 0xff] ^ rk[k + 1];
+      int s2 = T0[t2 >>> 24] ^ T1[(t3 >>> 16) & 0xff] ^ T2[(t0 >>> 8) & 0xff] ^ T3[t1 & 0xff] ^ rk[k + 2];
+      int s3 = T0[t3 >>> 24] ^ T1[(t0 >>> 16) & 0xff] ^ T2[(t1 >>> 8) & 0xff] ^ T3[t2 & 0xff] ^ rk[k + 3];
+      t0 = s0;
+      t1 = s1;
+      t2 = s2;
+      t3 = s3;
+      k += 4;
+    }
+
+    putInt(out, outOff, ((S[t0 >>> 24] << 24) | (S[(t1 >>> 16) & 0xff] << 16) | (S[(t2 >>> 8) & 0xff] << 8) | S[t3 & 0xff]) ^ rk[k]);
+    putInt(out, outOff + 4, ((S[t1 >>> 24] << 24) | (S[(t2 >>> 16) & 0xff] << 16) | (S[(t3 >>> 8) & 0xff] << 8) | S[t0 & 0xff]) ^ rk[k + 1]);
+    putInt(out, outOff + 8, ((S[t2 >>> 24] << 24) | (S[(t3 >>> 16) & 0xff] << 16) | (S[(t0 >>> 8) & 0xff] << 8) | S[t1 & 0xff]) ^ rk[k + 2]);
+    putInt(out, outOff + 12, ((S[t3 >>> 24] << 24) | (S[(t0 >>> 16) & 0xff] << 16) | (S[(t1 >>> 8) & 0xff] << 8) | S[t2 & 0xff]) ^ rk[k + 3]);
+  }
+
+  /**
+   * Decrypt one block.
+   * @param in the input buffer
+   * @param inOff the start offset in {@code in}
+   * @param out the output buffer, can be the same as {@code in}
+   * @param outOff the start offset in {@code out}
+   */
+  public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+    int[] rk = decryptKey;
+    int t0 = getInt(in, inOff) ^ rk[0];
+    int t1 = getInt(in, inOff + 4) ^ rk[1];
+    int t2 = getInt(in, inOff + 8) ^ rk[2];
+    int t3 = getInt(in, inOff + 12) ^ rk[3];
+
+    int k = 4;
+    for (int round = 1; round < rounds; round++) {
+      int s0 = TD0[t0 >>> 24] ^ TD1[(t3 >>> 16) & 0xff] ^ TD2[(t2 >>> 8) & 0xff] ^ TD3[t1 & 0xff] ^ rk[k];
+      int s1 = TD0[t1 >>> 24] ^ TD1[(t0 >>> 16) & 0xff] ^ TD2[(t3 >>> 8) & 0xff] ^ TD3[t2 & 0xff] ^ rk[k + 1];
+      int s2 = TD0[t2 >>> 24] ^ TD1[(t1 >>> 16) & 0xff] ^ TD2[(t0 >>> 8) & 0xff] ^ TD3[t3 & 0xff] ^ rk[k + 2];
+      int s3 = TD0[t3 >>> 24] ^ TD1[(t2 >>> 16) & 0xff] ^ TD2[(t1 >>> 8) & 0xff] ^ TD3[t0 & 0xff] ^ rk[k + 3];
+      t0 = s0;
+      t1 = s1;
+      t2 = s2;
+      t3 = s3;
+      k += 4;
+    }
+
+    putInt(out, outOff, ((SI[t0 >>> 24] << 24) | (SI[(t3 >>> 16) & 0xff] << 16) | (SI[(t2 >>> 8) & 0xff] << 8) | SI[t1 & 0xff]) ^ rk[k]);
+    putInt(out, outOff + 4, ((SI[t1 >>> 24] << 24) | (SI[(t0 >>> 16) & 0xff] << 16) | (SI[(t3 >>> 8) & 0xff] << 8) | SI[t2 & 0xff]) ^ rk[k + 1]);
+    putInt(out, outOff + 8, ((SI[t2 >>> 24] << 24) | (SI[(t1 >>> 16) & 0xff] << 16) | (SI[(t0 >>> 8) & 0xff] << 8) | SI[t3 & 0xff]) ^ rk[k + 2]);
+    putInt(out, outOff + 12, ((SI[t3 >>> 24] << 24) | (SI[(t2 >>> 16) & 0xff] << 16) | (SI[(t1 >>> 8) & 0xff] << 8) | SI[t0 & 0xff]) ^ rk[k + 3]);
+  }
+
+  private static int subWord(int w) {
+    return (S[w >>> 24] << 24) | (S[(w >>> 16) & 0xff] << 16) | (S[(w >>> 8) & 0xff] << 8) | S[w & 0xff];
+  }
+
+  private static int xtime(int b) {
+    return ((b << 1) ^ ((b & 0x80) != 0 ? 0x1b : 0)) & 0xff;
+  }
+
+  private static int mul(int a, int b) {
+    int result = 0;
+    while (b != 0) {
+      if ((b & 1) != 0) {
+        result ^= a;
+      }
+      a = xtime(a);
+      b >>>= 1;
+    }
+    return result;
+  }
+
+  private static int rotl8(int b, int shift) {
+    return ((b << shift) | (b >>> (8 - shift))) & 0xff;
+  }
+
+  private static int getInt(byte[] b, int off) {
+    return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+  }
+
+  private static void putInt(byte[] b, int off, int value) {
+    b[off] = (byte) (value >>> 24);
+    b[off + 1] = (byte) (value >>> 16);
+    b[off + 2] = (byte) (value >>> 8);
+    b[off + 3] = (byte) value;
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.tukaani.xz.SeekableInputStream;
+
+/**
+ * The cipher backend that produce the same output as 
+ * {@link watne.seis720.project.AESForFile} with 256-bit key, CBC mode and 
+ * PKCS5 padding, which is the format of all the patches created before. It 
+ * use the table-driven {@link AESEngine} instead of 
+ * {@link watne.seis720.project.WatneAES_Implementer}.
+ * <p>Note that {@link watne.seis720.project.AESForFile} switch the mode to ECB 
+ * internally, so the IV in the {@link AESKey} is not used.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class AESForFileCipherBackend implements CipherBackend {
+
+  /**
+   * The number of rounds for 256-bit key.
+   */
+  protected static final int ROUNDS = 14;
+
+  /**
+   * Constructor.
+   */
+  public AESForFileCipherBackend() {
+  }
+
+  @Override
+  public InputStream getDecryptInputStream(AESKey aesKey, InputStream in) throws IOException {
+    if (aesKey == null) {
+      throw new NullPointerException("argument 'aesKey' cannot be null");
+    }
+    return new AESInputStream(in, getEngine(aesKey));
+  }
+
+  @Override
+  public OutputStream getEncryptOutputStream(AESKey aesKey, OutputStream out) throws IOException {
+    if (aesKey == null) {
+      throw new NullPointerException("argument 'aesKey' cannot be null");
+    }
+    return new AESOutputStream(out, getEngine(aesKey));
+  }
+
+  @Override
+  public SeekableInputStream getDecryptSeekableInputStream(AESKey aesKey, SeekableInputStream in) throws IOException {
+    if (aesKey == null) {
+      throw new NullPointerException("argument 'aesKey' cannot be null");
+    }
+    final AESEngine engine = getEngine(aesKey);
+    // every block is encrypted independently, the IV is not used
+    return new SeekableDecryptInputStream(in, new byte[AESEngine.BLOCK_SIZE], 32768) {
+
+      @Override
+      protected void decryptBlocks(byte[] previousBlock, byte[] in, int inOff, int length, byte[] out) throws IOException {
+        for (int i = 0; i < length; i += AESEngine.BLOCK_SIZE) {
+          engine.decryptBlock(in, inOff + i, out, i);
+        }
+      }
+    };
+  }
+
+  protected static AESEngine getEngine(AESKey aesKey) throws IOException {
+    try {
+      return new AESEngine(aesKey.getKey(), ROUNDS);
+    } catch (IllegalArgumentException ex) {
+      throw new IOException("Failed to initialize the cipher: " + ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,222 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that decrypt the AES encrypted data on the fly.
+ * <p>This read the data encrypted by {@link watne.seis720.project.AESForFile} 
+ * or {@link AESOutputStream}, so the patch can be decrypted while it is being 
+ * read and no temporary decrypted file is needed. 
+ * {@link watne.seis720.project.AESForFile} switch the cipher to ECB mode 
+ * internally and process every 16-byte block independently, this stream do 
+ * the same and remove the PKCS5 padding from the last block.</p>
+ * <p>This stream does not support pause and interrupt itself, wrap the 
+ * underlying stream with {@link updater.util.InterruptibleInputStream} if 
+ * needed.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class AESInputStream extends FilterInputStream {
+
+  /**
+   * The AES cipher.
+   */
+  protected final AESEngine engine;
+  /**
+   * The buffer for the encrypted data read from the underlying stream.
+   */
+  protected final byte[] cipherBuf;
+  /**
+   * The number of encrypted bytes in {@link #cipherBuf}.
+   */
+  protected int cipherCount;
+  /**
+   * The buffer for the decrypted data.
+   */
+  protected final byte[] plainBuf;
+  /**
+   * The position of the next byte to read in {@link #plainBuf}.
+   */
+  protected int plainPos;
+  /**
+   * The number of decrypted bytes in {@link #plainBuf}.
+   */
+  protected int plainCount;
+  /**
+   * Indicate the end of the underlying stream is reached or not.
+   */
+  protected boolean eof;
+
+  /**
+   * Constructor.
+   * @param in the input stream of the encrypted data
+   * @param engine the AES cipher
+   */
+  public AESInputStream(InputStream in, AESEngine engine) {
+    this(in, engine, 32768);
+  }
+
+  /**
+   * Constructor.
+   * @param in the input stream of the encrypted data
+   * @param engine the AES cipher
+   * @param bufferSize the size of the buffer, will be rounded to multiple of 
+   * 16 and should be at least 32
+   */
+  public AESInputStream(InputStream in, AESEngine engine, int bufferSize) {
+    super(in);
+
+    if (in == null) {
+      throw new NullPointerException("argument 'in' cannot be null");
+    }
+    if (engine == null) {
+      throw new NullPointerException("argument 'engine' cannot be null");
+    }
+    if (bufferSize < 2 * AESEngine.BLOCK_SIZE) {
+      throw new IllegalArgumentException("argument 'bufferSize' should >= " + (2 * AESEngine.BLOCK_SIZE));
+    }
+
+    this.engine = engine;
+
+    cipherBuf = new byte[bufferSize - (bufferSize % AESEngine.BLOCK_SIZE)];
+    cipherCount = 0;
+    plainBuf = new byte[cipherBuf.length];
+    plainPos = 0;
+    plainCount = 0;
+    eof = false;
+  }
+
+  /**
+   * Read and decrypt the next chunk of data into {@link #plainBuf}.
+   * <p>The last block read is kept until the next chunk or the end of the 
+   * stream is reached, so that the padding can be removed from the last 
+   * block.</p>
+   * @return false if the end of stream reached, true if not
+   * @throws IOException error occurred when reading or decrypting
+   */
+  protected boolean fill() throws IOException {
+    while (plainPos >= plainCount) {
+      if (eof) {
+        return false;
+      }
+
+      while (cipherCount < cipherBuf.length) {
+        int byteRead = in.read(cipherBuf, cipherCount, cipherBuf.length - cipherCount);
+        if (byteRead == -1) {
+          eof = true;
+          break;
+        }
+        cipherCount += byteRead;
+      }
+
+      if (eof && cipherCount % AESEngine.BLOCK_SIZE != 0) {
+        throw new IOException("The length of the encrypted data is not a multiple of " + AESEngine.BLOCK_SIZE + ".");
+      }
+
+      // keep the last block if it may not be the last block of the stream
+      int lengthToDecrypt = eof ? cipherCount : cipherCount - AESEngine.BLOCK_SIZE;
+      for (int i = 0; i < lengthToDecrypt; i += AESEngine.BLOCK_SIZE) {
+        engine.decryptBlock(cipherBuf, i, plainBuf, i);
+      }
+      System.arraycopy(cipherBuf, lengthToDecrypt, cipherBuf, 0, cipherCount - lengthToDecrypt);
+      cipherCount -= lengthToDecrypt;
+      plainPos = 0;
+      plainCount = lengthToDecrypt;
+
+      if (eof && plainCount > 0) {
+        int paddingLength = plainBuf[plainCount - 1] & 0xff;
+        if (paddingLength < 1 || paddingLength > AESEngine.BLOCK_SIZE) {
+          throw new IOException("Invalid padding length: " + paddingLength);
+        }
+        plainCount -= paddingLength;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return plainBuf[plainPos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException("argument 'b' cannot be null");
+    }
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+
+    int lengthToRead = Math.min(len, plainCount - plainPos);
+    System.arraycopy(plainBuf, plainPos, b, off, lengthToRead);
+    plainPos += lengthToRead;
+    return lengthToRead;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    while (skipped < n && fill()) {
+      int lengthToSkip = (int) Math.min(n - skipped, plainCount - plainPos);
+      plainPos += lengthToSkip;
+      skipped += lengthToSkip;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return plainCount - plainPos;
+  }
+
+  @Override
+  public void mark(int readlimit) {
+  }
+
+  @Override
+  public void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that encrypt the data with AES on the fly.
+ * <p>The output is the same as what {@link watne.seis720.project.AESForFile} 
+ * produce: every 16-byte block is encrypted independently and PKCS5 padding 
+ * is added to the last block when the stream is closed. Like 
+ * {@link watne.seis720.project.AESForFile}, nothing is written if no data 
+ * is written to this stream.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class AESOutputStream extends FilterOutputStream {
+
+  /**
+   * The AES cipher.
+   */
+  protected final AESEngine engine;
+  /**
+   * The buffer for the data to encrypt.
+   */
+  protected final byte[] buf;
+  /**
+   * The number of bytes in {@link #buf}.
+   */
+  protected int count;
+  /**
+   * The total number of bytes written to this stream.
+   */
+  protected long totalCount;
+  /**
+   * Indicate the stream is closed or not.
+   */
+  protected boolean closed;
+
+  /**
+   * Constructor.
+   * @param out the output stream to write the encrypted data to
+   * @param engine the AES cipher
+   */
+  public AESOutputStream(OutputStream out, AESEngine engine) {
+    this(out, engine, 32768);
+  }
+
+  /**
+   * Constructor.
+   * @param out the output stream to write the encrypted data to
+   * @param engine the AES cipher
+   * @param bufferSize the size of the buffer, will be rounded to multiple of 
+   * 16 and should be at least 16
+   */
+  public AESOutputStream(OutputStream out, AESEngine engine, int bufferSize) {
+    super(out);
+
+    if (out == null) {
+      throw new NullPointerException("argument 'out' cannot be null");
+    }
+    if (engine == null) {
+      throw new NullPointerException("argument 'engine' cannot be null");
+    }
+    if (bufferSize < AESEngine.BLOCK_SIZE) {
+      throw new IllegalArgumentException("argument 'bufferSize' should >= " + AESEngine.BLOCK_SIZE);
+    }
+
+    this.engine = engine;
+
+    buf = new byte[bufferSize - (bufferSize % AESEngine.BLOCK_SIZE)];
+    count = 0;
+    totalCount = 0;
+    closed = false;
+  }
+
+  /**
+   * Encrypt the full blocks in {@link #buf} and write them out.
+   * @throws IOException error occurred when writing
+   */
+  protected void encryptBuffer() throws IOException {
+    int lengthToEncrypt = count - (count % AESEngine.BLOCK_SIZE);
+    for (int i = 0; i < lengthToEncrypt; i += AESEngine.BLOCK_SIZE) {
+      engine.encryptBlock(buf, i, buf, i);
+    }
+    out.write(buf, 0, lengthToEncrypt);
+    System.arraycopy(buf, lengthToEncrypt, buf, 0, count - lengthToEncrypt);
+    count -= lengthToEncrypt;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed.");
+    }
+    buf[count++] = (byte) b;
+    totalCount++;
+    if (count == buf.length) {
+      encryptBuffer();
+    }
+  }
+
+  @Override
+  public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException("argument 'b' cannot be null");
+    }
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (closed) {
+      throw new IOException("Stream closed.");
+    }
+
+    while (len > 0) {
+      int lengthToCopy = Math.min(len, buf.length - count);
+      System.arraycopy(b, off, buf, count, lengthToCopy);
+      count += lengthToCopy;
+      totalCount += lengthToCopy;
+      off += lengthToCopy;
+      len -= lengthToCopy;
+      if (count == buf.length) {
+        encryptBuffer();
+      }
+    }
+  }
+
+  /**
+   * Flush the underlying stream. The bytes that not fill up a block yet will 
+   * be kept until more data is written or the stream is closed.
+   * @throws IOException error occurred when flushing
+   */
+  @Override
+  public void flush() throws IOException {
+    if (!closed) {
+      encryptBuffer();
+    }
+    out.flush();
+  }
+
+  /**
+   * Pad and encrypt the last block and close the underlying stream.
+   * @throws IOException error occurred when writing or closing
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (totalCount > 0) {
+        encryptBuffer();
+        int paddingLength = AESEngine.BLOCK_SIZE - count;
+        for (int i = 0; i < paddingLength; i++) {
+          buf[count++] = (byte) paddingLength;
+        }
+        encryptBuffer();
+      }
+      out.flush();
+    } finally {
+      closed = true;
+      out.close();
+    }
+  }
+}
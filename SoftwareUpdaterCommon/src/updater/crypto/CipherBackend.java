@@ -0,0 +1,68 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.tukaani.xz.SeekableInputStream;
+
+/**
+ * The cipher used to encrypt and decrypt the patches.
+ * <p>The patch encrypted with one backend can only be decrypted with the same 
+ * backend. {@link AESForFileCipherBackend} is the default and is compatible 
+ * with the patches encrypted by {@link watne.seis720.project.AESForFile}.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public interface CipherBackend {
+
+  /**
+   * Get the input stream that decrypt the data from {@code in}.
+   * @param aesKey the cipher key
+   * @param in the input stream of the encrypted data
+   * @return the input stream to read the decrypted data
+   * @throws IOException failed to initialize the cipher
+   */
+  InputStream getDecryptInputStream(AESKey aesKey, InputStream in) throws IOException;
+
+  /**
+   * Get the output stream that encrypt the data and write to {@code out}. 
+   * The stream must be closed to write out the last block.
+   * @param aesKey the cipher key
+   * @param out the output stream to write the encrypted data to
+   * @return the output stream to write the data to encrypt
+   * @throws IOException failed to initialize the cipher
+   */
+  OutputStream getEncryptOutputStream(AESKey aesKey, OutputStream out) throws IOException;
+
+  /**
+   * Get the seekable input stream that decrypt the data from {@code in} with 
+   * random access.
+   * @param aesKey the cipher key
+   * @param in the seekable input stream of the encrypted data
+   * @return the seekable input stream to read the decrypted data, or null if 
+   * random access is not supported by this backend
+   * @throws IOException failed to initialize the cipher or error occurred 
+   * when reading from {@code in}
+   */
+  SeekableInputStream getDecryptSeekableInputStream(AESKey aesKey, SeekableInputStream in) throws IOException;
+}
@@ -0,0 +1,238 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.crypto;
+
+import java.io.IOException;
+import org.tukaani.xz.SeekableInputStream;
+
+/**
+ * Seekable input stream that decrypt the AES encrypted data with random 
+ * access.
+ * <p>A block in ECB or CBC mode can be decrypted with only the block itself 
+ * and the block before it (or the IV for the first block), so this stream 
+ * only read and decrypt the blocks around the current position. The PKCS5 
+ * padding is removed from the last block and is not counted in 
+ * {@link #length()}.</p>
+ * <p>Operations are not thread-safe.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public abstract class SeekableDecryptInputStream extends SeekableInputStream {
+
+  /**
+   * The input stream of the encrypted data.
+   */
+  protected final SeekableInputStream in;
+  /**
+   * The IV, used as the block before the first block.
+   */
+  protected final byte[] iv;
+  /**
+   * The length of the encrypted data.
+   */
+  protected final long cipherLength;
+  /**
+   * The length of the decrypted data.
+   */
+  protected long length;
+  /**
+   * The current position in the decrypted data.
+   */
+  protected long position;
+  /**
+   * The buffer for the encrypted data, the first block is the block before 
+   * the blocks to decrypt.
+   */
+  protected final byte[] cipherBuf;
+  /**
+   * The buffer for the decrypted data.
+   */
+  protected final byte[] plainBuf;
+  /**
+   * The position in the decrypted data of the first byte in 
+   * {@link #plainBuf}, -1 if nothing is buffered.
+   */
+  protected long plainBufStart;
+  /**
+   * The number of decrypted bytes in {@link #plainBuf}.
+   */
+  protected int plainBufCount;
+
+  /**
+   * Constructor.
+   * @param in the input stream of the encrypted data
+   * @param iv the IV, should be 16 bytes
+   * @param bufferSize the size of the buffer, will be rounded to multiple of 
+   * 16 and should be at least 16
+   * @throws IOException error occurred when reading the last block
+   */
+  public SeekableDecryptInputStream(SeekableInputStream in, byte[] iv, int bufferSize) throws IOException {
+    if (in == null) {
+      throw new NullPointerException("argument 'in' cannot be null");
+    }
+    if (iv == null) {
+      throw new NullPointerException("argument 'iv' cannot be null");
+    }
+    if (iv.length != AESEngine.BLOCK_SIZE) {
+      throw new IllegalArgumentException("argument 'iv' should be " + AESEngine.BLOCK_SIZE + " bytes");
+    }
+    if (bufferSize < AESEngine.BLOCK_SIZE) {
+      throw new IllegalArgumentException("argument 'bufferSize' should >= " + AESEngine.BLOCK_SIZE);
+    }
+
+    this.in = in;
+    this.iv = new byte[AESEngine.BLOCK_SIZE];
+    System.arraycopy(iv, 0, this.iv, 0, AESEngine.BLOCK_SIZE);
+
+    int blocksSize = bufferSize - (bufferSize % AESEngine.BLOCK_SIZE);
+    cipherBuf = new byte[AESEngine.BLOCK_SIZE + blocksSize];
+    plainBuf = new byte[blocksSize];
+    plainBufStart = -1;
+    plainBufCount = 0;
+    position = 0;
+
+    cipherLength = in.length();
+    if (cipherLength % AESEngine.BLOCK_SIZE != 0) {
+      throw new IOException("The length of the encrypted data is not a multiple of " + AESEngine.BLOCK_SIZE + ".");
+    }
+    if (cipherLength == 0) {
+      length = 0;
+    } else {
+      // get the padding length from the last block
+      length = cipherLength;
+      fill(cipherLength - AESEngine.BLOCK_SIZE);
+      int paddingLength = plainBuf[AESEngine.BLOCK_SIZE - 1] & 0xff;
+      if (paddingLength < 1 || paddingLength > AESEngine.BLOCK_SIZE) {
+        throw new IOException("Invalid padding length: " + paddingLength);
+      }
+      length = cipherLength - paddingLength;
+    }
+  }
+
+  /**
+   * Decrypt the blocks.
+   * @param previousBlock the encrypted block before the first block to 
+   * decrypt, or the IV if the first block to decrypt is the first block of 
+   * the data
+   * @param in the buffer that contain the encrypted blocks
+   * @param inOff the start offset in {@code in}
+   * @param length the length of the blocks, multiple of 16
+   * @param out the buffer to store the decrypted blocks
+   * @throws IOException error occurred when decrypting
+   */
+  protected abstract void decryptBlocks(byte[] previousBlock, byte[] in, int inOff, int length, byte[] out) throws IOException;
+
+  /**
+   * Read and decrypt the blocks start from {@code blockStart} into 
+   * {@link #plainBuf}.
+   * @param blockStart the position of the first block, multiple of 16
+   * @throws IOException error occurred when reading or decrypting
+   */
+  protected void fill(long blockStart) throws IOException {
+    int lengthToRead = (int) Math.min(plainBuf.length, cipherLength - blockStart);
+    int prefixLength = blockStart == 0 ? 0 : AESEngine.BLOCK_SIZE;
+
+    in.seek(blockStart - prefixLength);
+    int offset = AESEngine.BLOCK_SIZE - prefixLength;
+    int remaining = prefixLength + lengthToRead;
+    while (remaining > 0) {
+      int byteRead = in.read(cipherBuf, offset, remaining);
+      if (byteRead == -1) {
+        throw new IOException("Reach the end of stream.");
+      }
+      offset += byteRead;
+      remaining -= byteRead;
+    }
+    if (blockStart == 0) {
+      System.arraycopy(iv, 0, cipherBuf, 0, AESEngine.BLOCK_SIZE);
+    }
+
+    byte[] previousBlock = new byte[AESEngine.BLOCK_SIZE];
+    System.arraycopy(cipherBuf, 0, previousBlock, 0, AESEngine.BLOCK_SIZE);
+    decryptBlocks(previousBlock, cipherBuf, AESEngine.BLOCK_SIZE, lengthToRead, plainBuf);
+
+    plainBufStart = blockStart;
+    plainBufCount = lengthToRead;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException("argument 'b' cannot be null");
+    }
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (position >= length) {
+      return -1;
+    }
+
+    if (plainBufStart == -1 || position < plainBufStart || position >= plainBufStart + plainBufCount) {
+      fill(position - (position % AESEngine.BLOCK_SIZE));
+    }
+
+    int bufOffset = (int) (position - plainBufStart);
+    int lengthToRead = (int) Math.min(Math.min(len, plainBufCount - bufOffset), length - position);
+    System.arraycopy(plainBuf, bufOffset, b, off, lengthToRead);
+    position += lengthToRead;
+    return lengthToRead;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (plainBufStart == -1 || position < plainBufStart || position >= plainBufStart + plainBufCount) {
+      return 0;
+    }
+    return (int) (Math.min(plainBufStart + plainBufCount, length) - position);
+  }
+
+  @Override
+  public long length() throws IOException {
+    return length;
+  }
+
+  @Override
+  public long position() throws IOException {
+    return position;
+  }
+
+  @Override
+  public void seek(long pos) throws IOException {
+    if (pos < 0) {
+      throw new IOException("Negative seek position: " + pos);
+    }
+    position = pos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -26,7 +26,14 @@ package updater.patch;
  */
 public enum Compression {
 
-  GZIP(0), LZMA2(1);
+  GZIP(0), LZMA2(1),
+  /**
+   * XZ/LZMA2 with the patch XML and the content of every operation 
+   * compressed in its own XZ block. The XZ index work as the offset index of 
+   * the blocks, so the content of an operation can be read without 
+   * decompressing the content before it, see {@link SeekablePatch}.
+   */
+  LZMA2_INDEXED(2);
   /**
    * The integer value representation of the compression.
    */
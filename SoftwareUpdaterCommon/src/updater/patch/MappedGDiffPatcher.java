@@ -0,0 +1,440 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.patch;
+
+import com.nothome.delta.PatchException;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * GDIFF patcher that read the source file through memory-mapped windows.
+ * <p>This produce the same output as {@link com.nothome.delta.GDiffPatcher} 
+ * but is designed for large files with many small copies: the source file is 
+ * mapped read-only in windows (64 MiB by default) instead 
+ * of seek and read for every copy, the commands are parsed from a buffer of 
+ * the patch instead of reading byte by byte, and the copied and appended 
+ * data are gathered in a buffer and written to the output in bulk.</p>
+ * <p>The windows are unmapped after patching when the JVM allows, so the 
+ * source file can be renamed or deleted afterward on Windows.</p>
+ * <p>This class is not thread-safe.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class MappedGDiffPatcher {
+
+  private static final Logger LOG = Logger.getLogger(MappedGDiffPatcher.class.getName());
+  /**
+   * The default size of each mapped window of the source file.
+   */
+  public static final int MAPPING_WINDOW_SIZE = 64 * 1024 * 1024;
+  /**
+   * The size of the buffer of the patch and the output.
+   */
+  protected static final int BUFFER_SIZE = 65536;
+  /**
+   * The alignment of the start of the mapped windows.
+   */
+  protected static final int PAGE_SIZE = 4096;
+  // the commands of GDIFF
+  protected static final int EOF = 0;
+  protected static final int DATA_MAX = 246;
+  protected static final int DATA_USHORT = 247;
+  protected static final int DATA_INT = 248;
+  protected static final int COPY_USHORT_UBYTE = 249;
+  protected static final int COPY_USHORT_USHORT = 250;
+  protected static final int COPY_USHORT_INT = 251;
+  protected static final int COPY_INT_UBYTE = 252;
+  protected static final int COPY_INT_USHORT = 253;
+  protected static final int COPY_INT_INT = 254;
+  protected static final int COPY_LONG_INT = 255;
+  /**
+   * The size of each mapped window of the source file.
+   */
+  protected final int windowSize;
+  /**
+   * The buffer of the patch.
+   */
+  protected final byte[] patchBuf;
+  /**
+   * The position of the next byte to read in {@link #patchBuf}.
+   */
+  protected int patchPos;
+  /**
+   * The number of valid bytes in {@link #patchBuf}.
+   */
+  protected int patchLimit;
+  /**
+   * The buffer of the output.
+   */
+  protected final byte[] outBuf;
+  /**
+   * The number of bytes in {@link #outBuf}.
+   */
+  protected int outPos;
+  /**
+   * The source file channel.
+   */
+  protected FileChannel source;
+  /**
+   * The size of {@link #source}.
+   */
+  protected long sourceSize;
+  /**
+   * The current mapped window of {@link #source}, null if not mapped.
+   */
+  protected MappedByteBuffer window;
+  /**
+   * The position of {@link #window} in {@link #source}.
+   */
+  protected long windowStart;
+  /**
+   * The patch input stream.
+   */
+  protected InputStream patch;
+  /**
+   * The output stream.
+   */
+  protected OutputStream out;
+
+  /**
+   * Constructor. The default window size {@link #MAPPING_WINDOW_SIZE} is 
+   * used.
+   */
+  public MappedGDiffPatcher() {
+    this(MAPPING_WINDOW_SIZE);
+  }
+
+  /**
+   * Constructor.
+   * @param windowSize the size of each mapped window of the source file, 
+   * should be at least {@link #PAGE_SIZE}
+   */
+  public MappedGDiffPatcher(int windowSize) {
+    if (windowSize < PAGE_SIZE) {
+      throw new IllegalArgumentException("argument 'windowSize' should >= " + PAGE_SIZE);
+    }
+    this.windowSize = windowSize;
+    patchBuf = new byte[BUFFER_SIZE];
+    outBuf = new byte[BUFFER_SIZE];
+  }
+
+  /**
+   * Patch the source file and write the result to {@code out}.
+   * @param sourceFile the source file
+   * @param patch the GDIFF patch
+   * @param out the output stream to write the result to, it is flushed but 
+   * not closed
+   * @throws IOException error occurred when reading or writing, or the patch 
+   * is invalid
+   */
+  public void patch(File sourceFile, InputStream patch, OutputStream out) throws IOException {
+    if (sourceFile == null) {
+      throw new NullPointerException("argument 'sourceFile' cannot be null");
+    }
+
+    RandomAccessFile randomAccessSourceFile = new RandomAccessFile(sourceFile, "r");
+    try {
+      patch(randomAccessSourceFile.getChannel(), patch, out);
+    } finally {
+      randomAccessSourceFile.close();
+    }
+  }
+
+  /**
+   * Patch the source file and write the result to {@code out}. The position 
+   * of {@code source} is not changed.
+   * @param source the channel of the source file, it is not closed
+   * @param patch the GDIFF patch
+   * @param out the output stream to write the result to, it is flushed but 
+   * not closed
+   * @throws IOException error occurred when reading or writing, or the patch 
+   * is invalid
+   */
+  public void patch(FileChannel source, InputStream patch, OutputStream out) throws IOException {
+    if (source == null) {
+      throw new NullPointerException("argument 'source' cannot be null");
+    }
+    if (patch == null) {
+      throw new NullPointerException("argument 'patch' cannot be null");
+    }
+    if (out == null) {
+      throw new NullPointerException("argument 'out' cannot be null");
+    }
+
+    this.source = source;
+    this.patch = patch;
+    this.out = out;
+    sourceSize = source.size();
+    patchPos = 0;
+    patchLimit = 0;
+    outPos = 0;
+    try {
+      // the magic string is 'd1 ff d1 ff' + the version number
+      if (readInt() != 0xd1ffd1ff || readUnsignedByte() != 0x04) {
+        throw new PatchException("magic string not found, aborting!");
+      }
+
+      while (true) {
+        int command = readUnsignedByte();
+        if (command == EOF) {
+          break;
+        }
+        if (command <= DATA_MAX) {
+          append(command);
+          continue;
+        }
+
+        switch (command) {
+          case DATA_USHORT:
+            append(readUnsignedShort());
+            break;
+          case DATA_INT:
+            append(readInt());
+            break;
+          case COPY_USHORT_UBYTE:
+            copy(readUnsignedShort(), readUnsignedByte());
+            break;
+          case COPY_USHORT_USHORT:
+            copy(readUnsignedShort(), readUnsignedShort());
+            break;
+          case COPY_USHORT_INT:
+            copy(readUnsignedShort(), readInt());
+            break;
+          case COPY_INT_UBYTE:
+            copy(readInt(), readUnsignedByte());
+            break;
+          case COPY_INT_USHORT:
+            copy(readInt(), readUnsignedShort());
+            break;
+          case COPY_INT_INT:
+            copy(readInt(), readInt());
+            break;
+          case COPY_LONG_INT:
+            copy(readLong(), readInt());
+            break;
+        }
+      }
+
+      flushOut();
+      out.flush();
+    } finally {
+      if (window != null) {
+        unmap(window);
+        window = null;
+      }
+      this.source = null;
+      this.patch = null;
+      this.out = null;
+    }
+  }
+
+  /**
+   * Make sure there are at least {@code length} bytes available in 
+   * {@link #patchBuf}.
+   * @param length the number of bytes needed, should not be greater than 
+   * the size of {@link #patchBuf}
+   * @throws IOException error occurred when reading the patch or reached the 
+   * end of the patch
+   */
+  protected void fillPatch(int length) throws IOException {
+    if (patchLimit - patchPos >= length) {
+      return;
+    }
+
+    System.arraycopy(patchBuf, patchPos, patchBuf, 0, patchLimit - patchPos);
+    patchLimit -= patchPos;
+    patchPos = 0;
+    while (patchLimit < length) {
+      int byteRead = patch.read(patchBuf, patchLimit, patchBuf.length - patchLimit);
+      if (byteRead == -1) {
+        throw new EOFException("Unexpected end of patch.");
+      }
+      patchLimit += byteRead;
+    }
+  }
+
+  protected int readUnsignedByte() throws IOException {
+    fillPatch(1);
+    return patchBuf[patchPos++] & 0xff;
+  }
+
+  protected int readUnsignedShort() throws IOException {
+    fillPatch(2);
+    int result = ((patchBuf[patchPos] & 0xff) << 8) | (patchBuf[patchPos + 1] & 0xff);
+    patchPos += 2;
+    return result;
+  }
+
+  protected int readInt() throws IOException {
+    fillPatch(4);
+    int result = ((patchBuf[patchPos] & 0xff) << 24) | ((patchBuf[patchPos + 1] & 0xff) << 16)
+            | ((patchBuf[patchPos + 2] & 0xff) << 8) | (patchBuf[patchPos + 3] & 0xff);
+    patchPos += 4;
+    return result;
+  }
+
+  protected long readLong() throws IOException {
+    long high = readInt() & 0xffffffffL;
+    return (high << 32) | (readInt() & 0xffffffffL);
+  }
+
+  /**
+   * Append the data in the patch to the output.
+   * @param length the length of the data
+   * @throws IOException error occurred when reading or writing
+   */
+  protected void append(int length) throws IOException {
+    if (length < 0) {
+      throw new PatchException("Invalid data length: " + length);
+    }
+
+    while (length > 0) {
+      if (patchPos == patchLimit) {
+        fillPatch(1);
+      }
+      int lengthToWrite = Math.min(length, patchLimit - patchPos);
+      writeOut(patchBuf, patchPos, lengthToWrite);
+      patchPos += lengthToWrite;
+      length -= lengthToWrite;
+    }
+  }
+
+  /**
+   * Copy the data in the source file to the output.
+   * @param offset the offset in the source file
+   * @param length the length of the data
+   * @throws IOException error occurred when mapping or writing, or the range 
+   * exceed the source file
+   */
+  protected void copy(long offset, int length) throws IOException {
+    if (offset < 0 || length < 0 || offset + length > sourceSize) {
+      throw new EOFException("in copy " + offset + " " + length);
+    }
+
+    while (length > 0) {
+      if (window == null || offset < windowStart || offset >= windowStart + window.limit()) {
+        map(offset);
+      }
+      window.position((int) (offset - windowStart));
+      int lengthToCopy = Math.min(length, window.remaining());
+      offset += lengthToCopy;
+      length -= lengthToCopy;
+
+      while (lengthToCopy > 0) {
+        if (outPos == outBuf.length) {
+          flushOut();
+        }
+        int chunk = Math.min(lengthToCopy, outBuf.length - outPos);
+        window.get(outBuf, outPos, chunk);
+        outPos += chunk;
+        lengthToCopy -= chunk;
+      }
+    }
+  }
+
+  /**
+   * Map the window of the source file that contains {@code offset}.
+   * @param offset the offset in the source file
+   * @throws IOException error occurred when mapping
+   */
+  protected void map(long offset) throws IOException {
+    if (window != null) {
+      unmap(window);
+      window = null;
+    }
+    windowStart = offset - offset % PAGE_SIZE;
+    window = source.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, sourceSize - windowStart));
+  }
+
+  /**
+   * Write data to the output through {@link #outBuf}.
+   * @param b the data
+   * @param off the start offset in {@code b}
+   * @param len the length of the data
+   * @throws IOException error occurred when writing
+   */
+  protected void writeOut(byte[] b, int off, int len) throws IOException {
+    if (len > outBuf.length - outPos) {
+      flushOut();
+      if (len >= outBuf.length) {
+        out.write(b, off, len);
+        return;
+      }
+    }
+    System.arraycopy(b, off, outBuf, outPos, len);
+    outPos += len;
+  }
+
+  /**
+   * Write the data in {@link #outBuf} to the output.
+   * @throws IOException error occurred when writing
+   */
+  protected void flushOut() throws IOException {
+    if (outPos > 0) {
+      out.write(outBuf, 0, outPos);
+      outPos = 0;
+    }
+  }
+
+  /**
+   * Release the mapped memory without waiting for the garbage collection. 
+   * The buffer should not be used afterward. Do nothing if the JVM does not 
+   * allow.
+   * @param buffer the mapped buffer
+   */
+  protected static void unmap(MappedByteBuffer buffer) {
+    try {
+      // Java 9 or above
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      return;
+    } catch (NoSuchMethodException ex) {
+      // Java 8 or below, use the cleaner of the buffer
+    } catch (Exception ex) {
+      LOG.log(Level.FINE, "Failed to unmap the buffer.", ex);
+      return;
+    }
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (Exception ex) {
+      LOG.log(Level.FINE, "Failed to unmap the buffer.", ex);
+    }
+  }
+}
@@ -26,7 +26,7 @@ package updater.patch;
  */
 public enum OperationType {
 
-  NEW("new"), FORCE("force"), REPLACE("replace"), PATCH("patch"), REMOVE("remove");
+  NEW("new"), FORCE("force"), REPLACE("replace"), PATCH("patch"), REMOVE("remove"), COPY("copy"), MOVE("move");
   /**
    * The string value representation of the operation type.
    */
@@ -0,0 +1,185 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.patch;
+
+import updater.util.FileHashCache;
+
+/**
+ * The options used by {@link PatchCreator} and {@link PatchPacker} when 
+ * creating or packing a patch. A new instance contains the defaults: LZMA2 
+ * compression, everything done in the calling thread, a new checksum cache 
+ * for every patch and no move/copy detection.
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class PatchCreationOptions {
+
+  /**
+   * The compression method of the patch.
+   */
+  protected Compression compression;
+  /**
+   * The number of threads used to scan the folders and compute the diffs.
+   */
+  protected int diffThreadCount;
+  /**
+   * The number of threads used to compress the patch.
+   */
+  protected int compressionThreadCount;
+  /**
+   * The size of each independently compressed block when compressing with 
+   * more than 1 thread.
+   */
+  protected int blockSize;
+  /**
+   * The cache of the checksum of files, null means use a new cache.
+   */
+  protected FileHashCache hashCache;
+  /**
+   * Use move and copy operations or not.
+   */
+  protected boolean detectMoveAndCopy;
+
+  /**
+   * Constructor.
+   */
+  public PatchCreationOptions() {
+    compression = Compression.LZMA2;
+    diffThreadCount = 1;
+    compressionThreadCount = 1;
+    blockSize = 0;
+    hashCache = null;
+    detectMoveAndCopy = false;
+  }
+
+  /**
+   * Get the compression method.
+   * @return the compression method
+   */
+  public Compression getCompression() {
+    return compression;
+  }
+
+  /**
+   * Set the compression method.
+   * @param compression {@link Compression#LZMA2}, or 
+   * {@link Compression#LZMA2_INDEXED} to compress the content of every 
+   * operation in its own block for random access
+   */
+  public void setCompression(Compression compression) {
+    if (compression == null) {
+      throw new NullPointerException("argument 'compression' cannot be null");
+    }
+    if (compression != Compression.LZMA2 && compression != Compression.LZMA2_INDEXED) {
+      throw new IllegalArgumentException("argument 'compression' should be LZMA2 or LZMA2_INDEXED");
+    }
+    this.compression = compression;
+  }
+
+  /**
+   * Get the number of threads used to scan the folders and compute the 
+   * diffs.
+   * @return the number of threads
+   */
+  public int getDiffThreadCount() {
+    return diffThreadCount;
+  }
+
+  /**
+   * Set the number of threads used to scan the folders and compute the 
+   * diffs when creating patch.
+   * @param diffThreadCount the number of threads, 1 or less means do them one 
+   * by one in the calling thread
+   */
+  public void setDiffThreadCount(int diffThreadCount) {
+    this.diffThreadCount = diffThreadCount;
+  }
+
+  /**
+   * Get the number of threads used to compress the patch.
+   * @return the number of threads
+   */
+  public int getCompressionThreadCount() {
+    return compressionThreadCount;
+  }
+
+  /**
+   * Set the number of threads used to compress the patch. It is also used to 
+   * scan the software directory when creating full patch.
+   * @param compressionThreadCount the number of threads, 1 or less means 
+   * compress in the calling thread
+   */
+  public void setCompressionThreadCount(int compressionThreadCount) {
+    this.compressionThreadCount = compressionThreadCount;
+  }
+
+  /**
+   * Get the size of each independently compressed block.
+   * @return the size in bytes, 0 or less means the default size
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Set the size of each independently compressed block when the compression 
+   * thread count is greater than 1.
+   * @param blockSize the size in bytes, 0 or less means use the default size
+   */
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Get the cache of the checksum of files.
+   * @return the cache, null means a new cache is used for every patch
+   */
+  public FileHashCache getHashCache() {
+    return hashCache;
+  }
+
+  /**
+   * Set the cache of the checksum of files, used when creating patch.
+   * @param hashCache the cache, null means use a new cache for every patch
+   */
+  public void setHashCache(FileHashCache hashCache) {
+    this.hashCache = hashCache;
+  }
+
+  /**
+   * Check if move and copy operations are used.
+   * @return true if used, false if not
+   */
+  public boolean isDetectMoveAndCopy() {
+    return detectMoveAndCopy;
+  }
+
+  /**
+   * Set whether to use move and copy operations for the new files that have 
+   * the same content as the removed or the existing files when creating 
+   * patch. The launchers older than the move and copy operations cannot 
+   * apply such patch.
+   * @param detectMoveAndCopy true to use them, false not
+   */
+  public void setDetectMoveAndCopy(boolean detectMoveAndCopy) {
+    this.detectMoveAndCopy = detectMoveAndCopy;
+  }
+}
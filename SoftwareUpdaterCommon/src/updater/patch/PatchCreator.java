@@ -31,17 +31,25 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.tukaani.xz.XZOutputStream;
+import org.tukaani.xz.FinishableOutputStream;
 import updater.crypto.AESKey;
 import updater.script.Patch;
 import updater.script.Patch.Operation;
 import updater.script.Patch.ValidationFile;
 import updater.util.CommonUtil;
+import updater.util.FileHashCache;
+import updater.util.FileManifest;
 
 /**
  * Tool to create patch.
@@ -55,7 +63,7 @@ public class PatchCreator {
   }
 
   /**
-   * Create full patch.
+   * Create full patch with the default {@link PatchCreationOptions}.
    * @param softwareDirectory
    * @param patch the place to save the created patch
    * @param patchId the patch id of the patch
@@ -69,6 +77,27 @@ public class PatchCreator {
    */
   public static void createFullPatch(File softwareDirectory, File patch, int patchId, String fromVersion, String fromSubsequentVersion, String toVersion,
           AESKey aesKey, File tempFileForEncryption) throws IOException {
+    createFullPatch(softwareDirectory, patch, patchId, fromVersion, fromSubsequentVersion, toVersion, aesKey, tempFileForEncryption, new PatchCreationOptions());
+  }
+
+  /**
+   * Create full patch.
+   * @param softwareDirectory
+   * @param patch the place to save the created patch
+   * @param patchId the patch id of the patch
+   * @param fromVersion the version-from, can be null
+   * @param fromSubsequentVersion the version-from-subsequent, can be null
+   * @param toVersion the version-to, can be null
+   * @param aesKey the cipher key, null means don't use encryption
+   * @param tempFileForEncryption if {@code aesKey} is specified, this should 
+   * be provided to store the temporary encrypted file
+   * @param options the compression, the number of threads used to scan the 
+   * software directory and compress the patch, the block size and the 
+   * checksum cache
+   * @throws IOException error occurred when creating the full patch
+   */
+  public static void createFullPatch(File softwareDirectory, File patch, int patchId, String fromVersion, String fromSubsequentVersion, String toVersion,
+          AESKey aesKey, File tempFileForEncryption, PatchCreationOptions options) throws IOException {
     if (softwareDirectory == null) {
       throw new NullPointerException("argument 'softwareDirectory' cannot be null");
     }
@@ -78,6 +107,14 @@ public class PatchCreator {
     if (aesKey != null && tempFileForEncryption == null) {
       throw new NullPointerException("argument 'tempFileForEncryption' cannot be null while argument 'aesKey' is not null");
     }
+    if (options == null) {
+      throw new NullPointerException("argument 'options' cannot be null");
+    }
+
+    Compression compression = options.getCompression();
+    int compressionThreadCount = options.getCompressionThreadCount();
+    int blockSize = options.getBlockSize();
+    FileHashCache hashCache = options.getHashCache() != null ? options.getHashCache() : new FileHashCache();
 
     if (!softwareDirectory.exists() || !softwareDirectory.isDirectory()) {
       throw new IOException("'softwareDirectory' not exist or not a directory.");
@@ -99,22 +136,16 @@ public class PatchCreator {
     }
 
     // get all files in the software directory
-    Map<String, File> softwareFiles = CommonUtil.getAllFiles(softwareDirectory, softwarePath);
-    softwareFiles.remove(softwareDirectory.getAbsolutePath().replace(File.separator, "/"));
-
-    // to prevent generate checksum repeatedly
-    Map<String, String> softwareFilesChecksumMap = new HashMap<String, String>();
+    FileManifest softwareFiles = FileManifest.scan(softwareDirectory, compressionThreadCount);
 
     //<editor-fold defaultstate="collapsed" desc="validations - add validations list first">
-    for (String _filePath : softwareFiles.keySet()) {
-      File _newFile = softwareFiles.get(_filePath);
+    for (FileManifest.Entry entry : softwareFiles.getEntries()) {
       ValidationFile validationFile;
-      if (_newFile.isDirectory()) {
-        validationFile = new ValidationFile(_filePath, "", -1);
+      if (entry.isDirectory()) {
+        validationFile = new ValidationFile(entry.getPath(), "", -1);
       } else {
-        String sha256 = CommonUtil.getSHA256String(_newFile);
-        softwareFilesChecksumMap.put(_filePath, sha256);
-        validationFile = new ValidationFile(_filePath, sha256, (int) _newFile.length());
+        String sha256 = hashCache.getSHA256String(entry.getFile());
+        validationFile = new ValidationFile(entry.getPath(), sha256, entry.getLength());
       }
       validations.add(validationFile);
     }
@@ -123,33 +154,27 @@ public class PatchCreator {
 
     List<OperationRecord> forceFileList = new ArrayList<OperationRecord>();
     //<editor-fold defaultstate="collapsed" desc="operations - prepare forceFileList">
-    Iterator<String> iterator = softwareFiles.keySet().iterator();
-    while (iterator.hasNext()) {
-      String _filePath = iterator.next();
-      File _forceFile = softwareFiles.get(_filePath);
-      forceFileList.add(new OperationRecord(null, _forceFile));
-      iterator.remove();
-    }
-    sortFileListAsc(forceFileList);
+    // the manifest is sorted by path, so folders come before the files inside them
+    for (FileManifest.Entry entry : softwareFiles.getEntries()) {
+      forceFileList.add(new OperationRecord(null, entry.getFile()));
+    }
     //</editor-fold>
 
     // record those file with their content needed to put into the patch
     List<File> patchForceFileList = new ArrayList<File>();
-    int pos = 0, operationIdCounter = 1;
+    long pos = 0;
+    int operationIdCounter = 1;
     //<editor-fold defaultstate="collapsed" desc="operations - prepare patchForceFileList using forceFileList">
     for (OperationRecord record : forceFileList) {
       File _forceFile = record.getNewFile();
 
-      int fileLength = 0;
+      long fileLength = 0;
       String fileType = "folder";
       String fileSHA256 = "";
       if (!_forceFile.isDirectory()) {
-        fileLength = (int) _forceFile.length();
+        fileLength = _forceFile.length();
         fileType = "file";
-        fileSHA256 = softwareFilesChecksumMap.get(_forceFile.getAbsolutePath());
-        if (fileSHA256 == null) {
-          fileSHA256 = CommonUtil.getSHA256String(_forceFile);
-        }
+        fileSHA256 = hashCache.getSHA256String(_forceFile);
 
         patchForceFileList.add(_forceFile);
       }
@@ -182,12 +207,14 @@ public class PatchCreator {
       fout = new FileOutputStream(patch);
 
       PatchWriteUtil.writeHeader(fout);
-      XZOutputStream xzOut = (XZOutputStream) PatchWriteUtil.writeCompressionMethod(fout, Compression.LZMA2);
+      FinishableOutputStream xzOut = (FinishableOutputStream) PatchWriteUtil.writeCompressionMethod(fout, compression, compressionThreadCount, blockSize);
       PatchWriteUtil.writeXML(xzOut, patchScriptOutput);
+      PatchWriteUtil.endBlock(xzOut, compression);
 
       // patch content
       for (File _file : patchForceFileList) {
         PatchWriteUtil.writePatch(_file, xzOut);
+        PatchWriteUtil.endBlock(xzOut, compression);
       }
 
       xzOut.finish();
@@ -206,7 +233,7 @@ public class PatchCreator {
   }
 
   /**
-   * Create patch.
+   * Create patch with the default {@link PatchCreationOptions}.
    * @param oldVersion the folder that contain the old version of software
    * @param newVersion the folder that contain the new version of software
    * @param tempDir the temporary folder to store the temporary generated files
@@ -220,6 +247,27 @@ public class PatchCreator {
    * @throws IOException error occurred when creating the patch
    */
   public static void createPatch(File oldVersion, File newVersion, File tempDir, File patch, int patchId, String fromVersion, String toVersion, AESKey aesKey, File tempFileForEncryption) throws IOException {
+    createPatch(oldVersion, newVersion, tempDir, patch, patchId, fromVersion, toVersion, aesKey, tempFileForEncryption, new PatchCreationOptions());
+  }
+
+  /**
+   * Create patch.
+   * @param oldVersion the folder that contain the old version of software
+   * @param newVersion the folder that contain the new version of software
+   * @param tempDir the temporary folder to store the temporary generated files
+   * @param patch the place to save the created patch
+   * @param patchId the patch id of the patch
+   * @param fromVersion the version-from, can be null
+   * @param toVersion the version-to, can be null
+   * @param aesKey the cipher key, null means don't use encryption
+   * @param tempFileForEncryption if {@code aesKey} is specified, this should 
+   * be provided to store the temporary encrypted file
+   * @param options the compression, the number of threads used to compute 
+   * the diffs and to compress, the block size, the checksum cache and 
+   * whether to use move and copy operations
+   * @throws IOException error occurred when creating the patch
+   */
+  public static void createPatch(File oldVersion, File newVersion, File tempDir, File patch, int patchId, String fromVersion, String toVersion, AESKey aesKey, File tempFileForEncryption, PatchCreationOptions options) throws IOException {
     if (oldVersion == null) {
       throw new NullPointerException("argument 'oldVersion' cannot be null");
     }
@@ -235,6 +283,16 @@ public class PatchCreator {
     if (aesKey != null && tempFileForEncryption == null) {
       throw new NullPointerException("argument 'tempFileForEncryption' cannot be null while argument 'aesKey' is not null");
     }
+    if (options == null) {
+      throw new NullPointerException("argument 'options' cannot be null");
+    }
+
+    Compression compression = options.getCompression();
+    int diffThreadCount = options.getDiffThreadCount();
+    int compressionThreadCount = options.getCompressionThreadCount();
+    int blockSize = options.getBlockSize();
+    FileHashCache hashCache = options.getHashCache() != null ? options.getHashCache() : new FileHashCache();
+    boolean detectMoveAndCopy = options.isDetectMoveAndCopy();
 
     if (!oldVersion.exists() || !oldVersion.isDirectory()) {
       throw new IOException("Directory of old verison not exist or not a directory.");
@@ -264,24 +322,17 @@ public class PatchCreator {
     }
 
     // get all files of old version and new version
-    Map<String, File> oldVersionFiles = CommonUtil.getAllFiles(oldVersion, oldVersionPath);
-    Map<String, File> newVersionFiles = CommonUtil.getAllFiles(newVersion, newVersionPath);
-    oldVersionFiles.remove(oldVersion.getAbsolutePath().replace(File.separator, "/"));
-    newVersionFiles.remove(newVersion.getAbsolutePath().replace(File.separator, "/"));
-
-    // to prevent generate checksum repeatedly
-    Map<String, String> newVersionFilesChecksumMap = new HashMap<String, String>();
+    FileManifest oldVersionFiles = FileManifest.scan(oldVersion, diffThreadCount);
+    FileManifest newVersionFiles = FileManifest.scan(newVersion, diffThreadCount);
 
     //<editor-fold defaultstate="collapsed" desc="validations - add validations list first">
-    for (String _filePath : newVersionFiles.keySet()) {
-      File _newFile = newVersionFiles.get(_filePath);
+    for (FileManifest.Entry entry : newVersionFiles.getEntries()) {
       ValidationFile validationFile;
-      if (_newFile.isDirectory()) {
-        validationFile = new ValidationFile(_filePath, "", -1);
+      if (entry.isDirectory()) {
+        validationFile = new ValidationFile(entry.getPath(), "", -1);
       } else {
-        String sha256 = CommonUtil.getSHA256String(_newFile);
-        newVersionFilesChecksumMap.put(_filePath, sha256);
-        validationFile = new ValidationFile(_filePath, sha256, (int) _newFile.length());
+        String sha256 = hashCache.getSHA256String(entry.getFile());
+        validationFile = new ValidationFile(entry.getPath(), sha256, entry.getLength());
       }
       validations.add(validationFile);
     }
@@ -294,43 +345,37 @@ public class PatchCreator {
     List<OperationRecord> replaceFileList = new ArrayList<OperationRecord>();
     // process operations list
     //<editor-fold defaultstate="collapsed" desc="prepare newFileList, removeFileList and patchFileList">
-    Iterator<String> iterator = newVersionFiles.keySet().iterator();
-    while (iterator.hasNext()) {
-      String _filePath = iterator.next();
-      File _newFile = newVersionFiles.get(_filePath);
-      File _oldFile = oldVersionFiles.get(_filePath);
-
-      // if no old file found, then it is new file
-      if (_oldFile == null) {
-        newFileList.add(new OperationRecord(null, _newFile));
+    // both manifests are sorted by path, walk through them together to pair up the old and new files
+    List<FileManifest.Entry> oldEntries = oldVersionFiles.getEntries();
+    List<FileManifest.Entry> newEntries = newVersionFiles.getEntries();
+    int oldIndex = 0, newIndex = 0;
+    while (oldIndex < oldEntries.size() || newIndex < newEntries.size()) {
+      FileManifest.Entry oldEntry = oldIndex < oldEntries.size() ? oldEntries.get(oldIndex) : null;
+      FileManifest.Entry newEntry = newIndex < newEntries.size() ? newEntries.get(newIndex) : null;
+      int compareResult = oldEntry == null ? 1 : (newEntry == null ? -1 : oldEntry.getPath().compareTo(newEntry.getPath()));
+
+      if (compareResult > 0) {
+        // if no old file found, then it is new file
+        newFileList.add(new OperationRecord(null, newEntry.getFile()));
+        newIndex++;
+      } else if (compareResult < 0) {
+        // no new file found, the old file waiting for remove
+        removeFileList.add(new OperationRecord(oldEntry.getFile(), null));
+        oldIndex++;
       } else {
-        boolean oldFileIsDirectory = _oldFile.isDirectory();
-        boolean newFileIsDirectory = _newFile.isDirectory();
-        if (oldFileIsDirectory == newFileIsDirectory) {
+        if (oldEntry.isDirectory() == newEntry.isDirectory()) {
           // only patch if it is not a directory
-          if (!_newFile.isDirectory()) {
-            patchFileList.add(new OperationRecord(_oldFile, _newFile));
+          if (!newEntry.isDirectory()) {
+            patchFileList.add(new OperationRecord(oldEntry.getFile(), newEntry.getFile()));
           }
         } else {
           // one is file and one is directory, remove the old and add back the new
-          removeFileList.add(new OperationRecord(_oldFile, null));
-          newFileList.add(new OperationRecord(null, _newFile));
+          removeFileList.add(new OperationRecord(oldEntry.getFile(), null));
+          newFileList.add(new OperationRecord(null, newEntry.getFile()));
         }
-        oldVersionFiles.remove(_filePath);
+        oldIndex++;
+        newIndex++;
       }
-
-      iterator.remove();
-    }
-
-    // at this stage, newVersionFiles should be empty, left files in oldVersionFiles waiting for remove
-    iterator = oldVersionFiles.keySet().iterator();
-    while (iterator.hasNext()) {
-      String _filePath = iterator.next();
-      File _oldFile = oldVersionFiles.get(_filePath);
-
-      removeFileList.add(new OperationRecord(_oldFile, null));
-
-      iterator.remove();
     }
 
     // make sure create folder first then file
@@ -343,18 +388,19 @@ public class PatchCreator {
     List<File> patchNewFileList = new ArrayList<File>();
     List<File> patchPatchFileList = new ArrayList<File>();
     List<File> patchReplaceFileList = new ArrayList<File>();
-    int pos = 0, operationIdCounter = 1;
+    long pos = 0;
+    int operationIdCounter = 1;
     //<editor-fold defaultstate="collapsed" desc="remove file list">
     for (OperationRecord record : removeFileList) {
       File _oldFile = record.getOldFile();
 
-      int fileLength = 0;
+      long fileLength = 0;
       String fileType = "folder";
       String fileSHA256 = "";
       if (!_oldFile.isDirectory()) {
-        fileLength = (int) _oldFile.length();
+        fileLength = _oldFile.length();
         fileType = "file";
-        fileSHA256 = CommonUtil.getSHA256String(_oldFile);
+        fileSHA256 = hashCache.getSHA256String(_oldFile);
       }
 
       Operation _operation = new Operation(operationIdCounter, OperationType.REMOVE.getValue(), 0, 0, fileType, _oldFile.getAbsolutePath().replace(oldVersionPath, "").replace(File.separator, "/"), fileSHA256, fileLength, null, -1);
@@ -362,56 +408,83 @@ public class PatchCreator {
       operations.add(_operation);
     }
     //</editor-fold>
+    //<editor-fold defaultstate="collapsed" desc="content index - local files that have the same content as the new files">
+    // only the old files that have the same length as any new file need the checksum
+    Set<Long> newFileLengths = new HashSet<Long>();
+    if (detectMoveAndCopy) {
+      for (OperationRecord record : newFileList) {
+        File _newFile = record.getNewFile();
+        if (!_newFile.isDirectory() && _newFile.length() > 0) {
+          newFileLengths.add(_newFile.length());
+        }
+      }
+    }
+    // checksum -> path, the removed files can be moved, the files that exist in both versions can be copied
+    Map<String, String> moveSourceMap = new HashMap<String, String>();
+    for (OperationRecord record : removeFileList) {
+      File _oldFile = record.getOldFile();
+      if (!_oldFile.isDirectory() && newFileLengths.contains(_oldFile.length())) {
+        moveSourceMap.put(hashCache.getSHA256String(_oldFile), _oldFile.getAbsolutePath().replace(oldVersionPath, "").replace(File.separator, "/"));
+      }
+    }
+    Map<String, String> copySourceMap = new HashMap<String, String>();
+    for (OperationRecord record : patchFileList) {
+      File _oldFile = record.getOldFile();
+      if (newFileLengths.contains(_oldFile.length())) {
+        copySourceMap.put(hashCache.getSHA256String(_oldFile), _oldFile.getAbsolutePath().replace(oldVersionPath, "").replace(File.separator, "/"));
+      }
+    }
+    //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="new file list">
     for (OperationRecord record : newFileList) {
       File _newFile = record.getNewFile();
+      String newFilePath = _newFile.getAbsolutePath().replace(newVersionPath, "").replace(File.separator, "/");
 
-      int fileLength = 0;
-      String fileType = "folder";
-      String fileSHA256 = "";
-      if (!_newFile.isDirectory()) {
-        fileLength = (int) _newFile.length();
-        fileType = "file";
-        fileSHA256 = newVersionFilesChecksumMap.get(_newFile.getAbsolutePath());
-        if (fileSHA256 == null) {
-          fileSHA256 = CommonUtil.getSHA256String(_newFile);
-        }
+      Operation _operation;
+      if (_newFile.isDirectory()) {
+        _operation = new Operation(operationIdCounter, OperationType.NEW.getValue(), pos, 0, "folder", newFilePath, null, -1, "", 0);
+      } else {
+        long fileLength = _newFile.length();
+        String fileSHA256 = hashCache.getSHA256String(_newFile);
+
+        String sourcePath;
+        if (fileLength > 0 && (sourcePath = moveSourceMap.get(fileSHA256)) != null) {
+          // the file is moved/renamed from a removed file
+          _operation = new Operation(operationIdCounter, OperationType.MOVE.getValue(), -1, 0, "file", newFilePath, sourcePath, null, -1, fileSHA256, fileLength);
+        } else if (fileLength > 0 && (sourcePath = copySourceMap.get(fileSHA256)) != null) {
+          // the file is a duplicate of an old file or a previous new file
+          _operation = new Operation(operationIdCounter, OperationType.COPY.getValue(), -1, 0, "file", newFilePath, sourcePath, null, -1, fileSHA256, fileLength);
+        } else {
+          patchNewFileList.add(_newFile);
+          if (detectMoveAndCopy) {
+            // the duplicates of this file after it can copy from it
+            copySourceMap.put(fileSHA256, newFilePath);
+          }
 
-        patchNewFileList.add(_newFile);
+          _operation = new Operation(operationIdCounter, OperationType.NEW.getValue(), pos, fileLength, "file", newFilePath, null, -1, fileSHA256, fileLength);
+          pos += fileLength;
+        }
       }
-
-      Operation _operation = new Operation(operationIdCounter, OperationType.NEW.getValue(), pos, fileLength, fileType, _newFile.getAbsolutePath().replace(newVersionPath, "").replace(File.separator, "/"), null, -1, fileSHA256, fileLength);
       operationIdCounter++;
       operations.add(_operation);
-
-      pos += fileLength;
     }
     //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="patch file list">
-    int count = 0;
-    Delta delta = new Delta();
-    for (OperationRecord record : patchFileList) {
+    // diffs are computed (maybe concurrently) first, operations are then assigned in list order
+    List<File> diffFileList = computeDiffs(patchFileList, tempDir, diffThreadCount, hashCache);
+    for (int i = 0, iEnd = patchFileList.size(); i < iEnd; i++) {
+      OperationRecord record = patchFileList.get(i);
       File _oldFile = record.getOldFile();
       File _newFile = record.getNewFile();
 
       // two file are identical
-      if (CommonUtil.compareFile(_oldFile, _newFile)) {
+      File diffFile = diffFileList.get(i);
+      if (diffFile == null) {
         continue;
       }
 
-      // get delta/diff
-      File diffFile = new File(tempDir + File.separator + Integer.toString(count));
-      FileOutputStream fout = null;
-      try {
-        fout = new FileOutputStream(diffFile);
-        DiffWriter diffOut = new GDiffWriter(fout);
-        delta.compute(_oldFile, _newFile, diffOut);
-      } catch (Exception ex) {
-        CommonUtil.closeQuietly(fout);
-      }
-
-      int fileLength = (int) diffFile.length();
-      int newFileLength = (int) _newFile.length();
+      long fileLength = diffFile.length();
+      long newFileLength = _newFile.length();
 
       Operation _operation;
       if (fileLength > newFileLength) {
@@ -420,18 +493,14 @@ public class PatchCreator {
         diffFile.delete();
         continue;
       } else {
-        String newFileSHA256 = newVersionFilesChecksumMap.get(_newFile.getAbsolutePath());
-        if (newFileSHA256 == null) {
-          newFileSHA256 = CommonUtil.getSHA256String(_newFile);
-        }
+        String newFileSHA256 = hashCache.getSHA256String(_newFile);
         patchPatchFileList.add(diffFile);
-        _operation = new Operation(operationIdCounter, OperationType.PATCH.getValue(), pos, fileLength, "file", _oldFile.getAbsolutePath().replace(oldVersionPath, "").replace(File.separator, "/"), CommonUtil.getSHA256String(_oldFile), (int) _oldFile.length(), newFileSHA256, newFileLength);
+        _operation = new Operation(operationIdCounter, OperationType.PATCH.getValue(), pos, fileLength, "file", _oldFile.getAbsolutePath().replace(oldVersionPath, "").replace(File.separator, "/"), hashCache.getSHA256String(_oldFile), _oldFile.length(), newFileSHA256, newFileLength);
         operationIdCounter++;
       }
       operations.add(_operation);
 
       pos += fileLength;
-      count++;
     }
     //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="replace file list">
@@ -439,16 +508,13 @@ public class PatchCreator {
       File _oldFile = record.getOldFile();
       File _newFile = record.getNewFile();
 
-      int newFileLength = (int) _newFile.length();
-      int fileLength = newFileLength;
-      String newFileSHA256 = newVersionFilesChecksumMap.get(_newFile.getAbsolutePath());
-      if (newFileSHA256 == null) {
-        newFileSHA256 = CommonUtil.getSHA256String(_newFile);
-      }
+      long newFileLength = _newFile.length();
+      long fileLength = newFileLength;
+      String newFileSHA256 = hashCache.getSHA256String(_newFile);
 
       patchReplaceFileList.add(_newFile);
 
-      Operation _operation = new Operation(operationIdCounter, OperationType.REPLACE.getValue(), pos, fileLength, "file", _oldFile.getAbsolutePath().replace(oldVersionPath, "").replace(File.separator, "/"), CommonUtil.getSHA256String(_oldFile), (int) _oldFile.length(), newFileSHA256, newFileLength);
+      Operation _operation = new Operation(operationIdCounter, OperationType.REPLACE.getValue(), pos, fileLength, "file", _oldFile.getAbsolutePath().replace(oldVersionPath, "").replace(File.separator, "/"), hashCache.getSHA256String(_oldFile), _oldFile.length(), newFileSHA256, newFileLength);
       operationIdCounter++;
       operations.add(_operation);
 
@@ -476,19 +542,23 @@ public class PatchCreator {
       fout = new FileOutputStream(patch);
 
       PatchWriteUtil.writeHeader(fout);
-      XZOutputStream xzOut = (XZOutputStream) PatchWriteUtil.writeCompressionMethod(fout, Compression.LZMA2);
+      FinishableOutputStream xzOut = (FinishableOutputStream) PatchWriteUtil.writeCompressionMethod(fout, compression, compressionThreadCount, blockSize);
       PatchWriteUtil.writeXML(xzOut, patchScriptOutput);
+      PatchWriteUtil.endBlock(xzOut, compression);
 
       // patch content
       for (File _file : patchNewFileList) {
         PatchWriteUtil.writePatch(_file, xzOut);
+        PatchWriteUtil.endBlock(xzOut, compression);
       }
       for (File _file : patchPatchFileList) {
         PatchWriteUtil.writePatch(_file, xzOut);
+        PatchWriteUtil.endBlock(xzOut, compression);
         _file.delete();
       }
       for (File _file : patchReplaceFileList) {
         PatchWriteUtil.writePatch(_file, xzOut);
+        PatchWriteUtil.endBlock(xzOut, compression);
       }
 
       xzOut.finish();
@@ -506,6 +576,103 @@ public class PatchCreator {
     }
   }
 
+  /**
+   * Compute the diff of every record in {@code patchFileList}. Every worker 
+   * thread use its own {@link com.nothome.delta.Delta} because it is not 
+   * thread safe.
+   * @param patchFileList the list of old and new file pairs
+   * @param tempDir the folder to store the generated diff files
+   * @param threadCount the number of threads to use, 1 or less means compute 
+   * them one by one in the calling thread
+   * @param hashCache the cache of the checksum of files, used to compare the 
+   * files
+   * @return a list with the same order as {@code patchFileList} containing 
+   * the diff files, the element is null if the two files are identical
+   * @throws IOException error occurred when comparing the files or computing 
+   * the diff
+   */
+  protected static List<File> computeDiffs(List<OperationRecord> patchFileList, File tempDir, int threadCount, final FileHashCache hashCache) throws IOException {
+    if (patchFileList == null) {
+      throw new NullPointerException("argument 'patchFileList' cannot be null");
+    }
+    if (tempDir == null) {
+      throw new NullPointerException("argument 'tempDir' cannot be null");
+    }
+
+    final ThreadLocal<Delta> threadDelta = new ThreadLocal<Delta>() {
+
+      @Override
+      protected Delta initialValue() {
+        return new Delta();
+      }
+    };
+
+    List<Callable<File>> tasks = new ArrayList<Callable<File>>(patchFileList.size());
+    for (int i = 0, iEnd = patchFileList.size(); i < iEnd; i++) {
+      final File _oldFile = patchFileList.get(i).getOldFile();
+      final File _newFile = patchFileList.get(i).getNewFile();
+      final File diffFile = new File(tempDir + File.separator + Integer.toString(i));
+      tasks.add(new Callable<File>() {
+
+        @Override
+        public File call() throws Exception {
+          // two file are identical
+          if (hashCache.compareFile(_oldFile, _newFile)) {
+            return null;
+          }
+
+          // get delta/diff
+          FileOutputStream fout = null;
+          try {
+            fout = new FileOutputStream(diffFile);
+            DiffWriter diffOut = new GDiffWriter(fout);
+            threadDelta.get().compute(_oldFile, _newFile, diffOut);
+          } catch (Exception ex) {
+            CommonUtil.closeQuietly(fout);
+          }
+          return diffFile;
+        }
+      });
+    }
+
+    List<File> returnResult = new ArrayList<File>(tasks.size());
+    if (threadCount <= 1) {
+      for (Callable<File> task : tasks) {
+        try {
+          returnResult.add(task.call());
+        } catch (IOException ex) {
+          throw ex;
+        } catch (Exception ex) {
+          throw new IOException(ex);
+        }
+      }
+      return returnResult;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<File>> futures = new ArrayList<Future<File>>(tasks.size());
+      for (Callable<File> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      for (Future<File> future : futures) {
+        returnResult.add(future.get());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted when computing the diffs.");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException(ex.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return returnResult;
+  }
+
   /**
    * Sort the {@code list} in ascending order by the <b>new file</b> path in 
    * {@link OperationRecord}.
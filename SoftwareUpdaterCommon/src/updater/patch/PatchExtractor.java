@@ -112,4 +112,49 @@ public class PatchExtractor {
       }
     }
   }
+
+  /**
+   * Extract the content of one operation from the patch. If the patch is 
+   * compressed with {@link Compression#LZMA2_INDEXED}, only the block of the 
+   * operation is decrypted and decompressed.
+   * @param patchFile the patch file
+   * @param aesKey the cipher key, null means no encryption used
+   * @param operationId the id of the operation
+   * @param saveTo where to save the content of the operation
+   * @throws IOException error occurred when extracting, or the operation is 
+   * not found or has no content
+   * @throws InvalidFormatException the format of the patch XML in the patch 
+   * is invalid
+   */
+  public static void extractOperation(File patchFile, AESKey aesKey, int operationId, File saveTo) throws IOException, InvalidFormatException {
+    if (patchFile == null) {
+      throw new NullPointerException("argument 'patchFile' cannot be null");
+    }
+    if (saveTo == null) {
+      throw new NullPointerException("argument 'saveTo' cannot be null");
+    }
+
+    SeekablePatch seekablePatch = null;
+    try {
+      seekablePatch = new SeekablePatch(patchFile, aesKey);
+
+      Operation operation = null;
+      for (Operation _operation : seekablePatch.getPatch().getOperations()) {
+        if (_operation.getId() == operationId) {
+          operation = _operation;
+          break;
+        }
+      }
+      if (operation == null) {
+        throw new IOException("Operation with id " + operationId + " not found.");
+      }
+      if (operation.getPatchLength() <= 0) {
+        throw new IOException("Operation with id " + operationId + " has no content.");
+      }
+
+      PatchReadUtil.readToFile(saveTo, seekablePatch.getInputStream(operation), operation.getPatchLength());
+    } finally {
+      CommonUtil.closeQuietly(seekablePatch);
+    }
+  }
 }
@@ -25,7 +25,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.List;
 import javax.xml.transform.TransformerException;
-import org.tukaani.xz.XZOutputStream;
+import org.tukaani.xz.FinishableOutputStream;
 import updater.crypto.AESKey;
 import updater.script.InvalidFormatException;
 import updater.script.Patch;
@@ -42,7 +42,8 @@ public class PatchPacker {
   }
 
   /**
-   * Pack the patch from the folder.
+   * Pack the patch from the folder with the default 
+   * {@link PatchCreationOptions}.
    * @param sourceFolder the folder that store the patch data to be pack
    * @param saveToFile the place to store the packed patch
    * @param aesKey the cipher key, null means don't use encryption
@@ -53,6 +54,23 @@ public class PatchPacker {
    * is invalid
    */
   public static void pack(File sourceFolder, File saveToFile, AESKey aesKey, File tempFileForEncryption) throws IOException, InvalidFormatException {
+    pack(sourceFolder, saveToFile, aesKey, tempFileForEncryption, new PatchCreationOptions());
+  }
+
+  /**
+   * Pack the patch from the folder.
+   * @param sourceFolder the folder that store the patch data to be pack
+   * @param saveToFile the place to store the packed patch
+   * @param aesKey the cipher key, null means don't use encryption
+   * @param tempFileForEncryption if {@code aesKey} is specified, this should 
+   * be provided to store the temporary encrypted file
+   * @param options the compression, the number of threads used to compress 
+   * and the block size
+   * @throws IOException error occurred when packing
+   * @throws InvalidFormatException the format of the patch XML in the patch 
+   * is invalid
+   */
+  public static void pack(File sourceFolder, File saveToFile, AESKey aesKey, File tempFileForEncryption, PatchCreationOptions options) throws IOException, InvalidFormatException {
     if (sourceFolder == null) {
       throw new NullPointerException("argument 'sourceFolder' cannot be null");
     }
@@ -62,6 +80,11 @@ public class PatchPacker {
     if (aesKey != null && tempFileForEncryption == null) {
       throw new NullPointerException("argument 'tempFileForEncryption' cannot be null while argument 'aesKey' is not null");
     }
+    if (options == null) {
+      throw new NullPointerException("argument 'options' cannot be null");
+    }
+
+    Compression compression = options.getCompression();
 
     if (!sourceFolder.isDirectory()) {
       throw new IOException("sourceFolder is not a directory.");
@@ -77,12 +100,13 @@ public class PatchPacker {
       fout = new FileOutputStream(saveToFile);
 
       PatchWriteUtil.writeHeader(fout);
-      XZOutputStream xzOut = (XZOutputStream) PatchWriteUtil.writeCompressionMethod(fout, Compression.LZMA2);
+      FinishableOutputStream xzOut = (FinishableOutputStream) PatchWriteUtil.writeCompressionMethod(fout, compression, options.getCompressionThreadCount(), options.getBlockSize());
       try {
         PatchWriteUtil.writeXML(xzOut, patch.output());
       } catch (TransformerException ex) {
         throw new IOException("patch.xml format invalid: " + ex.getMessage());
       }
+      PatchWriteUtil.endBlock(xzOut, compression);
 
       int operationIdCounter = 1;
       List<Operation> operations = patch.getOperations();
@@ -90,6 +114,7 @@ public class PatchPacker {
         if (operation.getPatchLength() > 0) {
           try {
             PatchWriteUtil.writePatch(new File(sourceFolderPath + File.separator + operationIdCounter), xzOut);
+            PatchWriteUtil.endBlock(xzOut, compression);
           } catch (IOException ex) {
             throw new IOException("Error occurred when packing patches: " + ex.getMessage());
           }
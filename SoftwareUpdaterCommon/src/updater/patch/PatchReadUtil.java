@@ -20,21 +20,24 @@
 // WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 package updater.patch;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import org.tukaani.xz.XZInputStream;
+import updater.crypto.AESForFileCipherBackend;
 import updater.crypto.AESKey;
+import updater.crypto.CipherBackend;
 import updater.script.InvalidFormatException;
 import updater.script.Patch;
 import updater.util.CommonUtil;
-import watne.seis720.project.AESForFile;
+import updater.util.InterruptibleInputStream;
 import watne.seis720.project.AESForFileListener;
-import watne.seis720.project.KeySize;
-import watne.seis720.project.Mode;
-import watne.seis720.project.Padding;
 
 /**
  * Functions for reading the patch.
@@ -56,9 +59,7 @@ public class PatchReadUtil {
     }
 
     byte[] buf = new byte[5];
-    if (in.read(buf, 0, 5) != 5) {
-      throw new IOException("Reach the end of stream.");
-    }
+    readFully(in, buf);
 
     if (buf[0] != 'P' || buf[1] != 'A' || buf[2] != 'T' || buf[3] != 'C' || buf[4] != 'H') {
       throw new IOException("Invalid patch header.");
@@ -88,6 +89,7 @@ public class PatchReadUtil {
         case GZIP:
           return new GZIPInputStream(in);
         case LZMA2: // XZ/LZMA2
+        case LZMA2_INDEXED: // XZ/LZMA2, the blocks can be read sequentially too
           return new XZInputStream(in);
       }
     }
@@ -108,15 +110,11 @@ public class PatchReadUtil {
     }
 
     byte[] buf = new byte[3];
-    if (in.read(buf, 0, 3) != 3) {
-      throw new IOException("Reach the end of stream.");
-    }
+    readFully(in, buf);
 
     int xmlLength = ((buf[0] & 0xff) << 16) | ((buf[1] & 0xff) << 8) | (buf[2] & 0xff);
     byte[] xmlData = new byte[xmlLength];
-    if (in.read(xmlData) != xmlLength) {
-      throw new IOException("Reach the end of stream.");
-    }
+    readFully(in, xmlData);
     return Patch.read(xmlData);
   }
 
@@ -128,7 +126,7 @@ public class PatchReadUtil {
    * @throws IOException error occurred when reading from {@code in} or 
    * saving to {@code saveTo}
    */
-  public static void readToFile(File saveTo, InputStream in, int length) throws IOException {
+  public static void readToFile(File saveTo, InputStream in, long length) throws IOException {
     if (saveTo == null) {
       throw new NullPointerException("argument 'saveTo' cannot be null");
     }
@@ -144,8 +142,9 @@ public class PatchReadUtil {
       fout = new FileOutputStream(saveTo);
 
       byte[] b = new byte[32768];
-      int byteRead, cumulativeByteRead = 0, byteToRead;
-      byteToRead = length > b.length ? b.length : length;
+      int byteRead, byteToRead;
+      long cumulativeByteRead = 0;
+      byteToRead = length > b.length ? b.length : (int) length;
       while ((byteRead = in.read(b, 0, byteToRead)) != -1) {
         fout.write(b, 0, byteRead);
 
@@ -154,7 +153,7 @@ public class PatchReadUtil {
           break;
         }
 
-        byteToRead = length - cumulativeByteRead > b.length ? b.length : length - cumulativeByteRead;
+        byteToRead = length - cumulativeByteRead > b.length ? b.length : (int) (length - cumulativeByteRead);
       }
     } finally {
       CommonUtil.closeQuietly(fout);
@@ -162,7 +161,8 @@ public class PatchReadUtil {
   }
 
   /**
-   * Decrypt the {@code patchFile} and save to {@code decryptTo}.
+   * Decrypt the {@code patchFile} and save to {@code decryptTo} using the 
+   * default cipher backend {@link AESForFileCipherBackend}.
    * @param aesKey the cipher key to use
    * @param listener the progress listener, accept null
    * @param patchFile the file to decrypt
@@ -170,9 +170,19 @@ public class PatchReadUtil {
    * @throws IOException error occurred when decrypting
    */
   public static void decrypt(AESKey aesKey, AESForFileListener listener, File patchFile, File decryptTo) throws IOException {
-    if (aesKey == null) {
-      throw new NullPointerException("argument 'aesKey' cannot be null");
-    }
+    decrypt(new AESForFileCipherBackend(), aesKey, listener, patchFile, decryptTo);
+  }
+
+  /**
+   * Decrypt the {@code patchFile} and save to {@code decryptTo}.
+   * @param cipherBackend the cipher backend to use
+   * @param aesKey the cipher key to use
+   * @param listener the progress listener, accept null
+   * @param patchFile the file to decrypt
+   * @param decryptTo the file to save the decrypted file
+   * @throws IOException error occurred when decrypting
+   */
+  public static void decrypt(CipherBackend cipherBackend, AESKey aesKey, AESForFileListener listener, File patchFile, File decryptTo) throws IOException {
     if (patchFile == null) {
       throw new NullPointerException("argument 'patchFile' cannot be null");
     }
@@ -182,19 +192,85 @@ public class PatchReadUtil {
 
     decryptTo.delete();
 
+    InputStream in = null;
+    OutputStream out = null;
     try {
-      AESForFile aesCipher = new AESForFile();
-      if (listener != null) {
-        aesCipher.setListener(listener);
+      in = decrypt(cipherBackend, aesKey, new InterruptibleInputStream(new BufferedInputStream(new FileInputStream(patchFile), 32768)));
+      out = new BufferedOutputStream(new FileOutputStream(decryptTo), 32768);
+
+      byte[] b = new byte[32768];
+      int byteRead, percentage = 0;
+      long fileLength = patchFile.length(), cumulativeByteRead = 0;
+      while ((byteRead = in.read(b)) != -1) {
+        out.write(b, 0, byteRead);
+
+        cumulativeByteRead += byteRead;
+        if (listener != null && fileLength != 0) {
+          int tempPercentage = (int) (cumulativeByteRead * 100 / fileLength);
+          if (percentage != tempPercentage) {
+            listener.cryptProgress(tempPercentage);
+            percentage = tempPercentage;
+          }
+        }
       }
-      aesCipher.setMode(Mode.CBC);
-      aesCipher.setPadding(Padding.PKCS5PADDING);
-      aesCipher.setKeySize(KeySize.BITS256);
-      aesCipher.setKey(aesKey.getKey());
-      aesCipher.setInitializationVector(aesKey.getIV());
-      aesCipher.decryptFile(patchFile, decryptTo);
-    } catch (Exception ex) {
+    } catch (IOException ex) {
       throw new IOException("Error occurred when decrypting the patch: " + ex.getMessage());
+    } finally {
+      CommonUtil.closeQuietly(in);
+      CommonUtil.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Get the input stream that decrypt the patch from {@code in} on the fly 
+   * using the default cipher backend {@link AESForFileCipherBackend}.
+   * @param aesKey the cipher key to use
+   * @param in the input stream of the encrypted patch
+   * @return the input stream to read the decrypted patch
+   * @throws IOException error occurred when initializing the cipher
+   */
+  public static InputStream decrypt(AESKey aesKey, InputStream in) throws IOException {
+    return decrypt(new AESForFileCipherBackend(), aesKey, in);
+  }
+
+  /**
+   * Get the input stream that decrypt the patch from {@code in} on the fly.
+   * @param cipherBackend the cipher backend to use
+   * @param aesKey the cipher key to use
+   * @param in the input stream of the encrypted patch
+   * @return the input stream to read the decrypted patch
+   * @throws IOException error occurred when initializing the cipher
+   */
+  public static InputStream decrypt(CipherBackend cipherBackend, AESKey aesKey, InputStream in) throws IOException {
+    if (cipherBackend == null) {
+      throw new NullPointerException("argument 'cipherBackend' cannot be null");
+    }
+    if (aesKey == null) {
+      throw new NullPointerException("argument 'aesKey' cannot be null");
+    }
+    if (in == null) {
+      throw new NullPointerException("argument 'in' cannot be null");
+    }
+
+    return cipherBackend.getDecryptInputStream(aesKey, in);
+  }
+
+  /**
+   * Read from the stream until {@code b} is filled. A read may return less 
+   * than requested, e.g. when reading through {@link updater.util.ReadAheadInputStream}.
+   * @param in the stream to read
+   * @param b the buffer to fill
+   * @throws IOException reach the end of stream before {@code b} is filled or 
+   * error occurred when reading
+   */
+  protected static void readFully(InputStream in, byte[] b) throws IOException {
+    int pos = 0;
+    while (pos < b.length) {
+      int byteRead = in.read(b, pos, b.length - pos);
+      if (byteRead == -1) {
+        throw new IOException("Reach the end of stream.");
+      }
+      pos += byteRead;
     }
   }
 }
@@ -20,20 +20,24 @@
 // WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 package updater.patch;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.zip.GZIPOutputStream;
 import org.tukaani.xz.LZMA2Options;
 import org.tukaani.xz.XZOutputStream;
+import updater.crypto.AESForFileCipherBackend;
 import updater.crypto.AESKey;
+import updater.crypto.CipherBackend;
 import updater.util.CommonUtil;
-import watne.seis720.project.AESForFile;
+import updater.util.InterruptibleInputStream;
+import updater.util.ParallelXZOutputStream;
 import watne.seis720.project.AESForFileListener;
-import watne.seis720.project.KeySize;
-import watne.seis720.project.Mode;
-import watne.seis720.project.Padding;
 
 /**
  * Functions for writing the patch.
@@ -71,6 +75,25 @@ public class PatchWriteUtil {
    * the compress output stream
    */
   public static OutputStream writeCompressionMethod(OutputStream out, Compression compression) throws IOException {
+    return writeCompressionMethod(out, compression, 1, 0);
+  }
+
+  /**
+   * Write the compression method to the patch and return the compress output 
+   * stream.
+   * @param out the stream to output
+   * @param compression the compression method
+   * @param threadCount the number of threads used to compress, only used by 
+   * {@link Compression#LZMA2} and {@link Compression#LZMA2_INDEXED}, 1 or 
+   * less means compress in the calling thread
+   * @param blockSize the size of each independently compressed block when 
+   * {@code threadCount} is greater than 1, 0 or less means use 
+   * {@link ParallelXZOutputStream#DEFAULT_BLOCK_SIZE}
+   * @return the compress output stream
+   * @throws IOException error occurred when outputing the header or creating 
+   * the compress output stream
+   */
+  public static OutputStream writeCompressionMethod(OutputStream out, Compression compression, int threadCount, int blockSize) throws IOException {
     if (out == null) {
       throw new NullPointerException("argument 'out' cannot be null");
     }
@@ -83,12 +106,42 @@ public class PatchWriteUtil {
       case GZIP:
         return new GZIPOutputStream(out);
       case LZMA2:
+      case LZMA2_INDEXED:
+        if (threadCount > 1) {
+          return new ParallelXZOutputStream(out, new LZMA2Options(), blockSize, threadCount);
+        }
         return new XZOutputStream(out, new LZMA2Options());
       default:
         throw new IOException("Compression method not supported/not exist");
     }
   }
 
+  /**
+   * End the current compressed block if {@code compression} is 
+   * {@link Compression#LZMA2_INDEXED}, so the next content written start at 
+   * a new block. Do nothing for other compression methods.
+   * @param out the compress output stream returned by 
+   * {@link #writeCompressionMethod(java.io.OutputStream, updater.patch.Compression)}
+   * @param compression the compression method
+   * @throws IOException error occurred when outputing to {@code out}
+   */
+  public static void endBlock(OutputStream out, Compression compression) throws IOException {
+    if (out == null) {
+      throw new NullPointerException("argument 'out' cannot be null");
+    }
+    if (compression == null) {
+      throw new NullPointerException("argument 'compression' cannot be null");
+    }
+
+    if (compression == Compression.LZMA2_INDEXED) {
+      if (out instanceof ParallelXZOutputStream) {
+        ((ParallelXZOutputStream) out).endBlock();
+      } else {
+        ((XZOutputStream) out).endBlock();
+      }
+    }
+  }
+
   /**
    * Write the patch XML to the patch.
    * @param out the stream to output
@@ -135,7 +188,8 @@ public class PatchWriteUtil {
       fin = new FileInputStream(fromFile);
 
       byte[] b = new byte[32768];
-      int byteRead, cumulativeByteRead = 0;
+      int byteRead;
+      long cumulativeByteRead = 0;
       while ((byteRead = fin.read(b)) != -1) {
         toStream.write(b, 0, byteRead);
 
@@ -155,7 +209,8 @@ public class PatchWriteUtil {
   }
 
   /**
-   * Encrypt the {@code patchFile} and save to {@code encryptTo}.
+   * Encrypt the {@code patchFile} and save to {@code encryptTo} using the 
+   * default cipher backend {@link AESForFileCipherBackend}.
    * @param aesKey the cipher key to use
    * @param listener the progress listener, accept null
    * @param patchFile the file to encrypt
@@ -163,6 +218,22 @@ public class PatchWriteUtil {
    * @throws IOException error occurred when encrypting
    */
   public static void encrypt(AESKey aesKey, AESForFileListener listener, File patchFile, File encryptTo) throws IOException {
+    encrypt(new AESForFileCipherBackend(), aesKey, listener, patchFile, encryptTo);
+  }
+
+  /**
+   * Encrypt the {@code patchFile} and save to {@code encryptTo}.
+   * @param cipherBackend the cipher backend to use
+   * @param aesKey the cipher key to use
+   * @param listener the progress listener, accept null
+   * @param patchFile the file to encrypt
+   * @param encryptTo the file to save the encrypted file
+   * @throws IOException error occurred when encrypting
+   */
+  public static void encrypt(CipherBackend cipherBackend, AESKey aesKey, AESForFileListener listener, File patchFile, File encryptTo) throws IOException {
+    if (cipherBackend == null) {
+      throw new NullPointerException("argument 'cipherBackend' cannot be null");
+    }
     if (aesKey == null) {
       throw new NullPointerException("argument 'aesKey' cannot be null");
     }
@@ -175,19 +246,36 @@ public class PatchWriteUtil {
 
     encryptTo.delete();
 
+    InputStream in = null;
+    OutputStream out = null;
     try {
-      AESForFile aesCipher = new AESForFile();
-      if (listener != null) {
-        aesCipher.setListener(listener);
+      in = new InterruptibleInputStream(new BufferedInputStream(new FileInputStream(patchFile), 32768));
+      out = cipherBackend.getEncryptOutputStream(aesKey, new BufferedOutputStream(new FileOutputStream(encryptTo), 32768));
+
+      byte[] b = new byte[32768];
+      int byteRead, percentage = 0;
+      long fileLength = patchFile.length(), cumulativeByteRead = 0;
+      while ((byteRead = in.read(b)) != -1) {
+        out.write(b, 0, byteRead);
+
+        cumulativeByteRead += byteRead;
+        if (listener != null && fileLength != 0) {
+          int tempPercentage = (int) (cumulativeByteRead * 100 / fileLength);
+          if (percentage != tempPercentage) {
+            listener.cryptProgress(tempPercentage);
+            percentage = tempPercentage;
+          }
+        }
       }
-      aesCipher.setMode(Mode.CBC);
-      aesCipher.setPadding(Padding.PKCS5PADDING);
-      aesCipher.setKeySize(KeySize.BITS256);
-      aesCipher.setKey(aesKey.getKey());
-      aesCipher.setInitializationVector(aesKey.getIV());
-      aesCipher.encryptFile(patchFile, encryptTo);
-    } catch (Exception ex) {
+
+      // close to write out the last block
+      out.close();
+      out = null;
+    } catch (IOException ex) {
       throw new IOException("Error occurred when encrypting the patch: " + ex.getMessage());
+    } finally {
+      CommonUtil.closeQuietly(in);
+      CommonUtil.closeQuietly(out);
     }
   }
 }
@@ -20,34 +20,41 @@
 // WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 package updater.patch;
 
-import com.nothome.delta.GDiffPatcher;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import updater.crypto.AESForFileCipherBackend;
 import updater.crypto.AESKey;
+import updater.crypto.CipherBackend;
 import updater.script.InvalidFormatException;
 import updater.script.Patch;
 import updater.script.Patch.Operation;
 import updater.script.Patch.ValidationFile;
 import updater.util.CommonUtil;
+import updater.util.FileHashCache;
 import updater.util.InterruptibleInputStream;
 import updater.util.InterruptibleOutputStream;
 import updater.util.Pausable;
-import updater.util.SeekableFile;
-import watne.seis720.project.AESForFile;
-import watne.seis720.project.AESForFileListener;
-import watne.seis720.project.KeySize;
-import watne.seis720.project.Mode;
-import watne.seis720.project.Padding;
 
 /**
  * The patch patcher.
@@ -83,6 +90,11 @@ public class Patcher implements Pausable {
    * The temporary directory to store the patched file.
    */
   protected File tempDir;
+  /**
+   * The backup files of the removed files, the key is the path of the removed 
+   * file. It is used to find the source file of 'move' operations.
+   */
+  protected Map<String, File> removedFiles;
   /**
    * The log writer for logging patching event.
    */
@@ -99,13 +111,23 @@ public class Patcher implements Pausable {
    */
   protected InterruptibleInputStream interruptiblePatchIn;
   /**
-   * The random accessible file of old file (when patching old file to new file).
+   * The patch being applied.
    */
-  protected SeekableFile seekableRandomAccessOldFile;
+  protected SeekablePatch seekablePatch;
   /**
-   * The AES cryptor.
+   * The cipher backend used to decrypt the patch.
    */
-  protected AESForFile aesCryptor;
+  protected CipherBackend cipherBackend;
+  /**
+   * The number of threads used to validate the files after patching.
+   */
+  protected int validationThreadCount;
+  /**
+   * The checksum of the files known in the patching session. The checksum of 
+   * the new files are generated when they are written and are carried to the 
+   * destination when renamed, so they need not to be read again.
+   */
+  protected FileHashCache fileHashCache;
 
   /**
    * Constructor.
@@ -125,8 +147,44 @@ public class Patcher implements Pausable {
 
     newFileOut = null;
     interruptiblePatchIn = null;
-    seekableRandomAccessOldFile = null;
-    aesCryptor = null;
+    seekablePatch = null;
+    cipherBackend = new AESForFileCipherBackend();
+    validationThreadCount = 1;
+    fileHashCache = new FileHashCache();
+  }
+
+  /**
+   * Set the cipher backend used to decrypt the patch, default is 
+   * {@link AESForFileCipherBackend}.
+   * @param cipherBackend the cipher backend
+   */
+  public void setCipherBackend(CipherBackend cipherBackend) {
+    if (cipherBackend == null) {
+      throw new NullPointerException("argument 'cipherBackend' cannot be null");
+    }
+    this.cipherBackend = cipherBackend;
+  }
+
+  /**
+   * Get the number of threads used to validate the files after patching.
+   * @return the number of threads
+   */
+  public int getValidationThreadCount() {
+    return validationThreadCount;
+  }
+
+  /**
+   * Set the number of threads used to validate the files after patching, 
+   * default is 1. With more than 1 thread, the files are validated 
+   * concurrently, largest first, and the validation stops at the first 
+   * mismatch.
+   * @param validationThreadCount the number of threads
+   */
+  public void setValidationThreadCount(int validationThreadCount) {
+    if (validationThreadCount < 1) {
+      throw new IllegalArgumentException("argument 'validationThreadCount' should >= 1");
+    }
+    this.validationThreadCount = validationThreadCount;
   }
 
   /**
@@ -142,15 +200,39 @@ public class Patcher implements Pausable {
       if (interruptiblePatchIn != null) {
         interruptiblePatchIn.pause(pause);
       }
-      if (seekableRandomAccessOldFile != null) {
-        seekableRandomAccessOldFile.pause(pause);
-      }
-      if (aesCryptor != null) {
-        aesCryptor.pause(pause);
+      if (seekablePatch != null) {
+        seekablePatch.pause(pause);
       }
     }
   }
 
+  /**
+   * Get the SHA-256 checksum of the file, the file is read only if its 
+   * checksum is not known in this patching session.
+   * @param file the file
+   * @return the SHA-256 checksum in lowercase hex string
+   * @throws IOException error occurred when reading the file
+   */
+  protected String getSHA256String(File file) throws IOException {
+    return fileHashCache.getSHA256String(file);
+  }
+
+  /**
+   * Rename the file and carry its known checksum to the new path.
+   * @param from the file to rename
+   * @param to the new path
+   * @return true if succeed, false if not
+   * @throws IOException error occurred when getting the canonical path of 
+   * the files
+   */
+  protected boolean renameFile(File from, File to) throws IOException {
+    if (!from.renameTo(to)) {
+      return false;
+    }
+    fileHashCache.rename(from, to);
+    return true;
+  }
+
   /**
    * Prepare the new file according to the {@code operation}.
    * @param operation the operation to get the information from
@@ -182,7 +264,7 @@ public class Patcher implements Pausable {
 
     // check if the new file is already patched and waiting for do replacement already
     if (newFile.exists()) {
-      if (newFile.length() == operation.getNewFileLength() && CommonUtil.getSHA256String(newFile).equals(operation.getNewFileChecksum())) {
+      if (newFile.length() == operation.getNewFileLength() && getSHA256String(newFile).equals(operation.getNewFileChecksum())) {
         long byteSkipped = interruptiblePatchIn.skip(operation.getPatchLength());
         if (byteSkipped != operation.getPatchLength()) {
           throw new IOException("Failed to skip remaining bytes in 'patchIn'.");
@@ -197,15 +279,31 @@ public class Patcher implements Pausable {
 
     // do operation
     newFileOut = null;
+    InterruptibleInputStream sourceIn = null;
     RandomAccessFile randomAccessOldFile = null;
-    seekableRandomAccessOldFile = null;
     try {
-      newFileOut = new InterruptibleOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)));
+      long contentLength = operation.getPatchLength();
+      if (operationType == OperationType.COPY || operationType == OperationType.MOVE) {
+        // the content is not packed in the patch, read it from the local source file
+        contentLength = operation.getNewFileLength();
+        sourceIn = new InterruptibleInputStream(new BufferedInputStream(new FileInputStream(getSourceFile(operation))), contentLength);
+        interruptiblePatchIn = sourceIn;
+      }
+
+      MessageDigest newFileDigest;
+      try {
+        newFileDigest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException ex) {
+        throw new IOException(ex);
+      }
+      newFileOut = new InterruptibleOutputStream(new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(newFile), newFileDigest)));
 
       switch (operationType) {
         case FORCE:
         case NEW:
         case REPLACE:
+        case COPY:
+        case MOVE:
           //<editor-fold defaultstate="collapsed" desc="add interrupted tasks">
           Runnable _interruptedTask = new Runnable() {
 
@@ -220,13 +318,13 @@ public class Patcher implements Pausable {
           //</editor-fold>
 
           int byteRead;
-          int remaining = operation.getPatchLength();
+          long remaining = contentLength;
           while (true) {
             if (remaining <= 0) {
               break;
             }
 
-            int lengthToRead = buf.length > remaining ? remaining : buf.length;
+            int lengthToRead = buf.length > remaining ? (int) remaining : buf.length;
             byteRead = interruptiblePatchIn.read(buf, 0, lengthToRead);
             if (byteRead == -1) {
               break;
@@ -236,9 +334,9 @@ public class Patcher implements Pausable {
           }
           break;
         case PATCH:
-          GDiffPatcher diffPatcher = new GDiffPatcher();
+          // the old file is memory-mapped, the new file is written in bulk
+          MappedGDiffPatcher diffPatcher = new MappedGDiffPatcher();
           randomAccessOldFile = new RandomAccessFile(destFile, "r");
-          seekableRandomAccessOldFile = new SeekableFile(randomAccessOldFile);
 
           //<editor-fold defaultstate="collapsed" desc="add interrupted tasks">
           final RandomAccessFile _randomAccessOldFile = randomAccessOldFile;
@@ -253,20 +351,54 @@ public class Patcher implements Pausable {
           };
           newFileOut.addInterruptedTask(__interruptedTask);
           interruptiblePatchIn.addInterruptedTask(__interruptedTask);
-          seekableRandomAccessOldFile.addInterruptedTask(__interruptedTask);
           //</editor-fold>
 
-          diffPatcher.patch(seekableRandomAccessOldFile, interruptiblePatchIn, newFileOut);
+          diffPatcher.patch(randomAccessOldFile.getChannel(), interruptiblePatchIn, newFileOut);
           break;
       }
+
+      // all content passed through the digest once closed
+      newFileOut.close();
+      fileHashCache.put(newFile, CommonUtil.byteArrayToHexString(newFileDigest.digest()));
     } finally {
+      CommonUtil.closeQuietly(sourceIn);
       CommonUtil.closeQuietly(randomAccessOldFile);
       CommonUtil.closeQuietly(newFileOut);
       newFileOut = null;
       interruptiblePatchIn = null;
-      seekableRandomAccessOldFile = null;
     }
   }
+
+  /**
+   * Get the local file to copy the content from for the 'copy' or 'move' 
+   * {@code operation}. The length and checksum of the file are checked 
+   * against the new file.
+   * @param operation the 'copy' or 'move' operation
+   * @return the source file
+   * @throws IOException source file not found or not match with the new file
+   */
+  protected File getSourceFile(Operation operation) throws IOException {
+    if (operation == null) {
+      throw new NullPointerException("argument 'operation' cannot be null");
+    }
+
+    File sourceFile = null;
+    if (OperationType.get(operation.getType()) == OperationType.MOVE) {
+      // the source file should have been removed by previous operation and is the backup file now
+      sourceFile = removedFiles.get(operation.getSourceFilePath());
+    }
+    if (sourceFile == null || !sourceFile.isFile()) {
+      sourceFile = new File(softwareDir + operation.getSourceFilePath());
+    }
+
+    if (!sourceFile.isFile()
+            || sourceFile.length() != operation.getNewFileLength()
+            || !getSHA256String(sourceFile).equals(operation.getNewFileChecksum())) {
+      throw new IOException(String.format("Copy/Move file: source file %1$s not found or not match with the length & checksum of the new file", operation.getSourceFilePath()));
+    }
+
+    return sourceFile;
+  }
   protected int logFileIndex;
   protected boolean logDestFileExist;
   protected String logBackupFileAbsPath;
@@ -339,6 +471,9 @@ public class Patcher implements Pausable {
 //           else -> {error}                14
 //    dest not exist:
 //      ** output patch -> new, new->dest   15
+//copy & move:
+//  type file: same as 'new', the content is read from the source file instead of the patch
+//    (move: the source file is the backup of the removed file)
 //force:
 //  type folder: (dest)
 //    dest exist:
@@ -417,7 +552,7 @@ public class Patcher implements Pausable {
             if (destFile.isDirectory()) {
               if (destFile.list().length == 0) {
                 log(1);
-                if (!destFile.renameTo(backupFile)) {
+                if (!renameFile(destFile, backupFile)) {
                   returnValue = new ReplacementRecord(operationType, 1, destFileAbsPath, "", backupFileAbsPath);
                 }
               } else {
@@ -440,7 +575,7 @@ public class Patcher implements Pausable {
               throw new IOException(String.format("Remove file: destFile %1$s expecting file but is a folder", destFileAbsPath));
             } else {
               log(6);
-              if (!destFile.renameTo(backupFile)) {
+              if (!renameFile(destFile, backupFile)) {
                 returnValue = new ReplacementRecord(operationType, 6, destFileAbsPath, "", backupFileAbsPath);
               }
             }
@@ -456,6 +591,8 @@ public class Patcher implements Pausable {
         }
         break;
       case NEW:
+      case COPY:
+      case MOVE:
         if (operation.getFileType().equals("folder")) {
           prepareLog(operation.getId(), destFileExist, "", "", destFileAbsPath);
           listener.patchProgress((int) progress, String.format("Creating new folder %1$s ...", operation.getDestFilePath()));
@@ -481,7 +618,7 @@ public class Patcher implements Pausable {
               log(12);
               throw new IOException(String.format("Add new file: destFile %1$s expecting a file but is a folder", destFileAbsPath));
             } else {
-              if (operation.getNewFileLength() == destFile.length() && operation.getNewFileChecksum().equals(CommonUtil.getSHA256String(destFile))) {
+              if (operation.getNewFileLength() == destFile.length() && operation.getNewFileChecksum().equals(getSHA256String(destFile))) {
                 log(13);
                 // succeed
               } else {
@@ -492,7 +629,7 @@ public class Patcher implements Pausable {
           } else {
             log(15);
             prepareNewFile(operation, patchIn, newFile, destFile);
-            if (!newFile.renameTo(destFile)) {
+            if (!renameFile(newFile, destFile)) {
               returnValue = new ReplacementRecord(operationType, 15, destFileAbsPath, newFileAbsPath, backupFileAbsPath);
             }
           }
@@ -527,7 +664,7 @@ public class Patcher implements Pausable {
               long destFileLength = destFile.length();
               String destFileChecksum = null;
               try {
-                destFileChecksum = CommonUtil.getSHA256String(destFile);
+                destFileChecksum = getSHA256String(destFile);
               } catch (IOException ex) {
                 // failure is allowed
               }
@@ -538,7 +675,7 @@ public class Patcher implements Pausable {
               } else if (!backupFile.exists() && (operation.getNewFileLength() != destFileLength || !operation.getNewFileChecksum().equals(destFileChecksum))) {
                 log(20);
                 prepareNewFile(operation, patchIn, newFile, destFile);
-                if (!destFile.renameTo(backupFile) || !newFile.renameTo(destFile)) {
+                if (!renameFile(destFile, backupFile) || !renameFile(newFile, destFile)) {
                   returnValue = new ReplacementRecord(operationType, 20, destFileAbsPath, newFileAbsPath, backupFileAbsPath);
                 }
               } else if (operation.getNewFileLength() == destFileLength && operation.getNewFileChecksum().equals(destFileChecksum)) {
@@ -553,7 +690,7 @@ public class Patcher implements Pausable {
           } else {
             log(23);
             prepareNewFile(operation, patchIn, newFile, destFile);
-            if (!newFile.renameTo(destFile)) {
+            if (!renameFile(newFile, destFile)) {
               returnValue = new ReplacementRecord(operationType, 23, destFileAbsPath, newFileAbsPath, backupFileAbsPath);
             }
           }
@@ -570,7 +707,7 @@ public class Patcher implements Pausable {
           } else {
             String destFileChecksum = null;
             try {
-              destFileChecksum = CommonUtil.getSHA256String(destFile);
+              destFileChecksum = getSHA256String(destFile);
             } catch (IOException ex) {
               // failure is allowed
             }
@@ -584,7 +721,7 @@ public class Patcher implements Pausable {
             } else if (operation.getOldFileLength() == destFile.length() && operation.getOldFileChecksum().equals(destFileChecksum)) {
               log(26);
               prepareNewFile(operation, patchIn, newFile, destFile);
-              if (!destFile.renameTo(backupFile) || !newFile.renameTo(destFile)) {
+              if (!renameFile(destFile, backupFile) || !renameFile(newFile, destFile)) {
                 returnValue = new ReplacementRecord(operationType, 26, destFileAbsPath, newFileAbsPath, backupFileAbsPath);
               }
             } else {
@@ -595,7 +732,7 @@ public class Patcher implements Pausable {
         } else {
           if (backupFile.exists() && newFile.exists()) {
             log(28);
-            if (!newFile.renameTo(destFile)) {
+            if (!renameFile(newFile, destFile)) {
               returnValue = new ReplacementRecord(operationType, 28, destFileAbsPath, newFileAbsPath, backupFileAbsPath);
             }
           } else {
@@ -655,7 +792,6 @@ public class Patcher implements Pausable {
     }
 
 
-    File _patchFile = patchFile;
     List<ReplacementRecord> replacementFailedList = new ArrayList<ReplacementRecord>();
     int startFromFileIndex = 0;
     Map<Integer, PatchRecord> extraFileIndexes = new HashMap<Integer, PatchRecord>();
@@ -683,7 +819,6 @@ public class Patcher implements Pausable {
     //</editor-fold>
 
 
-    float decryptProgress = 0;
     float prepareProgress = 5;
     float updateProgress = 65;
     float validateFilesProgress = 30;
@@ -693,73 +828,32 @@ public class Patcher implements Pausable {
     progress = stageMinimumProgress;
 
 
-    //<editor-fold defaultstate="collapsed" desc="decrypt the patch">
-    if (aesKey != null) {
-      decryptProgress = 25;
-      updateProgress = 50;
-      validateFilesProgress = 20;
-
-      File tempFileForDecryption = new File(tempDir.getAbsolutePath() + File.separator + patchId + ".patch.decrypted");
-
-      final float _decryptProgress = decryptProgress;
-      final float _stageMinimumProgress = stageMinimumProgress;
-      try {
-        AESForFileListener aesForFileListener = new AESForFileListener() {
-
-          @Override
-          public void cryptProgress(int percentage) {
-            listener.patchProgress((int) (_stageMinimumProgress + ((float) percentage / 100F) * _decryptProgress), "Decrypting patch ...");
-          }
-        };
-
-        aesCryptor = new AESForFile();
-        aesCryptor.setListener(aesForFileListener);
-        aesCryptor.setMode(Mode.CBC);
-        aesCryptor.setPadding(Padding.PKCS5PADDING);
-        aesCryptor.setKeySize(KeySize.BITS256);
-        aesCryptor.setKey(aesKey.getKey());
-        aesCryptor.setInitializationVector(aesKey.getIV());
-        aesCryptor.decryptFile(_patchFile, tempFileForDecryption);
-      } catch (Exception ex) {
-        throw new IOException(ex);
-      } finally {
-        aesCryptor = null;
-      }
-
-      _patchFile = tempFileForDecryption;
-    }
-    //</editor-fold>
-
-
-    stageMinimumProgress += decryptProgress;
-    progress = stageMinimumProgress;
-
-
-    InputStream patchIn = null;
     log = new LogWriter(logFile);
     try {
-      patchIn = new BufferedInputStream(new FileInputStream(_patchFile));
-
-
       listener.patchProgress((int) progress, "Preparing new patch ...");
       listener.patchEnableCancel(false);
-      // header
-      PatchReadUtil.readHeader(patchIn);
-      InputStream decompressedPatchIn = PatchReadUtil.readCompressionMethod(patchIn);
-      Patch patch = null;
+      // the patch is decrypted while it is being read, no temporary decrypted file is needed
       try {
-        patch = PatchReadUtil.readXML(decompressedPatchIn);
+        seekablePatch = new SeekablePatch(patchFile, aesKey, cipherBackend);
       } catch (InvalidFormatException ex) {
         throw new IOException(ex);
       }
+      Patch patch = seekablePatch.getPatch();
 
       List<Operation> operations = patch.getOperations();
       List<ValidationFile> validations = patch.getValidations();
+      removedFiles = new HashMap<String, File>();
       for (Operation operation : operations) {
         String destChangeTo = null;
         if ((destChangeTo = destinationReplacement.get(operation.getDestFilePath())) != null) {
           operation.setDestFilePath(destChangeTo);
         }
+        if (operation.getSourceFilePath() != null && (destChangeTo = destinationReplacement.get(operation.getSourceFilePath())) != null) {
+          operation.setSourceFilePath(destChangeTo);
+        }
+        if (OperationType.get(operation.getType()) == OperationType.REMOVE) {
+          removedFiles.put(operation.getDestFilePath(), new File(tempDir + File.separator + "old_" + operation.getId()));
+        }
       }
       for (ValidationFile validation : validations) {
         String destChangeTo = null;
@@ -788,21 +882,12 @@ public class Patcher implements Pausable {
         Operation _operation = operations.get(i);
 
         if (!(i + 1 >= startFromFileIndex || extraFileIndexes.get(i + 1) != null)) {
-          long byteSkipped = decompressedPatchIn.skip(_operation.getPatchLength());
-          if (byteSkipped != _operation.getPatchLength()) {
-            throw new IOException("Failed to skip remaining bytes in 'interruptiblePatchIn'.");
-          }
           continue;
         }
 
-        InterruptibleInputStream operationIn = new InterruptibleInputStream(decompressedPatchIn, _operation.getPatchLength());
+        // seek to the content directly if the patch is indexed, otherwise skip the content before it
+        InterruptibleInputStream operationIn = seekablePatch.getInputStream(_operation);
         ReplacementRecord failedReplacement = doOperation(extraFileIndexes.get(i + 1), _operation, operationIn);
-        if (operationIn.remaining() != 0) {
-          long byteSkipped = decompressedPatchIn.skip(operationIn.remaining());
-          if (byteSkipped != operationIn.remaining()) {
-            throw new IOException("Failed to skip remaining bytes in 'interruptiblePatchIn'.");
-          }
-        }
         if (failedReplacement != null) {
           replacementFailedList.add(failedReplacement);
         }
@@ -819,31 +904,7 @@ public class Patcher implements Pausable {
         listener.patchProgress((int) progress, "Validating files ...");
         listener.patchEnableCancel(false);
         // validate files
-        progressStep = validateFilesProgress / (float) validations.size();
-        for (ValidationFile _validationFile : validations) {
-          listener.patchProgress((int) progress, String.format("Validating file: %1$s", _validationFile.getFilePath()));
-
-          File _file = new File(this.softwareDir + _validationFile.getFilePath());
-
-          if (_validationFile.getFileLength() == -1) {
-            if (!_file.isDirectory()) {
-              throw new IOException(String.format("Folder missed: %1$s", _file.getAbsolutePath()));
-            }
-          } else {
-            if (!_file.exists()) {
-              throw new IOException(String.format("File missed: %1$s", _file.getAbsolutePath()));
-            }
-            if (_file.length() != _validationFile.getFileLength()) {
-              throw new IOException(String.format("File length not matched, file: %1$s, expected: %2$d, found: %3$d",
-                      _file.getAbsolutePath(), _validationFile.getFileLength(), _file.length()));
-            }
-            if (!CommonUtil.getSHA256String(_file).equals(_validationFile.getFileChecksum())) {
-              throw new IOException(String.format("File checksum incorrect: %1$s", _file.getAbsolutePath()));
-            }
-          }
-
-          progress += progressStep;
-        }
+        validateFiles(validations, validateFilesProgress / (float) validations.size());
       }
 
 
@@ -858,12 +919,181 @@ public class Patcher implements Pausable {
     } finally {
       CommonUtil.closeQuietly(log);
       log = null;
-      CommonUtil.closeQuietly(patchIn);
+      CommonUtil.closeQuietly(seekablePatch);
+      seekablePatch = null;
+      removedFiles = null;
+      fileHashCache.clear();
     }
 
     return replacementFailedList;
   }
 
+  /**
+   * Validate the files after patching. If {@link #validationThreadCount} is 
+   * greater than 1, the files are validated concurrently, the largest files 
+   * are started first, and the remaining validations are cancelled at the 
+   * first mismatch. The progress is reported in the order of 
+   * {@code validations} no matter which one finish first.
+   * @param validations the files to validate
+   * @param progressStep the progress for every file
+   * @throws IOException any one file is missed or not matched, or error 
+   * occurred when reading the files
+   */
+  protected void validateFiles(final List<ValidationFile> validations, float progressStep) throws IOException {
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+    List<ValidationTask> tasks = new ArrayList<ValidationTask>(validations.size());
+    for (ValidationFile validation : validations) {
+      File file = new File(softwareDir + validation.getFilePath());
+      tasks.add(new ValidationTask(validation, file, validation.getFileLength() == -1 ? null : fileHashCache.get(file), cancelled, failure));
+    }
+
+    ExecutorService executor = null;
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(Collections.<Future<Void>>nCopies(validations.size(), null));
+    if (validationThreadCount > 1 && validations.size() > 1) {
+      List<Integer> submitOrder = new ArrayList<Integer>(validations.size());
+      for (int i = 0, iEnd = validations.size(); i < iEnd; i++) {
+        submitOrder.add(i);
+      }
+      // largest first, so that the largest file will not be the last one to start
+      Collections.sort(submitOrder, new Comparator<Integer>() {
+
+        @Override
+        public int compare(Integer o1, Integer o2) {
+          long length1 = validations.get(o1).getFileLength();
+          long length2 = validations.get(o2).getFileLength();
+          return length1 == length2 ? 0 : (length1 > length2 ? -1 : 1);
+        }
+      });
+
+      executor = Executors.newFixedThreadPool(Math.min(validationThreadCount, validations.size()));
+      for (int index : submitOrder) {
+        futures.set(index, executor.submit(tasks.get(index)));
+      }
+      executor.shutdown();
+    }
+
+    try {
+      for (int i = 0, iEnd = validations.size(); i < iEnd; i++) {
+        listener.patchProgress((int) progress, String.format("Validating file: %1$s", validations.get(i).getFilePath()));
+
+        if (executor == null) {
+          tasks.get(i).call();
+        } else {
+          try {
+            futures.get(i).get();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+          } catch (ExecutionException ex) {
+            // report the mismatch found first but not the validation cancelled by it
+            throw failure.get() != null ? failure.get() : new IOException(ex.getCause());
+          }
+        }
+
+        progress += progressStep;
+      }
+    } finally {
+      if (executor != null) {
+        cancelled.set(true);
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * The task to validate a file.
+   */
+  protected static class ValidationTask implements Callable<Void> {
+
+    protected final ValidationFile validation;
+    protected final File file;
+    /**
+     * The checksum of the file known in the patching session, null if not 
+     * known.
+     */
+    protected final String knownChecksum;
+    /**
+     * The flag indicating the validation is cancelled, shared by all tasks.
+     */
+    protected final AtomicBoolean cancelled;
+    /**
+     * The first failure, shared by all tasks.
+     */
+    protected final AtomicReference<IOException> failure;
+
+    protected ValidationTask(ValidationFile validation, File file, String knownChecksum, AtomicBoolean cancelled, AtomicReference<IOException> failure) {
+      this.validation = validation;
+      this.file = file;
+      this.knownChecksum = knownChecksum;
+      this.cancelled = cancelled;
+      this.failure = failure;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      try {
+        validate();
+      } catch (IOException ex) {
+        if (failure.compareAndSet(null, ex)) {
+          cancelled.set(true);
+        }
+        throw ex;
+      }
+      return null;
+    }
+
+    protected void validate() throws IOException {
+      if (validation.getFileLength() == -1) {
+        if (!file.isDirectory()) {
+          throw new IOException(String.format("Folder missed: %1$s", file.getAbsolutePath()));
+        }
+        return;
+      }
+
+      if (!file.exists()) {
+        throw new IOException(String.format("File missed: %1$s", file.getAbsolutePath()));
+      }
+      if (file.length() != validation.getFileLength()) {
+        throw new IOException(String.format("File length not matched, file: %1$s, expected: %2$d, found: %3$d",
+                file.getAbsolutePath(), validation.getFileLength(), file.length()));
+      }
+
+      if (knownChecksum != null) {
+        if (!knownChecksum.equals(validation.getFileChecksum())) {
+          throw new IOException(String.format("File checksum incorrect: %1$s", file.getAbsolutePath()));
+        }
+        return;
+      }
+
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException ex) {
+        throw new IOException(ex);
+      }
+      FileInputStream fin = null;
+      try {
+        fin = new FileInputStream(file);
+
+        int byteRead;
+        byte[] b = new byte[65536];
+        while ((byteRead = fin.read(b)) != -1) {
+          if (cancelled.get()) {
+            throw new IOException(String.format("Validation cancelled: %1$s", file.getAbsolutePath()));
+          }
+          digest.update(b, 0, byteRead);
+        }
+      } finally {
+        CommonUtil.closeQuietly(fin);
+      }
+      if (!CommonUtil.byteArrayToHexString(digest.digest()).equals(validation.getFileChecksum())) {
+        throw new IOException(String.format("File checksum incorrect: %1$s", file.getAbsolutePath()));
+      }
+    }
+  }
+
   /**
    * Revert the patching and restore to unpatched state.
    * @throws IOException read log failed, or error occurred when doing revert 
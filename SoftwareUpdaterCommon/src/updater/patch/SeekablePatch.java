@@ -0,0 +1,401 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.patch;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import org.tukaani.xz.SeekableInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import updater.crypto.AESForFileCipherBackend;
+import updater.crypto.AESKey;
+import updater.crypto.CipherBackend;
+import updater.script.InvalidFormatException;
+import updater.script.Patch;
+import updater.script.Patch.Operation;
+import updater.util.CommonUtil;
+import updater.util.InterruptibleInputStream;
+import updater.util.InterruptibleSeekableFileInputStream;
+import updater.util.Pausable;
+import updater.util.ReadAheadInputStream;
+
+/**
+ * Read the content of the operations in the patch in any order.
+ * <p>If the patch is compressed with {@link Compression#LZMA2_INDEXED}, this 
+ * seek directly to the XZ block of the operation using the XZ index. 
+ * Otherwise this decompress and skip the content before the operation, 
+ * and reopen the patch when seeking backward.</p>
+ * <p>The content is decompressed on a background thread into a bounded ring 
+ * of buffers ({@link ReadAheadInputStream}), so decompression overlaps with 
+ * the work of the reader, e.g. applying the diff and writing the files.</p>
+ * <p>Operations are not thread-safe.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class SeekablePatch implements Pausable, Closeable {
+
+  /**
+   * The patch file.
+   */
+  protected final File patchFile;
+  /**
+   * The cipher key, null means no encryption used.
+   */
+  protected final AESKey aesKey;
+  /**
+   * The cipher backend used to decrypt the patch.
+   */
+  protected final CipherBackend cipherBackend;
+  /**
+   * The input stream of the patch file.
+   */
+  protected InterruptibleSeekableFileInputStream fileIn;
+  /**
+   * The compression method of the patch.
+   */
+  protected Compression compression;
+  /**
+   * The patch XML.
+   */
+  protected Patch patch;
+  /**
+   * The decompressed stream with random access, null if the patch is not 
+   * indexed.
+   */
+  protected SeekableXZInputStream seekableIn;
+  /**
+   * The position of the content of the operations in {@link #seekableIn}.
+   */
+  protected long contentStart;
+  /**
+   * The decompressed stream for sequential access, null if the patch is 
+   * indexed.
+   */
+  protected InputStream sequentialIn;
+  /**
+   * The current position of {@link #sequentialIn} relative to the start of 
+   * the content of the operations.
+   */
+  protected long sequentialPosition;
+  /**
+   * The read ahead stream of the content of the current operation when the 
+   * patch is indexed, null if none.
+   */
+  protected ReadAheadInputStream readAheadIn;
+
+  /**
+   * Constructor.
+   * @param patchFile the patch file
+   * @param aesKey the cipher key, null means no encryption used
+   * @throws IOException error occurred when reading the patch
+   * @throws InvalidFormatException the format of the patch XML in the patch 
+   * is invalid
+   */
+  public SeekablePatch(File patchFile, AESKey aesKey) throws IOException, InvalidFormatException {
+    this(patchFile, aesKey, new AESForFileCipherBackend());
+  }
+
+  /**
+   * Constructor.
+   * @param patchFile the patch file
+   * @param aesKey the cipher key, null means no encryption used
+   * @param cipherBackend the cipher backend used to decrypt the patch
+   * @throws IOException error occurred when reading the patch
+   * @throws InvalidFormatException the format of the patch XML in the patch 
+   * is invalid
+   */
+  public SeekablePatch(File patchFile, AESKey aesKey, CipherBackend cipherBackend) throws IOException, InvalidFormatException {
+    if (patchFile == null) {
+      throw new NullPointerException("argument 'patchFile' cannot be null");
+    }
+    if (cipherBackend == null) {
+      throw new NullPointerException("argument 'cipherBackend' cannot be null");
+    }
+
+    this.patchFile = patchFile;
+    this.aesKey = aesKey;
+    this.cipherBackend = cipherBackend;
+
+    try {
+      open();
+    } catch (IOException ex) {
+      close();
+      throw ex;
+    } catch (InvalidFormatException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Open the patch, read the header and the patch XML.
+   * @throws IOException error occurred when reading the patch
+   * @throws InvalidFormatException the format of the patch XML in the patch 
+   * is invalid
+   */
+  protected void open() throws IOException, InvalidFormatException {
+    close();
+
+    fileIn = new InterruptibleSeekableFileInputStream(new RandomAccessFile(patchFile, "r"));
+
+    SeekableInputStream in = fileIn;
+    if (aesKey != null) {
+      in = cipherBackend.getDecryptSeekableInputStream(aesKey, fileIn);
+      if (in == null) {
+        // random access is not supported by the cipher backend
+        InputStream decryptedIn = cipherBackend.getDecryptInputStream(aesKey, new BufferedInputStream(fileIn, 32768));
+        PatchReadUtil.readHeader(decryptedIn);
+        compression = null;
+        openSequential(decryptedIn);
+        return;
+      }
+    }
+
+    PatchReadUtil.readHeader(in);
+    long compressionPosition = in.position();
+    int compressionValue = in.read();
+    compression = compressionValue == -1 ? null : Compression.getCompression(compressionValue);
+    if (compression == Compression.LZMA2_INDEXED) {
+      seekableIn = new SeekableXZInputStream(new OffsetSeekableInputStream(in, compressionPosition + 1));
+      patch = PatchReadUtil.readXML(seekableIn);
+      contentStart = seekableIn.position();
+    } else {
+      in.seek(compressionPosition);
+      openSequential(new BufferedInputStream(in, 32768));
+    }
+  }
+
+  /**
+   * Read the compression method and the patch XML from {@code in} for 
+   * sequential access.
+   * @param in the input stream positioned at the compression method
+   * @throws IOException error occurred when reading the patch
+   * @throws InvalidFormatException the format of the patch XML in the patch 
+   * is invalid
+   */
+  protected void openSequential(InputStream in) throws IOException, InvalidFormatException {
+    sequentialIn = new PositionInputStream(new ReadAheadInputStream(PatchReadUtil.readCompressionMethod(in)));
+    patch = PatchReadUtil.readXML(sequentialIn);
+    sequentialPosition = 0;
+  }
+
+  /**
+   * Get the compression method of the patch.
+   * @return the compression method, null if it is not known because the 
+   * cipher backend does not support random access
+   */
+  public Compression getCompression() {
+    return compression;
+  }
+
+  /**
+   * Check if the content of the operations can be read by seeking directly.
+   * @return true if the patch is indexed, false if not
+   */
+  public boolean isIndexed() {
+    return seekableIn != null;
+  }
+
+  /**
+   * Get the patch XML.
+   * @return the patch XML
+   */
+  public Patch getPatch() {
+    return patch;
+  }
+
+  /**
+   * Get the input stream to read the content of the {@code operation}. The 
+   * stream returned previously should not be used after calling this.
+   * @param operation the operation in the patch XML
+   * @return the input stream limited to the length of the content
+   * @throws IOException error occurred when seeking or reopening the patch
+   */
+  public InterruptibleInputStream getInputStream(Operation operation) throws IOException {
+    if (operation == null) {
+      throw new NullPointerException("argument 'operation' cannot be null");
+    }
+
+    if (operation.getPatchLength() <= 0) {
+      return new InterruptibleInputStream(new ByteArrayInputStream(new byte[0]), 0);
+    }
+
+    long targetPosition = operation.getPatchPos();
+    if (seekableIn != null) {
+      // the background thread should have stopped using seekableIn before seeking
+      detachReadAhead();
+      seekableIn.seek(contentStart + targetPosition);
+      if (operation.getPatchLength() <= ReadAheadInputStream.DEFAULT_BUFFER_SIZE) {
+        // too small to gain from reading ahead
+        return new InterruptibleInputStream(seekableIn, operation.getPatchLength());
+      }
+      readAheadIn = new ReadAheadInputStream(seekableIn, operation.getPatchLength());
+      return new InterruptibleInputStream(readAheadIn, operation.getPatchLength());
+    }
+
+    if (targetPosition < sequentialPosition) {
+      try {
+        open();
+      } catch (InvalidFormatException ex) {
+        throw new IOException(ex);
+      }
+    }
+    while (sequentialPosition < targetPosition) {
+      if (sequentialIn.skip(targetPosition - sequentialPosition) <= 0) {
+        throw new IOException("Failed to skip to the content of operation " + operation.getId() + ".");
+      }
+    }
+    return new InterruptibleInputStream(sequentialIn, operation.getPatchLength());
+  }
+
+  /**
+   * Stop the read ahead of the content of the current operation, if any.
+   */
+  protected void detachReadAhead() {
+    if (readAheadIn != null) {
+      readAheadIn.detach();
+      readAheadIn = null;
+    }
+  }
+
+  /**
+   * Pause or resume the reading.
+   * @param pause true to pause, false to resume
+   */
+  @Override
+  public void pause(boolean pause) {
+    InterruptibleSeekableFileInputStream _fileIn = fileIn;
+    if (_fileIn != null) {
+      _fileIn.pause(pause);
+    }
+  }
+
+  @Override
+  public void close() {
+    detachReadAhead();
+    CommonUtil.closeQuietly(seekableIn);
+    CommonUtil.closeQuietly(sequentialIn);
+    CommonUtil.closeQuietly(fileIn);
+    seekableIn = null;
+    sequentialIn = null;
+    fileIn = null;
+  }
+
+  /**
+   * Record the number of bytes read or skipped to 
+   * {@link SeekablePatch#sequentialPosition}.
+   */
+  protected class PositionInputStream extends FilterInputStream {
+
+    protected PositionInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = in.read();
+      if (result != -1) {
+        sequentialPosition++;
+      }
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = in.read(b, off, len);
+      if (result != -1) {
+        sequentialPosition += result;
+      }
+      return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long result = in.skip(n);
+      sequentialPosition += result;
+      return result;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+      throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  /**
+   * The view of a seekable input stream that start from {@code offset}.
+   */
+  protected static class OffsetSeekableInputStream extends SeekableInputStream {
+
+    protected final SeekableInputStream in;
+    protected final long offset;
+
+    protected OffsetSeekableInputStream(SeekableInputStream in, long offset) throws IOException {
+      this.in = in;
+      this.offset = offset;
+      in.seek(offset);
+    }
+
+    @Override
+    public int read() throws IOException {
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return in.read(b, off, len);
+    }
+
+    @Override
+    public long length() throws IOException {
+      return in.length() - offset;
+    }
+
+    @Override
+    public long position() throws IOException {
+      return in.position() - offset;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+      in.seek(offset + pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -21,7 +21,9 @@
 package updater.script;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.xml.transform.TransformerException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -32,17 +34,36 @@ import updater.util.XMLUtil;
  * This script includes information for software to decide which patch(es) to 
  * download to update itself to latest available version.
  * It also contain the download URL, size and checksum of the patch.
+ * <p>
+ * The catalog may carry a revision number. A catalog published with revision 
+ * <i>n</i> only appends patches to the catalog of revision <i>n - 1</i>, so 
+ * the patches appended can be published separately as a delta catalog and 
+ * be merged by {@link #merge(updater.script.Catalog)}.</p>
  * 
  * @author Chan Wai Shing <cws1989@gmail.com>
  */
 public class Catalog {
 
+  protected int revision;
   protected List<Patch> patches;
 
   public Catalog(List<Patch> patches) {
+    this(-1, patches);
+  }
+
+  public Catalog(int revision, List<Patch> patches) {
+    this.revision = revision;
     this.patches = patches != null ? new ArrayList<Patch>(patches) : new ArrayList<Patch>();
   }
 
+  public int getRevision() {
+    return revision;
+  }
+
+  public void setRevision(int revision) {
+    this.revision = revision;
+  }
+
   public List<Patch> getPatchs() {
     return new ArrayList<Patch>(patches);
   }
@@ -55,6 +76,36 @@ public class Catalog {
     this.patches = new ArrayList<Patch>(patches);
   }
 
+  /**
+   * Merge the delta catalog into this catalog. The patches in {@code delta} 
+   * are appended to this catalog, except those with id already exist in this 
+   * catalog. The revision of this catalog will be set to the revision of 
+   * {@code delta}.
+   * @param delta the delta catalog
+   * @return the number of patches appended
+   */
+  public int merge(Catalog delta) {
+    if (delta == null) {
+      throw new NullPointerException("argument 'delta' cannot be null");
+    }
+
+    Set<Integer> patchIds = new HashSet<Integer>();
+    for (Patch patch : patches) {
+      patchIds.add(patch.getId());
+    }
+
+    int count = 0;
+    for (Patch patch : delta.patches) {
+      if (patchIds.add(patch.getId())) {
+        patches.add(patch);
+        count++;
+      }
+    }
+    revision = delta.revision;
+
+    return count;
+  }
+
   public static Catalog read(byte[] content) throws InvalidFormatException {
     if (content == null) {
       throw new NullPointerException("argument 'content' cannot be null");
@@ -69,6 +120,16 @@ public class Catalog {
 
     Element _patchesNode = doc.getDocumentElement();
 
+    int _revision = -1;
+    String _revisionString = _patchesNode.getAttribute("revision");
+    if (_revisionString.length() != 0) {
+      try {
+        _revision = Integer.parseInt(_revisionString);
+      } catch (NumberFormatException ex) {
+        throw new InvalidFormatException("Catalog revision should be an integer.");
+      }
+    }
+
     List<Patch> _patches = new ArrayList<Patch>();
 
     NodeList _patchNodeList = _patchesNode.getElementsByTagName("patch");
@@ -77,7 +138,7 @@ public class Catalog {
       _patches.add(Patch.read(_patchNode));
     }
 
-    return new Catalog(_patches);
+    return new Catalog(_revision, _patches);
   }
 
   public byte[] output() throws TransformerException {
@@ -87,6 +148,9 @@ public class Catalog {
     }
 
     Element rootElement = doc.createElement("patches");
+    if (revision != -1) {
+      rootElement.setAttribute("revision", Integer.toString(revision));
+    }
     doc.appendChild(rootElement);
 
     for (Patch patch : patches) {
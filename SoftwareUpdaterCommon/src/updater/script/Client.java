@@ -51,9 +51,14 @@ public class Client {
   protected String catalogUrl;
   protected String catalogPublicKeyModulus;
   protected String catalogPublicKeyExponent;
+  protected String catalogFormat;
   protected long catalogLastUpdated;
   protected Boolean catalogFullPackOnly;
   //
+  protected long downloadRateLimit;
+  protected long downloadGlobalRateLimit;
+  protected String downloadPriority;
+  //
   protected List<Patch> patches;
 
   public Client(String version,
@@ -62,6 +67,22 @@ public class Client {
           String launchType, String launchAfterLaunch, List<String> launchCommands, String launchJarPath, String launchMainClass,
           String catalogUrl, String catalogPublicKeyModulus, String catalogPublicKeyExponent, long catalogLastUpdated, Boolean catalogFullPackOnly,
           List<Patch> patches) {
+    this(version,
+            storagePath,
+            information,
+            launchType, launchAfterLaunch, launchCommands, launchJarPath, launchMainClass,
+            catalogUrl, catalogPublicKeyModulus, catalogPublicKeyExponent, null, catalogLastUpdated, catalogFullPackOnly,
+            0, 0, null,
+            patches);
+  }
+
+  public Client(String version,
+          String storagePath,
+          Information information,
+          String launchType, String launchAfterLaunch, List<String> launchCommands, String launchJarPath, String launchMainClass,
+          String catalogUrl, String catalogPublicKeyModulus, String catalogPublicKeyExponent, String catalogFormat, long catalogLastUpdated, Boolean catalogFullPackOnly,
+          long downloadRateLimit, long downloadGlobalRateLimit, String downloadPriority,
+          List<Patch> patches) {
     this.version = version;
 
     this.storagePath = storagePath;
@@ -78,8 +99,13 @@ public class Client {
     this.catalogLastUpdated = catalogLastUpdated;
     this.catalogPublicKeyModulus = catalogPublicKeyModulus;
     this.catalogPublicKeyExponent = catalogPublicKeyExponent;
+    this.catalogFormat = catalogFormat;
     this.catalogFullPackOnly = catalogFullPackOnly;
 
+    this.downloadRateLimit = downloadRateLimit;
+    this.downloadGlobalRateLimit = downloadGlobalRateLimit;
+    this.downloadPriority = downloadPriority;
+
     this.patches = patches != null ? new ArrayList<Patch>(patches) : new ArrayList<Patch>();
   }
 
@@ -175,6 +201,14 @@ public class Client {
     this.catalogPublicKeyExponent = catalogPublicKeyExponent;
   }
 
+  public String getCatalogFormat() {
+    return catalogFormat;
+  }
+
+  public void setCatalogFormat(String catalogFormat) {
+    this.catalogFormat = catalogFormat;
+  }
+
   public long getCatalogLastUpdated() {
     return catalogLastUpdated;
   }
@@ -191,6 +225,30 @@ public class Client {
     this.catalogFullPackOnly = catalogFullPackOnly;
   }
 
+  public long getDownloadRateLimit() {
+    return downloadRateLimit;
+  }
+
+  public void setDownloadRateLimit(long downloadRateLimit) {
+    this.downloadRateLimit = downloadRateLimit;
+  }
+
+  public long getDownloadGlobalRateLimit() {
+    return downloadGlobalRateLimit;
+  }
+
+  public void setDownloadGlobalRateLimit(long downloadGlobalRateLimit) {
+    this.downloadGlobalRateLimit = downloadGlobalRateLimit;
+  }
+
+  public String getDownloadPriority() {
+    return downloadPriority;
+  }
+
+  public void setDownloadPriority(String downloadPriority) {
+    this.downloadPriority = downloadPriority;
+  }
+
   public List<Patch> getPatches() {
     return new ArrayList<Patch>(patches);
   }
@@ -255,6 +313,7 @@ public class Client {
     String _catalogUrl = null;
     String _catalogPublicKeyModulus = null;
     String _catalogPublicKeyExponent = null;
+    String _catalogFormat = null;
     Long _catalogLastUpdated = -1L;
     Boolean _catalogFullPackOnly = null;
     Element _catalogNode = XMLUtil.getElement(_rootNode, "catalog", false);
@@ -267,10 +326,38 @@ public class Client {
         _catalogPublicKeyExponent = XMLUtil.getTextContent(catalogPublicKeyElement, "exponent", true);
       }
 
+      _catalogFormat = XMLUtil.getTextContent(_catalogNode, "format", false);
+      if (_catalogFormat != null && !_catalogFormat.equals("signed") && !_catalogFormat.equals("encrypted")) {
+        throw new InvalidFormatException("Catalog format should be either 'signed' or 'encrypted'.");
+      }
+
       String _catalogLastUpdatedString = XMLUtil.getTextContent(_catalogNode, "last-updated", false);
       _catalogLastUpdated = _catalogLastUpdatedString != null ? Long.parseLong(_catalogLastUpdatedString) : -1;
     }
 
+    long _downloadRateLimit = 0;
+    long _downloadGlobalRateLimit = 0;
+    String _downloadPriority = null;
+    Element _downloadNode = XMLUtil.getElement(_rootNode, "download", false);
+    if (_downloadNode != null) {
+      try {
+        String _downloadRateLimitString = XMLUtil.getTextContent(_downloadNode, "rate-limit", false);
+        _downloadRateLimit = _downloadRateLimitString != null ? Long.parseLong(_downloadRateLimitString) : 0;
+        String _downloadGlobalRateLimitString = XMLUtil.getTextContent(_downloadNode, "global-rate-limit", false);
+        _downloadGlobalRateLimit = _downloadGlobalRateLimitString != null ? Long.parseLong(_downloadGlobalRateLimitString) : 0;
+      } catch (NumberFormatException ex) {
+        throw new InvalidFormatException("Download rate limit should be an integer (in bytes per second).");
+      }
+      if (_downloadRateLimit < 0 || _downloadGlobalRateLimit < 0) {
+        throw new InvalidFormatException("Download rate limit should >= 0.");
+      }
+
+      _downloadPriority = XMLUtil.getTextContent(_downloadNode, "priority", false);
+      if (_downloadPriority != null && !_downloadPriority.equals("normal") && !_downloadPriority.equals("background")) {
+        throw new InvalidFormatException("Download priority should be either 'normal' or 'background'.");
+      }
+    }
+
     List<Patch> _patches = new ArrayList<Patch>();
     Element _patchesElement = XMLUtil.getElement(_rootNode, "patches", false);
     if (_patchesElement != null) {
@@ -288,7 +375,8 @@ public class Client {
     return new Client(_version,
             _storagePath, _information,
             _launchType, _launchAfterLaunch, _launchCommands, _launchJarPath, _launchMainClass,
-            _catalogUrl, _catalogPublicKeyModulus, _catalogPublicKeyExponent, _catalogLastUpdated, _catalogFullPackOnly,
+            _catalogUrl, _catalogPublicKeyModulus, _catalogPublicKeyExponent, _catalogFormat, _catalogLastUpdated, _catalogFullPackOnly,
+            _downloadRateLimit, _downloadGlobalRateLimit, _downloadPriority,
             _patches);
   }
 
@@ -364,6 +452,11 @@ public class Client {
         catalogPublicKeyExponentElement.setTextContent(catalogPublicKeyExponent);
         catalogPublicKeyElement.appendChild(catalogPublicKeyExponentElement);
       }
+      if (catalogFormat != null) {
+        Element catalogFormatElement = doc.createElement("format");
+        catalogFormatElement.setTextContent(catalogFormat);
+        catalogElement.appendChild(catalogFormatElement);
+      }
       if (catalogLastUpdated != -1) {
         Element catalogLastUpdatedElement = doc.createElement("last-updated");
         catalogLastUpdatedElement.setTextContent(Long.toString(catalogLastUpdated));
@@ -376,6 +469,27 @@ public class Client {
       }
     }
 
+    if (downloadRateLimit != 0 || downloadGlobalRateLimit != 0 || downloadPriority != null) {
+      Element downloadElement = doc.createElement("download");
+      rootElement.appendChild(downloadElement);
+
+      if (downloadRateLimit != 0) {
+        Element downloadRateLimitElement = doc.createElement("rate-limit");
+        downloadRateLimitElement.setTextContent(Long.toString(downloadRateLimit));
+        downloadElement.appendChild(downloadRateLimitElement);
+      }
+      if (downloadGlobalRateLimit != 0) {
+        Element downloadGlobalRateLimitElement = doc.createElement("global-rate-limit");
+        downloadGlobalRateLimitElement.setTextContent(Long.toString(downloadGlobalRateLimit));
+        downloadElement.appendChild(downloadGlobalRateLimitElement);
+      }
+      if (downloadPriority != null) {
+        Element downloadPriorityElement = doc.createElement("priority");
+        downloadPriorityElement.setTextContent(downloadPriority);
+        downloadElement.appendChild(downloadPriorityElement);
+      }
+    }
+
     if (!patches.isEmpty()) {
       Element patchesElement = doc.createElement("patches");
       rootElement.appendChild(patchesElement);
@@ -44,7 +44,7 @@ public class Patch {
   protected String versionTo;
   protected String downloadUrl;
   protected String downloadChecksum;
-  protected int downloadLength;
+  protected long downloadLength;
   protected String downloadEncryptionType;
   protected String downloadEncryptionKey;
   protected String downloadEncryptionIV;
@@ -53,7 +53,7 @@ public class Patch {
 
   public Patch(int id,
           String type, String versionFrom, String versionFromSubsequent, String versionTo,
-          String downloadUrl, String downloadChecksum, int downloadLength,
+          String downloadUrl, String downloadChecksum, long downloadLength,
           String downloadEncryptionType, String downloadEncryptionKey, String downloadEncryptionIV,
           List<Operation> operations, List<ValidationFile> validations) {
     this.id = id;
@@ -130,11 +130,11 @@ public class Patch {
     this.downloadChecksum = downloadChecksum;
   }
 
-  public int getDownloadLength() {
+  public long getDownloadLength() {
     return downloadLength;
   }
 
-  public void setDownloadLength(int downloadLength) {
+  public void setDownloadLength(long downloadLength) {
     this.downloadLength = downloadLength;
   }
 
@@ -222,7 +222,7 @@ public class Patch {
 
     String _downloadUrl = null;
     String _downloadChecksum = null;
-    int _downloadLength = -1;
+    long _downloadLength = -1;
     String _downloadEncryptionType = null;
     String _downloadEncryptionKey = null;
     String _downloadEncryptionIV = null;
@@ -233,7 +233,7 @@ public class Patch {
         _downloadUrl = XMLUtil.getTextContent(_downloadElement, "url", true);
         _downloadChecksum = XMLUtil.getTextContent(_downloadElement, "checksum", true);
         try {
-          _downloadLength = Integer.parseInt(XMLUtil.getTextContent(_downloadElement, "length", true));
+          _downloadLength = Long.parseLong(XMLUtil.getTextContent(_downloadElement, "length", true));
         } catch (NumberFormatException ex) {
           throw new InvalidFormatException("attribute 'length' for 'download' element is not a valid integer");
         }
@@ -336,7 +336,7 @@ public class Patch {
         downloadElement.appendChild(downloadChecksumElement);
 
         Element downloadLengthElement = doc.createElement("length");
-        downloadLengthElement.setTextContent(Integer.toString(downloadLength));
+        downloadLengthElement.setTextContent(Long.toString(downloadLength));
         downloadElement.appendChild(downloadLengthElement);
       }
 
@@ -382,26 +382,32 @@ public class Patch {
     protected int id;
     protected String type;
     //
-    protected int patchPos;
-    protected int patchLength;
+    protected long patchPos;
+    protected long patchLength;
     //
     protected String fileType;
     //
     protected String destFilePath;
+    protected String sourceFilePath;
     //
     protected String oldFileChecksum;
-    protected int oldFileLength;
+    protected long oldFileLength;
     //
     protected String newFileChecksum;
-    protected int newFileLength;
+    protected long newFileLength;
 
-    public Operation(int id, String type, int patchPos, int patchLength, String fileType, String destFilePath, String oldFileChecksum, int oldFileLength, String newFileChecksum, int newFileLength) {
+    public Operation(int id, String type, long patchPos, long patchLength, String fileType, String destFilePath, String oldFileChecksum, long oldFileLength, String newFileChecksum, long newFileLength) {
+      this(id, type, patchPos, patchLength, fileType, destFilePath, null, oldFileChecksum, oldFileLength, newFileChecksum, newFileLength);
+    }
+
+    public Operation(int id, String type, long patchPos, long patchLength, String fileType, String destFilePath, String sourceFilePath, String oldFileChecksum, long oldFileLength, String newFileChecksum, long newFileLength) {
       this.id = id;
       this.type = type;
       this.patchPos = patchPos;
       this.patchLength = patchLength;
       this.fileType = fileType;
       this.destFilePath = destFilePath;
+      this.sourceFilePath = sourceFilePath;
       this.oldFileChecksum = oldFileChecksum;
       this.oldFileLength = oldFileLength;
       this.newFileChecksum = newFileChecksum;
@@ -424,19 +430,19 @@ public class Patch {
       this.type = type;
     }
 
-    public int getPatchPos() {
+    public long getPatchPos() {
       return patchPos;
     }
 
-    public void setPatchPos(int patchPos) {
+    public void setPatchPos(long patchPos) {
       this.patchPos = patchPos;
     }
 
-    public int getPatchLength() {
+    public long getPatchLength() {
       return patchLength;
     }
 
-    public void setPatchLength(int patchLength) {
+    public void setPatchLength(long patchLength) {
       this.patchLength = patchLength;
     }
 
@@ -456,6 +462,14 @@ public class Patch {
       this.destFilePath = destFilePath;
     }
 
+    public String getSourceFilePath() {
+      return sourceFilePath;
+    }
+
+    public void setSourceFilePath(String sourceFilePath) {
+      this.sourceFilePath = sourceFilePath;
+    }
+
     public String getOldFileChecksum() {
       return oldFileChecksum;
     }
@@ -464,11 +478,11 @@ public class Patch {
       this.oldFileChecksum = oldFileChecksum;
     }
 
-    public int getOldFileLength() {
+    public long getOldFileLength() {
       return oldFileLength;
     }
 
-    public void setOldFileLength(int oldFileLength) {
+    public void setOldFileLength(long oldFileLength) {
       this.oldFileLength = oldFileLength;
     }
 
@@ -480,11 +494,11 @@ public class Patch {
       this.newFileChecksum = newFileChecksum;
     }
 
-    public int getNewFileLength() {
+    public long getNewFileLength() {
       return newFileLength;
     }
 
-    public void setNewFileLength(int newFileLength) {
+    public void setNewFileLength(long newFileLength) {
       this.newFileLength = newFileLength;
     }
 
@@ -506,13 +520,13 @@ public class Patch {
 
       String _type = XMLUtil.getTextContent(operationElement, "type", true);
 
-      int pos = 0;
-      int length = 0;
+      long pos = 0;
+      long length = 0;
       if (_type.equals("patch") || _type.equals("replace") || _type.equals("new") || _type.equals("force")) {
         Element _contentElement = XMLUtil.getElement(operationElement, "content", true);
         try {
-          pos = Integer.parseInt(XMLUtil.getTextContent(_contentElement, "pos", true));
-          length = Integer.parseInt(XMLUtil.getTextContent(_contentElement, "length", true));
+          pos = Long.parseLong(XMLUtil.getTextContent(_contentElement, "pos", true));
+          length = Long.parseLong(XMLUtil.getTextContent(_contentElement, "length", true));
         } catch (NumberFormatException ex) {
           throw new InvalidFormatException("pos or length of <content> is not a valid integer, found: pos: " + XMLUtil.getTextContent(_contentElement, "pos", true) + ", length: " + XMLUtil.getTextContent(_contentElement, "length", true));
         }
@@ -521,31 +535,36 @@ public class Patch {
       String _fileType = XMLUtil.getTextContent(operationElement, "file-type", true);
       String destPath = XMLUtil.getTextContent(operationElement, "destination", true);
 
+      String sourcePath = null;
+      if (_type.equals("copy") || _type.equals("move")) {
+        sourcePath = XMLUtil.getTextContent(operationElement, "source", true);
+      }
+
       String oldChecksum = null;
-      int oldLength = -1;
+      long oldLength = -1;
       if (_type.equals("patch") || _type.equals("replace") || _type.equals("remove")) {
         Element _oldFileElement = XMLUtil.getElement(operationElement, "old-file", true);
         oldChecksum = XMLUtil.getTextContent(_oldFileElement, "checksum", true);
         try {
-          oldLength = Integer.parseInt(XMLUtil.getTextContent(_oldFileElement, "length", true));
+          oldLength = Long.parseLong(XMLUtil.getTextContent(_oldFileElement, "length", true));
         } catch (NumberFormatException ex) {
           throw new InvalidFormatException("length of <old-file> is not a valid integer, found: " + XMLUtil.getTextContent(_oldFileElement, "length", true));
         }
       }
 
       String newChecksum = null;
-      int newLength = -1;
-      if (_type.equals("patch") || _type.equals("replace") || _type.equals("new") || _type.equals("force")) {
+      long newLength = -1;
+      if (_type.equals("patch") || _type.equals("replace") || _type.equals("new") || _type.equals("force") || _type.equals("copy") || _type.equals("move")) {
         Element _newFileElement = XMLUtil.getElement(operationElement, "new-file", true);
         newChecksum = XMLUtil.getTextContent(_newFileElement, "checksum", true);
         try {
-          newLength = Integer.parseInt(XMLUtil.getTextContent(_newFileElement, "length", true));
+          newLength = Long.parseLong(XMLUtil.getTextContent(_newFileElement, "length", true));
         } catch (NumberFormatException ex) {
           throw new InvalidFormatException("length of <new-file> is not a valid integer, found: " + XMLUtil.getTextContent(_newFileElement, "length", true));
         }
       }
 
-      return new Operation(_id, _type, pos, length, _fileType, destPath, oldChecksum, oldLength, newChecksum, newLength);
+      return new Operation(_id, _type, pos, length, _fileType, destPath, sourcePath, oldChecksum, oldLength, newChecksum, newLength);
     }
 
     protected Element getElement(Document doc) {
@@ -566,11 +585,11 @@ public class Patch {
         _operation.appendChild(_patch);
 
         Element _patchUrl = doc.createElement("pos");
-        _patchUrl.appendChild(doc.createTextNode(Integer.toString(patchPos)));
+        _patchUrl.appendChild(doc.createTextNode(Long.toString(patchPos)));
         _patch.appendChild(_patchUrl);
 
         Element _patchLength = doc.createElement("length");
-        _patchLength.appendChild(doc.createTextNode(Integer.toString(patchLength)));
+        _patchLength.appendChild(doc.createTextNode(Long.toString(patchLength)));
         _patch.appendChild(_patchLength);
       }
       //</editor-fold>
@@ -583,6 +602,12 @@ public class Patch {
       _destFilePath.appendChild(doc.createTextNode(destFilePath));
       _operation.appendChild(_destFilePath);
 
+      if (sourceFilePath != null) {
+        Element _sourceFilePath = doc.createElement("source");
+        _sourceFilePath.appendChild(doc.createTextNode(sourceFilePath));
+        _operation.appendChild(_sourceFilePath);
+      }
+
       //<editor-fold defaultstate="collapsed" desc="old">
       if (oldFileChecksum != null) {
         Element _old = doc.createElement("old-file");
@@ -593,7 +618,7 @@ public class Patch {
         _old.appendChild(_oldFileChecksum);
 
         Element _oldFileLength = doc.createElement("length");
-        _oldFileLength.appendChild(doc.createTextNode(Integer.toString(oldFileLength)));
+        _oldFileLength.appendChild(doc.createTextNode(Long.toString(oldFileLength)));
         _old.appendChild(_oldFileLength);
       }
       //</editor-fold>
@@ -608,7 +633,7 @@ public class Patch {
         _new.appendChild(_newFileChecksum);
 
         Element _newFileLength = doc.createElement("length");
-        _newFileLength.appendChild(doc.createTextNode(Integer.toString(newFileLength)));
+        _newFileLength.appendChild(doc.createTextNode(Long.toString(newFileLength)));
         _new.appendChild(_newFileLength);
       }
       //</editor-fold>
@@ -621,9 +646,9 @@ public class Patch {
 
     protected String filePath;
     protected String fileChecksum;
-    protected int fileLength;
+    protected long fileLength;
 
-    public ValidationFile(String filePath, String fileChecksum, int fileLength) {
+    public ValidationFile(String filePath, String fileChecksum, long fileLength) {
       this.filePath = filePath;
       this.fileChecksum = fileChecksum;
       this.fileLength = fileLength;
@@ -645,11 +670,11 @@ public class Patch {
       this.fileChecksum = fileChecksum;
     }
 
-    public int getFileLength() {
+    public long getFileLength() {
       return fileLength;
     }
 
-    public void setFileLength(int fileLength) {
+    public void setFileLength(long fileLength) {
       this.fileLength = fileLength;
     }
 
@@ -660,7 +685,7 @@ public class Patch {
 
       String _path = XMLUtil.getTextContent(fileElement, "path", true);
       String _checksum = XMLUtil.getTextContent(fileElement, "checksum", true);
-      int _length = Integer.parseInt(XMLUtil.getTextContent(fileElement, "length", true));
+      long _length = Long.parseLong(XMLUtil.getTextContent(fileElement, "length", true));
 
       return new ValidationFile(_path, _checksum, _length);
     }
@@ -681,7 +706,7 @@ public class Patch {
       _file.appendChild(_checksum);
 
       Element _length = doc.createElement("length");
-      _length.appendChild(doc.createTextNode(Integer.toString(fileLength)));
+      _length.appendChild(doc.createTextNode(Long.toString(fileLength)));
       _file.appendChild(_length);
 
       return _file;
@@ -0,0 +1,248 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket bandwidth limiter. The bytes downloaded are acquired from the 
+ * limiter, which sleeps to keep the average rate within the limit. It is 
+ * thread-safe, so one limiter can be shared by several downloads.
+ * <p>
+ * In background priority, the limiter also adapts to the delay observed by 
+ * the downloads: when the smoothed delay rises more than 
+ * {@link #TARGET_DELAY} above the minimum delay observed recently, the rate 
+ * is halved; otherwise it increases gradually back to the limit.
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class BandwidthLimiter {
+
+  /**
+   * The limiter shared by all {@link HTTPDownloader} in the process, it is 
+   * unlimited by default.
+   */
+  protected static final BandwidthLimiter GLOBAL_LIMITER = new BandwidthLimiter(0, false);
+  /**
+   * The delay above the base delay tolerated in background priority (in 
+   * nano seconds).
+   */
+  protected static final long TARGET_DELAY = 50000000L;
+  /**
+   * The minimum time interval to adjust the rate in background priority (in 
+   * nano seconds).
+   */
+  protected static final long ADJUST_INTERVAL = 500000000L;
+  /**
+   * The length of the period to record the minimum delay (in nano seconds), 
+   * the base delay is the minimum delay in the current and the last period.
+   */
+  protected static final long BASE_DELAY_PERIOD = 60000000000L;
+  /**
+   * The minimum rate in background priority (in bytes per second).
+   */
+  protected static final long MINIMUM_RATE = 4096;
+  /**
+   * The limit in bytes per second, 0 means unlimited.
+   */
+  protected long bytesPerSecond;
+  /**
+   * Indicate whether it is in background priority.
+   */
+  protected boolean background;
+  /**
+   * The tokens available in the bucket, negative means the bytes acquired 
+   * in advance.
+   */
+  protected double tokens;
+  protected long lastRefillTime;
+  /**
+   * The rate adapted in background priority, 0 means not restricted.
+   */
+  protected long backgroundRate;
+  protected long smoothedDelay;
+  protected long lastPeriodMinimumDelay;
+  protected long periodMinimumDelay;
+  protected long periodStartTime;
+  protected long lastAdjustTime;
+  /**
+   * The bytes acquired since {@link #lastAdjustTime}.
+   */
+  protected long bytesSinceAdjust;
+
+  /**
+   * Constructor.
+   * @param bytesPerSecond the limit in bytes per second, 0 means unlimited
+   * @param background true to adapt to the observed delay
+   */
+  public BandwidthLimiter(long bytesPerSecond, boolean background) {
+    if (bytesPerSecond < 0) {
+      throw new IllegalArgumentException("argument 'bytesPerSecond' should >= 0");
+    }
+    this.bytesPerSecond = bytesPerSecond;
+    this.background = background;
+
+    long now = System.nanoTime();
+    tokens = 0;
+    lastRefillTime = now;
+    backgroundRate = 0;
+    smoothedDelay = -1;
+    lastPeriodMinimumDelay = Long.MAX_VALUE;
+    periodMinimumDelay = Long.MAX_VALUE;
+    periodStartTime = now;
+    lastAdjustTime = now;
+    bytesSinceAdjust = 0;
+  }
+
+  /**
+   * Get the limiter shared by all {@link HTTPDownloader} in the process.
+   * @return the limiter
+   */
+  public static BandwidthLimiter getGlobalLimiter() {
+    return GLOBAL_LIMITER;
+  }
+
+  /**
+   * Get the limit.
+   * @return the limit in bytes per second, 0 means unlimited
+   */
+  public synchronized long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Set the limit.
+   * @param bytesPerSecond the limit in bytes per second, 0 means unlimited
+   */
+  public synchronized void setBytesPerSecond(long bytesPerSecond) {
+    if (bytesPerSecond < 0) {
+      throw new IllegalArgumentException("argument 'bytesPerSecond' should >= 0");
+    }
+    this.bytesPerSecond = bytesPerSecond;
+    backgroundRate = 0;
+  }
+
+  /**
+   * Check whether it is in background priority.
+   * @return true if in background priority, false if not
+   */
+  public synchronized boolean isBackground() {
+    return background;
+  }
+
+  /**
+   * Set whether it is in background priority.
+   * @param background true to adapt to the observed delay
+   */
+  public synchronized void setBackground(boolean background) {
+    this.background = background;
+    backgroundRate = 0;
+  }
+
+  /**
+   * Get the rate currently applied.
+   * @return the rate in bytes per second, 0 means unlimited
+   */
+  public synchronized long getRate() {
+    if (!background || backgroundRate == 0) {
+      return bytesPerSecond;
+    }
+    return bytesPerSecond == 0 ? backgroundRate : Math.min(bytesPerSecond, backgroundRate);
+  }
+
+  /**
+   * Acquire the bytes downloaded, sleep if the bytes exceed the rate.
+   * @param bytes the number of bytes
+   * @throws InterruptedException interrupted when sleeping
+   */
+  public void acquire(int bytes) throws InterruptedException {
+    long sleepTime;
+    synchronized (this) {
+      long now = System.nanoTime();
+      bytesSinceAdjust += bytes;
+
+      long rate = getRate();
+      if (rate == 0) {
+        tokens = 0;
+        lastRefillTime = now;
+        return;
+      }
+
+      // allow a burst of a quarter second
+      tokens = Math.min(Math.max(1, rate / 4), tokens + (now - lastRefillTime) * (double) rate / 1000000000L);
+      lastRefillTime = now;
+      tokens -= bytes;
+      sleepTime = tokens < 0 ? (long) (-tokens * 1000000000L / rate) : 0;
+    }
+    if (sleepTime > 0) {
+      TimeUnit.NANOSECONDS.sleep(sleepTime);
+    }
+  }
+
+  /**
+   * Report the delay observed by the download, e.g. the time blocked on 
+   * reading from the connection. It has no effect if not in background 
+   * priority.
+   * @param delay the delay in nano seconds
+   */
+  public void reportDelay(long delay) {
+    reportDelay(delay, System.nanoTime());
+  }
+
+  /**
+   * Report the delay observed by the download.
+   * @param delay the delay in nano seconds
+   * @param now the current time in nano seconds
+   */
+  protected synchronized void reportDelay(long delay, long now) {
+    if (!background) {
+      return;
+    }
+
+    smoothedDelay = smoothedDelay == -1 ? delay : smoothedDelay + (delay - smoothedDelay) / 8;
+    if (now - periodStartTime >= BASE_DELAY_PERIOD) {
+      lastPeriodMinimumDelay = periodMinimumDelay;
+      periodMinimumDelay = Long.MAX_VALUE;
+      periodStartTime = now;
+    }
+    periodMinimumDelay = Math.min(periodMinimumDelay, delay);
+
+    if (now - lastAdjustTime < ADJUST_INTERVAL) {
+      return;
+    }
+    long throughput = bytesSinceAdjust * 1000000000L / (now - lastAdjustTime);
+    lastAdjustTime = now;
+    bytesSinceAdjust = 0;
+
+    long baseDelay = Math.min(lastPeriodMinimumDelay, periodMinimumDelay);
+    if (smoothedDelay > baseDelay + TARGET_DELAY) {
+      // back off, from the throughput if the rate is higher than it
+      long rate = getRate();
+      rate = rate == 0 ? throughput : Math.min(rate, throughput);
+      backgroundRate = Math.max(MINIMUM_RATE, rate / 2);
+    } else if (backgroundRate != 0) {
+      backgroundRate += Math.max(MINIMUM_RATE, backgroundRate / 8);
+      if (bytesPerSecond != 0 && backgroundRate >= bytesPerSecond) {
+        backgroundRate = 0;
+      }
+    }
+  }
+}
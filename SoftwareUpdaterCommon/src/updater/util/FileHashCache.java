@@ -0,0 +1,323 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the SHA-256 checksum of files.
+ * <p>The checksum is keyed by the canonical path of the file and is reused 
+ * as long as the size and the last modified time of the file are unchanged. 
+ * If a cache file is specified, the cache is loaded from it and can be saved 
+ * back to it, so unchanged files need not to be read again across runs.</p>
+ * <p>This class is thread-safe.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileHashCache {
+
+  private static final Logger LOG = Logger.getLogger(FileHashCache.class.getName());
+  /**
+   * Files modified within this time (in milli second) before their checksum 
+   * is generated will not be saved to the cache file, because a modification 
+   * within the granularity of the last modified time of the file system 
+   * cannot be detected.
+   */
+  protected static final long MODIFIED_TIME_GRANULARITY = 2000;
+  /**
+   * The file to load and save the cache, null means the cache is in memory 
+   * only.
+   */
+  protected final File cacheFile;
+  /**
+   * Canonical path - cache entry map.
+   */
+  protected final Map<String, Entry> entries;
+
+  /**
+   * Constructor. The cache is in memory only.
+   */
+  public FileHashCache() {
+    cacheFile = null;
+    entries = new HashMap<String, Entry>();
+  }
+
+  /**
+   * Constructor. The cache is loaded from {@code cacheFile} if it exists. 
+   * Invalid records in the file are ignored.
+   * @param cacheFile the file to load and save the cache
+   * @throws IOException error occurred when reading {@code cacheFile}
+   */
+  public FileHashCache(File cacheFile) throws IOException {
+    if (cacheFile == null) {
+      throw new NullPointerException("argument 'cacheFile' cannot be null");
+    }
+
+    this.cacheFile = cacheFile;
+    entries = new HashMap<String, Entry>();
+
+    if (cacheFile.isFile()) {
+      load();
+    }
+  }
+
+  /**
+   * Load the cache from {@link #cacheFile}.
+   * @throws IOException error occurred when reading {@link #cacheFile}
+   */
+  protected void load() throws IOException {
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "UTF-8"));
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // checksum, length, last modified time, canonical path
+        String[] fields = line.split("\t", 4);
+        if (fields.length != 4 || !fields[0].matches("^[0-9a-f]{64}$")) {
+          LOG.log(Level.WARNING, "Invalid record in hash cache: {0}", line);
+          continue;
+        }
+        try {
+          entries.put(fields[3], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0], true));
+        } catch (NumberFormatException ex) {
+          LOG.log(Level.WARNING, "Invalid record in hash cache: {0}", line);
+        }
+      }
+    } finally {
+      CommonUtil.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Save the cache to the cache file. Do nothing if the cache is in memory 
+   * only. Files that no longer exist are not saved.
+   * @throws IOException error occurred when writing the cache file
+   */
+  public void save() throws IOException {
+    if (cacheFile == null) {
+      return;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    synchronized (entries) {
+      for (Map.Entry<String, Entry> _entry : entries.entrySet()) {
+        Entry entry = _entry.getValue();
+        if (!entry.persistable || !new File(_entry.getKey()).isFile()) {
+          continue;
+        }
+        sb.append(entry.sha256).append('\t').append(entry.length).append('\t').append(entry.lastModified).append('\t').append(_entry.getKey()).append('\n');
+      }
+    }
+
+    File tempFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+    CommonUtil.writeFile(tempFile, sb.toString().getBytes("UTF-8"));
+    cacheFile.delete();
+    if (!tempFile.renameTo(cacheFile)) {
+      tempFile.delete();
+      throw new IOException("Failed to save the hash cache to " + cacheFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Get the SHA-256 checksum of the file, read the file and generate it only 
+   * if it is not in the cache or the file is changed.
+   * @param file the file
+   * @return the SHA-256 checksum in lowercase hex string
+   * @throws IOException error occurred when reading the file
+   */
+  public String getSHA256String(File file) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+
+    String path = file.getCanonicalPath();
+    long length = file.length();
+    long lastModified = file.lastModified();
+
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(path);
+    }
+    if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+      return entry.sha256;
+    }
+
+    long generateTime = System.currentTimeMillis();
+    String sha256 = CommonUtil.getSHA256String(file);
+    // the file may be changed when generating the checksum
+    if (file.length() != length || file.lastModified() != lastModified) {
+      return sha256;
+    }
+
+    synchronized (entries) {
+      entries.put(path, new Entry(length, lastModified, sha256, lastModified < generateTime - MODIFIED_TIME_GRANULARITY));
+    }
+    return sha256;
+  }
+
+  /**
+   * Get the SHA-256 checksum of the file from the cache without reading the 
+   * file.
+   * @param file the file
+   * @return the SHA-256 checksum in lowercase hex string, null if it is not 
+   * in the cache or the file is changed
+   * @throws IOException error occurred when getting the canonical path of 
+   * the file
+   */
+  public String get(File file) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(file.getCanonicalPath());
+    }
+    if (entry != null && entry.length == file.length() && entry.lastModified == file.lastModified()) {
+      return entry.sha256;
+    }
+    return null;
+  }
+
+  /**
+   * Put the SHA-256 checksum of the file into the cache, the checksum is 
+   * generated by the caller, e.g. when writing the file. The checksum is 
+   * bound to the current size and last modified time of the file.
+   * @param file the file
+   * @param sha256 the SHA-256 checksum in lowercase hex string
+   * @throws IOException error occurred when getting the canonical path of 
+   * the file
+   */
+  public void put(File file, String sha256) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("argument 'file' cannot be null");
+    }
+    if (sha256 == null) {
+      throw new NullPointerException("argument 'sha256' cannot be null");
+    }
+
+    String path = file.getCanonicalPath();
+    long lastModified = file.lastModified();
+    Entry entry = new Entry(file.length(), lastModified, sha256, lastModified < System.currentTimeMillis() - MODIFIED_TIME_GRANULARITY);
+    synchronized (entries) {
+      entries.put(path, entry);
+    }
+  }
+
+  /**
+   * Notify the cache that the file is renamed, the cached checksum (if any) 
+   * is carried to the new path. Renaming does not change the size and last 
+   * modified time of the file, so the entry remains valid.
+   * @param from the file before renamed
+   * @param to the file after renamed
+   * @throws IOException error occurred when getting the canonical path of 
+   * the files
+   */
+  public void rename(File from, File to) throws IOException {
+    if (from == null) {
+      throw new NullPointerException("argument 'from' cannot be null");
+    }
+    if (to == null) {
+      throw new NullPointerException("argument 'to' cannot be null");
+    }
+
+    String fromPath = from.getCanonicalPath();
+    String toPath = to.getCanonicalPath();
+    synchronized (entries) {
+      Entry entry = entries.remove(fromPath);
+      if (entry != null) {
+        entries.put(toPath, entry);
+      } else {
+        entries.remove(toPath);
+      }
+    }
+  }
+
+  /**
+   * Remove all entries in the cache.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Check if the content of the two files are identical by comparing their 
+   * length and SHA-256 checksum.
+   * @param file1 the first file
+   * @param file2 the second file
+   * @return true if identical, false if not
+   * @throws IOException error occurred when reading the files
+   */
+  public boolean compareFile(File file1, File file2) throws IOException {
+    if (file1 == null) {
+      throw new NullPointerException("argument 'file1' cannot be null");
+    }
+    if (file2 == null) {
+      throw new NullPointerException("argument 'file2' cannot be null");
+    }
+
+    if (file1.length() != file2.length()) {
+      return false;
+    }
+    return getSHA256String(file1).equals(getSHA256String(file2));
+  }
+
+  /**
+   * The cache entry.
+   */
+  protected static class Entry {
+
+    /**
+     * The length of the file.
+     */
+    protected final long length;
+    /**
+     * The last modified time of the file.
+     */
+    protected final long lastModified;
+    /**
+     * The SHA-256 checksum of the file.
+     */
+    protected final String sha256;
+    /**
+     * Indicate this entry can be saved to the cache file or not.
+     */
+    protected final boolean persistable;
+
+    protected Entry(long length, long lastModified, String sha256, boolean persistable) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.sha256 = sha256;
+      this.persistable = persistable;
+    }
+  }
+}
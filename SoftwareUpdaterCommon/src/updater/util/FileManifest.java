@@ -0,0 +1,305 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The list of all sub-folders and files in a directory, sorted by their 
+ * relative path.
+ * <p>The attributes (type, length and last modified time) of every entry are 
+ * read once when scanning. Sub-folders can be scanned on multiple threads. 
+ * Hidden files and folders are skipped, so as folders that cannot be read.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileManifest {
+
+  /**
+   * The comparator to sort the entries by their relative path.
+   */
+  protected static final Comparator<Entry> PATH_COMPARATOR = new Comparator<Entry>() {
+
+    @Override
+    public int compare(Entry o1, Entry o2) {
+      return o1.path.compareTo(o2.path);
+    }
+  };
+  /**
+   * The scanned directory.
+   */
+  protected final File directory;
+  /**
+   * The entries sorted by their relative path.
+   */
+  protected final Entry[] entries;
+
+  /**
+   * Constructor.
+   * @param directory the scanned directory
+   * @param entries the entries sorted by their relative path
+   */
+  protected FileManifest(File directory, Entry[] entries) {
+    this.directory = directory;
+    this.entries = entries;
+  }
+
+  /**
+   * Scan the directory in the calling thread.
+   * @param directory the directory to scan
+   * @return the manifest
+   * @throws IOException {@code directory} is not a directory
+   */
+  public static FileManifest scan(File directory) throws IOException {
+    return scan(directory, 1);
+  }
+
+  /**
+   * Scan the directory.
+   * @param directory the directory to scan
+   * @param threadCount the number of threads used to scan the sub-folders, 
+   * 1 or less means scan in the calling thread
+   * @return the manifest
+   * @throws IOException {@code directory} is not a directory, or interrupted 
+   * when scanning
+   */
+  public static FileManifest scan(File directory, int threadCount) throws IOException {
+    if (directory == null) {
+      throw new NullPointerException("argument 'directory' cannot be null");
+    }
+    if (!directory.isDirectory()) {
+      throw new IOException("Directory not exist or not a directory: " + directory.getAbsolutePath());
+    }
+
+    List<Entry> result;
+    if (threadCount <= 1) {
+      result = new ArrayList<Entry>();
+      LinkedList<Entry> folders = new LinkedList<Entry>();
+      folders.add(new Entry("", directory, true, 0, 0));
+      while (!folders.isEmpty()) {
+        scanFolder(folders.removeFirst(), result, folders);
+      }
+    } else {
+      result = scanConcurrently(directory, threadCount);
+    }
+
+    Entry[] entries = result.toArray(new Entry[result.size()]);
+    Arrays.sort(entries, PATH_COMPARATOR);
+    return new FileManifest(directory, entries);
+  }
+
+  /**
+   * Scan the sub-folders on a thread pool.
+   * @param directory the directory to scan
+   * @param threadCount the number of threads
+   * @return the unsorted entries
+   * @throws IOException interrupted when scanning
+   */
+  protected static List<Entry> scanConcurrently(File directory, int threadCount) throws IOException {
+    final List<Entry> result = Collections.synchronizedList(new ArrayList<Entry>());
+    // number of folders submitted but not yet scanned
+    final AtomicInteger pendingFolders = new AtomicInteger(0);
+    final Object completeLock = new Object();
+    final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      // a named class is needed to submit the sub-folders from inside the task
+      class ScanTask implements Runnable {
+
+        private final Entry folder;
+
+        ScanTask(Entry folder) {
+          this.folder = folder;
+        }
+
+        @Override
+        public void run() {
+          try {
+            List<Entry> subFolders = new ArrayList<Entry>();
+            List<Entry> folderEntries = new ArrayList<Entry>();
+            scanFolder(folder, folderEntries, subFolders);
+            result.addAll(folderEntries);
+
+            pendingFolders.addAndGet(subFolders.size());
+            for (Entry subFolder : subFolders) {
+              executor.execute(new ScanTask(subFolder));
+            }
+          } finally {
+            if (pendingFolders.decrementAndGet() == 0) {
+              synchronized (completeLock) {
+                completeLock.notifyAll();
+              }
+            }
+          }
+        }
+      }
+
+      pendingFolders.set(1);
+      executor.execute(new ScanTask(new Entry("", directory, true, 0, 0)));
+
+      synchronized (completeLock) {
+        while (pendingFolders.get() != 0) {
+          completeLock.wait();
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted when scanning the directory.");
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return new ArrayList<Entry>(result);
+  }
+
+  /**
+   * List the folder, add the files and sub-folders in it to {@code result} 
+   * and add the sub-folders to {@code subFolders} for further scanning.
+   * @param folder the folder to list
+   * @param result the list to add the entries to
+   * @param subFolders the list to add the sub-folders to
+   */
+  protected static void scanFolder(Entry folder, List<Entry> result, List<Entry> subFolders) {
+    File[] files = folder.file.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    String pathPrefix = folder.path.isEmpty() ? "" : folder.path + "/";
+    for (File _file : files) {
+      if (_file.isHidden()) {
+        continue;
+      }
+
+      String path = pathPrefix + _file.getName();
+      Entry entry;
+      if (_file.isDirectory()) {
+        entry = new Entry(path, _file, true, 0, _file.lastModified());
+        subFolders.add(entry);
+      } else {
+        entry = new Entry(path, _file, false, _file.length(), _file.lastModified());
+      }
+      result.add(entry);
+    }
+  }
+
+  /**
+   * Get the scanned directory.
+   * @return the directory
+   */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Get the number of entries.
+   * @return the number of entries
+   */
+  public int size() {
+    return entries.length;
+  }
+
+  /**
+   * Get all entries sorted by their relative path, the folders come before 
+   * the files and folders inside them.
+   * @return the unmodifiable list of entries
+   */
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(Arrays.asList(entries));
+  }
+
+  /**
+   * Get the entry by relative path.
+   * @param path the relative path to the directory, separated by "/"
+   * @return the entry, or null if not found
+   */
+  public Entry get(String path) {
+    if (path == null) {
+      throw new NullPointerException("argument 'path' cannot be null");
+    }
+    int index = Arrays.binarySearch(entries, new Entry(path, null, false, 0, 0), PATH_COMPARATOR);
+    return index >= 0 ? entries[index] : null;
+  }
+
+  /**
+   * An entry in the manifest.
+   */
+  public static class Entry {
+
+    /**
+     * The path relative to the scanned directory, separated by "/".
+     */
+    protected final String path;
+    /**
+     * The file.
+     */
+    protected final File file;
+    /**
+     * Indicate it is a folder or not.
+     */
+    protected final boolean directory;
+    /**
+     * The length of the file, 0 for folder.
+     */
+    protected final long length;
+    /**
+     * The last modified time.
+     */
+    protected final long lastModified;
+
+    protected Entry(String path, File file, boolean directory, long length, long lastModified) {
+      this.path = path;
+      this.file = file;
+      this.directory = directory;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public boolean isDirectory() {
+      return directory;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+}
@@ -20,8 +20,6 @@
 // WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 package updater.util;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -29,15 +27,22 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -48,6 +53,26 @@ import java.util.zip.GZIPInputStream;
  */
 public class HTTPDownloader implements Pausable, Interruptible {
 
+  /**
+   * The minimum size of a segment in segmented download.
+   */
+  protected static final long MINIMUM_SEGMENT_SIZE = 1048576;
+  /**
+   * The time interval to save the segment state file in segmented download 
+   * (in milli seconds).
+   */
+  protected static final int SEGMENT_STATE_SAVE_INTERVAL = 1000;
+  /**
+   * The interval (in bytes) to save the state of the digest of the 
+   * {@link #resumeFile}, see {@link #getDigestCheckpointFile()}.
+   */
+  protected static final long DIGEST_CHECKPOINT_INTERVAL = 8388608;
+  /**
+   * The minimum time interval to notify the listener the downloaded bytes (in 
+   * milli seconds), the bytes downloaded within the interval are notified at 
+   * once.
+   */
+  protected static final int PROGRESS_NOTIFY_INTERVAL = 100;
   /**
    * List of tasks to be executed after interrupted.
    */
@@ -70,6 +95,19 @@ public class HTTPDownloader implements Pausable, Interruptible {
    * The If-Modified-Since header value, -1 means not set.
    */
   protected long ifModifiedSince;
+  /**
+   * The number of connections used to download the file concurrently.
+   */
+  protected int segmentCount;
+  /**
+   * The transport to open the connections with.
+   */
+  protected HTTPTransport transport;
+  /**
+   * The bandwidth limiter of this downloader, null means not limited. The 
+   * downloader is also limited by {@link BandwidthLimiter#getGlobalLimiter()}.
+   */
+  protected BandwidthLimiter bandwidthLimiter;
   /**
    * Indicate if currently is downloading a file.
    */
@@ -82,6 +120,9 @@ public class HTTPDownloader implements Pausable, Interruptible {
     resumeFile = null;
     outputTo = null;
     ifModifiedSince = -1;
+    segmentCount = 1;
+    transport = HTTPSession.getSharedSession();
+    bandwidthLimiter = null;
     downloading = false;
 
     interruptedTasks = Collections.synchronizedList(new ArrayList<Runnable>());
@@ -164,6 +205,95 @@ public class HTTPDownloader implements Pausable, Interruptible {
     ifModifiedSince = time;
   }
 
+  /**
+   * Get the transport to open the connections with.
+   * @return the transport
+   */
+  public HTTPTransport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Set the transport to open the connections with. Default is 
+   * {@link HTTPSession#getSharedSession()} that keep the connections alive.
+   * @param transport the transport
+   */
+  public void setTransport(HTTPTransport transport) {
+    if (transport == null) {
+      throw new NullPointerException("argument 'transport' cannot be null");
+    }
+    this.transport = transport;
+  }
+
+  /**
+   * Get the bandwidth limiter of this downloader.
+   * @return the limiter, null means not limited
+   */
+  public BandwidthLimiter getBandwidthLimiter() {
+    return bandwidthLimiter;
+  }
+
+  /**
+   * Set the bandwidth limiter of this downloader. The limiter can be shared 
+   * with other downloaders to limit them as a whole.
+   * @param bandwidthLimiter the limiter, null means not limited
+   */
+  public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+    this.bandwidthLimiter = bandwidthLimiter;
+  }
+
+  /**
+   * Get the number of connections used to download the file concurrently.
+   * @return the number of connections
+   */
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  /**
+   * Set the number of connections used to download the file concurrently. 
+   * The segmented download is used only if {@link #resumeFile} is set, 
+   * {@link #outputTo} and If-Modified-Since are not set and the expected 
+   * length is specified. The file is split into ranges that are downloaded 
+   * concurrently into the preallocated {@link #resumeFile}, and the progress 
+   * of every range is saved to {@link #getSegmentStateFile()} for resuming. 
+   * If the server does not support range request, it will fall back to 
+   * single connection.
+   * @param segmentCount the number of connections, 1 means not segmented
+   */
+  public void setSegmentCount(int segmentCount) {
+    if (segmentCount < 1) {
+      throw new IllegalArgumentException("argument 'segmentCount' should >= 1");
+    }
+    this.segmentCount = segmentCount;
+  }
+
+  /**
+   * Get the file that records the progress of every segment of the segmented 
+   * download, it is next to the {@link #resumeFile}.
+   * @return the file, null if {@link #resumeFile} is not set
+   */
+  public File getSegmentStateFile() {
+    if (resumeFile == null) {
+      return null;
+    }
+    return new File(resumeFile.getAbsolutePath() + ".segments");
+  }
+
+  /**
+   * Get the file that records the state of the SHA-256 digest of the 
+   * {@link #resumeFile} at every {@link #DIGEST_CHECKPOINT_INTERVAL} bytes, 
+   * it is next to the {@link #resumeFile}. When resuming the download, only 
+   * the content after the last checkpoint needs to be digested again.
+   * @return the file, null if {@link #resumeFile} is not set
+   */
+  public File getDigestCheckpointFile() {
+    if (resumeFile == null) {
+      return null;
+    }
+    return new File(resumeFile.getAbsolutePath() + ".sha256");
+  }
+
   /**
    * Download.
    * @param listener the listener to listen to download progress, can be null
@@ -178,7 +308,7 @@ public class HTTPDownloader implements Pausable, Interruptible {
    * @return the result
    * @throws MalformedURLException URL is invalid
    */
-  public DownloadResult download(DownloadProgressListener listener, URL url, String fileSHA256, int expectedLength, int retryTimes, int retryDelay) throws MalformedURLException {
+  public DownloadResult download(DownloadProgressListener listener, URL url, String fileSHA256, long expectedLength, int retryTimes, int retryDelay) throws MalformedURLException {
     if (url == null) {
       throw new NullPointerException("argument 'url' cannot be null");
     }
@@ -186,32 +316,40 @@ public class HTTPDownloader implements Pausable, Interruptible {
       throw new IllegalArgumentException("SHA format invalid, expected: ^[0-9a-f]{64}$, checksum: " + fileSHA256);
     }
 
+    if (isSegmented(expectedLength)) {
+      return downloadSegmented(listener, url, fileSHA256, expectedLength, retryTimes, retryDelay);
+    }
+
     DownloadResult retryResult = null;
     boolean truncateResumeFileOnRetry = true;
 
     HttpURLConnection httpConn = null;
+    boolean reuseConnection = false;
     InputStream in = null;
-    OutputStream resumeFileOut = null;
+    FileOutputStream resumeFileOut = null;
+    int byteNotNotified = 0;
     try {
       downloading = true;
 
-      URLConnection conn = url.openConnection();
-      conn.setConnectTimeout(5000);
-      if (!(conn instanceof HttpURLConnection)) {
-        throw new MalformedURLException("It is not a valid http URL: " + conn.toString());
-      }
-
-      httpConn = (HttpURLConnection) conn;
+      httpConn = transport.openConnection(url);
 
       httpConn.setDoInput(true);
       httpConn.setDoOutput(true);
 
       // set request header
-      httpConn.setRequestProperty("Connection", "close");
       httpConn.setRequestProperty("Accept-Encoding", "gzip");
       httpConn.setRequestProperty("User-Agent", "HTTP Downloader");
       httpConn.setUseCaches(false);
 
+      ResumableSHA256 digest = null;
+      if (fileSHA256 != null) {
+        digest = new ResumableSHA256();
+        if (resumeFile != null && resumeFile.length() > 0) {
+          // the content before the last checkpoint need not to be digested again
+          digest = restoreDigest();
+        }
+      }
+
       long startRange = 0;
       if (resumeFile != null && resumeFile.length() > 0) {
         long resumeFileLength = resumeFile.length();
@@ -219,10 +357,12 @@ public class HTTPDownloader implements Pausable, Interruptible {
         if (expectedLength >= 0) {
           if (resumeFileLength == expectedLength) {
             if (fileSHA256 != null) {
-              if (!CommonUtil.getSHA256String(resumeFile).equals(fileSHA256)) {
-                CommonUtil.truncateFile(resumeFile);
+              if (!CommonUtil.byteArrayToHexString(digest.digest()).equals(fileSHA256)) {
+                truncateResumeFile();
+                digest.reset();
               } else {
                 // download finished
+                getDigestCheckpointFile().delete();
                 if (listener != null) {
                   listener.byteStart(resumeFileLength);
                 }
@@ -236,7 +376,10 @@ public class HTTPDownloader implements Pausable, Interruptible {
               return DownloadResult.SUCCEED;
             }
           } else if (resumeFileLength > expectedLength) {
-            CommonUtil.truncateFile(resumeFile);
+            truncateResumeFile();
+            if (digest != null) {
+              digest.reset();
+            }
           } else {
             startRange = resumeFileLength;
             httpConn.setRequestProperty("Range", "bytes=" + resumeFileLength + "-");
@@ -255,13 +398,17 @@ public class HTTPDownloader implements Pausable, Interruptible {
 
       // get header
       int httpStatusCode = httpConn.getResponseCode();
+      if (httpStatusCode == 404 || httpStatusCode == 410) {
+        // retry will not help
+        return DownloadResult.FILE_NOT_FOUND;
+      }
       String contentEncoding = httpConn.getHeaderField("Content-Encoding");
-      int contentLength = -1;
+      long contentLength = -1;
       //<editor-fold defaultstate="collapsed" desc="content length">
       String contentLengthString = httpConn.getHeaderField("Content-Length");
       if (contentLengthString != null) {
         try {
-          contentLength = Integer.parseInt(contentLengthString.trim());
+          contentLength = Long.parseLong(contentLengthString.trim());
         } catch (NumberFormatException ex) {
         }
       }
@@ -272,9 +419,9 @@ public class HTTPDownloader implements Pausable, Interruptible {
         if (contentRangeString != null) {
           Matcher matcher = pattern.matcher(contentRangeString.trim());
           if (matcher.matches()) {
-            int rangeStart = Integer.parseInt(matcher.group(1));
-            int rangeEnd = Integer.parseInt(matcher.group(2));
-            contentLength = Integer.parseInt(matcher.group(3));
+            long rangeStart = Long.parseLong(matcher.group(1));
+            long rangeEnd = Long.parseLong(matcher.group(2));
+            contentLength = Long.parseLong(matcher.group(3));
             if (rangeStart != startRange) {
               throw new RuntimeException(DownloadResult.RESUME_RANGE_FAILED.getValue());
             }
@@ -286,7 +433,10 @@ public class HTTPDownloader implements Pausable, Interruptible {
           }
         } else {
           startRange = 0;
-          CommonUtil.truncateFile(resumeFile);
+          truncateResumeFile();
+          if (digest != null) {
+            digest.reset();
+          }
         }
       }
 
@@ -296,6 +446,8 @@ public class HTTPDownloader implements Pausable, Interruptible {
 
       // check according to header information
       if (httpStatusCode == 304 && ifModifiedSince != -1) {
+        // no response body
+        reuseConnection = true;
         return DownloadResult.FILE_NOT_MODIFIED;
       } else if (httpStatusCode != 200 && httpStatusCode != 206) {
         throw new RuntimeException(DownloadResult.EXPECTED_LENGTH_NOT_MATCH.getValue());
@@ -311,50 +463,61 @@ public class HTTPDownloader implements Pausable, Interruptible {
       }
 
       // download
-      MessageDigest digest = null;
-      if (fileSHA256 != null) {
-        try {
-          digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException ex) {
-          return DownloadResult.FAILED;
-        }
-      }
-      if (startRange != 0) {
-        digest(digest, resumeFile);
-      }
       in = httpConn.getInputStream();
       SizeRecordedInputStream srin = new SizeRecordedInputStream(in);
-      in = (contentEncoding != null && contentEncoding.equals("gzip")) ? new GZIPInputStream(srin, 32768) : new BufferedInputStream(srin, 32768);
-      OutputStream outputToOut = null;
+      in = (contentEncoding != null && contentEncoding.equals("gzip")) ? new GZIPInputStream(srin, 32768) : srin;
+      FileChannel resumeFileChannel = null;
       if (resumeFile != null) {
-        resumeFileOut = new BufferedOutputStream(new FileOutputStream(resumeFile, startRange != 0), 32768);
+        // write through the channel without another buffer, the read buffer is large enough
+        resumeFileOut = new FileOutputStream(resumeFile, startRange != 0);
+        resumeFileChannel = resumeFileOut.getChannel();
       }
+      OutputStream outputToOut = null;
       if (outputTo != null) {
         outputToOut = outputTo;
       }
-      int byteRead, cumulateByteRead = 0;
-      byte[] b = new byte[2048];
-      while ((byteRead = in.read(b)) != -1) {
+      int byteRead;
+      long cumulateByteRead = 0;
+      long lastNotifyTime = System.currentTimeMillis();
+      long throttledLength = srin.totalLength;
+      long readStartTime = System.nanoTime();
+      byte[] b = new byte[65536];
+      ByteBuffer buffer = ByteBuffer.wrap(b);
+      while ((byteRead = in.read(b, 0, b.length)) != -1) {
+        // limit by the bytes received but not the decompressed bytes
+        throttle((int) (srin.totalLength - throttledLength), System.nanoTime() - readStartTime);
+        throttledLength = srin.totalLength;
         try {
           check();
         } catch (RuntimeException ex) {
           return DownloadResult.INTERRUPTED;
         }
 
-        if (digest != null) {
-          digest.update(b, 0, byteRead);
-        }
-        if (resumeFileOut != null) {
-          resumeFileOut.write(b, 0, byteRead);
+        if (resumeFileChannel != null) {
+          buffer.limit(byteRead).position(0);
+          while (buffer.hasRemaining()) {
+            resumeFileChannel.write(buffer);
+          }
         }
         if (outputToOut != null) {
           outputToOut.write(b, 0, byteRead);
         }
+        if (digest != null) {
+          updateDigest(digest, b, 0, byteRead);
+        }
         cumulateByteRead += byteRead;
 
         if (listener != null) {
-          listener.byteDownloaded(byteRead);
+          byteNotNotified += byteRead;
+          long currentTime = System.currentTimeMillis();
+          if (currentTime - lastNotifyTime >= PROGRESS_NOTIFY_INTERVAL) {
+            listener.byteDownloaded(byteNotNotified);
+            byteNotNotified = 0;
+            lastNotifyTime = currentTime;
+          }
         }
+
+        readStartTime = System.nanoTime();
       }
 
       // check the downloaded file
@@ -365,6 +528,10 @@ public class HTTPDownloader implements Pausable, Interruptible {
       if (fileSHA256 != null && digest != null && !CommonUtil.byteArrayToHexString(digest.digest()).equals(fileSHA256)) {
         throw new RuntimeException(DownloadResult.CHECKSUM_FAILED.getValue());
       }
+      if (resumeFile != null) {
+        getDigestCheckpointFile().delete();
+      }
+      reuseConnection = true;
     } catch (IOException ex) {
       truncateResumeFileOnRetry = false;
       retryResult = DownloadResult.FAILED;
@@ -376,11 +543,14 @@ public class HTTPDownloader implements Pausable, Interruptible {
       }
     } finally {
       downloading = false;
-      CommonUtil.closeQuietly(in);
-      CommonUtil.closeQuietly(resumeFileOut);
+      if (listener != null && byteNotNotified != 0) {
+        listener.byteDownloaded(byteNotNotified);
+      }
       if (httpConn != null) {
-        httpConn.disconnect();
+        transport.releaseConnection(httpConn, reuseConnection);
       }
+      CommonUtil.closeQuietly(in);
+      CommonUtil.closeQuietly(resumeFileOut);
     }
 
     if (retryResult != null) {
@@ -395,16 +565,16 @@ public class HTTPDownloader implements Pausable, Interruptible {
    * @param result the reason to retry
    * @param truncateResumeFileOnRetry whether truncate the {@code resumeFile} 
    * on retry or not
-   * @param listener see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, int, int, int)}
-   * @param url see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, int, int, int)}
-   * @param fileSHA256 see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, int, int, int)}
-   * @param expectedLength see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, int, int, int)}
-   * @param retryTimes see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, int, int, int)}
-   * @param retryDelay see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, int, int, int)}
+   * @param listener see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param url see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param fileSHA256 see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param expectedLength see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param retryTimes see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param retryDelay see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
    * @return the retry result
    * @throws MalformedURLException 
    */
-  protected DownloadResult retry(DownloadResult result, boolean truncateResumeFileOnRetry, DownloadProgressListener listener, URL url, String fileSHA256, int expectedLength, int retryTimes, int retryDelay) throws MalformedURLException {
+  protected DownloadResult retry(DownloadResult result, boolean truncateResumeFileOnRetry, DownloadProgressListener listener, URL url, String fileSHA256, long expectedLength, int retryTimes, int retryDelay) throws MalformedURLException {
     if (retryTimes <= 0) {
       return result;
     }
@@ -423,12 +593,33 @@ public class HTTPDownloader implements Pausable, Interruptible {
     }
     if (truncateResumeFileOnRetry) {
       if (resumeFile != null) {
-        CommonUtil.truncateFile(resumeFile);
+        truncateResumeFile();
       }
     }
     return download(listener, url, fileSHA256, expectedLength, retryTimes - 1, retryDelay);
   }
 
+  /**
+   * Acquire the bytes received from the bandwidth limiters, sleep if 
+   * exceeded the limit. If interrupted when sleeping, the interrupt status 
+   * is kept for the next check.
+   * @param bytes the number of bytes received
+   * @param readTime the time blocked on reading the bytes (in nano seconds)
+   */
+  protected void throttle(int bytes, long readTime) {
+    try {
+      if (bandwidthLimiter != null) {
+        bandwidthLimiter.reportDelay(readTime);
+        bandwidthLimiter.acquire(bytes);
+      }
+      BandwidthLimiter globalLimiter = BandwidthLimiter.getGlobalLimiter();
+      globalLimiter.reportDelay(readTime);
+      globalLimiter.acquire(bytes);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Check if paused or interrupted.
    */
@@ -443,15 +634,610 @@ public class HTTPDownloader implements Pausable, Interruptible {
       }
     }
     if (Thread.interrupted()) {
-      synchronized (interruptedTasks) {
-        for (Runnable task : interruptedTasks) {
-          task.run();
+      runInterruptedTasks();
+      throw new RuntimeException(new InterruptedException());
+    }
+  }
+
+  /**
+   * Execute the {@link #interruptedTasks}.
+   */
+  protected void runInterruptedTasks() {
+    synchronized (interruptedTasks) {
+      for (Runnable task : interruptedTasks) {
+        task.run();
+      }
+    }
+  }
+
+  /**
+   * Truncate the {@link #resumeFile} and remove its segment state file and 
+   * digest checkpoint file.
+   */
+  protected void truncateResumeFile() {
+    CommonUtil.truncateFile(resumeFile);
+    getSegmentStateFile().delete();
+    getDigestCheckpointFile().delete();
+  }
+
+  /**
+   * Restore the digest of the {@link #resumeFile} from the last checkpoint in 
+   * the digest checkpoint file, and digest the remaining content after it. 
+   * Only the chunk before the last checkpoint is verified by digesting it 
+   * again; if it is corrupted, the {@link #resumeFile} is truncated to the 
+   * checkpoint before it, so only that chunk will be downloaded again.
+   * @return the digest of the whole {@link #resumeFile}
+   * @throws IOException error occurred when reading or writing the files
+   */
+  protected ResumableSHA256 restoreDigest() throws IOException {
+    List<ResumableSHA256> checkpoints = readDigestCheckpoints(resumeFile.length());
+
+    ResumableSHA256 digest = new ResumableSHA256();
+    if (!checkpoints.isEmpty()) {
+      ResumableSHA256 lastCheckpoint = checkpoints.remove(checkpoints.size() - 1);
+      ResumableSHA256 previousCheckpoint = checkpoints.isEmpty() ? new ResumableSHA256() : checkpoints.get(checkpoints.size() - 1);
+
+      digest = new ResumableSHA256(previousCheckpoint);
+      digestResumeFile(digest, lastCheckpoint.getLength(), false);
+      if (digest.getState().equals(lastCheckpoint.getState())) {
+        checkpoints.add(lastCheckpoint);
+      } else {
+        // the last chunk is corrupted, download it again
+        digest = new ResumableSHA256(previousCheckpoint);
+        RandomAccessFile randomAccessFile = null;
+        try {
+          randomAccessFile = new RandomAccessFile(resumeFile, "rw");
+          randomAccessFile.setLength(previousCheckpoint.getLength());
+        } finally {
+          CommonUtil.closeQuietly(randomAccessFile);
+        }
+      }
+    }
+    writeDigestCheckpoints(checkpoints);
+
+    digestResumeFile(digest, resumeFile.length(), true);
+
+    return digest;
+  }
+
+  /**
+   * Digest the content of the {@link #resumeFile} from the current length of 
+   * the {@code digest} to {@code toPosition}.
+   * @param digest the digest
+   * @param toPosition the position to stop digesting (exclusive)
+   * @param checkpoint true to save checkpoints when passing them, false not
+   * @throws IOException error occurred when reading or writing the files
+   */
+  protected void digestResumeFile(ResumableSHA256 digest, long toPosition, boolean checkpoint) throws IOException {
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(resumeFile, "r");
+      randomAccessFile.seek(digest.getLength());
+
+      int byteRead;
+      long remaining = toPosition - digest.getLength();
+      byte[] b = new byte[32768];
+      while (remaining > 0) {
+        byteRead = randomAccessFile.read(b, 0, (int) Math.min(b.length, remaining));
+        if (byteRead == -1) {
+          throw new IOException(String.format("Unexpected end of file: %1$s", resumeFile.getAbsolutePath()));
+        }
+        if (checkpoint) {
+          updateDigest(digest, b, 0, byteRead);
+        } else {
+          digest.update(b, 0, byteRead);
+        }
+        remaining -= byteRead;
+      }
+    } finally {
+      CommonUtil.closeQuietly(randomAccessFile);
+    }
+  }
+
+  /**
+   * Update the digest of the {@link #resumeFile}, and save a checkpoint every 
+   * {@link #DIGEST_CHECKPOINT_INTERVAL} bytes.
+   * The content before the checkpoint should have been written to the 
+   * {@link #resumeFile} without buffering.
+   * @param digest the digest
+   * @param b the array of bytes
+   * @param off the offset to start from in the array of bytes
+   * @param len the number of bytes to use, starting at {@code off}
+   * @throws IOException error occurred when writing the files
+   */
+  protected void updateDigest(ResumableSHA256 digest, byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      long nextCheckpoint = (digest.getLength() / DIGEST_CHECKPOINT_INTERVAL + 1) * DIGEST_CHECKPOINT_INTERVAL;
+      int lengthToUpdate = (int) Math.min(len, nextCheckpoint - digest.getLength());
+      digest.update(b, off, lengthToUpdate);
+      off += lengthToUpdate;
+      len -= lengthToUpdate;
+
+      if (resumeFile != null && digest.getLength() == nextCheckpoint) {
+        FileOutputStream checkpointOut = null;
+        try {
+          checkpointOut = new FileOutputStream(getDigestCheckpointFile(), true);
+          checkpointOut.write((digest.getLength() + "\t" + digest.getState() + "\n").getBytes("UTF-8"));
+        } finally {
+          CommonUtil.closeQuietly(checkpointOut);
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the checkpoints from the digest checkpoint file. Every line of the 
+   * file is the length digested and the state of the digest separated by tab.
+   * @param maxLength the checkpoints after this length are ignored
+   * @return the checkpoints in ascending order, the invalid lines and those 
+   * after it are ignored
+   */
+  protected List<ResumableSHA256> readDigestCheckpoints(long maxLength) {
+    List<ResumableSHA256> checkpoints = new ArrayList<ResumableSHA256>();
+
+    File checkpointFile = getDigestCheckpointFile();
+    if (!checkpointFile.exists()) {
+      return checkpoints;
+    }
+    try {
+      String[] lines = new String(CommonUtil.readFile(checkpointFile), "UTF-8").split("\n");
+      long lastLength = 0;
+      for (String line : lines) {
+        String[] fields = line.trim().split("\t");
+        if (fields.length != 2) {
+          break;
+        }
+        ResumableSHA256 checkpoint = ResumableSHA256.fromState(Long.parseLong(fields[0]), fields[1]);
+        if (checkpoint.getLength() <= lastLength || checkpoint.getLength() > maxLength) {
+          break;
+        }
+        checkpoints.add(checkpoint);
+        lastLength = checkpoint.getLength();
+      }
+    } catch (IOException ex) {
+      // ignore the checkpoints
+    } catch (IllegalArgumentException ex) {
+      // include NumberFormatException, the checkpoints read so far are used
+    }
+
+    return checkpoints;
+  }
+
+  /**
+   * Write the checkpoints to the digest checkpoint file.
+   * @param checkpoints the checkpoints in ascending order
+   * @throws IOException error occurred when writing the file
+   */
+  protected void writeDigestCheckpoints(List<ResumableSHA256> checkpoints) throws IOException {
+    if (checkpoints.isEmpty()) {
+      getDigestCheckpointFile().delete();
+      return;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (ResumableSHA256 checkpoint : checkpoints) {
+      sb.append(checkpoint.getLength()).append('\t').append(checkpoint.getState()).append('\n');
+    }
+    CommonUtil.writeFile(getDigestCheckpointFile(), sb.toString());
+  }
+
+  /**
+   * Check if should use segmented download.
+   * @param expectedLength see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @return true if should use segmented download, false if not
+   */
+  protected boolean isSegmented(long expectedLength) {
+    if (resumeFile == null || outputTo != null || ifModifiedSince != -1 || expectedLength <= 0) {
+      return false;
+    }
+    if (getSegmentStateFile().exists()) {
+      // continue the unfinished segmented download
+      return true;
+    }
+    return segmentCount > 1 && expectedLength - resumeFile.length() >= 2 * MINIMUM_SEGMENT_SIZE;
+  }
+
+  /**
+   * Download the file using multiple connections concurrently, see 
+   * {@link #setSegmentCount(int)}.
+   * @param listener see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param url see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param fileSHA256 see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param expectedLength see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param retryTimes see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @param retryDelay see {@link #download(updater.util.DownloadProgressListener, java.net.URL, java.lang.String, long, int, int)}
+   * @return the result
+   * @throws MalformedURLException URL is invalid
+   */
+  protected DownloadResult downloadSegmented(final DownloadProgressListener listener, final URL url, String fileSHA256, final long expectedLength, int retryTimes, int retryDelay) throws MalformedURLException {
+    DownloadResult retryResult = null;
+    boolean truncateResumeFileOnRetry = true;
+
+    File stateFile = getSegmentStateFile();
+    List<Segment> segments = null;
+    boolean succeed = false;
+
+    RandomAccessFile randomAccessFile = null;
+    ExecutorService executor = null;
+    final AtomicBoolean cancelled = new AtomicBoolean(false);
+    final AtomicReference<Exception> segmentException = new AtomicReference<Exception>(null);
+    final List<HttpURLConnection> connections = Collections.synchronizedList(new ArrayList<HttpURLConnection>());
+    try {
+      downloading = true;
+
+      if (stateFile.exists()) {
+        segments = readSegmentState(stateFile, expectedLength);
+        if (segments == null) {
+          // the state is broken, the content of the resume file cannot be trusted
+          truncateResumeFile();
+        }
+      }
+      if (segments == null) {
+        // the bytes downloaded by single connection before are kept
+        segments = splitSegments(resumeFile.length(), expectedLength);
+      }
+
+      randomAccessFile = new RandomAccessFile(resumeFile, "rw");
+      randomAccessFile.setLength(expectedLength);
+      final FileChannel fileChannel = randomAccessFile.getChannel();
+      writeSegmentState(stateFile, expectedLength, segments);
+
+      long downloadedLength = expectedLength;
+      for (Segment segment : segments) {
+        downloadedLength -= segment.end - segment.position;
+      }
+      if (listener != null) {
+        listener.byteTotal(expectedLength);
+        listener.byteStart(downloadedLength);
+      }
+
+      // download
+      executor = Executors.newFixedThreadPool(segments.size());
+      for (final Segment segment : segments) {
+        if (segment.position >= segment.end) {
+          continue;
+        }
+        executor.submit(new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              downloadSegment(listener, url, expectedLength, segment, fileChannel, connections, cancelled);
+            } catch (Exception ex) {
+              // the first failure stop all other segments
+              if (segmentException.compareAndSet(null, ex)) {
+                cancelSegments(cancelled, connections);
+              }
+            }
+          }
+        });
+      }
+      executor.shutdown();
+      try {
+        while (!executor.awaitTermination(SEGMENT_STATE_SAVE_INTERVAL, TimeUnit.MILLISECONDS)) {
+          writeSegmentState(stateFile, expectedLength, segments);
+        }
+      } catch (InterruptedException ex) {
+        stopSegments(executor, cancelled, connections);
+        runInterruptedTasks();
+        return DownloadResult.INTERRUPTED;
+      }
+
+      Exception segmentFailure = segmentException.get();
+      if (segmentFailure instanceof IOException) {
+        throw (IOException) segmentFailure;
+      } else if (segmentFailure instanceof RuntimeException) {
+        throw (RuntimeException) segmentFailure;
+      }
+
+      // check the downloaded file
+      for (Segment segment : segments) {
+        if (segment.position != segment.end) {
+          throw new IOException("Segment not finished.");
+        }
+      }
+      randomAccessFile.close();
+      if (fileSHA256 != null) {
+        MessageDigest digest = null;
+        try {
+          digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+          return DownloadResult.FAILED;
+        }
+        digest(digest, resumeFile);
+        if (!CommonUtil.byteArrayToHexString(digest.digest()).equals(fileSHA256)) {
+          // the downloaded content cannot be trusted, start over next time
+          truncateResumeFile();
+          throw new RuntimeException(DownloadResult.CHECKSUM_FAILED.getValue());
+        }
+      }
+
+      succeed = true;
+      stateFile.delete();
+    } catch (IOException ex) {
+      truncateResumeFileOnRetry = false;
+      retryResult = DownloadResult.FAILED;
+    } catch (RuntimeException ex) {
+      truncateResumeFileOnRetry = true;
+      retryResult = DownloadResult.getDownloadResult(ex.getMessage());
+      if (retryResult == null) {
+        retryResult = DownloadResult.FAILED;
+      }
+    } finally {
+      downloading = false;
+      if (executor != null) {
+        stopSegments(executor, cancelled, connections);
+      }
+      CommonUtil.closeQuietly(randomAccessFile);
+      if (!succeed && segments != null && stateFile.exists()) {
+        try {
+          writeSegmentState(stateFile, expectedLength, segments);
+        } catch (IOException ex) {
+          // the progress since last save is lost only
         }
       }
+    }
+
+    if (retryResult == DownloadResult.RESUME_RANGE_FAILED) {
+      // the server does not support range request, download using single connection
+      segmentCount = 1;
+      truncateResumeFile();
+      return download(listener, url, fileSHA256, expectedLength, retryTimes, retryDelay);
+    }
+    if (retryResult != null) {
+      return retry(retryResult, truncateResumeFileOnRetry, listener, url, fileSHA256, expectedLength, retryTimes, retryDelay);
+    }
+
+    return DownloadResult.SUCCEED;
+  }
+
+  /**
+   * Download one segment and write it to {@code fileChannel} at the position 
+   * of the segment.
+   * @param listener the listener to listen to download progress, can be null
+   * @param url the URL to download from
+   * @param expectedLength the expected length of the whole file
+   * @param segment the segment to download
+   * @param fileChannel the channel of the file to write to
+   * @param connections the list to register the connection to, for 
+   * cancelling
+   * @param cancelled the flag indicating the segmented download is cancelled
+   * @throws IOException error occurred when downloading or writing the 
+   * segment
+   */
+  protected void downloadSegment(DownloadProgressListener listener, URL url, long expectedLength, Segment segment, FileChannel fileChannel, List<HttpURLConnection> connections, AtomicBoolean cancelled) throws IOException {
+    HttpURLConnection httpConn = null;
+    boolean reuseConnection = false;
+    InputStream in = null;
+    int byteNotNotified = 0;
+    try {
+      httpConn = transport.openConnection(url);
+      connections.add(httpConn);
+      checkSegment(cancelled);
+
+      httpConn.setDoInput(true);
+
+      // set request header, the content is not encoded so that the range is the range of the file
+      httpConn.setRequestProperty("User-Agent", "HTTP Downloader");
+      httpConn.setRequestProperty("Range", "bytes=" + segment.position + "-" + (segment.end - 1));
+      httpConn.setUseCaches(false);
+
+      // connect
+      httpConn.connect();
+
+      // check according to header information
+      int httpStatusCode = httpConn.getResponseCode();
+      if (httpStatusCode == 200) {
+        throw new RuntimeException(DownloadResult.RESUME_RANGE_FAILED.getValue());
+      } else if (httpStatusCode != 206) {
+        throw new RuntimeException(DownloadResult.FAILED.getValue());
+      }
+      Pattern pattern = Pattern.compile("^bytes\\s([0-9]+)-([0-9]+)/([0-9]+)$");
+      String contentRangeString = httpConn.getHeaderField("Content-Range");
+      Matcher matcher = pattern.matcher(contentRangeString != null ? contentRangeString.trim() : "");
+      if (!matcher.matches()) {
+        throw new RuntimeException(DownloadResult.RESUME_RANGE_RESPOND_INVALID.getValue());
+      }
+      if (Long.parseLong(matcher.group(1)) != segment.position || Long.parseLong(matcher.group(2)) != segment.end - 1) {
+        throw new RuntimeException(DownloadResult.RESUME_RANGE_FAILED.getValue());
+      }
+      if (Long.parseLong(matcher.group(3)) != expectedLength) {
+        throw new RuntimeException(DownloadResult.RANGE_LENGTH_NOT_MATCH_CONTENT_LENGTH.getValue());
+      }
+
+      // download
+      in = httpConn.getInputStream();
+      int byteRead;
+      long lastNotifyTime = System.currentTimeMillis();
+      byte[] b = new byte[32768];
+      while (segment.position < segment.end) {
+        checkSegment(cancelled);
+
+        long readStartTime = System.nanoTime();
+        byteRead = in.read(b, 0, (int) Math.min(b.length, segment.end - segment.position));
+        if (byteRead == -1) {
+          break;
+        }
+        throttle(byteRead, System.nanoTime() - readStartTime);
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, 0, byteRead);
+        long writePosition = segment.position;
+        while (buffer.hasRemaining()) {
+          writePosition += fileChannel.write(buffer, writePosition);
+        }
+        segment.position += byteRead;
+
+        if (listener != null) {
+          byteNotNotified += byteRead;
+          long currentTime = System.currentTimeMillis();
+          if (currentTime - lastNotifyTime >= PROGRESS_NOTIFY_INTERVAL) {
+            // the listener is notified by multiple threads
+            synchronized (listener) {
+              listener.byteDownloaded(byteNotNotified);
+            }
+            byteNotNotified = 0;
+            lastNotifyTime = currentTime;
+          }
+        }
+      }
+
+      if (segment.position != segment.end) {
+        throw new IOException("Connection closed before the segment finished.");
+      }
+      reuseConnection = !cancelled.get();
+    } finally {
+      if (listener != null && byteNotNotified != 0) {
+        synchronized (listener) {
+          listener.byteDownloaded(byteNotNotified);
+        }
+      }
+      if (httpConn != null) {
+        connections.remove(httpConn);
+        transport.releaseConnection(httpConn, reuseConnection);
+      }
+      CommonUtil.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Check if paused or the segmented download is cancelled.
+   * @param cancelled the flag indicating the segmented download is cancelled
+   */
+  protected void checkSegment(AtomicBoolean cancelled) {
+    synchronized (this) {
+      while (pause && !cancelled.get()) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    }
+    if (cancelled.get()) {
       throw new RuntimeException(new InterruptedException());
     }
   }
 
+  /**
+   * Cancel all segments and disconnect all connections to stop blocking read.
+   * @param cancelled the flag indicating the segmented download is cancelled
+   * @param connections the connections of the segments
+   */
+  protected void cancelSegments(AtomicBoolean cancelled, List<HttpURLConnection> connections) {
+    cancelled.set(true);
+    synchronized (this) {
+      notifyAll();
+    }
+    synchronized (connections) {
+      for (HttpURLConnection connection : connections) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Cancel all segments and wait for all of them stopped.
+   * @param executor the executor that running the segments
+   * @param cancelled the flag indicating the segmented download is cancelled
+   * @param connections the connections of the segments
+   */
+  protected void stopSegments(ExecutorService executor, AtomicBoolean cancelled, List<HttpURLConnection> connections) {
+    if (executor.isTerminated()) {
+      return;
+    }
+    cancelSegments(cancelled, connections);
+    executor.shutdownNow();
+    boolean interrupted = false;
+    while (!executor.isTerminated()) {
+      try {
+        executor.awaitTermination(SEGMENT_STATE_SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Split the range from {@code startRange} to {@code expectedLength} into 
+   * segments, every segment is not smaller than 
+   * {@link #MINIMUM_SEGMENT_SIZE} unless there is only one segment.
+   * @param startRange the start position
+   * @param expectedLength the expected length of the file
+   * @return the segments
+   */
+  protected List<Segment> splitSegments(long startRange, long expectedLength) {
+    long remaining = expectedLength - startRange;
+    int count = (int) Math.max(1, Math.min(segmentCount, remaining / MINIMUM_SEGMENT_SIZE));
+    long segmentSize = remaining / count;
+
+    List<Segment> segments = new ArrayList<Segment>(count);
+    long position = startRange;
+    for (int i = 0; i < count; i++) {
+      long end = i == count - 1 ? expectedLength : position + segmentSize;
+      segments.add(new Segment(position, end));
+      position = end;
+    }
+    return segments;
+  }
+
+  /**
+   * Read the segments from the segment state file.
+   * @param stateFile the segment state file
+   * @param expectedLength the expected length of the file
+   * @return the segments, null if the state file is invalid or not match 
+   * with the {@link #resumeFile}
+   */
+  protected List<Segment> readSegmentState(File stateFile, long expectedLength) {
+    if (resumeFile.length() != expectedLength) {
+      return null;
+    }
+
+    List<Segment> segments = new ArrayList<Segment>();
+    try {
+      String[] lines = new String(CommonUtil.readFile(stateFile), "UTF-8").split("\n");
+      if (Long.parseLong(lines[0].trim()) != expectedLength) {
+        return null;
+      }
+      for (int i = 1; i < lines.length; i++) {
+        String[] fields = lines[i].trim().split("\t");
+        if (fields.length != 2) {
+          return null;
+        }
+        Segment segment = new Segment(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+        if (segment.position < 0 || segment.position > segment.end || segment.end > expectedLength) {
+          return null;
+        }
+        segments.add(segment);
+      }
+    } catch (IOException ex) {
+      return null;
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+
+    return segments.isEmpty() ? null : segments;
+  }
+
+  /**
+   * Save the progress of the segments to the segment state file. The first 
+   * line is the expected length of the file, then every line is the 
+   * position and end position (exclusive) of a segment separated by tab.
+   * @param stateFile the segment state file
+   * @param expectedLength the expected length of the file
+   * @param segments the segments
+   * @throws IOException error occurred when writing the file
+   */
+  protected static void writeSegmentState(File stateFile, long expectedLength, List<Segment> segments) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append(expectedLength).append('\n');
+    for (Segment segment : segments) {
+      sb.append(segment.position).append('\t').append(segment.end).append('\n');
+    }
+    CommonUtil.writeFile(stateFile, sb.toString());
+  }
+
   /**
    * Read the content in the {@code file} and put into the {@code digest}.
    * 
@@ -473,7 +1259,8 @@ public class HTTPDownloader implements Pausable, Interruptible {
       long fileLength = file.length();
       fin = new FileInputStream(file);
 
-      int byteRead, cumulateByteRead = 0;
+      int byteRead;
+      long cumulateByteRead = 0;
       byte[] b = new byte[32768];
       while ((byteRead = fin.read(b)) != -1) {
         digest.update(b, 0, byteRead);
@@ -493,9 +1280,29 @@ public class HTTPDownloader implements Pausable, Interruptible {
     }
   }
 
+  /**
+   * A range of the file in segmented download.
+   */
+  protected static class Segment {
+
+    /**
+     * The position to continue the download from.
+     */
+    protected volatile long position;
+    /**
+     * The end position of the range (exclusive).
+     */
+    protected final long end;
+
+    protected Segment(long position, long end) {
+      this.position = position;
+      this.end = end;
+    }
+  }
+
   protected static class SizeRecordedInputStream extends FilterInputStream {
 
-    protected int totalLength = 0;
+    protected long totalLength = 0;
 
     public SizeRecordedInputStream(InputStream in) {
       super(in);
@@ -0,0 +1,134 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * The HTTP session that keep the connections alive and reuse them for 
+ * following requests to the same host, e.g. the catalog and the patches.
+ * <p>
+ * The connections are pooled per host by {@link HttpURLConnection}, a 
+ * connection returns to the pool when the response body is fully read and 
+ * the stream is closed (see <b>http.keepAlive</b> and 
+ * <b>http.maxConnections</b> system properties).
+ * </p>
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class HTTPSession implements HTTPTransport {
+
+  /**
+   * The session shared by all {@link HTTPDownloader} by default.
+   */
+  protected static final HTTPSession SHARED_SESSION = new HTTPSession(true);
+  /**
+   * Indicate whether to keep the connections alive.
+   */
+  protected final boolean keepAlive;
+  /**
+   * The connect timeout (in milli seconds).
+   */
+  protected int connectTimeout;
+
+  /**
+   * Constructor.
+   * @param keepAlive true to keep the connections alive for reuse, false to 
+   * close the connection after every request
+   */
+  public HTTPSession(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+    connectTimeout = 5000;
+  }
+
+  /**
+   * Get the session shared by all {@link HTTPDownloader} by default.
+   * @return the session
+   */
+  public static HTTPSession getSharedSession() {
+    return SHARED_SESSION;
+  }
+
+  /**
+   * Check whether the connections are kept alive.
+   * @return true if kept alive, false if not
+   */
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * Get the connect timeout.
+   * @return the timeout in milli seconds
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Set the connect timeout.
+   * @param connectTimeout the timeout in milli seconds, 0 means infinite
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    if (connectTimeout < 0) {
+      throw new IllegalArgumentException("argument 'connectTimeout' should >= 0");
+    }
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public HttpURLConnection openConnection(URL url) throws IOException {
+    if (url == null) {
+      throw new NullPointerException("argument 'url' cannot be null");
+    }
+
+    URLConnection conn = url.openConnection();
+    conn.setConnectTimeout(connectTimeout);
+    if (!(conn instanceof HttpURLConnection)) {
+      throw new MalformedURLException("It is not a valid http URL: " + conn.toString());
+    }
+
+    HttpURLConnection httpConn = (HttpURLConnection) conn;
+    if (!keepAlive) {
+      httpConn.setRequestProperty("Connection", "close");
+    }
+    return httpConn;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void releaseConnection(HttpURLConnection connection, boolean reusable) {
+    if (connection == null) {
+      return;
+    }
+    if (!reusable || !keepAlive) {
+      connection.disconnect();
+    }
+  }
+}
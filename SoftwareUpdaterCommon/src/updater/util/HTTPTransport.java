@@ -0,0 +1,53 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * The transport used by {@link HTTPDownloader} to open and release the HTTP 
+ * connections.
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public interface HTTPTransport {
+
+  /**
+   * Open a connection to {@code url}, the connection is not connected yet.
+   * @param url the URL
+   * @return the connection
+   * @throws MalformedURLException {@code url} is not a HTTP URL
+   * @throws IOException error occurred when opening the connection
+   */
+  HttpURLConnection openConnection(URL url) throws IOException;
+
+  /**
+   * Release the connection after use. The input stream of the connection 
+   * will be closed by the caller after this.
+   * @param connection the connection
+   * @param reusable true if the response body is fully read and the 
+   * connection can be reused by next request, false if the connection should 
+   * be closed
+   */
+  void releaseConnection(HttpURLConnection connection, boolean reusable);
+}
@@ -23,9 +23,6 @@ package updater.util;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * Interruptible input stream.
@@ -34,18 +31,14 @@ import java.util.List;
 public class InterruptibleInputStream extends FilterInputStream implements Pausable, Interruptible {
 
   /**
-   * List of tasks to be executed after interrupted.
+   * The pause and interrupt state.
    */
-  protected final List<Runnable> interruptedTasks;
-  /**
-   * Indicate currently is paused or not.
-   */
-  protected boolean pause;
+  protected final InterruptibleSupport interruptibleSupport;
   /**
    * Current remaining size available for read, -1 means remaining size is not 
    * limited.
    */
-  protected int sizeAvailable;
+  protected long sizeAvailable;
 
   /**
    * Constructor.
@@ -61,7 +54,7 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
    * @param sizeAvailable current remaining size available for read, -1 means 
    * remaining size is not limited
    */
-  public InterruptibleInputStream(InputStream in, int sizeAvailable) {
+  public InterruptibleInputStream(InputStream in, long sizeAvailable) {
     super(in);
 
     if (in == null) {
@@ -72,8 +65,7 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
     }
 
     this.sizeAvailable = sizeAvailable;
-    interruptedTasks = Collections.synchronizedList(new ArrayList<Runnable>());
-    pause = false;
+    interruptibleSupport = new InterruptibleSupport();
   }
 
   /**
@@ -81,10 +73,7 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
    */
   @Override
   public void addInterruptedTask(Runnable task) {
-    if (task == null) {
-      return;
-    }
-    interruptedTasks.add(task);
+    interruptibleSupport.addInterruptedTask(task);
   }
 
   /**
@@ -92,10 +81,7 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
    */
   @Override
   public void removeInterruptedTask(Runnable task) {
-    if (task == null) {
-      return;
-    }
-    interruptedTasks.remove(task);
+    interruptibleSupport.removeInterruptedTask(task);
   }
 
   /**
@@ -103,21 +89,16 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
    */
   @Override
   public void pause(boolean pause) {
-    synchronized (this) {
-      this.pause = pause;
-      if (!pause) {
-        notifyAll();
-      }
-    }
+    interruptibleSupport.pause(pause);
   }
 
-  public int remaining() {
+  public long remaining() {
     return sizeAvailable;
   }
 
   @Override
   public int read() throws IOException {
-    check();
+    interruptibleSupport.checkPeriodically();
 
     if (sizeAvailable <= 0 && sizeAvailable != -1) {
       return -1;
@@ -143,7 +124,7 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
       return -1;
     }
 
-    int lengthToRead = sizeAvailable != -1 && len > sizeAvailable ? sizeAvailable : len;
+    int lengthToRead = sizeAvailable != -1 && len > sizeAvailable ? (int) sizeAvailable : len;
     int result = in.read(b, off, lengthToRead);
     if (sizeAvailable != -1 && result != -1) {
 //            sizeAvailable = Math.max(0, sizeAvailable - result);
@@ -181,7 +162,7 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
 
     int result = in.available();
     if (sizeAvailable != -1 && result > sizeAvailable) {
-      result = sizeAvailable;
+      result = (int) sizeAvailable;
     }
     return result;
   }
@@ -213,22 +194,6 @@ public class InterruptibleInputStream extends FilterInputStream implements Pausa
    * Check if paused or interrupted.
    */
   protected void check() {
-    synchronized (this) {
-      while (pause) {
-        try {
-          wait();
-        } catch (InterruptedException ex) {
-          Thread.currentThread().interrupt();
-        }
-      }
-    }
-    if (Thread.interrupted()) {
-      synchronized (interruptedTasks) {
-        for (Runnable task : interruptedTasks) {
-          task.run();
-        }
-      }
-      throw new RuntimeException(new InterruptedException());
-    }
+    interruptibleSupport.check();
   }
 }
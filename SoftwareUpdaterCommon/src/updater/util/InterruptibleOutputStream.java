@@ -23,9 +23,6 @@ package updater.util;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * Interruptible output stream.
@@ -34,13 +31,9 @@ import java.util.List;
 public class InterruptibleOutputStream extends FilterOutputStream implements Pausable, Interruptible {
 
   /**
-   * List of tasks to be executed after interrupted.
+   * The pause and interrupt state.
    */
-  protected final List<Runnable> interruptedTasks;
-  /**
-   * Indicate currently is paused or not.
-   */
-  protected boolean pause;
+  protected final InterruptibleSupport interruptibleSupport;
 
   /**
    * Constructor.
@@ -53,8 +46,7 @@ public class InterruptibleOutputStream extends FilterOutputStream implements Pau
       throw new NullPointerException("argument 'out' cannot be null");
     }
 
-    interruptedTasks = Collections.synchronizedList(new ArrayList<Runnable>());
-    pause = false;
+    interruptibleSupport = new InterruptibleSupport();
   }
 
   /**
@@ -62,10 +54,7 @@ public class InterruptibleOutputStream extends FilterOutputStream implements Pau
    */
   @Override
   public void addInterruptedTask(Runnable task) {
-    if (task == null) {
-      return;
-    }
-    interruptedTasks.add(task);
+    interruptibleSupport.addInterruptedTask(task);
   }
 
   /**
@@ -73,10 +62,7 @@ public class InterruptibleOutputStream extends FilterOutputStream implements Pau
    */
   @Override
   public void removeInterruptedTask(Runnable task) {
-    if (task == null) {
-      return;
-    }
-    interruptedTasks.remove(task);
+    interruptibleSupport.removeInterruptedTask(task);
   }
 
   /**
@@ -84,17 +70,12 @@ public class InterruptibleOutputStream extends FilterOutputStream implements Pau
    */
   @Override
   public void pause(boolean pause) {
-    synchronized (this) {
-      this.pause = pause;
-      if (!pause) {
-        notifyAll();
-      }
-    }
+    interruptibleSupport.pause(pause);
   }
 
   @Override
   public void write(int b) throws IOException {
-    check();
+    interruptibleSupport.checkPeriodically();
     out.write(b);
   }
 
@@ -126,22 +107,6 @@ public class InterruptibleOutputStream extends FilterOutputStream implements Pau
    * Check if paused or interrupted.
    */
   protected void check() {
-    synchronized (this) {
-      while (pause) {
-        try {
-          wait();
-        } catch (InterruptedException ex) {
-          Thread.currentThread().interrupt();
-        }
-      }
-    }
-    if (Thread.interrupted()) {
-      synchronized (interruptedTasks) {
-        for (Runnable task : interruptedTasks) {
-          task.run();
-        }
-      }
-      throw new RuntimeException(new InterruptedException());
-    }
+    interruptibleSupport.check();
   }
 }
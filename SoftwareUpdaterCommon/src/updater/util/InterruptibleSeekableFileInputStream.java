@@ -0,0 +1,102 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.tukaani.xz.SeekableFileInputStream;
+
+/**
+ * Extend the {@link org.tukaani.xz.SeekableFileInputStream} to support pause 
+ * and thread interrupt.
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class InterruptibleSeekableFileInputStream extends SeekableFileInputStream implements Pausable, Interruptible {
+
+  /**
+   * The pause and interrupt state.
+   */
+  protected final InterruptibleSupport interruptibleSupport;
+
+  /**
+   * Constructor.
+   * @param file the file for random seek
+   */
+  public InterruptibleSeekableFileInputStream(RandomAccessFile file) {
+    super(file);
+    interruptibleSupport = new InterruptibleSupport();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void addInterruptedTask(Runnable task) {
+    interruptibleSupport.addInterruptedTask(task);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void removeInterruptedTask(Runnable task) {
+    interruptibleSupport.removeInterruptedTask(task);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void pause(boolean pause) {
+    interruptibleSupport.pause(pause);
+  }
+
+  @Override
+  public int read() throws IOException {
+    interruptibleSupport.checkPeriodically();
+    return super.read();
+  }
+
+  @Override
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    check();
+    return super.read(b, off, len);
+  }
+
+  @Override
+  public void seek(long pos) throws IOException {
+    check();
+    super.seek(pos);
+  }
+
+  /**
+   * Check if paused or interrupted.
+   */
+  protected void check() {
+    interruptibleSupport.check();
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The pause and interrupt state shared by the {@link Pausable} and 
+ * {@link Interruptible} implementations.
+ * <p>The pause state is kept in a volatile state word, so checking it when 
+ * not paused is a single volatile read without locking. Bulk operations 
+ * should call {@link #check()} once per call, and operations on single 
+ * bytes should call {@link #checkPeriodically()} which check the interrupt 
+ * status only once per {@link #CHECK_INTERVAL} calls.</p>
+ * <p>When the thread is found interrupted, the interrupted tasks are 
+ * executed and a {@code RuntimeException} caused by an 
+ * {@link InterruptedException} is thrown.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class InterruptibleSupport implements Pausable, Interruptible {
+
+  /**
+   * The number of {@link #checkPeriodically()} calls between two checks of 
+   * the interrupt status.
+   */
+  public static final int CHECK_INTERVAL = 4096;
+  /**
+   * The bit of {@link #state} indicating paused.
+   */
+  protected static final int PAUSED = 1;
+  /**
+   * List of tasks to be executed after interrupted.
+   */
+  protected final List<Runnable> interruptedTasks;
+  /**
+   * The state word, 0 means running.
+   */
+  protected volatile int state;
+  /**
+   * The number of {@link #checkPeriodically()} calls remaining before the 
+   * next full check. Used by the reading/writing thread only.
+   */
+  protected int countdown;
+
+  /**
+   * Constructor.
+   */
+  public InterruptibleSupport() {
+    interruptedTasks = Collections.synchronizedList(new ArrayList<Runnable>());
+    state = 0;
+    countdown = CHECK_INTERVAL;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void addInterruptedTask(Runnable task) {
+    if (task == null) {
+      return;
+    }
+    interruptedTasks.add(task);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void removeInterruptedTask(Runnable task) {
+    if (task == null) {
+      return;
+    }
+    interruptedTasks.remove(task);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void pause(boolean pause) {
+    synchronized (this) {
+      if (pause) {
+        state |= PAUSED;
+      } else {
+        state &= ~PAUSED;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Check if paused or interrupted. Block until resumed if paused.
+   */
+  public void check() {
+    countdown = CHECK_INTERVAL;
+    if (state != 0) {
+      waitForResume();
+    }
+    if (Thread.interrupted()) {
+      synchronized (interruptedTasks) {
+        for (Runnable task : interruptedTasks) {
+          task.run();
+        }
+      }
+      throw new RuntimeException(new InterruptedException());
+    }
+  }
+
+  /**
+   * Check if paused, and check if interrupted once per 
+   * {@link #CHECK_INTERVAL} calls. Block until resumed if paused.
+   */
+  public void checkPeriodically() {
+    if (--countdown <= 0 || state != 0) {
+      check();
+    }
+  }
+
+  /**
+   * Block until resumed.
+   */
+  protected void waitForResume() {
+    synchronized (this) {
+      while ((state & PAUSED) != 0) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,274 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.tukaani.xz.FinishableOutputStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+/**
+ * XZ output stream that compress on multiple threads.
+ * <p>The data written is split into blocks of {@code blockSize} bytes, every 
+ * block is compressed into an independent XZ stream on a thread pool and the 
+ * streams are written to the underlying output stream in order. Concatenated 
+ * XZ streams are valid according to the XZ file format specification, so the 
+ * output can be read by {@link org.tukaani.xz.XZInputStream} and 
+ * {@link org.tukaani.xz.SeekableXZInputStream}.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class ParallelXZOutputStream extends FinishableOutputStream {
+
+  /**
+   * The default block size, 3 times of the default dictionary size.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 3 * LZMA2Options.DICT_SIZE_DEFAULT;
+  /**
+   * The output stream to output to.
+   */
+  protected final OutputStream out;
+  /**
+   * The compression options.
+   */
+  protected final LZMA2Options options;
+  /**
+   * The thread pool to compress the blocks.
+   */
+  protected final ExecutorService executor;
+  /**
+   * The maximum number of compressed blocks that are not yet written to 
+   * {@link #out}.
+   */
+  protected final int maxPendingBlocks;
+  /**
+   * The compressed blocks that are not yet written to {@link #out}, in the 
+   * output order.
+   */
+  protected final LinkedList<Future<byte[]>> pendingBlocks;
+  /**
+   * The buffer of the current block.
+   */
+  protected byte[] buf;
+  /**
+   * The number of bytes in {@link #buf}.
+   */
+  protected int count;
+  /**
+   * The size of each block.
+   */
+  protected final int blockSize;
+  /**
+   * Indicate any stream is written to {@link #out} or not.
+   */
+  protected boolean streamWritten;
+  /**
+   * Indicate {@link #finish()} is called or not.
+   */
+  protected boolean finished;
+
+  /**
+   * Constructor.
+   * @param out the output stream to output to
+   * @param options the compression options
+   * @param blockSize the size of each block, 0 or less means use 
+   * {@link #DEFAULT_BLOCK_SIZE}
+   * @param threadCount the number of threads used to compress, should be at 
+   * least 1
+   */
+  public ParallelXZOutputStream(OutputStream out, LZMA2Options options, int blockSize, int threadCount) {
+    if (out == null) {
+      throw new NullPointerException("argument 'out' cannot be null");
+    }
+    if (options == null) {
+      throw new NullPointerException("argument 'options' cannot be null");
+    }
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("argument 'threadCount' should >= 1");
+    }
+
+    this.out = out;
+    this.options = (LZMA2Options) options.clone();
+    this.blockSize = blockSize <= 0 ? DEFAULT_BLOCK_SIZE : blockSize;
+    executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+
+      private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        // not to prevent the JVM from exiting if the stream is not finished
+        Thread thread = threadFactory.newThread(r);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    maxPendingBlocks = threadCount * 2;
+    pendingBlocks = new LinkedList<Future<byte[]>>();
+    buf = new byte[this.blockSize];
+    count = 0;
+    streamWritten = false;
+    finished = false;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (finished) {
+      throw new IOException("Stream finished.");
+    }
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    while (len > 0) {
+      int lengthToCopy = Math.min(len, buf.length - count);
+      System.arraycopy(b, off, buf, count, lengthToCopy);
+      count += lengthToCopy;
+      off += lengthToCopy;
+      len -= lengthToCopy;
+
+      if (count == buf.length) {
+        endBlock();
+      }
+    }
+  }
+
+  /**
+   * Compress the data written so far into its own XZ stream, so the next 
+   * data written start at a new block. Do nothing if no data is written 
+   * since the last block ended.
+   * @throws IOException error occurred when outputing the compressed blocks
+   */
+  public void endBlock() throws IOException {
+    if (finished) {
+      throw new IOException("Stream finished.");
+    }
+    if (count == 0) {
+      return;
+    }
+
+    final byte[] block = buf;
+    final int blockLength = count;
+    pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+
+      @Override
+      public byte[] call() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(blockLength / 2 + 64);
+        XZOutputStream xzOut = new XZOutputStream(compressed, options);
+        xzOut.write(block, 0, blockLength);
+        xzOut.finish();
+        return compressed.toByteArray();
+      }
+    }));
+    streamWritten = true;
+
+    buf = new byte[blockSize];
+    count = 0;
+
+    // write the blocks that are done, and wait if too many blocks pending
+    while (!pendingBlocks.isEmpty() && (pendingBlocks.size() > maxPendingBlocks || pendingBlocks.getFirst().isDone())) {
+      writePendingBlock();
+    }
+  }
+
+  /**
+   * Wait for the first pending block to be compressed and write it to 
+   * {@link #out}.
+   * @throws IOException error occurred when compressing or outputing
+   */
+  protected void writePendingBlock() throws IOException {
+    try {
+      out.write(pendingBlocks.removeFirst().get());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted when compressing.");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException(ex.getCause());
+    }
+  }
+
+  /**
+   * Wait for the written blocks to be compressed and write them to 
+   * {@link #out}. Note that this end the current block.
+   * @throws IOException error occurred when compressing or outputing
+   */
+  @Override
+  public void flush() throws IOException {
+    if (!finished) {
+      endBlock();
+      while (!pendingBlocks.isEmpty()) {
+        writePendingBlock();
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Finish the compression without closing the underlying output stream.
+   * @throws IOException error occurred when compressing or outputing
+   */
+  @Override
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+
+    try {
+      endBlock();
+      while (!pendingBlocks.isEmpty()) {
+        writePendingBlock();
+      }
+      if (!streamWritten) {
+        // an empty XZ stream, the output must contain at least one stream
+        new XZOutputStream(out, options).finish();
+      }
+    } finally {
+      finished = true;
+      executor.shutdownNow();
+      buf = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+}
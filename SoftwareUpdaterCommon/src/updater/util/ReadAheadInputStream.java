@@ -0,0 +1,366 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that read ahead the underlying stream on a background thread.
+ * <p>The background thread fill a bounded ring of reusable buffers from the 
+ * underlying stream, so the CPU-bound work of the underlying stream (e.g. 
+ * decompression) overlap with the work of the reader (e.g. writing files). 
+ * The memory used is bounded by {@code bufferCount * bufferSize}.</p>
+ * <p>If a limit is specified, no more than that number of bytes is read from 
+ * the underlying stream, and the underlying stream can be used again after 
+ * {@link #detach()}.</p>
+ * <p>This stream should be read by one thread only.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  /**
+   * The default number of buffers in the ring.
+   */
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+  /**
+   * The default size of each buffer.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 65536;
+  /**
+   * The underlying input stream.
+   */
+  protected final InputStream in;
+  /**
+   * The maximum number of bytes to read from {@link #in}, -1 means not 
+   * limited.
+   */
+  protected final long limit;
+  /**
+   * The ring of buffers.
+   */
+  protected final byte[][] buffers;
+  /**
+   * The number of bytes filled in each buffer.
+   */
+  protected final int[] bufferLengths;
+  /**
+   * The lock guarding the state shared with the background thread.
+   */
+  protected final Object lock;
+  /**
+   * The index of the buffer being read.
+   */
+  protected int readIndex;
+  /**
+   * The position in the buffer being read.
+   */
+  protected int readPosition;
+  /**
+   * The number of buffers filled and not yet read completely.
+   */
+  protected int filledCount;
+  /**
+   * Indicate the background thread reached the end of {@link #in} or the 
+   * limit.
+   */
+  protected boolean ended;
+  /**
+   * The exception thrown when reading {@link #in}, null if none.
+   */
+  protected IOException failure;
+  /**
+   * Indicate this stream is detached or closed.
+   */
+  protected boolean stopped;
+  /**
+   * The background thread that fill the buffers.
+   */
+  protected final Thread thread;
+
+  /**
+   * Constructor. The length is not limited and the default buffers are used.
+   * @param in the underlying input stream
+   */
+  public ReadAheadInputStream(InputStream in) {
+    this(in, -1);
+  }
+
+  /**
+   * Constructor. The default buffers are used.
+   * @param in the underlying input stream
+   * @param limit the maximum number of bytes to read from {@code in}, -1 
+   * means not limited
+   */
+  public ReadAheadInputStream(InputStream in, long limit) {
+    this(in, limit, DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor.
+   * @param in the underlying input stream
+   * @param limit the maximum number of bytes to read from {@code in}, -1 
+   * means not limited
+   * @param bufferCount the number of buffers in the ring, should be at least 
+   * 2
+   * @param bufferSize the size of each buffer, should be at least 1
+   */
+  public ReadAheadInputStream(InputStream in, long limit, int bufferCount, int bufferSize) {
+    if (in == null) {
+      throw new NullPointerException("argument 'in' cannot be null");
+    }
+    if (bufferCount < 2) {
+      throw new IllegalArgumentException("argument 'bufferCount' should >= 2");
+    }
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("argument 'bufferSize' should >= 1");
+    }
+
+    this.in = in;
+    this.limit = limit;
+    buffers = new byte[bufferCount][bufferSize];
+    bufferLengths = new int[bufferCount];
+    lock = new Object();
+    readIndex = 0;
+    readPosition = 0;
+    filledCount = 0;
+    ended = false;
+    failure = null;
+    stopped = false;
+
+    thread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        fill();
+      }
+    }, "ReadAheadInputStream");
+    // not to prevent the JVM from exiting if the stream is not closed
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Fill the buffers from {@link #in} until the end of stream, the limit is 
+   * reached or this stream is stopped. Run on the background thread.
+   */
+  protected void fill() {
+    int writeIndex = 0;
+    long remaining = limit;
+    try {
+      while (true) {
+        synchronized (lock) {
+          while (filledCount == buffers.length && !stopped) {
+            lock.wait();
+          }
+          if (stopped) {
+            return;
+          }
+        }
+
+        // the buffer is not touched by the reader until it is counted in filledCount
+        byte[] buffer = buffers[writeIndex];
+        int lengthToRead = remaining == -1 ? buffer.length : (int) Math.min(buffer.length, remaining);
+        int length = 0;
+        IOException readFailure = null;
+        try {
+          while (length < lengthToRead) {
+            int byteRead = in.read(buffer, length, lengthToRead - length);
+            if (byteRead == -1) {
+              break;
+            }
+            length += byteRead;
+          }
+        } catch (IOException ex) {
+          // the data read before the failure is still delivered to the reader
+          readFailure = ex;
+        }
+        if (remaining != -1) {
+          remaining -= length;
+        }
+
+        synchronized (lock) {
+          if (length > 0) {
+            bufferLengths[writeIndex] = length;
+            filledCount++;
+            writeIndex = (writeIndex + 1) % buffers.length;
+          }
+          if (readFailure != null) {
+            // visible to the reader together with the end of stream
+            failure = readFailure;
+          }
+          if (readFailure != null || length < lengthToRead || remaining == 0) {
+            ended = true;
+          }
+          lock.notifyAll();
+          if (ended) {
+            return;
+          }
+        }
+      }
+    } catch (RuntimeException ex) {
+      synchronized (lock) {
+        failure = new IOException(ex);
+      }
+    } catch (InterruptedException ex) {
+      synchronized (lock) {
+        failure = new IOException("Interrupted when reading ahead.");
+      }
+    } finally {
+      // the reader should never wait forever
+      synchronized (lock) {
+        ended = true;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Wait until there is data to read.
+   * @return true if there is data to read, false if the end of stream is 
+   * reached
+   * @throws IOException the stream is stopped, error occurred when reading 
+   * the underlying stream or interrupted
+   */
+  protected boolean waitForData() throws IOException {
+    synchronized (lock) {
+      while (filledCount == 0 && !ended && !stopped) {
+        try {
+          lock.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted when reading ahead.");
+        }
+      }
+      if (stopped) {
+        throw new IOException("Stream closed.");
+      }
+      if (filledCount == 0) {
+        if (failure != null) {
+          throw failure;
+        }
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Consume bytes from the buffer being read.
+   * @param b the buffer to copy the bytes to, null means skip the bytes
+   * @param off the start offset in {@code b}
+   * @param len the maximum number of bytes to consume
+   * @return the number of bytes consumed, -1 if the end of stream is reached
+   * @throws IOException error occurred when reading the underlying stream
+   */
+  protected int consume(byte[] b, int off, int len) throws IOException {
+    if (!waitForData()) {
+      return -1;
+    }
+
+    int length = Math.min(len, bufferLengths[readIndex] - readPosition);
+    if (b != null) {
+      System.arraycopy(buffers[readIndex], readPosition, b, off, length);
+    }
+    readPosition += length;
+    if (readPosition == bufferLengths[readIndex]) {
+      // return the buffer to the background thread
+      synchronized (lock) {
+        readPosition = 0;
+        readIndex = (readIndex + 1) % buffers.length;
+        filledCount--;
+        lock.notifyAll();
+      }
+    }
+
+    return length;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return consume(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    return consume(b, off, len);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    while (skipped < n) {
+      int length = consume(null, 0, (int) Math.min(n - skipped, Integer.MAX_VALUE));
+      if (length == -1) {
+        break;
+      }
+      skipped += length;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    synchronized (lock) {
+      return filledCount == 0 ? 0 : bufferLengths[readIndex] - readPosition;
+    }
+  }
+
+  /**
+   * Stop reading ahead and wait for the background thread to finish, the 
+   * underlying stream is not closed. Data read ahead but not yet read is 
+   * discarded, so the position of the underlying stream is undefined unless 
+   * this stream is read to the end.
+   */
+  public void detach() {
+    synchronized (lock) {
+      stopped = true;
+      lock.notifyAll();
+    }
+
+    // the underlying stream should not be used by others until the background thread finished
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    detach();
+    in.close();
+  }
+}
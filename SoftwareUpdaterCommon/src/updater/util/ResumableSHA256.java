@@ -0,0 +1,270 @@
+// Copyright (c) 2012 Chan Wai Shing
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package updater.util;
+
+/**
+ * SHA-256 message digest whose intermediate state can be saved and restored.
+ * <p>{@link java.security.MessageDigest} cannot export its state, so a 
+ * partially downloaded file has to be digested again from the beginning 
+ * every time the download is resumed. The state of this digest can be 
+ * saved whenever the number of bytes digested is a multiple of the block 
+ * size (64 bytes), and be restored later to continue digesting.</p>
+ * <p>This class is not thread-safe.</p>
+ * 
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class ResumableSHA256 {
+
+  /**
+   * The block size of SHA-256 in bytes.
+   */
+  public static final int BLOCK_SIZE = 64;
+  private static final int[] INITIAL_STATE = {
+    0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+  };
+  private static final int[] K = {
+    0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+    0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+    0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+    0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+    0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+    0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+    0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+    0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+  };
+  /**
+   * The hash state.
+   */
+  protected final int[] state;
+  /**
+   * The bytes not yet compressed, less than one block.
+   */
+  protected final byte[] buffer;
+  /**
+   * The number of bytes in {@link #buffer}.
+   */
+  protected int bufferLength;
+  /**
+   * The total number of bytes digested.
+   */
+  protected long length;
+  /**
+   * The message schedule, kept to avoid allocation for every block.
+   */
+  private final int[] w;
+
+  /**
+   * Constructor.
+   */
+  public ResumableSHA256() {
+    state = new int[8];
+    buffer = new byte[BLOCK_SIZE];
+    w = new int[64];
+    reset();
+  }
+
+  /**
+   * Constructor that copy the state of {@code digest}.
+   * @param digest the digest to copy from
+   */
+  public ResumableSHA256(ResumableSHA256 digest) {
+    this();
+    if (digest == null) {
+      throw new NullPointerException("argument 'digest' cannot be null");
+    }
+    System.arraycopy(digest.state, 0, state, 0, state.length);
+    System.arraycopy(digest.buffer, 0, buffer, 0, digest.bufferLength);
+    bufferLength = digest.bufferLength;
+    length = digest.length;
+  }
+
+  /**
+   * Restore the digest from the state got from {@link #getState()}.
+   * @param length the total number of bytes digested when the state is got
+   * @param state the state
+   * @return the digest
+   * @throws IllegalArgumentException {@code length} is not a multiple of 
+   * {@link #BLOCK_SIZE} or {@code state} is invalid
+   */
+  public static ResumableSHA256 fromState(long length, String state) {
+    if (state == null) {
+      throw new NullPointerException("argument 'state' cannot be null");
+    }
+    if (length < 0 || length % BLOCK_SIZE != 0) {
+      throw new IllegalArgumentException("argument 'length' should be a multiple of " + BLOCK_SIZE);
+    }
+    if (!state.matches("^[0-9a-f]{64}$")) {
+      throw new IllegalArgumentException("state format invalid, expected: ^[0-9a-f]{64}$, state: " + state);
+    }
+
+    ResumableSHA256 digest = new ResumableSHA256();
+    for (int i = 0; i < 8; i++) {
+      digest.state[i] = (int) Long.parseLong(state.substring(i * 8, i * 8 + 8), 16);
+    }
+    digest.length = length;
+    return digest;
+  }
+
+  /**
+   * Reset the digest to initial state.
+   */
+  public final void reset() {
+    System.arraycopy(INITIAL_STATE, 0, state, 0, state.length);
+    bufferLength = 0;
+    length = 0;
+  }
+
+  /**
+   * Get the total number of bytes digested.
+   * @return the number of bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Update the digest using the specified array of bytes.
+   * @param b the array of bytes
+   * @param off the offset to start from in the array of bytes
+   * @param len the number of bytes to use, starting at {@code off}
+   */
+  public void update(byte[] b, int off, int len) {
+    if (b == null) {
+      throw new NullPointerException("argument 'b' cannot be null");
+    }
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    length += len;
+
+    if (bufferLength > 0) {
+      int lengthToCopy = Math.min(len, BLOCK_SIZE - bufferLength);
+      System.arraycopy(b, off, buffer, bufferLength, lengthToCopy);
+      bufferLength += lengthToCopy;
+      off += lengthToCopy;
+      len -= lengthToCopy;
+      if (bufferLength < BLOCK_SIZE) {
+        return;
+      }
+      compress(buffer, 0);
+      bufferLength = 0;
+    }
+    while (len >= BLOCK_SIZE) {
+      compress(b, off);
+      off += BLOCK_SIZE;
+      len -= BLOCK_SIZE;
+    }
+    if (len > 0) {
+      System.arraycopy(b, off, buffer, 0, len);
+      bufferLength = len;
+    }
+  }
+
+  /**
+   * Complete the hash computation. The state of this digest is not changed, 
+   * so it can continue to be updated after this.
+   * @return the SHA-256 digest, 32 bytes
+   */
+  public byte[] digest() {
+    ResumableSHA256 finalDigest = new ResumableSHA256(this);
+
+    byte[] padding = new byte[BLOCK_SIZE * 2];
+    padding[0] = (byte) 0x80;
+    int paddingLength = (bufferLength < 56 ? 56 : 120) - bufferLength;
+    long bitLength = length << 3;
+    for (int i = 0; i < 8; i++) {
+      padding[paddingLength + i] = (byte) (bitLength >>> (56 - i * 8));
+    }
+    finalDigest.update(padding, 0, paddingLength + 8);
+
+    byte[] result = new byte[32];
+    for (int i = 0; i < 8; i++) {
+      result[i * 4] = (byte) (finalDigest.state[i] >>> 24);
+      result[i * 4 + 1] = (byte) (finalDigest.state[i] >>> 16);
+      result[i * 4 + 2] = (byte) (finalDigest.state[i] >>> 8);
+      result[i * 4 + 3] = (byte) finalDigest.state[i];
+    }
+    return result;
+  }
+
+  /**
+   * Get the intermediate state of the digest, it can be restored by 
+   * {@link #fromState(long, java.lang.String)} together with 
+   * {@link #getLength()}.
+   * @return the state in hex string
+   * @throws IllegalStateException the number of bytes digested is not a 
+   * multiple of {@link #BLOCK_SIZE}
+   */
+  public String getState() {
+    if (bufferLength != 0) {
+      throw new IllegalStateException("The state can only be got when the number of bytes digested is a multiple of " + BLOCK_SIZE);
+    }
+
+    StringBuilder sb = new StringBuilder(64);
+    for (int i = 0; i < 8; i++) {
+      String hex = Integer.toHexString(state[i]);
+      for (int j = hex.length(); j < 8; j++) {
+        sb.append('0');
+      }
+      sb.append(hex);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Process one block.
+   * @param b the array of bytes
+   * @param off the offset of the block in the array of bytes
+   */
+  protected void compress(byte[] b, int off) {
+    for (int i = 0; i < 16; i++) {
+      w[i] = (b[off + i * 4] << 24) | ((b[off + i * 4 + 1] & 0xff) << 16) | ((b[off + i * 4 + 2] & 0xff) << 8) | (b[off + i * 4 + 3] & 0xff);
+    }
+    for (int i = 16; i < 64; i++) {
+      int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+      int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+      w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+    }
+
+    int a = state[0], b1 = state[1], c = state[2], d = state[3], e = state[4], f = state[5], g = state[6], h = state[7];
+    for (int i = 0; i < 64; i++) {
+      int t1 = h + (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25)) + ((e & f) ^ (~e & g)) + K[i] + w[i];
+      int t2 = (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22)) + ((a & b1) ^ (a & c) ^ (b1 & c));
+      h = g;
+      g = f;
+      f = e;
+      e = d + t1;
+      d = c;
+      c = b1;
+      b1 = a;
+      a = t1 + t2;
+    }
+    state[0] += a;
+    state[1] += b1;
+    state[2] += c;
+    state[3] += d;
+    state[4] += e;
+    state[5] += f;
+    state[6] += g;
+    state[7] += h;
+  }
+}
@@ -24,9 +24,6 @@ import com.nothome.delta.RandomAccessFileSeekableSource;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * Extend the {@link com.nothome.delta.RandomAccessFileSeekableSource} to 
@@ -37,13 +34,9 @@ import java.util.List;
 public class SeekableFile extends RandomAccessFileSeekableSource implements Pausable, Interruptible {
 
   /**
-   * List of tasks to be executed after interrupted.
+   * The pause and interrupt state.
    */
-  protected final List<Runnable> interruptedTasks;
-  /**
-   * Indicate currently is paused or not.
-   */
-  protected boolean pause;
+  protected final InterruptibleSupport interruptibleSupport;
 
   /**
    * Constructor.
@@ -51,8 +44,7 @@ public class SeekableFile extends RandomAccessFileSeekableSource implements Paus
    */
   public SeekableFile(RandomAccessFile file) {
     super(file);
-    interruptedTasks = Collections.synchronizedList(new ArrayList<Runnable>());
-    pause = false;
+    interruptibleSupport = new InterruptibleSupport();
   }
 
   /**
@@ -60,10 +52,7 @@ public class SeekableFile extends RandomAccessFileSeekableSource implements Paus
    */
   @Override
   public void addInterruptedTask(Runnable task) {
-    if (task == null) {
-      return;
-    }
-    interruptedTasks.add(task);
+    interruptibleSupport.addInterruptedTask(task);
   }
 
   /**
@@ -71,10 +60,7 @@ public class SeekableFile extends RandomAccessFileSeekableSource implements Paus
    */
   @Override
   public void removeInterruptedTask(Runnable task) {
-    if (task == null) {
-      return;
-    }
-    interruptedTasks.remove(task);
+    interruptibleSupport.removeInterruptedTask(task);
   }
 
   /**
@@ -82,12 +68,7 @@ public class SeekableFile extends RandomAccessFileSeekableSource implements Paus
    */
   @Override
   public void pause(boolean pause) {
-    synchronized (this) {
-      this.pause = pause;
-      if (!pause) {
-        notifyAll();
-      }
-    }
+    interruptibleSupport.pause(pause);
   }
 
   @Override
@@ -111,22 +92,6 @@ public class SeekableFile extends RandomAccessFileSeekableSource implements Paus
    * Check if paused or interrupted.
    */
   protected void check() {
-    synchronized (this) {
-      while (pause) {
-        try {
-          wait();
-        } catch (InterruptedException ex) {
-          Thread.currentThread().interrupt();
-        }
-      }
-    }
-    if (Thread.interrupted()) {
-      synchronized (interruptedTasks) {
-        for (Runnable task : interruptedTasks) {
-          task.run();
-        }
-      }
-      throw new RuntimeException(new InterruptedException());
-    }
+    interruptibleSupport.check();
   }
 }
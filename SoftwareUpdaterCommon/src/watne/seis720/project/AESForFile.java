@@ -24,9 +24,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import updater.util.InterruptibleSupport;
 
 /**
  * Changes: add progress notification to encryptFile and decryptFile
@@ -36,13 +34,11 @@ import java.util.List;
 public class AESForFile extends WatneAES_Implementer {
 
     protected AESForFileListener listener;
-    protected final List<Runnable> interruptedTasks;
-    protected boolean pause;
+    protected final InterruptibleSupport interruptibleSupport;
 
     public AESForFile() {
         super();
-        interruptedTasks = Collections.synchronizedList(new ArrayList<Runnable>());
-        pause = false;
+        interruptibleSupport = new InterruptibleSupport();
     }
 
     public void setListener(AESForFileListener listener) {
@@ -270,39 +266,18 @@ public class AESForFile extends WatneAES_Implementer {
     }
 
     public void addInterruptedTask(Runnable task) {
-        interruptedTasks.add(task);
+        interruptibleSupport.addInterruptedTask(task);
     }
 
     public void removeInterruptedTask(Runnable task) {
-        interruptedTasks.remove(task);
+        interruptibleSupport.removeInterruptedTask(task);
     }
 
     public void pause(boolean pause) {
-        synchronized (this) {
-            this.pause = pause;
-            if (!pause) {
-                notifyAll();
-            }
-        }
+        interruptibleSupport.pause(pause);
     }
 
     protected void check() {
-        synchronized (this) {
-            while (pause) {
-                try {
-                    wait();
-                } catch (InterruptedException ex) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        }
-        if (Thread.interrupted()) {
-            synchronized (interruptedTasks) {
-                for (Runnable task : interruptedTasks) {
-                    task.run();
-                }
-            }
-            throw new RuntimeException(new InterruptedException());
-        }
+        interruptibleSupport.check();
     }
 }
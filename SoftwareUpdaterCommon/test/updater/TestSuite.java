@@ -9,15 +9,23 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
     updater.concurrent.LockUtilTest.class,
+    updater.crypto.AESForFileCipherBackendTest.class,
     updater.crypto.AESKeyTest.class,
     updater.crypto.KeyGeneratorTest.class,
     updater.crypto.RSAKeyTest.class,
+    updater.patch.MappedGDiffPatcherTest.class,
     updater.patch.PatchLogTest.class,
     updater.patch.PatchTest.class,
     updater.script.ScriptTest.class,
+    updater.util.BandwidthLimiterTest.class,
     updater.util.CommonUtilTest.class,
     updater.util.DownloadProgressUtilTest.class,
-    updater.util.HTTPDownloaderTest.class
+    updater.util.FileHashCacheTest.class,
+    updater.util.HTTPDownloaderTest.class,
+    updater.util.HTTPSessionTest.class,
+    updater.util.InterruptibleInputStreamTest.class,
+    updater.util.ReadAheadInputStreamTest.class,
+    updater.util.ResumableSHA256Test.class
 })
 public class TestSuite {
 }
@@ -0,0 +1,155 @@
+package updater.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableInputStream;
+import updater.util.CommonUtil;
+import watne.seis720.project.AESForFile;
+import watne.seis720.project.KeySize;
+import watne.seis720.project.Mode;
+import watne.seis720.project.Padding;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class AESForFileCipherBackendTest {
+
+    public AESForFileCipherBackendTest() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test the compatibility with {@link AESForFile}, which is used to encrypt
+     * and decrypt the patches before.
+     */
+    @Test
+    public void testLegacyCompatibility() throws Exception {
+        System.out.println("+++++ testLegacyCompatibility +++++");
+
+        Random random = new Random(1);
+        AESKey aesKey = new AESKey(KeyGenerator.generateRandom(32), KeyGenerator.generateRandom(16));
+        CipherBackend cipherBackend = new AESForFileCipherBackend();
+
+        File plainFile = File.createTempFile("AESForFileCipherBackendTest", ".plain");
+        File legacyEncryptedFile = File.createTempFile("AESForFileCipherBackendTest", ".encrypted");
+        File legacyDecryptedFile = File.createTempFile("AESForFileCipherBackendTest", ".decrypted");
+        File encryptedFile = File.createTempFile("AESForFileCipherBackendTest", ".encrypted");
+        try {
+            int[] lengths = new int[]{0, 1, 15, 16, 17, 32, 1000, 100000};
+            for (int length : lengths) {
+                System.out.println("+ length: " + length);
+
+                byte[] plain = new byte[length];
+                random.nextBytes(plain);
+                CommonUtil.writeFile(plainFile, plain);
+
+                // encrypted by the legacy cipher
+                getLegacyCipher(aesKey).encryptFile(plainFile, legacyEncryptedFile);
+                byte[] legacyEncrypted = CommonUtil.readFile(legacyEncryptedFile);
+
+                // encrypted by the backend
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                OutputStream out = cipherBackend.getEncryptOutputStream(aesKey, bout);
+                out.write(plain);
+                out.close();
+                byte[] encrypted = bout.toByteArray();
+                assertArrayEquals("! encrypted content not identical to legacy cipher, length: " + length, legacyEncrypted, encrypted);
+
+                // decrypt the legacy encrypted content by the backend
+                assertArrayEquals("! failed to decrypt the legacy encrypted content, length: " + length, plain, readFully(cipherBackend.getDecryptInputStream(aesKey, new ByteArrayInputStream(legacyEncrypted))));
+
+                // decrypt the backend encrypted content by the legacy cipher
+                CommonUtil.writeFile(encryptedFile, encrypted);
+                getLegacyCipher(aesKey).decryptFile(encryptedFile, legacyDecryptedFile);
+                assertArrayEquals("! legacy cipher failed to decrypt the content, length: " + length, plain, CommonUtil.readFile(legacyDecryptedFile));
+
+                // random access on the legacy encrypted content
+                SeekableInputStream seekableIn = cipherBackend.getDecryptSeekableInputStream(aesKey, new SeekableFileInputStream(legacyEncryptedFile));
+                try {
+                    assertEquals(length, seekableIn.length());
+                    for (int i = 0; i < 20 && length > 0; i++) {
+                        int position = random.nextInt(length);
+                        int readLength = Math.min(length - position, random.nextInt(100) + 1);
+                        byte[] b = new byte[readLength];
+                        seekableIn.seek(position);
+                        int offset = 0;
+                        while (offset < readLength) {
+                            int byteRead = seekableIn.read(b, offset, readLength - offset);
+                            assertTrue(byteRead > 0);
+                            offset += byteRead;
+                        }
+                        assertArrayEquals("! seekable stream content incorrect, position: " + position, Arrays.copyOfRange(plain, position, position + readLength), b);
+                    }
+                    seekableIn.seek(length);
+                    assertEquals(-1, seekableIn.read());
+                } finally {
+                    seekableIn.close();
+                }
+            }
+        } finally {
+            plainFile.delete();
+            legacyEncryptedFile.delete();
+            legacyDecryptedFile.delete();
+            encryptedFile.delete();
+        }
+    }
+
+    protected static AESForFile getLegacyCipher(AESKey aesKey) throws Exception {
+        AESForFile aesCipher = new AESForFile();
+        aesCipher.setMode(Mode.CBC);
+        aesCipher.setPadding(Padding.PKCS5PADDING);
+        aesCipher.setKeySize(KeySize.BITS256);
+        aesCipher.setKey(aesKey.getKey());
+        aesCipher.setInitializationVector(aesKey.getIV());
+        return aesCipher;
+    }
+
+    protected static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+            byte[] b = new byte[1024];
+            int byteRead;
+            while ((byteRead = in.read(b)) != -1) {
+                bout.write(b, 0, byteRead);
+            }
+        } finally {
+            in.close();
+        }
+        return bout.toByteArray();
+    }
+}
@@ -0,0 +1,126 @@
+package updater.patch;
+
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffPatcher;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import updater.util.CommonUtil;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class MappedGDiffPatcherTest {
+
+  protected File tempFile;
+
+  public MappedGDiffPatcherTest() {
+  }
+
+  protected static String getClassName() {
+    return new Object() {
+    }.getClass().getEnclosingClass().getName();
+  }
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    System.out.println("***** " + getClassName() + " *****");
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    System.out.println("******************************\r\n");
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    tempFile = File.createTempFile("MappedGDiffPatcherTest", "");
+  }
+
+  @After
+  public void tearDown() {
+    tempFile.delete();
+  }
+
+  @Test
+  public void testPatch() throws IOException {
+    System.out.println("+++++ testPatch +++++");
+
+    Random random = new Random(0);
+    byte[] source = new byte[300000];
+    random.nextBytes(source);
+
+    // many small copies from all over the source, mixed with new data
+    ByteArrayOutputStream targetOut = new ByteArrayOutputStream();
+    for (int i = 0; i < 2000; i++) {
+      int length = random.nextInt(200) + 1;
+      if (random.nextInt(4) == 0) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        targetOut.write(data);
+      } else {
+        targetOut.write(source, random.nextInt(source.length - length), length);
+      }
+    }
+    // long copy across the windows and long data
+    targetOut.write(source, 1000, 100000);
+    byte[] data = new byte[100000];
+    random.nextBytes(data);
+    targetOut.write(data);
+    byte[] target = targetOut.toByteArray();
+
+    Delta delta = new Delta();
+    delta.setChunkSize(16);
+    byte[] patch = delta.compute(source, target);
+    CommonUtil.writeFile(tempFile, source);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new MappedGDiffPatcher(8192).patch(tempFile, new ByteArrayInputStream(patch), out);
+    assertArrayEquals(new GDiffPatcher().patch(source, patch), out.toByteArray());
+    assertArrayEquals(target, out.toByteArray());
+
+    out = new ByteArrayOutputStream();
+    new MappedGDiffPatcher().patch(tempFile, new ByteArrayInputStream(patch), out);
+    assertArrayEquals(target, out.toByteArray());
+
+    // the source file is unmapped, it can be deleted
+    assertTrue(tempFile.delete());
+  }
+
+  @Test
+  public void testInvalidPatch() throws IOException {
+    System.out.println("+++++ testInvalidPatch +++++");
+
+    CommonUtil.writeFile(tempFile, new byte[]{1, 2, 3, 4, 5});
+
+    // magic string
+    try {
+      new MappedGDiffPatcher().patch(tempFile, new ByteArrayInputStream(new byte[]{(byte) 0xd1, (byte) 0xff, (byte) 0xd1, (byte) 0xff, 0x03, 0}), new ByteArrayOutputStream());
+      fail("IOException expected");
+    } catch (IOException ex) {
+    }
+
+    // copy beyond the source
+    try {
+      new MappedGDiffPatcher().patch(tempFile, new ByteArrayInputStream(new byte[]{(byte) 0xd1, (byte) 0xff, (byte) 0xd1, (byte) 0xff, 0x04, (byte) 249, 0, 2, 4, 0}), new ByteArrayOutputStream());
+      fail("EOFException expected");
+    } catch (EOFException ex) {
+    }
+
+    // truncated
+    try {
+      new MappedGDiffPatcher().patch(tempFile, new ByteArrayInputStream(new byte[]{(byte) 0xd1, (byte) 0xff, (byte) 0xd1, (byte) 0xff, 0x04, 10, 1, 2}), new ByteArrayOutputStream());
+      fail("EOFException expected");
+    } catch (EOFException ex) {
+    }
+  }
+}
@@ -2,6 +2,14 @@ package updater.patch;
 
 import updater.concurrent.ConcurrentLock;
 import java.util.List;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import updater.script.Patch.Operation;
+import updater.script.Patch.ValidationFile;
 import java.util.HashMap;
 import updater.crypto.AESKey;
 import java.io.File;
@@ -709,6 +717,42 @@ public class PatchTest {
     }
   }
 
+  @Test
+  public void test5() throws Exception {
+    System.out.println("+++++ test5 +++++");
+
+    File oldFolder = new File(packagePath + File.separator + "test3/1.0");
+    File newFolder = new File(packagePath + File.separator + "test3/software/1.1");
+    File patch = new File(tempDir.getAbsolutePath() + File.separator + "patch");
+    File parallelPatch = new File(tempDir.getAbsolutePath() + File.separator + "patch.parallel");
+    File tempDirForCreatePatch = new File(tempDir.getAbsolutePath() + File.separator + "create_patch");
+    File tempDirForCreateParallelPatch = new File(tempDir.getAbsolutePath() + File.separator + "create_patch_parallel");
+    tempDirForCreatePatch.mkdirs();
+    tempDirForCreateParallelPatch.mkdirs();
+
+    // the patch created with multiple threads should be identical to the one created serially
+    PatchCreator.createPatch(oldFolder, newFolder, tempDirForCreatePatch, patch, -1, "1.0.0", "1.0.1", null, null);
+    PatchCreationOptions parallelOptions = new PatchCreationOptions();
+    parallelOptions.setDiffThreadCount(4);
+    PatchCreator.createPatch(oldFolder, newFolder, tempDirForCreateParallelPatch, parallelPatch, -1, "1.0.0", "1.0.1", null, null, parallelOptions);
+    assertTrue(CommonUtil.compareFile(patch, parallelPatch));
+
+    // modified files exist, so the diffs are really computed and the comparison above is meaningful
+    SeekablePatch seekablePatch = new SeekablePatch(patch, null);
+    int diffedOperationCount = 0;
+    for (Operation operation : seekablePatch.getPatch().getOperations()) {
+      OperationType operationType = OperationType.get(operation.getType());
+      if (operationType == OperationType.PATCH || operationType == OperationType.REPLACE) {
+        diffedOperationCount++;
+      }
+    }
+    seekablePatch.close();
+    assertTrue(diffedOperationCount > 0);
+
+    assertTrue(CommonUtil.truncateFolder(tempDir));
+    tempDir.delete();
+  }
+
 //  @Test
   public void patchingTest() throws Exception {
     System.out.println("+++++ patchingTest +++++");
@@ -925,4 +969,226 @@ public class PatchTest {
     CommonUtil.truncateFolder(unzipToFolder);
     unzipToFolder.delete();
   }
+
+  @Test
+  public void testValidateFiles() throws Exception {
+    System.out.println("+++++ testValidateFiles +++++");
+
+    softwareFolder.mkdirs();
+    new File(softwareFolder, "folder").mkdirs();
+    Random random = new Random(0);
+    List<ValidationFile> validations = new ArrayList<ValidationFile>();
+    validations.add(new ValidationFile("folder", "", -1));
+    for (int i = 0; i < 16; i++) {
+      byte[] content = new byte[random.nextInt(4194304) + 1];
+      random.nextBytes(content);
+      File file = new File(softwareFolder, "file" + i);
+      CommonUtil.writeFile(file, content);
+      validations.add(new ValidationFile(file.getName(), CommonUtil.getSHA256String(file), content.length));
+    }
+
+    final List<String> messages = new ArrayList<String>();
+    Patcher patcher = new Patcher(new File(tempDir.getAbsolutePath() + File.separator + "action.log"));
+    patcher.listener = new PatcherListener() {
+
+      @Override
+      public void patchProgress(int percentage, String message) {
+        messages.add(message);
+      }
+
+      @Override
+      public void patchEnableCancel(boolean enable) {
+      }
+    };
+    patcher.softwareDir = softwareFolder.getAbsolutePath() + File.separator;
+    patcher.setValidationThreadCount(4);
+
+    // all matched, the progress is reported in the order of the validations
+    patcher.validateFiles(validations, 1);
+    assertEquals(validations.size(), messages.size());
+    for (int i = 0, iEnd = validations.size(); i < iEnd; i++) {
+      assertEquals("Validating file: " + validations.get(i).getFilePath(), messages.get(i));
+    }
+
+    // checksum not matched
+    ValidationFile mismatched = validations.get(10);
+    validations.set(10, new ValidationFile(mismatched.getFilePath(), validations.get(11).getFileChecksum(), mismatched.getFileLength()));
+    messages.clear();
+    try {
+      patcher.validateFiles(validations, 1);
+      fail("IOException expected");
+    } catch (IOException ex) {
+      assertEquals(String.format("File checksum incorrect: %1$s", new File(softwareFolder, mismatched.getFilePath()).getAbsolutePath()), ex.getMessage());
+    }
+    assertTrue(messages.size() <= 11);
+
+    // file missed, with single thread
+    validations.set(10, mismatched);
+    validations.add(new ValidationFile("missed", "", 1));
+    patcher.setValidationThreadCount(1);
+    try {
+      patcher.validateFiles(validations, 1);
+      fail("IOException expected");
+    } catch (IOException ex) {
+      assertTrue(ex.getMessage().startsWith("File missed: "));
+    }
+  }
+
+  @Test
+  public void testSeekablePatch() throws Exception {
+    System.out.println("+++++ testSeekablePatch +++++");
+
+    File aesKeyFile = new File(tempDir.getAbsolutePath() + File.separator + "aes.xml");
+    KeyGenerator.generateAES(256, aesKeyFile);
+    AESKey aesKey = AESKey.read(CommonUtil.readFile(aesKeyFile));
+
+    Random random = new Random(0);
+    File oldFolder = new File(tempDir.getAbsolutePath() + File.separator + "old");
+    File newFolder = new File(tempDir.getAbsolutePath() + File.separator + "new");
+    new File(newFolder, "folder").mkdirs();
+    oldFolder.mkdirs();
+    byte[] modified = new byte[200000];
+    random.nextBytes(modified);
+    CommonUtil.writeFile(new File(oldFolder, "modified"), modified);
+    for (int i = 1000; i < 2000; i++) {
+      modified[i] = 0;
+    }
+    CommonUtil.writeFile(new File(newFolder, "modified"), modified);
+    CommonUtil.writeFile(new File(oldFolder, "removed"), "removed");
+    for (String fileName : new String[]{"large", "folder/medium", "small"}) {
+      byte[] content = new byte[fileName.equals("large") ? 300000 : (fileName.equals("small") ? 100 : 70000)];
+      random.nextBytes(content);
+      CommonUtil.writeFile(new File(newFolder, fileName), content);
+    }
+
+    seekablePatchTest(oldFolder, newFolder, Compression.LZMA2, null);
+    seekablePatchTest(oldFolder, newFolder, Compression.LZMA2, aesKey);
+    seekablePatchTest(oldFolder, newFolder, Compression.LZMA2_INDEXED, null);
+    seekablePatchTest(oldFolder, newFolder, Compression.LZMA2_INDEXED, aesKey);
+
+    assertTrue(CommonUtil.truncateFolder(tempDir));
+    tempDir.delete();
+  }
+
+  @Test
+  public void testMoveAndCopy() throws Exception {
+    System.out.println("+++++ testMoveAndCopy +++++");
+
+    File oldFolder = new File(tempDir.getAbsolutePath() + File.separator + "old");
+    File newFolder = new File(tempDir.getAbsolutePath() + File.separator + "new");
+    oldFolder.mkdirs();
+    newFolder.mkdirs();
+    CommonUtil.writeFile(new File(oldFolder, "removed"), "moved content");
+    CommonUtil.writeFile(new File(oldFolder, "kept"), "copied content");
+    CommonUtil.writeFile(new File(newFolder, "kept"), "copied content");
+    CommonUtil.writeFile(new File(newFolder, "renamed"), "moved content");
+    CommonUtil.writeFile(new File(newFolder, "duplicate"), "copied content");
+
+    // move and copy are not used unless requested, old launchers cannot apply them
+    List<Operation> operations = moveAndCopyTest(oldFolder, newFolder, false);
+    for (Operation operation : operations) {
+      OperationType operationType = OperationType.get(operation.getType());
+      assertTrue(operationType != OperationType.MOVE && operationType != OperationType.COPY);
+    }
+
+    operations = moveAndCopyTest(oldFolder, newFolder, true);
+    int moveCount = 0, copyCount = 0;
+    for (Operation operation : operations) {
+      OperationType operationType = OperationType.get(operation.getType());
+      if (operationType == OperationType.MOVE) {
+        moveCount++;
+        assertEquals("renamed", operation.getDestFilePath());
+        assertEquals("removed", operation.getSourceFilePath());
+      } else if (operationType == OperationType.COPY) {
+        copyCount++;
+        assertEquals("duplicate", operation.getDestFilePath());
+        assertEquals("kept", operation.getSourceFilePath());
+      }
+    }
+    assertEquals(1, moveCount);
+    assertEquals(1, copyCount);
+
+    assertTrue(CommonUtil.truncateFolder(tempDir));
+    tempDir.delete();
+  }
+
+  protected List<Operation> moveAndCopyTest(File oldFolder, File newFolder, boolean detectMoveAndCopy) throws Exception {
+    File patch = new File(tempDir.getAbsolutePath() + File.separator + "patch");
+    File tempDirForCreatePatch = new File(tempDir.getAbsolutePath() + File.separator + "create_patch");
+    tempDirForCreatePatch.mkdirs();
+    PatchCreationOptions options = new PatchCreationOptions();
+    options.setDetectMoveAndCopy(detectMoveAndCopy);
+    PatchCreator.createPatch(oldFolder, newFolder, tempDirForCreatePatch, patch, -1, "1.0.0", "1.0.1", null, null, options);
+
+    SeekablePatch seekablePatch = new SeekablePatch(patch, null);
+    List<Operation> operations = seekablePatch.getPatch().getOperations();
+    seekablePatch.close();
+
+    assertTrue(CommonUtil.truncateFolder(tempDirForCreatePatch));
+    patch.delete();
+    return operations;
+  }
+
+  /**
+   * Create the patch, read the content of the operations in reverse order 
+   * through {@link SeekablePatch} and {@link PatchExtractor}, and check them 
+   * against the files.
+   */
+  protected void seekablePatchTest(File oldFolder, File newFolder, Compression compression, AESKey aesKey) throws Exception {
+    System.out.println("+ " + compression + (aesKey != null ? ", encrypted" : ""));
+
+    File patch = new File(tempDir.getAbsolutePath() + File.separator + "patch");
+    File tempDirForCreatePatch = new File(tempDir.getAbsolutePath() + File.separator + "create_patch");
+    File tempFileForPatchEncryption = new File(tempDir.getAbsolutePath() + File.separator + "patch.encrypted");
+    File extracted = new File(tempDir.getAbsolutePath() + File.separator + "extracted");
+    tempDirForCreatePatch.mkdirs();
+    PatchCreationOptions options = new PatchCreationOptions();
+    options.setCompression(compression);
+    options.setBlockSize(65536);
+    PatchCreator.createPatch(oldFolder, newFolder, tempDirForCreatePatch, patch, -1, "1.0.0", "1.0.1", aesKey, tempFileForPatchEncryption, options);
+
+    SeekablePatch seekablePatch = new SeekablePatch(patch, aesKey);
+    try {
+      assertEquals(compression == Compression.LZMA2_INDEXED, seekablePatch.isIndexed());
+
+      List<Operation> operations = new ArrayList<Operation>(seekablePatch.getPatch().getOperations());
+      Collections.reverse(operations);
+      int contentCount = 0;
+      for (Operation operation : operations) {
+        if (operation.getPatchLength() <= 0) {
+          continue;
+        }
+        contentCount++;
+
+        PatchReadUtil.readToFile(extracted, seekablePatch.getInputStream(operation), operation.getPatchLength());
+        assertOperationContent(oldFolder, newFolder, operation, extracted);
+
+        PatchExtractor.extractOperation(patch, aesKey, operation.getId(), extracted);
+        assertOperationContent(oldFolder, newFolder, operation, extracted);
+      }
+      assertEquals(4, contentCount);
+    } finally {
+      seekablePatch.close();
+    }
+
+    assertTrue(CommonUtil.truncateFolder(tempDirForCreatePatch));
+    patch.delete();
+    extracted.delete();
+  }
+
+  protected static void assertOperationContent(File oldFolder, File newFolder, Operation operation, File content) throws IOException {
+    File newFile = new File(newFolder, operation.getDestFilePath());
+    if (OperationType.get(operation.getType()) == OperationType.PATCH) {
+      ByteArrayOutputStream patchedOut = new ByteArrayOutputStream();
+      FileInputStream diffIn = new FileInputStream(content);
+      try {
+        new MappedGDiffPatcher().patch(new File(oldFolder, operation.getDestFilePath()), diffIn, patchedOut);
+      } finally {
+        diffIn.close();
+      }
+      assertArrayEquals(CommonUtil.readFile(newFile), patchedOut.toByteArray());
+    } else {
+      assertArrayEquals(CommonUtil.readFile(newFile), CommonUtil.readFile(content));
+    }
+  }
 }
@@ -1,6 +1,8 @@
 package updater.script;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.xml.transform.TransformerException;
 import updater.TestCommon;
 import java.io.File;
@@ -93,6 +95,42 @@ public class ScriptTest {
         assertArrayEquals(new String(catalogScript.output(), "UTF-8"), catalog2Data, catalogScript.output());
     }
 
+    @Test
+    public void catalogMergeTest() throws IOException, InvalidFormatException, TransformerException {
+        System.out.println("+++++ catalogMergeTest +++++");
+
+        byte[] catalog1Data = CommonUtil.readFile(new File(packagePath + "ScriptTest_catalog1.xml"));
+        assertNotNull(catalog1Data);
+
+        Catalog catalog = Catalog.read(catalog1Data);
+        assertEquals(-1, catalog.getRevision());
+        catalog.setRevision(1);
+        catalog = Catalog.read(catalog.output());
+        assertEquals(1, catalog.getRevision());
+        assertEquals(2, catalog.getPatchs().size());
+
+        // the delta contains a patch already exist and a new patch
+        List<Patch> deltaPatches = new ArrayList<Patch>();
+        deltaPatches.add(Catalog.read(catalog1Data).getPatchs().get(1));
+        Patch newPatch = Catalog.read(catalog1Data).getPatchs().get(1);
+        newPatch.setId(3);
+        deltaPatches.add(newPatch);
+        Catalog delta = Catalog.read(new Catalog(2, deltaPatches).output());
+        assertEquals(2, delta.getRevision());
+
+        assertEquals(1, catalog.merge(delta));
+        assertEquals(2, catalog.getRevision());
+        List<Patch> patches = catalog.getPatchs();
+        assertEquals(3, patches.size());
+        assertEquals(1, patches.get(0).getId());
+        assertEquals(2, patches.get(1).getId());
+        assertEquals(3, patches.get(2).getId());
+
+        // merge again changes nothing
+        assertEquals(0, catalog.merge(delta));
+        assertEquals(3, catalog.getPatchs().size());
+    }
+
     @Test
     public void patchTest() throws IOException, InvalidFormatException, TransformerException {
         System.out.println("+++++ patchTest +++++");
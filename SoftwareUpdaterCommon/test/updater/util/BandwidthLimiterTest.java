@@ -0,0 +1,125 @@
+package updater.util;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class BandwidthLimiterTest {
+
+    public BandwidthLimiterTest() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testAcquire() throws InterruptedException {
+        System.out.println("+++++ testAcquire +++++");
+
+        // unlimited
+        BandwidthLimiter limiter = new BandwidthLimiter(0, false);
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 1024; i++) {
+            limiter.acquire(65536);
+        }
+        assertTrue(System.currentTimeMillis() - startTime < 500);
+
+        // 1.5 MiB at 1 MiB/s, the first 256 KiB is the burst
+        limiter = new BandwidthLimiter(1048576, false);
+        Thread.sleep(300);
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < 24; i++) {
+            limiter.acquire(65536);
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        assertTrue("elapsed: " + elapsed, elapsed >= 1150 && elapsed < 2500);
+    }
+
+    @Test
+    public void testBackground() {
+        System.out.println("+++++ testBackground +++++");
+
+        BandwidthLimiter limiter = new BandwidthLimiter(1048576, true);
+        long time = System.nanoTime();
+
+        // low delay, not restricted
+        for (int i = 0; i < 10; i++) {
+            time = report(limiter, time, 1000000L);
+        }
+        assertEquals(1048576, limiter.getRate());
+
+        // delay rises, back off from the observed throughput
+        for (int i = 0; i < 3; i++) {
+            time = report(limiter, time, 200000000L);
+        }
+        long rate = limiter.getRate();
+        assertTrue("rate: " + rate, rate <= 524288);
+        for (int i = 0; i < 20; i++) {
+            time = report(limiter, time, 200000000L);
+        }
+        assertEquals(BandwidthLimiter.MINIMUM_RATE, limiter.getRate());
+
+        // delay drops, increase back to the limit gradually
+        time = report(limiter, time, 1000000L);
+        time = report(limiter, time, 1000000L);
+        rate = limiter.getRate();
+        for (int i = 0; i < 10; i++) {
+            time = report(limiter, time, 1000000L);
+            assertTrue(limiter.getRate() >= rate);
+            rate = limiter.getRate();
+        }
+        assertTrue(rate > BandwidthLimiter.MINIMUM_RATE && rate < 1048576);
+        for (int i = 0; i < 100; i++) {
+            time = report(limiter, time, 1000000L);
+        }
+        assertEquals(1048576, limiter.getRate());
+
+        // no effect in normal priority
+        limiter.setBackground(false);
+        for (int i = 0; i < 10; i++) {
+            time = report(limiter, time, 200000000L);
+        }
+        assertEquals(1048576, limiter.getRate());
+    }
+
+    /**
+     * Report the delay within one adjust interval, with the throughput of the 
+     * current rate.
+     */
+    protected static long report(BandwidthLimiter limiter, long time, long delay) {
+        for (int j = 0; j < 4; j++) {
+            time += BandwidthLimiter.ADJUST_INTERVAL / 4;
+            synchronized (limiter) {
+                limiter.bytesSinceAdjust += limiter.getRate() / 8;
+            }
+            limiter.reportDelay(delay, time);
+        }
+        return time;
+    }
+}
@@ -8,6 +8,7 @@ import java.security.interfaces.RSAPublicKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.math.BigInteger;
 import java.security.KeyFactory;
+import java.security.SignatureException;
 import java.security.spec.RSAPrivateKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.logging.Level;
@@ -92,4 +93,39 @@ public class CommonUtilTest {
             Logger.getLogger(CommonUtilTest.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+
+    /**
+     * Test of signCatalog & verifySignedCatalog method, of class Util.
+     */
+    @Test
+    public void testSignCatalog() throws Exception {
+        System.out.println("+++++ testSignCatalog +++++");
+
+        BigInteger mod = new BigInteger(TestCommon.modulusString, 16);
+
+        RSAPrivateKeySpec privateKeySpec = new RSAPrivateKeySpec(mod, new BigInteger(TestCommon.privateExponentString, 16));
+        RSAPublicKeySpec publicKeySpec = new RSAPublicKeySpec(mod, new BigInteger(TestCommon.publicExponentString, 16));
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        RSAPrivateKey privateKey = (RSAPrivateKey) keyFactory.generatePrivate(privateKeySpec);
+        RSAPublicKey publicKey = (RSAPublicKey) keyFactory.generatePublic(publicKeySpec);
+
+        byte[] testData = CommonUtil.readFile(new File(packagePath + "UtilTest_rsaEnDecrypt.ico"));
+
+        byte[] signed = CommonUtil.signCatalog(privateKey, testData);
+        assertNotNull(signed);
+        assertTrue(CommonUtil.isSignedCatalog(signed));
+        assertArrayEquals(testData, CommonUtil.verifySignedCatalog(publicKey, signed));
+
+        // the RSA encrypted catalog is not a signed catalog
+        int blockSize = mod.bitLength() / 8;
+        assertFalse(CommonUtil.isSignedCatalog(CommonUtil.rsaEncrypt(privateKey, blockSize, blockSize - 11, testData)));
+
+        // tampered
+        signed[signed.length - 1] ^= 1;
+        try {
+            CommonUtil.verifySignedCatalog(publicKey, signed);
+            fail("the tampered catalog should not pass the verification");
+        } catch (SignatureException ex) {
+        }
+    }
 }
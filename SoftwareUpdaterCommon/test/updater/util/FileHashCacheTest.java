@@ -0,0 +1,116 @@
+package updater.util;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class FileHashCacheTest {
+
+    protected File tempDir;
+
+    public FileHashCacheTest() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = File.createTempFile("FileHashCacheTest", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        CommonUtil.truncateFolder(tempDir);
+        tempDir.delete();
+    }
+
+    @Test
+    public void test() throws IOException {
+        System.out.println("+++++ test +++++");
+
+        File file = new File(tempDir, "file");
+        CommonUtil.writeFile(file, "content 1");
+        long lastModified = System.currentTimeMillis() - 60000;
+        file.setLastModified(lastModified);
+        lastModified = file.lastModified();
+        String sha256 = CommonUtil.getSHA256String(file);
+
+        File cacheFile = new File(tempDir, "cache");
+        FileHashCache instance = new FileHashCache(cacheFile);
+        assertEquals(sha256, instance.getSHA256String(file));
+        instance.save();
+        assertTrue(cacheFile.isFile());
+
+        // same size and last modified time, the cached checksum is used
+        CommonUtil.writeFile(file, "content 2");
+        file.setLastModified(lastModified);
+        instance = new FileHashCache(cacheFile);
+        assertEquals(sha256, instance.getSHA256String(file));
+
+        // last modified time changed, the checksum is generated again
+        file.setLastModified(lastModified + 10000);
+        assertEquals(CommonUtil.getSHA256String(file), instance.getSHA256String(file));
+        assertFalse(sha256.equals(instance.getSHA256String(file)));
+
+        // compare
+        File file2 = new File(tempDir, "file2");
+        CommonUtil.writeFile(file2, "content 2");
+        File file3 = new File(tempDir, "file3");
+        CommonUtil.writeFile(file3, "content 3");
+        assertTrue(instance.compareFile(file, file2));
+        assertFalse(instance.compareFile(file, file3));
+    }
+
+    @Test
+    public void testPutAndRename() throws IOException {
+        System.out.println("+++++ testPutAndRename +++++");
+
+        File file = new File(tempDir, "file");
+        CommonUtil.writeFile(file, "content 1");
+        String sha256 = CommonUtil.getSHA256String(file);
+
+        FileHashCache instance = new FileHashCache();
+        assertNull(instance.get(file));
+        instance.put(file, sha256);
+        assertEquals(sha256, instance.get(file));
+
+        // the checksum is carried to the new path
+        File renamedFile = new File(tempDir, "renamed");
+        assertTrue(file.renameTo(renamedFile));
+        instance.rename(file, renamedFile);
+        assertNull(instance.get(file));
+        assertEquals(sha256, instance.get(renamedFile));
+
+        // changed file is not served from the cache
+        CommonUtil.writeFile(renamedFile, "content 22");
+        assertNull(instance.get(renamedFile));
+
+        instance.put(renamedFile, sha256);
+        instance.clear();
+        assertNull(instance.get(renamedFile));
+        renamedFile.delete();
+    }
+}
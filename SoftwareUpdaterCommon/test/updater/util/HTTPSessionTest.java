@@ -0,0 +1,144 @@
+package updater.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class HTTPSessionTest {
+
+    protected static byte[] content;
+    protected static String contentSHA256;
+    protected HttpServer server;
+    /**
+     * The remote address of every connection the server accepted.
+     */
+    protected Set<String> connections;
+
+    public HTTPSessionTest() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+
+        content = new byte[300000];
+        new Random(0).nextBytes(content);
+        contentSHA256 = CommonUtil.byteArrayToHexString(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        connections = Collections.synchronizedSet(new HashSet<String>());
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 10);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress().toString());
+
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {
+                }
+                in.close();
+
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(content);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    protected URL getURL(String path) throws MalformedURLException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void testKeepAlive() throws IOException {
+        System.out.println("+++++ testKeepAlive +++++");
+
+        HTTPSession session = new HTTPSession(true);
+        File file = File.createTempFile("HTTPSessionTest", ".patch");
+        try {
+            for (int i = 0; i < 5; i++) {
+                // catalog
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                HTTPDownloader downloader = new HTTPDownloader();
+                downloader.setTransport(session);
+                downloader.setOutputTo(out);
+                assertEquals(DownloadResult.SUCCEED, downloader.download(null, getURL("/catalog.xml"), null, -1, 0, 0));
+                assertArrayEquals(content, out.toByteArray());
+
+                // patch
+                file.delete();
+                downloader = new HTTPDownloader();
+                downloader.setTransport(session);
+                downloader.setResumeFile(file);
+                assertEquals(DownloadResult.SUCCEED, downloader.download(null, getURL("/1.patch"), contentSHA256, content.length, 0, 0));
+                assertArrayEquals(content, CommonUtil.readFile(file));
+            }
+        } finally {
+            file.delete();
+        }
+
+        assertEquals(1, connections.size());
+    }
+
+    @Test
+    public void testConnectionClose() throws IOException {
+        System.out.println("+++++ testConnectionClose +++++");
+
+        HTTPSession session = new HTTPSession(false);
+        for (int i = 0; i < 5; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HTTPDownloader downloader = new HTTPDownloader();
+            downloader.setTransport(session);
+            downloader.setOutputTo(out);
+            assertEquals(DownloadResult.SUCCEED, downloader.download(null, getURL("/catalog.xml"), null, -1, 0, 0));
+            assertArrayEquals(content, out.toByteArray());
+        }
+
+        assertEquals(5, connections.size());
+    }
+}
@@ -0,0 +1,134 @@
+package updater.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Microbenchmark of the pause and interrupt check overhead of
+ * {@link InterruptibleInputStream}, compared with the check on every call
+ * done before {@link InterruptibleSupport}.
+ * <p>This is not part of the test suite, run it with
+ * {@code java updater.util.InterruptibleInputStreamBenchmark [MiB]}.</p>
+ *
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class InterruptibleInputStreamBenchmark {
+
+    protected static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int length = (args.length > 0 ? Integer.parseInt(args[0]) : 16) * 1024 * 1024;
+
+        long legacyTime = Long.MAX_VALUE, time = Long.MAX_VALUE;
+        long legacyBulkTime = Long.MAX_VALUE, bulkTime = Long.MAX_VALUE;
+        // keep the best of several rounds, the first rounds are warm-up for the JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            readByteByByte(new LegacyInterruptibleInputStream(new ZeroInputStream(length)));
+            legacyTime = Math.min(legacyTime, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            readByteByByte(new InterruptibleInputStream(new ZeroInputStream(length)));
+            time = Math.min(time, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            readBulk(new LegacyInterruptibleInputStream(new ZeroInputStream(length)));
+            legacyBulkTime = Math.min(legacyBulkTime, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            readBulk(new InterruptibleInputStream(new ZeroInputStream(length)));
+            bulkTime = Math.min(bulkTime, System.nanoTime() - startTime);
+        }
+
+        System.out.println("Bytes read per run: " + length);
+        System.out.println("Single byte read, check every call (ns/byte): " + String.format("%.2f", (double) legacyTime / length));
+        System.out.println("Single byte read, periodic check (ns/byte): " + String.format("%.2f", (double) time / length));
+        System.out.println("4 KiB bulk read, check every call (ns/byte): " + String.format("%.3f", (double) legacyBulkTime / length));
+        System.out.println("4 KiB bulk read, periodic check (ns/byte): " + String.format("%.3f", (double) bulkTime / length));
+    }
+
+    protected static void readByteByByte(InputStream in) throws IOException {
+        while (in.read() != -1) {
+        }
+    }
+
+    protected static void readBulk(InputStream in) throws IOException {
+        byte[] b = new byte[4096];
+        while (in.read(b, 0, b.length) != -1) {
+        }
+    }
+
+    /**
+     * Stream of zeros without locking, so the time measured is dominated by
+     * the checks.
+     */
+    protected static class ZeroInputStream extends InputStream {
+
+        protected int remaining;
+
+        protected ZeroInputStream(int length) {
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int byteRead = Math.min(len, remaining);
+            remaining -= byteRead;
+            return byteRead;
+        }
+    }
+
+    /**
+     * Check pause and interrupt with locking on every call, as it was done
+     * before {@link InterruptibleSupport}.
+     */
+    protected static class LegacyInterruptibleInputStream extends FilterInputStream {
+
+        protected boolean pause;
+
+        protected LegacyInterruptibleInputStream(InputStream in) {
+            super(in);
+            pause = false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            check();
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            check();
+            return in.read(b, off, len);
+        }
+
+        protected void check() {
+            synchronized (this) {
+                while (pause) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            if (Thread.interrupted()) {
+                throw new RuntimeException(new InterruptedException());
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package updater.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class InterruptibleInputStreamTest {
+
+    public InterruptibleInputStreamTest() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testInterrupt() throws IOException {
+        System.out.println("+++++ testInterrupt +++++");
+
+        final AtomicBoolean taskRun = new AtomicBoolean(false);
+        InterruptibleInputStream in = new InterruptibleInputStream(new ByteArrayInputStream(new byte[InterruptibleSupport.CHECK_INTERVAL * 4]));
+        in.addInterruptedTask(new Runnable() {
+
+            @Override
+            public void run() {
+                taskRun.set(true);
+            }
+        });
+
+        // bulk read, checked on every call
+        Thread.currentThread().interrupt();
+        try {
+            in.read(new byte[16]);
+            fail("RuntimeException expected");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getCause() instanceof InterruptedException);
+        }
+        assertTrue(taskRun.get());
+        assertFalse(Thread.currentThread().isInterrupted());
+
+        // single byte read, checked within the interval
+        taskRun.set(false);
+        Thread.currentThread().interrupt();
+        try {
+            for (int i = 0; i <= InterruptibleSupport.CHECK_INTERVAL; i++) {
+                in.read();
+            }
+            fail("RuntimeException expected");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getCause() instanceof InterruptedException);
+        }
+        assertTrue(taskRun.get());
+    }
+
+    @Test
+    public void testPause() throws Exception {
+        System.out.println("+++++ testPause +++++");
+
+        final InterruptibleInputStream in = new InterruptibleInputStream(new ByteArrayInputStream(new byte[16]));
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    in.read();
+                    finished.set(true);
+                } catch (IOException ex) {
+                }
+            }
+        });
+
+        in.pause(true);
+        thread.start();
+        thread.join(200);
+        assertFalse(finished.get());
+
+        in.pause(false);
+        thread.join(5000);
+        assertTrue(finished.get());
+    }
+}
@@ -0,0 +1,137 @@
+package updater.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class ReadAheadInputStreamTest {
+
+    public ReadAheadInputStreamTest() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    protected static byte[] readFully(InputStream in, int readSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[readSize];
+        int byteRead;
+        while ((byteRead = in.read(b)) != -1) {
+            out.write(b, 0, byteRead);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        System.out.println("+++++ testRead +++++");
+
+        byte[] content = new byte[1000000];
+        new Random(0).nextBytes(content);
+
+        // more data than the ring can hold, read size not aligned with the buffer size
+        ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(content), -1, 3, 4096);
+        assertEquals(content[0] & 0xff, in.read());
+        assertEquals(999, in.skip(999));
+        byte[] result = readFully(in, 1000);
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, content.length), result);
+        assertEquals(-1, in.read());
+        in.close();
+
+        // limited, the underlying stream can be used again after detached
+        ByteArrayInputStream byteIn = new ByteArrayInputStream(content);
+        in = new ReadAheadInputStream(byteIn, 10000, 2, 4096);
+        assertArrayEquals(Arrays.copyOfRange(content, 0, 10000), readFully(in, 3000));
+        in.detach();
+        assertEquals(content[10000] & 0xff, byteIn.read());
+
+        // empty
+        in = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        System.out.println("+++++ testFailure +++++");
+
+        final byte[] content = new byte[10000];
+        new Random(0).nextBytes(content);
+
+        // the data read before the failure is returned first
+        ReadAheadInputStream in = new ReadAheadInputStream(new InputStream() {
+
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= content.length) {
+                    throw new IOException("failure");
+                }
+                int length = Math.min(len, content.length - position);
+                System.arraycopy(content, position, b, off, length);
+                position += length;
+                return length;
+            }
+        }, -1, 4, 4096);
+        byte[] b = new byte[content.length];
+        int offset = 0;
+        while (offset < b.length) {
+            offset += in.read(b, offset, b.length - offset);
+        }
+        assertArrayEquals(content, b);
+        try {
+            in.read();
+            fail("IOException expected");
+        } catch (IOException ex) {
+            assertEquals("failure", ex.getMessage());
+        }
+        in.close();
+
+        // closed
+        in = new ReadAheadInputStream(new ByteArrayInputStream(content));
+        in.close();
+        try {
+            in.read();
+            fail("IOException expected");
+        } catch (IOException ex) {
+        }
+    }
+}
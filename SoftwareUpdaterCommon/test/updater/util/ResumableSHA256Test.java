@@ -0,0 +1,79 @@
+package updater.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Chan Wai Shing <cws1989@gmail.com>
+ */
+public class ResumableSHA256Test {
+
+    public ResumableSHA256Test() {
+    }
+
+    protected static String getClassName() {
+        return new Object() {
+        }.getClass().getEnclosingClass().getName();
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        System.out.println("***** " + getClassName() + " *****");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        System.out.println("******************************\r\n");
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void test() throws NoSuchAlgorithmException {
+        System.out.println("+++++ test +++++");
+
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", CommonUtil.byteArrayToHexString(new ResumableSHA256().digest()));
+
+        Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            byte[] content = new byte[random.nextInt(10000)];
+            random.nextBytes(content);
+
+            // update in random sizes, save and restore the state whenever possible
+            ResumableSHA256 digest = new ResumableSHA256();
+            int pos = 0;
+            while (pos < content.length) {
+                int length = Math.min(content.length - pos, random.nextInt(300));
+                digest.update(content, pos, length);
+                pos += length;
+                if (digest.getLength() % ResumableSHA256.BLOCK_SIZE == 0) {
+                    digest = ResumableSHA256.fromState(digest.getLength(), digest.getState());
+                }
+            }
+
+            assertEquals(content.length, digest.getLength());
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content), digest.digest());
+        }
+
+        ResumableSHA256 digest = new ResumableSHA256();
+        digest.update(new byte[10], 0, 10);
+        try {
+            digest.getState();
+            fail("state should not be available when the length is not a multiple of the block size");
+        } catch (IllegalStateException ex) {
+        }
+    }
+}
@@ -25,7 +25,13 @@ linkFile src/updater/concurrent/ConcurrentLock.java
 linkFile src/updater/concurrent/LockType.java
 linkFile src/updater/concurrent/LockUtil.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/crypto"
+linkFile src/updater/crypto/AESEngine.java
+linkFile src/updater/crypto/AESForFileCipherBackend.java
+linkFile src/updater/crypto/AESInputStream.java
 linkFile src/updater/crypto/AESKey.java
+linkFile src/updater/crypto/AESOutputStream.java
+linkFile src/updater/crypto/CipherBackend.java
+linkFile src/updater/crypto/SeekableDecryptInputStream.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/gui"
 linkFile src/updater/gui/JTitledPanel.java
 linkFile src/updater/gui/UpdaterWindow.java
@@ -35,6 +41,7 @@ linkFile src/updater/script/InvalidFormatException.java
 linkFile src/updater/script/Patch.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/patch"
 linkFile src/updater/patch/Compression.java
+linkFile src/updater/patch/MappedGDiffPatcher.java
 linkFile src/updater/patch/OperationType.java
 linkFile src/updater/patch/PatchReadUtil.java
 linkFile src/updater/patch/PatchRecord.java
@@ -44,13 +51,25 @@ linkFile src/updater/patch/LogWriter.java
 linkFile src/updater/patch/Patcher.java
 linkFile src/updater/patch/PatcherListener.java
 linkFile src/updater/patch/ReplacementRecord.java
+linkFile src/updater/patch/SeekablePatch.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/util"
+linkFile src/updater/util/BandwidthLimiter.java
 linkFile src/updater/util/CommonUtil.java
+linkFile src/updater/util/DownloadProgressListener.java
+linkFile src/updater/util/DownloadResult.java
+linkFile src/updater/util/FileHashCache.java
 linkFile src/updater/util/GetClientScriptResult.java
+linkFile src/updater/util/HTTPDownloader.java
+linkFile src/updater/util/HTTPSession.java
+linkFile src/updater/util/HTTPTransport.java
 linkFile src/updater/util/Interruptible.java
 linkFile src/updater/util/InterruptibleInputStream.java
 linkFile src/updater/util/InterruptibleOutputStream.java
+linkFile src/updater/util/InterruptibleSeekableFileInputStream.java
+linkFile src/updater/util/InterruptibleSupport.java
 linkFile src/updater/util/Pausable.java
+linkFile src/updater/util/ReadAheadInputStream.java
+linkFile src/updater/util/ResumableSHA256.java
 linkFile src/updater/util/SeekableFile.java
 linkFile src/updater/util/StreamRedirect.java
 linkFile src/updater/util/XMLUtil.java
@@ -67,9 +86,15 @@ linkDir src/watne
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/concurrent"
 linkFile src/updater/concurrent/ConcurrentLock.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/crypto"
+linkFile src/updater/crypto/AESEngine.java
+linkFile src/updater/crypto/AESForFileCipherBackend.java
+linkFile src/updater/crypto/AESInputStream.java
 linkFile src/updater/crypto/AESKey.java
+linkFile src/updater/crypto/AESOutputStream.java
+linkFile src/updater/crypto/CipherBackend.java
 linkFile src/updater/crypto/KeyGenerator.java
 linkFile src/updater/crypto/RSAKey.java
+linkFile src/updater/crypto/SeekableDecryptInputStream.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/script"
 linkFile src/updater/script/Catalog.java
 linkFile src/updater/script/Client.java
@@ -77,7 +102,9 @@ linkFile src/updater/script/InvalidFormatException.java
 linkFile src/updater/script/Patch.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/patch"
 linkFile src/updater/patch/Compression.java
+linkFile src/updater/patch/MappedGDiffPatcher.java
 linkFile src/updater/patch/OperationType.java
+linkFile src/updater/patch/PatchCreationOptions.java
 linkFile src/updater/patch/PatchCreator.java
 linkFile src/updater/patch/PatchExtractor.java
 linkFile src/updater/patch/PatchReadUtil.java
@@ -90,13 +117,20 @@ linkFile src/updater/patch/PatchPacker.java
 linkFile src/updater/patch/Patcher.java
 linkFile src/updater/patch/PatcherListener.java
 linkFile src/updater/patch/ReplacementRecord.java
+linkFile src/updater/patch/SeekablePatch.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/util"
 linkFile src/updater/util/CommonUtil.java
+linkFile src/updater/util/FileHashCache.java
+linkFile src/updater/util/FileManifest.java
 linkFile src/updater/util/GetClientScriptResult.java
 linkFile src/updater/util/Interruptible.java
 linkFile src/updater/util/InterruptibleInputStream.java
 linkFile src/updater/util/InterruptibleOutputStream.java
+linkFile src/updater/util/InterruptibleSeekableFileInputStream.java
+linkFile src/updater/util/InterruptibleSupport.java
+linkFile src/updater/util/ParallelXZOutputStream.java
 linkFile src/updater/util/Pausable.java
+linkFile src/updater/util/ReadAheadInputStream.java
 linkFile src/updater/util/SeekableFile.java
 linkFile src/updater/util/XMLUtil.java
 mkdir -p "$SOFTWARE_DIRECTORY/test/updater"
@@ -118,14 +152,18 @@ linkFile src/updater/script/Client.java
 linkFile src/updater/script/InvalidFormatException.java
 linkFile src/updater/script/Patch.java
 mkdir -p "$SOFTWARE_DIRECTORY/src/updater/util"
+linkFile src/updater/util/BandwidthLimiter.java
 linkFile src/updater/util/CommonUtil.java
 linkFile src/updater/util/GetClientScriptResult.java
 linkFile src/updater/util/DownloadProgressListener.java
 linkFile src/updater/util/DownloadProgressUtil.java
 linkFile src/updater/util/DownloadResult.java
 linkFile src/updater/util/HTTPDownloader.java
+linkFile src/updater/util/HTTPSession.java
+linkFile src/updater/util/HTTPTransport.java
 linkFile src/updater/util/Interruptible.java
 linkFile src/updater/util/Pausable.java
+linkFile src/updater/util/ResumableSHA256.java
 linkFile src/updater/util/XMLUtil.java
 mkdir -p "$SOFTWARE_DIRECTORY/test/updater"
 linkFile test/updater/TestCommon.java
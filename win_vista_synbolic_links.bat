@@ -14,6 +14,9 @@ call:linkFile src\updater\concurrent\ConcurrentLock.java
 call:linkFile src\updater\concurrent\LockType.java
 call:linkFile src\updater\concurrent\LockUtil.java
 mkdir "%softwareDirectory%\src\updater\crypto"
+call:linkFile src\updater\crypto\AESEngine.java
+call:linkFile src\updater\crypto\AESForFileCipherBackend.java
+call:linkFile src\updater\crypto\AESInputStream.java
 call:linkFile src\updater\crypto\AESKey.java
 mkdir "%softwareDirectory%\src\updater\gui"
 call:linkFile src\updater\gui\JTitledPanel.java
@@ -24,6 +27,7 @@ call:linkFile src\updater\script\InvalidFormatException.java
 call:linkFile src\updater\script\Patch.java
 mkdir "%softwareDirectory%\src\updater\patch"
 call:linkFile src\updater\patch\Compression.java
+call:linkFile src\updater\patch\MappedGDiffPatcher.java
 call:linkFile src\updater\patch\OperationType.java
 call:linkFile src\updater\patch\PatchReadUtil.java
 call:linkFile src\updater\patch\PatchRecord.java
@@ -39,7 +43,10 @@ call:linkFile src\updater\util\GetClientScriptResult.java
 call:linkFile src\updater\util\Interruptible.java
 call:linkFile src\updater\util\InterruptibleInputStream.java
 call:linkFile src\updater\util\InterruptibleOutputStream.java
+call:linkFile src\updater\util\InterruptibleSeekableFileInputStream.java
+call:linkFile src\updater\util\InterruptibleSupport.java
 call:linkFile src\updater\util\Pausable.java
+call:linkFile src\updater\util\ReadAheadInputStream.java
 call:linkFile src\updater\util\SeekableFile.java
 call:linkFile src\updater\util\StreamRedirect.java
 call:linkFile src\updater\util\XMLUtil.java
@@ -56,9 +63,15 @@ call:linkDir src\watne
 mkdir "%softwareDirectory%\src\updater\concurrent"
 call:linkFile src\updater\concurrent\ConcurrentLock.java
 mkdir "%softwareDirectory%\src\updater\crypto"
+call:linkFile src\updater\crypto\AESEngine.java
+call:linkFile src\updater\crypto\AESForFileCipherBackend.java
+call:linkFile src\updater\crypto\AESInputStream.java
 call:linkFile src\updater\crypto\AESKey.java
+call:linkFile src\updater\crypto\AESOutputStream.java
+call:linkFile src\updater\crypto\CipherBackend.java
 call:linkFile src\updater\crypto\KeyGenerator.java
 call:linkFile src\updater\crypto\RSAKey.java
+call:linkFile src\updater\crypto\SeekableDecryptInputStream.java
 mkdir "%softwareDirectory%\src\updater\script"
 call:linkFile src\updater\script\Catalog.java
 call:linkFile src\updater\script\Client.java
@@ -66,7 +79,9 @@ call:linkFile src\updater\script\InvalidFormatException.java
 call:linkFile src\updater\script\Patch.java
 mkdir "%softwareDirectory%\src\updater\patch"
 call:linkFile src\updater\patch\Compression.java
+call:linkFile src\updater\patch\MappedGDiffPatcher.java
 call:linkFile src\updater\patch\OperationType.java
+call:linkFile src\updater\patch\PatchCreationOptions.java
 call:linkFile src\updater\patch\PatchCreator.java
 call:linkFile src\updater\patch\PatchExtractor.java
 call:linkFile src\updater\patch\PatchReadUtil.java
@@ -79,13 +94,20 @@ call:linkFile src\updater\patch\PatchPacker.java
 call:linkFile src\updater\patch\Patcher.java
 call:linkFile src\updater\patch\PatcherListener.java
 call:linkFile src\updater\patch\ReplacementRecord.java
+call:linkFile src\updater\patch\SeekablePatch.java
 mkdir "%softwareDirectory%\src\updater\util"
 call:linkFile src\updater\util\CommonUtil.java
+call:linkFile src\updater\util\FileHashCache.java
+call:linkFile src\updater\util\FileManifest.java
 call:linkFile src\updater\util\GetClientScriptResult.java
 call:linkFile src\updater\util\Interruptible.java
 call:linkFile src\updater\util\InterruptibleInputStream.java
 call:linkFile src\updater\util\InterruptibleOutputStream.java
+call:linkFile src\updater\util\InterruptibleSeekableFileInputStream.java
+call:linkFile src\updater\util\InterruptibleSupport.java
+call:linkFile src\updater\util\ParallelXZOutputStream.java
 call:linkFile src\updater\util\Pausable.java
+call:linkFile src\updater\util\ReadAheadInputStream.java
 call:linkFile src\updater\util\SeekableFile.java
 call:linkFile src\updater\util\XMLUtil.java
 mkdir "%softwareDirectory%\test\updater"
@@ -107,14 +129,18 @@ call:linkFile src\updater\script\Client.java
 call:linkFile src\updater\script\InvalidFormatException.java
 call:linkFile src\updater\script\Patch.java
 mkdir "%softwareDirectory%\src\updater\util"
+call:linkFile src\updater\util\BandwidthLimiter.java
 call:linkFile src\updater\util\CommonUtil.java
 call:linkFile src\updater\util\GetClientScriptResult.java
 call:linkFile src\updater\util\DownloadProgressListener.java
 call:linkFile src\updater\util\DownloadProgressUtil.java
 call:linkFile src\updater\util\DownloadResult.java
 call:linkFile src\updater\util\HTTPDownloader.java
+call:linkFile src\updater\util\HTTPSession.java
+call:linkFile src\updater\util\HTTPTransport.java
 call:linkFile src\updater\util\Interruptible.java
 call:linkFile src\updater\util\Pausable.java
+call:linkFile src\updater\util\ResumableSHA256.java
 call:linkFile src\updater\util\XMLUtil.java
 mkdir "%softwareDirectory%\test\updater"
 call:linkFile test\updater\TestCommon.java
@@ -14,6 +14,9 @@ call:copyFile src\updater\concurrent\ConcurrentLock.java
 call:copyFile src\updater\concurrent\LockType.java
 call:copyFile src\updater\concurrent\LockUtil.java
 mkdir "%softwareDirectory%\src\updater\crypto"
+call:copyFile src\updater\crypto\AESEngine.java
+call:copyFile src\updater\crypto\AESForFileCipherBackend.java
+call:copyFile src\updater\crypto\AESInputStream.java
 call:copyFile src\updater\crypto\AESKey.java
 mkdir "%softwareDirectory%\src\updater\gui"
 call:copyFile src\updater\gui\JTitledPanel.java
@@ -24,6 +27,7 @@ call:copyFile src\updater\script\InvalidFormatException.java
 call:copyFile src\updater\script\Patch.java
 mkdir "%softwareDirectory%\src\updater\patch"
 call:copyFile src\updater\patch\Compression.java
+call:copyFile src\updater\patch\MappedGDiffPatcher.java
 call:copyFile src\updater\patch\OperationType.java
 call:copyFile src\updater\patch\PatchReadUtil.java
 call:copyFile src\updater\patch\PatchRecord.java
@@ -39,7 +43,10 @@ call:copyFile src\updater\util\GetClientScriptResult.java
 call:copyFile src\updater\util\Interruptible.java
 call:copyFile src\updater\util\InterruptibleInputStream.java
 call:copyFile src\updater\util\InterruptibleOutputStream.java
+call:copyFile src\updater\util\InterruptibleSeekableFileInputStream.java
+call:copyFile src\updater\util\InterruptibleSupport.java
 call:copyFile src\updater\util\Pausable.java
+call:copyFile src\updater\util\ReadAheadInputStream.java
 call:copyFile src\updater\util\SeekableFile.java
 call:copyFile src\updater\util\StreamRedirect.java
 call:copyFile src\updater\util\XMLUtil.java
@@ -56,9 +63,15 @@ call:copyDir src\watne
 mkdir "%softwareDirectory%\src\updater\concurrent"
 call:copyFile src\updater\concurrent\ConcurrentLock.java
 mkdir "%softwareDirectory%\src\updater\crypto"
+call:copyFile src\updater\crypto\AESEngine.java
+call:copyFile src\updater\crypto\AESForFileCipherBackend.java
+call:copyFile src\updater\crypto\AESInputStream.java
 call:copyFile src\updater\crypto\AESKey.java
+call:copyFile src\updater\crypto\AESOutputStream.java
+call:copyFile src\updater\crypto\CipherBackend.java
 call:copyFile src\updater\crypto\KeyGenerator.java
 call:copyFile src\updater\crypto\RSAKey.java
+call:copyFile src\updater\crypto\SeekableDecryptInputStream.java
 mkdir "%softwareDirectory%\src\updater\script"
 call:copyFile src\updater\script\Catalog.java
 call:copyFile src\updater\script\Client.java
@@ -66,7 +79,9 @@ call:copyFile src\updater\script\InvalidFormatException.java
 call:copyFile src\updater\script\Patch.java
 mkdir "%softwareDirectory%\src\updater\patch"
 call:copyFile src\updater\patch\Compression.java
+call:copyFile src\updater\patch\MappedGDiffPatcher.java
 call:copyFile src\updater\patch\OperationType.java
+call:copyFile src\updater\patch\PatchCreationOptions.java
 call:copyFile src\updater\patch\PatchCreator.java
 call:copyFile src\updater\patch\PatchExtractor.java
 call:copyFile src\updater\patch\PatchReadUtil.java
@@ -79,13 +94,20 @@ call:copyFile src\updater\patch\PatchPacker.java
 call:copyFile src\updater\patch\Patcher.java
 call:copyFile src\updater\patch\PatcherListener.java
 call:copyFile src\updater\patch\ReplacementRecord.java
+call:copyFile src\updater\patch\SeekablePatch.java
 mkdir "%softwareDirectory%\src\updater\util"
 call:copyFile src\updater\util\CommonUtil.java
+call:copyFile src\updater\util\FileHashCache.java
+call:copyFile src\updater\util\FileManifest.java
 call:copyFile src\updater\util\GetClientScriptResult.java
 call:copyFile src\updater\util\Interruptible.java
 call:copyFile src\updater\util\InterruptibleInputStream.java
 call:copyFile src\updater\util\InterruptibleOutputStream.java
+call:copyFile src\updater\util\InterruptibleSeekableFileInputStream.java
+call:copyFile src\updater\util\InterruptibleSupport.java
+call:copyFile src\updater\util\ParallelXZOutputStream.java
 call:copyFile src\updater\util\Pausable.java
+call:copyFile src\updater\util\ReadAheadInputStream.java
 call:copyFile src\updater\util\SeekableFile.java
 call:copyFile src\updater\util\XMLUtil.java
 mkdir "%softwareDirectory%\test\updater"
@@ -107,14 +129,18 @@ call:copyFile src\updater\script\Client.java
 call:copyFile src\updater\script\InvalidFormatException.java
 call:copyFile src\updater\script\Patch.java
 mkdir "%softwareDirectory%\src\updater\util"
+call:copyFile src\updater\util\BandwidthLimiter.java
 call:copyFile src\updater\util\CommonUtil.java
 call:copyFile src\updater\util\GetClientScriptResult.java
 call:copyFile src\updater\util\DownloadProgressListener.java
 call:copyFile src\updater\util\DownloadProgressUtil.java
 call:copyFile src\updater\util\DownloadResult.java
 call:copyFile src\updater\util\HTTPDownloader.java
+call:copyFile src\updater\util\HTTPSession.java
+call:copyFile src\updater\util\HTTPTransport.java
 call:copyFile src\updater\util\Interruptible.java
 call:copyFile src\updater\util\Pausable.java
+call:copyFile src\updater\util\ResumableSHA256.java
 call:copyFile src\updater\util\XMLUtil.java
 mkdir "%softwareDirectory%\test\updater"
 call:copyFile test\updater\TestCommon.java